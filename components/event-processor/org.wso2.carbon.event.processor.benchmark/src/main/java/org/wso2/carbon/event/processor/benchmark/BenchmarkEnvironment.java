@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wso2.carbon.event.processor.benchmark;
+
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.transport.TSocket;
+import org.apache.thrift.transport.TTransport;
+import org.wso2.carbon.event.processor.common.storm.manager.service.StormManagerService;
+import org.wso2.carbon.event.processor.core.internal.storm.manager.StormManagerServer;
+import org.wso2.carbon.event.processor.manager.commons.utils.HostAndPort;
+import org.wso2.carbon.event.processor.manager.core.config.DistributedConfiguration;
+import org.wso2.carbon.event.processor.storm.common.test.util.AnalyticStatDataProvider;
+import org.wso2.carbon.event.processor.storm.common.test.util.DataProvider;
+import org.wso2.carbon.event.processor.storm.common.test.util.SimpleDataProvider;
+import org.wso2.siddhi.query.api.definition.Attribute;
+import org.wso2.siddhi.query.api.definition.StreamDefinition;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+
+/**
+ * Loopback deployment shared by the benchmarks: a Storm manager service acting as the coordinator, a distributed
+ * configuration pointing to it and pre-generated event payloads.
+ */
+final class BenchmarkEnvironment {
+    static final String HOST = "localhost";
+    static final String EXECUTION_PLAN_NAME = "BenchmarkPlan";
+    static final int TENANT_ID = -1234;
+    /**
+     * Number of pre-generated events cycled through by the benchmarks, a power of two.
+     */
+    static final int EVENT_POOL_SIZE = 1024;
+
+    private BenchmarkEnvironment() {
+    }
+
+    /**
+     * Payload schemas, re-using the data providers of the transport tests.
+     */
+    enum Payload {
+        ANALYTIC {
+            @Override
+            StreamDefinition getStreamDefinition() {
+                return StreamDefinition.id("analyticsStats")
+                        .attribute("meta_ipAdd", Attribute.Type.STRING)
+                        .attribute("meta_index", Attribute.Type.LONG)
+                        .attribute("meta_timestamp", Attribute.Type.LONG)
+                        .attribute("meta_nanoTime", Attribute.Type.LONG)
+                        .attribute("userID", Attribute.Type.STRING)
+                        .attribute("searchTerms", Attribute.Type.STRING);
+            }
+
+            @Override
+            DataProvider getDataProvider() {
+                return new AnalyticStatDataProvider();
+            }
+        },
+        SIMPLE {
+            @Override
+            StreamDefinition getStreamDefinition() {
+                return StreamDefinition.id("TestStream")
+                        .attribute("att1", Attribute.Type.INT)
+                        .attribute("att2", Attribute.Type.FLOAT)
+                        .attribute("att3", Attribute.Type.STRING)
+                        .attribute("att4", Attribute.Type.INT);
+            }
+
+            @Override
+            DataProvider getDataProvider() {
+                return new SimpleDataProvider();
+            }
+        };
+
+        abstract StreamDefinition getStreamDefinition();
+
+        abstract DataProvider getDataProvider();
+
+        /**
+         * Generates the events up front, so that the benchmarks do not measure the data providers.
+         */
+        Object[][] generateEvents() {
+            DataProvider dataProvider = getDataProvider();
+            Object[][] events = new Object[EVENT_POOL_SIZE][];
+            for (int i = 0; i < events.length; i++) {
+                events[i] = dataProvider.getData();
+            }
+            return events;
+        }
+    }
+
+    static int findFreePort() throws IOException {
+        ServerSocket socket = new ServerSocket(0);
+        try {
+            return socket.getLocalPort();
+        } finally {
+            socket.close();
+        }
+    }
+
+    /**
+     * Starts a Storm manager service which is the Storm coordinator.
+     */
+    static StormManagerServer startManagerServer(int port) {
+        StormManagerServer managerServer = new StormManagerServer(HOST, port);
+        managerServer.setStormCoordinator(true);
+        return managerServer;
+    }
+
+    /**
+     * @return default distributed configuration with the given manager
+     */
+    static DistributedConfiguration createConfiguration(int managerPort) {
+        DistributedConfiguration configuration = new DistributedConfiguration();
+        configuration.getManagers().add(new HostAndPort(HOST, managerPort));
+        return configuration;
+    }
+
+    /**
+     * Registers a Storm receiver with the manager service, retrying until the service is up.
+     */
+    static void registerStormReceiver(int managerPort, String host, int port) throws Exception {
+        Exception lastError = null;
+        for (int attempt = 0; attempt < 50; attempt++) {
+            TTransport transport = new TSocket(HOST, managerPort);
+            try {
+                transport.open();
+                StormManagerService.Client client = new StormManagerService.Client(new TBinaryProtocol(transport));
+                client.registerStormReceiver(TENANT_ID, EXECUTION_PLAN_NAME, host, port);
+                return;
+            } catch (Exception e) {
+                lastError = e;
+                Thread.sleep(100);
+            } finally {
+                transport.close();
+            }
+        }
+        throw lastError;
+    }
+}
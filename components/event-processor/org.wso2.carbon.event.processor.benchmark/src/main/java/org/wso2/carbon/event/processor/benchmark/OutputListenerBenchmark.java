@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wso2.carbon.event.processor.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.wso2.carbon.event.processor.core.ExecutionPlanConfiguration;
+import org.wso2.carbon.event.processor.core.internal.listener.SiddhiOutputStreamListener;
+import org.wso2.carbon.event.processor.core.internal.storm.SiddhiStormOutputEventListener;
+import org.wso2.carbon.event.processor.core.internal.storm.manager.StormManagerServer;
+import org.wso2.siddhi.core.event.Event;
+import org.wso2.siddhi.query.api.definition.StreamDefinition;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Receiving side of the CEP publisher: SiddhiStormOutputEventListener.receive, which is called by the TCP event
+ * server for each event sent by the event publisher bolts, up to the dispatch queue. The dispatcher thread sends the
+ * events on to an output stream listener which hands them to a blackhole instead of the event stream junction, which
+ * needs a Carbon runtime; the measured time includes blocking on the dispatch queue when the dispatcher falls behind.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+public class OutputListenerBenchmark {
+
+    @Param({"analytic", "simple"})
+    public String payload;
+
+    private StormManagerServer managerServer;
+    private SiddhiStormOutputEventListener outputEventListener;
+    private String streamId;
+    private Object[][] events;
+    private int nextEvent;
+
+    @Setup(Level.Trial)
+    public void setup(Blackhole blackhole) throws Exception {
+        BenchmarkEnvironment.Payload payloadType = BenchmarkEnvironment.Payload.valueOf(payload.toUpperCase());
+        StreamDefinition streamDefinition = payloadType.getStreamDefinition();
+        streamId = streamDefinition.getId();
+        events = payloadType.generateEvents();
+
+        int managerPort = BenchmarkEnvironment.findFreePort();
+        managerServer = BenchmarkEnvironment.startManagerServer(managerPort);
+
+        ExecutionPlanConfiguration executionPlanConfiguration = new ExecutionPlanConfiguration();
+        executionPlanConfiguration.setName(BenchmarkEnvironment.EXECUTION_PLAN_NAME);
+        outputEventListener = new SiddhiStormOutputEventListener(executionPlanConfiguration,
+                BenchmarkEnvironment.TENANT_ID, BenchmarkEnvironment.createConfiguration(managerPort), null);
+        outputEventListener.registerOutputStreamListener(streamDefinition,
+                new BlackholeOutputStreamListener(streamId, executionPlanConfiguration, blackhole));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        outputEventListener.shutdown();
+        managerServer.stop();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public void throughput() {
+        receive();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public void latency() {
+        receive();
+    }
+
+    private void receive() {
+        outputEventListener.receive(streamId, System.currentTimeMillis(), events[nextEvent++ & (events.length - 1)]);
+    }
+
+    static class BlackholeOutputStreamListener extends SiddhiOutputStreamListener {
+        private final Blackhole blackhole;
+
+        BlackholeOutputStreamListener(String streamId, ExecutionPlanConfiguration executionPlanConfiguration,
+                                      Blackhole blackhole) {
+            super(streamId, streamId, executionPlanConfiguration, BenchmarkEnvironment.TENANT_ID);
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public void sendEvent(Event event) {
+            blackhole.consume(event);
+        }
+
+        @Override
+        public void sendEvents(Event[] events) {
+            blackhole.consume(events);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wso2.carbon.event.processor.benchmark;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.wso2.carbon.event.processor.core.internal.persistence.DeflateSnapshotCodec;
+import org.wso2.carbon.event.processor.core.internal.persistence.SnapshotCodec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the snapshot compression codecs of FileSystemPersistenceStore against the bytes they write, on a snapshot
+ * of a length window holding windowSize events, serialized the way Siddhi serializes execution plan state. The
+ * snapshotBytes and writtenBytes counters are reported as rates, so their ratio is the compression ratio.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+public class SnapshotCodecBenchmark {
+
+    @Param({"none", "lz4", "deflate"})
+    public String codecName;
+
+    @Param({"analytic", "simple"})
+    public String payload;
+
+    @Param({"10000", "100000"})
+    public int windowSize;
+
+    private SnapshotCodec codec;
+    private byte[] snapshot;
+    private byte[] compressed;
+    private byte[] decompressed;
+
+    @State(Scope.Thread)
+    @AuxCounters
+    public static class WrittenBytes {
+        public long snapshotBytes;
+        public long writtenBytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            snapshotBytes = 0;
+            writtenBytes = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        codec = SnapshotCodec.forName(codecName, DeflateSnapshotCodec.DEFAULT_LEVEL);
+        Object[][] events = BenchmarkEnvironment.Payload.valueOf(payload.toUpperCase()).generateEvents();
+        ArrayList<Object[]> window = new ArrayList<Object[]>(windowSize);
+        long timestamp = System.currentTimeMillis();
+        for (int i = 0; i < windowSize; i++) {
+            window.add(new Object[]{timestamp + i, events[i & (events.length - 1)].clone()});
+        }
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        ObjectOutputStream objectOutputStream = new ObjectOutputStream(byteArrayOutputStream);
+        objectOutputStream.writeObject(window);
+        objectOutputStream.close();
+        snapshot = byteArrayOutputStream.toByteArray();
+        compressed = (codec != null) ? codec.compress(snapshot) : snapshot;
+        decompressed = new byte[snapshot.length];
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public byte[] compress(WrittenBytes writtenBytes) throws Exception {
+        byte[] written = (codec != null) ? codec.compress(snapshot) : snapshot;
+        writtenBytes.snapshotBytes += snapshot.length;
+        writtenBytes.writtenBytes += written.length;
+        return written;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public byte[] decompress() throws Exception {
+        if (codec == null) {
+            System.arraycopy(compressed, 0, decompressed, 0, compressed.length);
+        } else {
+            codec.decompress(ByteBuffer.wrap(compressed), decompressed, decompressed.length);
+        }
+        return decompressed;
+    }
+}
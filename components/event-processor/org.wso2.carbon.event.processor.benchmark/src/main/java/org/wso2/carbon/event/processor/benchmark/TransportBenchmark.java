@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wso2.carbon.event.processor.benchmark;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.wso2.carbon.event.processor.common.storm.component.BenchmarkSpoutConsumer;
+import org.wso2.carbon.event.processor.common.util.AsyncEventPublisher;
+import org.wso2.carbon.event.processor.core.internal.storm.manager.StormManagerServer;
+import org.wso2.carbon.event.processor.manager.commons.transport.server.TCPEventServer;
+import org.wso2.carbon.event.processor.manager.commons.transport.server.TCPEventServerConfig;
+import org.wso2.carbon.event.processor.manager.commons.utils.Utils;
+import org.wso2.carbon.event.processor.manager.core.config.DistributedConfiguration;
+import org.wso2.siddhi.query.api.definition.StreamDefinition;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * End to end transport from CEP receivers to a Storm receiver over loopback: AsyncEventPublisher -> TCPEventServer
+ * -> EventReceiverSpout style ring consumption. Endpoints are discovered through a Storm manager service as in a
+ * distributed deployment.
+ * <p/>
+ * An operation publishes a batch of events from one client and waits until the consumer has taken all events sent so
+ * far, hence sample time reports the end to end latency of a batch and the "events" counter the event throughput.
+ * Each benchmark thread publishes through one of the clients, so run with at least as many threads (-t) as clients.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+public class TransportBenchmark {
+
+    @Param({"analytic", "simple"})
+    public String payload;
+
+    @Param({"1", "100"})
+    public int batchSize;
+
+    @Param({"1", "4"})
+    public int clientCount;
+
+    private StormManagerServer managerServer;
+    private TCPEventServer eventServer;
+    private BenchmarkSpoutConsumer consumer;
+    private AsyncEventPublisher[] publishers;
+    private String streamId;
+    private Object[][] events;
+
+    private final AtomicLong sentEventCount = new AtomicLong(0);
+    private final AtomicInteger nextClient = new AtomicInteger(0);
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        BenchmarkEnvironment.Payload payloadType = BenchmarkEnvironment.Payload.valueOf(payload.toUpperCase());
+        StreamDefinition streamDefinition = payloadType.getStreamDefinition();
+        streamId = streamDefinition.getId();
+        events = payloadType.generateEvents();
+
+        int managerPort = BenchmarkEnvironment.findFreePort();
+        managerServer = BenchmarkEnvironment.startManagerServer(managerPort);
+        DistributedConfiguration configuration = BenchmarkEnvironment.createConfiguration(managerPort);
+
+        String host = Utils.findAddress(BenchmarkEnvironment.HOST);
+        int receiverPort = BenchmarkEnvironment.findFreePort();
+        consumer = new BenchmarkSpoutConsumer(Collections.singletonList(streamDefinition),
+                configuration.getStormSpoutBufferSize(), 100);
+        eventServer = new TCPEventServer(new TCPEventServerConfig(host, receiverPort), consumer, null);
+        eventServer.addStreamDefinition(streamDefinition);
+        eventServer.start();
+        BenchmarkEnvironment.registerStormReceiver(managerPort, host, receiverPort);
+
+        Set<StreamDefinition> streams = new HashSet<StreamDefinition>();
+        streams.add(streamDefinition);
+        publishers = new AsyncEventPublisher[clientCount];
+        for (int i = 0; i < clientCount; i++) {
+            publishers[i] = new AsyncEventPublisher(AsyncEventPublisher.DestinationType.STORM_RECEIVER, streams,
+                    configuration.getManagers(), BenchmarkEnvironment.EXECUTION_PLAN_NAME,
+                    BenchmarkEnvironment.TENANT_ID, configuration, null);
+            publishers[i].initializeConnection(true);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (AsyncEventPublisher publisher : publishers) {
+            publisher.shutdown();
+        }
+        consumer.shutdown();
+        eventServer.shutdown();
+        managerServer.stop();
+    }
+
+    /**
+     * Benchmark thread bound to one of the clients.
+     */
+    @State(Scope.Thread)
+    public static class Client {
+        int clientIndex;
+        int nextEvent;
+
+        @Setup(Level.Trial)
+        public void setup(TransportBenchmark benchmark) {
+            clientIndex = benchmark.nextClient.getAndIncrement() % benchmark.clientCount;
+        }
+    }
+
+    /**
+     * Counts the events sent, reported next to the batch throughput.
+     */
+    @State(Scope.Thread)
+    @AuxCounters
+    public static class EventCounter {
+        public long events;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            events = 0;
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public void throughput(Client client, EventCounter counter) {
+        sendBatch(client);
+        counter.events += batchSize;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void latency(Client client) {
+        sendBatch(client);
+    }
+
+    private void sendBatch(Client client) {
+        AsyncEventPublisher publisher = publishers[client.clientIndex];
+        int mask = events.length - 1;
+        for (int i = 0; i < batchSize; i++) {
+            publisher.sendEvent(events[client.nextEvent++ & mask], System.currentTimeMillis(), streamId);
+        }
+        // Events are counted once sent, so every counted event is on its way to the consumer
+        consumer.awaitConsumed(sentEventCount.addAndGet(batchSize));
+    }
+}
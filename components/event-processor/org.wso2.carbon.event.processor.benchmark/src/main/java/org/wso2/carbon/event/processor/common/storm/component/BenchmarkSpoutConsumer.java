@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wso2.carbon.event.processor.common.storm.component;
+
+import org.wso2.carbon.event.processor.manager.commons.transport.server.StreamCallback;
+import org.wso2.siddhi.query.api.definition.StreamDefinition;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Consumes events received by a TCP event server the way EventReceiverSpout does: receiver threads offer events to
+ * their own EventReceiverRing and a single consumer thread drains the rings into tuple values. Placed in the package
+ * of the spout to use its package private ring.
+ */
+public class BenchmarkSpoutConsumer implements StreamCallback {
+    private final Map<String, Integer> streamIndexMap = new HashMap<String, Integer>();
+    private final String[] streamIds;
+    private final int ringSize;
+    private final int drainBatchSize;
+    private final AtomicLong consumedEventCount = new AtomicLong(0);
+    private final Thread consumerThread;
+
+    private volatile EventReceiverRing[] receiverRings = new EventReceiverRing[0];
+    private volatile boolean running = true;
+    /**
+     * Sink for the emitted tuple values, so that building them is not optimized away.
+     */
+    private volatile int tupleSizeSum;
+
+    private final ThreadLocal<EventReceiverRing> receiverRing = new ThreadLocal<EventReceiverRing>() {
+        @Override
+        protected EventReceiverRing initialValue() {
+            EventReceiverRing ring = new EventReceiverRing(Thread.currentThread(), ringSize);
+            synchronized (BenchmarkSpoutConsumer.this) {
+                EventReceiverRing[] rings = Arrays.copyOf(receiverRings, receiverRings.length + 1);
+                rings[rings.length - 1] = ring;
+                receiverRings = rings;
+            }
+            return ring;
+        }
+    };
+
+    public BenchmarkSpoutConsumer(List<StreamDefinition> streamDefinitions, int ringSize, int drainBatchSize) {
+        this.streamIds = new String[streamDefinitions.size()];
+        for (int i = 0; i < streamIds.length; i++) {
+            streamIds[i] = streamDefinitions.get(i).getId();
+            streamIndexMap.put(streamIds[i], i);
+        }
+        this.ringSize = ringSize;
+        this.drainBatchSize = drainBatchSize;
+        this.consumerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drainLoop();
+            }
+        }, "BenchmarkSpoutConsumer");
+        consumerThread.setDaemon(true);
+        consumerThread.start();
+    }
+
+    @Override
+    public void receive(String streamId, long timestamp, Object[] eventData) {
+        Integer streamIndex = streamIndexMap.get(streamId);
+        if (streamIndex == null) {
+            return;
+        }
+        EventReceiverRing ring = receiverRing.get();
+        while (!ring.offer(streamIndex, timestamp, eventData)) {
+            Thread.yield();
+        }
+    }
+
+    private void drainLoop() {
+        EventReceiverRing.EventConsumer emitter = new EventReceiverRing.EventConsumer() {
+            private int sizeSum;
+
+            @Override
+            public void consume(int streamIndex, long timestamp, Object[] data) {
+                sizeSum += new EventTupleValues(data, timestamp).size() + streamIds[streamIndex].length();
+                tupleSizeSum = sizeSum;
+            }
+        };
+        while (running) {
+            int drained = 0;
+            for (EventReceiverRing ring : receiverRings) {
+                drained += ring.drain(emitter, drainBatchSize);
+            }
+            if (drained > 0) {
+                consumedEventCount.addAndGet(drained);
+            } else {
+                Thread.yield();
+            }
+        }
+    }
+
+    /**
+     * Waits until the given number of events in total are consumed.
+     */
+    public void awaitConsumed(long eventCount) {
+        while (consumedEventCount.get() < eventCount && running) {
+            Thread.yield();
+        }
+    }
+
+    public long getConsumedEventCount() {
+        return consumedEventCount.get();
+    }
+
+    public int getTupleSizeSum() {
+        return tupleSizeSum;
+    }
+
+    public void shutdown() {
+        running = false;
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wso2.carbon.event.processor.benchmark;
+
+import junit.framework.Assert;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.Test;
+import org.wso2.siddhi.query.api.definition.Attribute;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.List;
+
+public class BenchmarkEnvironmentTestCase {
+    private static final Log log = LogFactory.getLog(BenchmarkEnvironmentTestCase.class);
+
+    @Test
+    public void testEventsMatchTheirStreamDefinition() {
+        for (BenchmarkEnvironment.Payload payload : BenchmarkEnvironment.Payload.values()) {
+            List<Attribute> attributes = payload.getStreamDefinition().getAttributeList();
+            Object[][] events = payload.generateEvents();
+            Assert.assertEquals(BenchmarkEnvironment.EVENT_POOL_SIZE, events.length);
+            Assert.assertEquals("Event pool size is a power of two", 0, events.length & (events.length - 1));
+            for (Object[] event : events) {
+                Assert.assertEquals(payload + " event size", attributes.size(), event.length);
+                for (int i = 0; i < attributes.size(); i++) {
+                    Assert.assertEquals(payload + " attribute " + attributes.get(i).getName(),
+                            typeOf(attributes.get(i).getType()), event[i].getClass());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testFreePortCanBeBound() throws IOException {
+        int port = BenchmarkEnvironment.findFreePort();
+        Assert.assertTrue(port > 0);
+        ServerSocket socket = new ServerSocket(port);
+        socket.close();
+    }
+
+    private static Class<?> typeOf(Attribute.Type type) {
+        switch (type) {
+            case STRING:
+                return String.class;
+            case INT:
+                return Integer.class;
+            case LONG:
+                return Long.class;
+            case FLOAT:
+                return Float.class;
+            case DOUBLE:
+                return Double.class;
+            case BOOL:
+                return Boolean.class;
+            default:
+                return Object.class;
+        }
+    }
+}
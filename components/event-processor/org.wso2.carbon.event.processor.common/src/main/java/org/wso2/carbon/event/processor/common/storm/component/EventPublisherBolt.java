@@ -20,9 +20,10 @@ import backtype.storm.topology.BasicOutputCollector;
 import backtype.storm.topology.OutputFieldsDeclarer;
 import backtype.storm.topology.base.BaseBasicBolt;
 import backtype.storm.tuple.Tuple;
-import org.apache.commons.lang.ArrayUtils;
 import org.apache.log4j.Logger;
 import org.wso2.carbon.event.processor.common.util.AsyncEventPublisher;
+import org.wso2.carbon.event.processor.common.util.LatencyTrace;
+import org.wso2.carbon.event.processor.common.util.TransportConfiguration;
 import org.wso2.carbon.event.processor.manager.commons.utils.Utils;
 import org.wso2.carbon.event.processor.manager.core.config.DistributedConfiguration;
 import org.wso2.siddhi.core.ExecutionPlanRuntime;
@@ -67,6 +68,11 @@ public class EventPublisherBolt extends BaseBasicBolt {
     private int eventCount;
     private long batchStartTime;
 
+    /**
+     * Whether events carry a latency trace, which is passed on to the CEP publisher as the trailing attribute
+     */
+    private boolean traced;
+
     public EventPublisherBolt(DistributedConfiguration stormDeploymentConfig, List<String> inputStreamDefinitions,
                               List<String> outputStreamDefinitions, String query, String executionPlanName, int tenantId) {
         this.stormDeploymentConfig = stormDeploymentConfig;
@@ -76,6 +82,7 @@ public class EventPublisherBolt extends BaseBasicBolt {
         this.executionPlanName = executionPlanName;
         this.tenantId = tenantId;
         this.logPrefix = "[" + tenantId + ":" + executionPlanName + ":" + "EventPublisherBolt]";
+        this.traced = TransportConfiguration.isLatencyTracingEnabled(executionPlanName);
 
     }
 
@@ -91,12 +98,15 @@ public class EventPublisherBolt extends BaseBasicBolt {
             init();
         }
 
-        Object[] dataArray = tuple.getValues().toArray();
-        long timestamp = (Long) dataArray[dataArray.length - 1];
-        dataArray = ArrayUtils.remove(dataArray, dataArray.length - 1);
+        Object[] dataArray = EventTupleValues.getData(tuple);
+        long timestamp = EventTupleValues.getTimestamp(tuple);
 
         StreamDefinition streamDefinition = streamIdToDefinitionMap.get(tuple.getSourceStreamId());
         if (streamDefinition != null) {
+            if (traced) {
+                String trace = LatencyTrace.addHop(EventTupleValues.getTrace(tuple), "EventPublisherBolt");
+                dataArray = LatencyTrace.appendTrace(dataArray, (trace != null) ? trace : LatencyTrace.NOT_SAMPLED);
+            }
             asyncEventPublisher.sendEvent(dataArray, timestamp, tuple.getSourceStreamId());
         } else {
             log.warn(logPrefix + "Tuple received for unknown stream " + tuple.getSourceStreamId() + ". Discarding " +
@@ -142,9 +152,8 @@ public class EventPublisherBolt extends BaseBasicBolt {
                         @Override
                         public void receive(Event[] events) {
                             for (Event event : events) {
-                                Object[] eventData = Arrays.copyOf(event.getData(), event.getData().length + 1);
-                                eventData[event.getData().length] = event.getTimestamp();
-                                collector.emit(outputSiddhiDefinition.getId(), Arrays.asList(eventData));
+                                collector.emit(outputSiddhiDefinition.getId(),
+                                        new EventTupleValues(event.getData(), event.getTimestamp()));
                                 if (log.isDebugEnabled()) {
                                     if (++eventCount % 10000 == 0) {
                                         double timeSpentInSecs = (System.currentTimeMillis() - batchStartTime) / 1000.0D;
@@ -156,7 +165,7 @@ public class EventPublisherBolt extends BaseBasicBolt {
                                         batchStartTime = System.currentTimeMillis();
                                     }
                                     log.debug(logPrefix + "Emitted Event:" + outputSiddhiDefinition.getId() +
-                                            ":" + Arrays.deepToString(eventData) + "@" + event.getTimestamp());
+                                            ":" + Arrays.deepToString(event.getData()) + "@" + event.getTimestamp());
                                 }
                             }
                         }
@@ -169,6 +178,9 @@ public class EventPublisherBolt extends BaseBasicBolt {
             StreamDefinition siddhiDefinition;
             for (String outputStreamDefinition : outputStreamDefinitions) {
                 siddhiDefinition = SiddhiCompiler.parseStreamDefinition(outputStreamDefinition);
+                if (traced) {
+                    siddhiDefinition = LatencyTrace.toTracedDefinition(siddhiDefinition);
+                }
                 streamIdToDefinitionMap.put(siddhiDefinition.getId(), siddhiDefinition);
             }
 
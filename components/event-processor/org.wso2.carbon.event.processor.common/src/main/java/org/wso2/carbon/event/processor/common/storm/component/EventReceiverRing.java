@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wso2.carbon.event.processor.common.storm.component;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded lock free single producer single consumer ring of events. Each receiver thread of the TCP event server owns
+ * a ring, which is drained by the spout thread. Events are stored in parallel arrays, so that no object is allocated
+ * per event.
+ * <p/>
+ * A ring is discarded by the consumer once its owner thread has ended, or once it has been idle for a while, in which
+ * case it is retired first: the owner finds offers to a retired ring rejected and moves on to a new ring. The owner
+ * flags each offer in progress, so that the consumer never discards a ring an event is being added to.
+ */
+class EventReceiverRing {
+
+    /**
+     * Consumes events drained from the ring.
+     */
+    interface EventConsumer {
+        void consume(int streamIndex, long timestamp, Object[] data);
+    }
+
+    private final Thread owner;
+    private final int capacity;
+    private final int mask;
+    private final int[] streamIndexes;
+    private final long[] timestamps;
+    private final Object[][] data;
+
+    /**
+     * Sequence of the next event to read. Written by the consumer only.
+     */
+    private final AtomicLong head = new AtomicLong(0);
+    /**
+     * Sequence of the next event to write. Written by the producer only.
+     */
+    private final AtomicLong tail = new AtomicLong(0);
+    /**
+     * Last head seen by the producer, to avoid reading the consumer's counter on every offer.
+     */
+    private long cachedHead = 0;
+    /**
+     * Set by the producer while it adds an event, before it checks whether the ring is retired.
+     */
+    private final AtomicInteger writing = new AtomicInteger(0);
+    private volatile boolean retired = false;
+    /**
+     * Time since when the consumer found the ring empty, or -1 if it drained events since. Written by the consumer only.
+     */
+    private long idleSince = -1;
+
+    EventReceiverRing(Thread owner, int minCapacity) {
+        int size = 1;
+        while (size < minCapacity) {
+            size <<= 1;
+        }
+        this.owner = owner;
+        this.capacity = size;
+        this.mask = size - 1;
+        this.streamIndexes = new int[size];
+        this.timestamps = new long[size];
+        this.data = new Object[size][];
+    }
+
+    /**
+     * Adds an event to the ring. Must only be called by the owner thread.
+     *
+     * @return false if the ring is full or retired, see {@link #isRetired()}
+     */
+    boolean offer(int streamIndex, long timestamp, Object[] eventData) {
+        writing.set(1);
+        try {
+            if (retired) {
+                return false;
+            }
+            long sequence = tail.get();
+            if (sequence - cachedHead >= capacity) {
+                cachedHead = head.get();
+                if (sequence - cachedHead >= capacity) {
+                    return false;
+                }
+            }
+            int index = (int) sequence & mask;
+            streamIndexes[index] = streamIndex;
+            timestamps[index] = timestamp;
+            data[index] = eventData;
+            tail.lazySet(sequence + 1);
+            return true;
+        } finally {
+            writing.lazySet(0);
+        }
+    }
+
+    /**
+     * @return whether the consumer has retired the ring, in which case the owner must add its events to a new ring
+     */
+    boolean isRetired() {
+        return retired;
+    }
+
+    /**
+     * Passes up to the given number of events to the consumer. Must only be called by the consumer thread.
+     *
+     * @return number of events drained
+     */
+    int drain(EventConsumer consumer, int maxEvents) {
+        long sequence = head.get();
+        int available = (int) Math.min(maxEvents, tail.get() - sequence);
+        for (int i = 0; i < available; i++) {
+            int index = (int) (sequence + i) & mask;
+            Object[] eventData = data[index];
+            data[index] = null;
+            consumer.consume(streamIndexes[index], timestamps[index], eventData);
+        }
+        if (available > 0) {
+            head.lazySet(sequence + available);
+            idleSince = -1;
+        }
+        return available;
+    }
+
+    boolean isEmpty() {
+        return head.get() == tail.get();
+    }
+
+    /**
+     * @return whether the ring can be discarded, i.e. its producer thread has ended and all its events are drained
+     */
+    boolean isAbandoned() {
+        return !owner.isAlive() && isEmpty();
+    }
+
+    /**
+     * Retires the ring once the consumer has found it empty for the given time. Must only be called by the consumer
+     * thread, after a drain.
+     *
+     * @return whether the ring can be discarded, i.e. it is abandoned, or retired with all its events drained and no
+     * event being added
+     */
+    boolean isDiscardable(long idleTimeoutNanos) {
+        if (isAbandoned()) {
+            return true;
+        }
+        if (!retired) {
+            if (!isEmpty()) {
+                return false;
+            }
+            long currentTime = System.nanoTime();
+            if (idleSince == -1) {
+                idleSince = currentTime;
+            }
+            if (currentTime - idleSince < idleTimeoutNanos) {
+                return false;
+            }
+            retired = true;
+        }
+        // An offer which has not seen the ring retired is still flagged, or has already added its event
+        return writing.get() == 0 && isEmpty();
+    }
+}
@@ -25,9 +25,10 @@ import org.apache.thrift.protocol.TBinaryProtocol;
 import org.apache.thrift.protocol.TProtocol;
 import org.apache.thrift.transport.TSocket;
 import org.apache.thrift.transport.TTransport;
-import org.wso2.carbon.event.processor.common.storm.event.Event;
 import org.wso2.carbon.event.processor.common.storm.manager.service.StormManagerService;
+import org.wso2.carbon.event.processor.common.util.LatencyTrace;
 import org.wso2.carbon.event.processor.common.util.ThroughputProbe;
+import org.wso2.carbon.event.processor.common.util.TransportConfiguration;
 import org.wso2.carbon.event.processor.manager.commons.transport.server.StreamCallback;
 import org.wso2.carbon.event.processor.manager.commons.transport.server.TCPEventServer;
 import org.wso2.carbon.event.processor.manager.commons.transport.server.TCPEventServerConfig;
@@ -39,9 +40,14 @@ import org.wso2.siddhi.query.compiler.SiddhiCompiler;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Receive events from CEP receivers through thrift receiver and pass through
@@ -49,6 +55,10 @@ import java.util.concurrent.LinkedBlockingQueue;
  */
 public class EventReceiverSpout extends BaseRichSpout implements StreamCallback {
     private static transient Logger log = Logger.getLogger(EventReceiverSpout.class);
+    private static final long FULL_RING_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+    private static final long RING_IDLE_TIMEOUT_NANOS = TimeUnit.MINUTES.toNanos(1);
+    private static final String TRACE_HOP = "EventReceiverSpout";
+    private static final String TRACE_HOP_EMIT = "EventReceiverSpout.emit";
     /**
      * Listening port of the thrift receiver
      */
@@ -68,11 +78,31 @@ public class EventReceiverSpout extends BaseRichSpout implements StreamCallback
     private List<String> incomingStreamIDs = new ArrayList<String>();
 
     /**
-     * Store received events until nextTuple is called. This list has to be synchronized since
-     * this is filled by the receiver thread of data bridge and consumed by the nextTuple which
-     * runs on the worker thread of spout.
+     * Index of incoming streams by stream ID and the stream IDs by index, built on open.
      */
-    private transient LinkedBlockingQueue<Event> storedEvents = null;
+    private transient Map<String, Integer> streamIndexMap;
+    private transient String[] streamIds;
+
+    /**
+     * Number of events dropped per unknown stream ID. Only the first event of each unknown stream is logged.
+     */
+    private transient ConcurrentMap<String, AtomicLong> unknownStreamDrops;
+
+    /**
+     * Store received events until nextTuple is called. Each receiver thread of the TCP event server gets its own
+     * ring, so that receiver threads never contend with each other and the spout thread drains them without locking.
+     * This assumes the server reads each connection on a thread of its own, i.e. one ring per connected CEP receiver.
+     * The array is replaced (copy on write) when a receiver thread registers or a ring is discarded. Rings are
+     * discarded once drained when their thread has ended, or when they have been idle for RING_IDLE_TIMEOUT_NANOS, so
+     * that pooled or long lived threads which stop receiving do not keep rings in the array. Such a thread registers a
+     * new ring with its next event.
+     */
+    private transient volatile EventReceiverRing[] receiverRings;
+    private transient ThreadLocal<EventReceiverRing> receiverRing;
+    private transient EventReceiverRing.EventConsumer tupleEmitter;
+    private int ringSize;
+    private int emitBatchSize;
+    private int nextRing = 0;
 
     private SpoutOutputCollector spoutOutputCollector = null;
 
@@ -84,6 +114,12 @@ public class EventReceiverSpout extends BaseRichSpout implements StreamCallback
     private transient ThroughputProbe inputThroughputProbe;
     private transient ThroughputProbe outputThroughputProbe;
 
+    /**
+     * Whether incoming events carry a latency trace as their trailing attribute, which is passed on as the "_trace"
+     * field of the tuples. Decided when the topology is built.
+     */
+    private boolean traced;
+
     /**
      * Receives events from the CEP Receiver through Thrift using data bridge and pass through the events
      * to a downstream component as tupels.
@@ -104,8 +140,7 @@ public class EventReceiverSpout extends BaseRichSpout implements StreamCallback
             this.incomingStreamDefinitions.add(SiddhiCompiler.parseStreamDefinition(definition));
         }
         this.logPrefix = "[" + tenantId + ":" + executionPlanName + ":" + "EventReceiverSpout] ";
-
-
+        this.traced = TransportConfiguration.isLatencyTracingEnabled(executionPlanName);
     }
 
     @Override
@@ -114,6 +149,9 @@ public class EventReceiverSpout extends BaseRichSpout implements StreamCallback
         for (StreamDefinition siddhiStreamDefinition : incomingStreamDefinitions) {
             List<String> attributeList = new ArrayList<>(Arrays.asList(siddhiStreamDefinition.getAttributeNameArray()));
             attributeList.add(0, "_timestamp");
+            if (traced) {
+                attributeList.add(LatencyTrace.TRACE_ATTRIBUTE);
+            }
             Fields fields = new Fields(attributeList);
             outputFieldsDeclarer.declareStream(siddhiStreamDefinition.getId(), fields);
             incomingStreamIDs.add(siddhiStreamDefinition.getId());
@@ -124,10 +162,31 @@ public class EventReceiverSpout extends BaseRichSpout implements StreamCallback
     @Override
     public void open(Map map, TopologyContext topologyContext, SpoutOutputCollector spoutOutputCollector) {
         this.spoutOutputCollector = spoutOutputCollector;
-        this.storedEvents = new LinkedBlockingQueue<Event>(stormDeploymentConfig.getStormSpoutBufferSize());
+        this.ringSize = stormDeploymentConfig.getStormSpoutBufferSize();
+        this.emitBatchSize = TransportConfiguration.getSpoutEmitBatchSize();
+        this.streamIndexMap = new HashMap<String, Integer>();
+        this.streamIds = new String[incomingStreamDefinitions.size()];
+        this.unknownStreamDrops = new ConcurrentHashMap<String, AtomicLong>();
+        for (int i = 0; i < streamIds.length; i++) {
+            streamIds[i] = incomingStreamDefinitions.get(i).getId();
+            streamIndexMap.put(streamIds[i], i);
+        }
+        this.receiverRings = new EventReceiverRing[0];
+        this.receiverRing = new ThreadLocal<EventReceiverRing>() {
+            @Override
+            protected EventReceiverRing initialValue() {
+                return createReceiverRing();
+            }
+        };
+        this.tupleEmitter = new EventReceiverRing.EventConsumer() {
+            @Override
+            public void consume(int streamIndex, long timestamp, Object[] data) {
+                emitTuple(streamIds[streamIndex], timestamp, data);
+            }
+        };
 
-        inputThroughputProbe = new ThroughputProbe(logPrefix + "-IN", 10);
-        outputThroughputProbe = new ThroughputProbe(logPrefix + " -OUT", 10);
+        inputThroughputProbe = new ThroughputProbe(tenantId, executionPlanName, "EventReceiverSpout", "IN", 10);
+        outputThroughputProbe = new ThroughputProbe(tenantId, executionPlanName, "EventReceiverSpout", "OUT", 10);
 
         inputThroughputProbe.startSampling();
         outputThroughputProbe.startSampling();
@@ -138,7 +197,8 @@ public class EventReceiverSpout extends BaseRichSpout implements StreamCallback
             TCPEventServerConfig configs = new TCPEventServerConfig(thisHostIp, listeningPort);
             tcpEventServer = new TCPEventServer(configs, this, null);
             for (StreamDefinition siddhiStreamDefinition : incomingStreamDefinitions) {
-                tcpEventServer.addStreamDefinition(siddhiStreamDefinition);
+                tcpEventServer.addStreamDefinition(traced ? LatencyTrace.toTracedDefinition(siddhiStreamDefinition) :
+                        siddhiStreamDefinition);
             }
             tcpEventServer.start();
             log.info(logPrefix + "EventReceiverSpout starting to listen for events on port " + listeningPort);
@@ -149,25 +209,73 @@ public class EventReceiverSpout extends BaseRichSpout implements StreamCallback
         }
     }
 
+    /**
+     * Emits up to the emit batch size of events, draining the receiver rings in round robin so that a busy
+     * connection cannot starve the others.
+     */
     @Override
     public void nextTuple() {
-        Event event = storedEvents.poll();
-        if (event != null) {
-            final String siddhiStreamName = event.getStreamId();
-            if (incomingStreamIDs.contains(siddhiStreamName)) {
-                Object[] eventData = Arrays.copyOf(event.getData(), event.getData().length + 1);
-                eventData[event.getData().length] = event.getTimestamp();
-                spoutOutputCollector.emit(siddhiStreamName, Arrays.asList(eventData));
-
-                if (log.isDebugEnabled()) {
-                    log.debug(logPrefix + "Emitted Event: " + siddhiStreamName + ":" + Arrays.deepToString(eventData) + "@" + event.getTimestamp());
-                }
-                outputThroughputProbe.update();
-            } else {
-                log.warn(logPrefix + "Event received for unknown stream : " + siddhiStreamName);
+        EventReceiverRing[] rings = receiverRings;
+        int ringCount = rings.length;
+        if (ringCount == 0) {
+            return;
+        }
+        int start = nextRing++ % ringCount;
+        if (nextRing >= ringCount) {
+            nextRing = 0;
+        }
+        int remaining = emitBatchSize;
+        for (int i = 0; i < ringCount && remaining > 0; i++) {
+            EventReceiverRing ring = rings[(start + i) % ringCount];
+            int drained = ring.drain(tupleEmitter, remaining);
+            if (drained == 0 && ring.isDiscardable(RING_IDLE_TIMEOUT_NANOS)) {
+                removeReceiverRing(ring);
             }
+            remaining -= drained;
+        }
+    }
+
+    @Override
+    public void close() {
+        inputThroughputProbe.stopSampling();
+        outputThroughputProbe.stopSampling();
+        for (Map.Entry<String, AtomicLong> entry : unknownStreamDrops.entrySet()) {
+            log.warn(logPrefix + "Dropped " + entry.getValue().get() + " events received for unknown stream : " +
+                    entry.getKey());
+        }
+    }
+
+    private void emitTuple(String siddhiStreamName, long timestamp, Object[] data) {
+        if (traced) {
+            String trace = LatencyTrace.addHop(LatencyTrace.getTrace(data), TRACE_HOP_EMIT);
+            // The trace attribute is left out of the tuple values rather than stripped by copying the event data
+            spoutOutputCollector.emit(siddhiStreamName, new EventTupleValues(data, data.length - 1, timestamp, trace));
+        } else {
+            spoutOutputCollector.emit(siddhiStreamName, new EventTupleValues(data, timestamp));
         }
 
+        if (log.isDebugEnabled()) {
+            log.debug(logPrefix + "Emitted Event: " + siddhiStreamName + ":" + Arrays.deepToString(data) + "@" + timestamp);
+        }
+        outputThroughputProbe.update();
+    }
+
+    private EventReceiverRing createReceiverRing() {
+        EventReceiverRing ring = new EventReceiverRing(Thread.currentThread(), ringSize);
+        addReceiverRing(ring);
+        return ring;
+    }
+
+    private synchronized void addReceiverRing(EventReceiverRing ring) {
+        EventReceiverRing[] rings = Arrays.copyOf(receiverRings, receiverRings.length + 1);
+        rings[rings.length - 1] = ring;
+        receiverRings = rings;
+    }
+
+    private synchronized void removeReceiverRing(EventReceiverRing ring) {
+        List<EventReceiverRing> rings = new ArrayList<EventReceiverRing>(Arrays.asList(receiverRings));
+        rings.remove(ring);
+        receiverRings = rings.toArray(new EventReceiverRing[rings.size()]);
     }
 
     private int findPort(String host) throws Exception {
@@ -185,14 +293,41 @@ public class EventReceiverSpout extends BaseRichSpout implements StreamCallback
         if (log.isDebugEnabled()) {
             log.debug(logPrefix + "Received Event: " + streamId + ":" + Arrays.deepToString(eventData) + "@" + timestamp);
         }
-        try {
-            storedEvents.put(new Event(timestamp, eventData, streamId));
-            inputThroughputProbe.update();
-        } catch (InterruptedException e) {
-            //ignore
+        Integer streamIndex = streamIndexMap.get(streamId);
+        if (streamIndex == null) {
+            dropUnknownStreamEvent(streamId);
+            return;
+        }
+        if (traced) {
+            eventData = LatencyTrace.addHop(eventData, TRACE_HOP);
         }
+        EventReceiverRing ring = receiverRing.get();
+        while (!ring.offer(streamIndex, timestamp, eventData)) {
+            if (ring.isRetired()) {
+                // Retired by the spout while this thread was idle
+                ring = createReceiverRing();
+                receiverRing.set(ring);
+            } else {
+                // Hold the receiver thread while the spout catches up, pushing back on the sending CEP receiver
+                LockSupport.parkNanos(FULL_RING_PARK_NANOS);
+            }
+        }
+        inputThroughputProbe.update();
     }
 
+    private void dropUnknownStreamEvent(String streamId) {
+        AtomicLong drops = unknownStreamDrops.get(streamId);
+        if (drops == null) {
+            AtomicLong newDrops = new AtomicLong();
+            drops = unknownStreamDrops.putIfAbsent(streamId, newDrops);
+            if (drops == null) {
+                drops = newDrops;
+                log.warn(logPrefix + "Event received for unknown stream : " + streamId + ". Dropping this and any " +
+                        "further events of the stream, which are counted and reported when the spout closes");
+            }
+        }
+        drops.incrementAndGet();
+    }
 
     class Registrar implements Runnable {
         private String managerHost;
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wso2.carbon.event.processor.common.storm.component;
+
+import backtype.storm.tuple.Tuple;
+import org.wso2.carbon.event.processor.common.util.LatencyTrace;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * Tuple values of an event, i.e. the event data followed by the timestamp, backed by the event data array instead of
+ * a copy of it. Within a worker Storm hands the emitted list over to the next bolt as is, so the bolt can take the
+ * event data array and the timestamp back without copying. Across workers the values are serialized one by one as
+ * for any other list.
+ * <p/>
+ * When latency tracing is enabled the timestamp is followed by the latency trace, declared as the "_trace" field.
+ * The values may then be backed by the event data array as received on the transport, whose trailing trace
+ * attribute is left out of the values instead of being stripped by a copy.
+ */
+public final class EventTupleValues extends AbstractList<Object> implements RandomAccess {
+    private final Object[] data;
+    private final int dataLength;
+    private final long timestamp;
+    private final String trace;
+
+    public EventTupleValues(Object[] data, long timestamp) {
+        this(data, timestamp, null);
+    }
+
+    /**
+     * @param trace latency trace, or null if the stream is not traced
+     */
+    public EventTupleValues(Object[] data, long timestamp, String trace) {
+        this(data, data.length, timestamp, trace);
+    }
+
+    /**
+     * @param data       event data, of which only the first dataLength attributes are part of the values
+     * @param dataLength number of attributes of the event
+     * @param trace      latency trace, or null if the stream is not traced
+     */
+    public EventTupleValues(Object[] data, int dataLength, long timestamp, String trace) {
+        this.data = data;
+        this.dataLength = dataLength;
+        this.timestamp = timestamp;
+        this.trace = trace;
+    }
+
+    /**
+     * @return event data, copied only if the backing array holds trailing attributes beyond the event data
+     */
+    public Object[] getData() {
+        return (dataLength == data.length) ? data : Arrays.copyOf(data, dataLength);
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public String getTrace() {
+        return trace;
+    }
+
+    @Override
+    public Object get(int index) {
+        if (index == dataLength) {
+            return timestamp;
+        } else if (index == dataLength + 1 && trace != null) {
+            return trace;
+        }
+        return data[index];
+    }
+
+    @Override
+    public int size() {
+        return (trace == null) ? dataLength + 1 : dataLength + 2;
+    }
+
+    /**
+     * @return event data of the tuple without the trailing timestamp. Not a copy when the tuple was emitted as
+     * EventTupleValues within this worker, unless it is backed by a traced event data array, hence must not be
+     * modified.
+     */
+    public static Object[] getData(Tuple tuple) {
+        if (tuple.getValues() instanceof EventTupleValues) {
+            return ((EventTupleValues) tuple.getValues()).getData();
+        }
+        Object[] data = new Object[getTimestampIndex(tuple)];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = tuple.getValue(i);
+        }
+        return data;
+    }
+
+    /**
+     * @return event timestamp carried after the event data
+     */
+    public static long getTimestamp(Tuple tuple) {
+        if (tuple.getValues() instanceof EventTupleValues) {
+            return ((EventTupleValues) tuple.getValues()).timestamp;
+        }
+        return (Long) tuple.getValue(getTimestampIndex(tuple));
+    }
+
+    /**
+     * @return latency trace of the tuple, or null if the stream is not traced
+     */
+    public static String getTrace(Tuple tuple) {
+        if (tuple.getValues() instanceof EventTupleValues) {
+            return ((EventTupleValues) tuple.getValues()).trace;
+        }
+        if (isTraced(tuple)) {
+            return (String) tuple.getValue(tuple.size() - 1);
+        }
+        return null;
+    }
+
+    private static boolean isTraced(Tuple tuple) {
+        return tuple.getFields().contains(LatencyTrace.TRACE_ATTRIBUTE);
+    }
+
+    private static int getTimestampIndex(Tuple tuple) {
+        return isTraced(tuple) ? tuple.size() - 2 : tuple.size() - 1;
+    }
+}
@@ -19,11 +19,15 @@ import backtype.storm.task.TopologyContext;
 import backtype.storm.topology.BasicOutputCollector;
 import backtype.storm.topology.OutputFieldsDeclarer;
 import backtype.storm.topology.base.BaseBasicBolt;
+import backtype.storm.Config;
+import backtype.storm.Constants;
+import backtype.storm.generated.GlobalStreamId;
 import backtype.storm.tuple.Fields;
 import backtype.storm.tuple.Tuple;
-import org.apache.commons.lang.ArrayUtils;
 import org.apache.log4j.Logger;
+import org.wso2.carbon.event.processor.common.util.LatencyTrace;
 import org.wso2.carbon.event.processor.common.util.ThroughputProbe;
+import org.wso2.carbon.event.processor.common.util.TransportConfiguration;
 import org.wso2.carbon.event.processor.manager.commons.utils.Utils;
 import org.wso2.siddhi.core.ExecutionPlanRuntime;
 import org.wso2.siddhi.core.SiddhiManager;
@@ -36,6 +40,7 @@ import org.wso2.siddhi.query.compiler.SiddhiCompiler;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -62,6 +67,8 @@ public class SiddhiBolt extends BaseBasicBolt {
     private String query;
 
     private BasicOutputCollector collector;
+    private String executionPlanName;
+    private int tenantId;
     private String logPrefix;
 
     private transient ExecutionPlanRuntime executionPlanRuntime;
@@ -69,6 +76,38 @@ public class SiddhiBolt extends BaseBasicBolt {
     private transient ThroughputProbe inputThroughputProbe;
     private transient ThroughputProbe emitThroughputProbe;
 
+    /**
+     * Input handlers of the source streams, indexed by the position of the stream among the sources of this bolt in the
+     * topology context. A null handler marks a stream not defined in the execution plan, which is warned about once.
+     */
+    private transient Map<String, Integer> streamIndexMap;
+    private transient InputHandler[] inputHandlers;
+    private transient boolean[] unknownStreamWarned;
+    /**
+     * Stream ID of the previous tuple, compared by reference to skip the map lookup for runs of tuples of a stream.
+     */
+    private transient String lastStreamId;
+    private transient int lastStreamIndex;
+
+    /**
+     * Micro batching. When the batch size is more than 1, consecutive events of a stream are buffered and sent to
+     * Siddhi as a single batch when the batch is full, when an event of another stream arrives (to keep the order of
+     * events across streams) or on a tick tuple.
+     */
+    private int microBatchSize;
+    private int microBatchFlushIntervalSeconds;
+    private transient Event[] pendingEvents;
+    private transient int pendingEventCount;
+    private transient int pendingStreamIndex;
+
+    /**
+     * Latency tracing. Siddhi runs the queries in the thread sending the events, hence events emitted by the callbacks
+     * while a sampled event (or a batch holding one) is sent carry its trace.
+     */
+    private boolean traced;
+    private transient String currentTrace;
+    private transient String pendingTrace;
+
     /**
      * Bolt which runs the Siddhi engine.
      *
@@ -82,7 +121,12 @@ public class SiddhiBolt extends BaseBasicBolt {
         this.query = query;
         this.outputStreamDefinitions = outputSiddhiDefinitions;
         this.name = name;
+        this.executionPlanName = executionPlanName;
+        this.tenantId = tenantId;
         this.logPrefix = "[" + tenantId + ":" + executionPlanName + ":" + name + "] ";
+        this.microBatchSize = TransportConfiguration.getBoltMicroBatchSize(executionPlanName);
+        this.microBatchFlushIntervalSeconds = TransportConfiguration.getBoltMicroBatchFlushIntervalSeconds(executionPlanName);
+        this.traced = TransportConfiguration.isLatencyTracingEnabled(executionPlanName);
         init();
     }
 
@@ -92,11 +136,10 @@ public class SiddhiBolt extends BaseBasicBolt {
     private void init() {
         log = Logger.getLogger(SiddhiBolt.class);
 
-        inputThroughputProbe = new ThroughputProbe(logPrefix + "-IN", 10);
-        emitThroughputProbe = new ThroughputProbe(logPrefix + " -EMIT", 10);
-
-        inputThroughputProbe.startSampling();
-        emitThroughputProbe.startSampling();
+        inputThroughputProbe = new ThroughputProbe(tenantId, executionPlanName, name, "IN", 10);
+        emitThroughputProbe = new ThroughputProbe(tenantId, executionPlanName, name, "EMIT", 10);
+        currentTrace = LatencyTrace.NOT_SAMPLED;
+        pendingTrace = LatencyTrace.NOT_SAMPLED;
 
         siddhiManager = new SiddhiManager();
         String fullQueryExpression = Utils.constructQueryExpression(inputStreamDefinitions, outputStreamDefinitions,
@@ -112,14 +155,14 @@ public class SiddhiBolt extends BaseBasicBolt {
 
                 @Override
                 public void receive(Event[] events) {
+                    String trace = traced ? LatencyTrace.addHop(currentTrace, name + ".emit") : null;
                     for (Event event : events) {
-                        Object[] eventData = Arrays.copyOf(event.getData(), event.getData().length + 1);
-                        eventData[event.getData().length] = event.getTimestamp();
-                        collector.emit(outputSiddhiDefinition.getId(), Arrays.asList(eventData));
+                        collector.emit(outputSiddhiDefinition.getId(),
+                                new EventTupleValues(event.getData(), event.getTimestamp(), trace));
 
                         if (log.isDebugEnabled()) {
                             log.debug(logPrefix + "Emitted Event:" + outputSiddhiDefinition.getId() +
-                                    ":" + Arrays.deepToString(eventData) + "@" + event.getTimestamp());
+                                    ":" + Arrays.deepToString(event.getData()) + "@" + event.getTimestamp());
                         }
 
                         emitThroughputProbe.update();
@@ -133,6 +176,50 @@ public class SiddhiBolt extends BaseBasicBolt {
     @Override
     public void prepare(Map stormConf, TopologyContext context) {
         super.prepare(stormConf, context);
+        if (siddhiManager == null) {
+            init();
+        }
+        // Sampling is started only on the worker, not for the instance created when building the topology
+        inputThroughputProbe.startSampling();
+        emitThroughputProbe.startSampling();
+        clearStreamIndex();
+        for (GlobalStreamId globalStreamId : context.getThisSources().keySet()) {
+            String streamId = globalStreamId.get_streamId();
+            if (!streamIndexMap.containsKey(streamId)) {
+                addStream(streamId);
+            }
+        }
+    }
+
+    private void clearStreamIndex() {
+        streamIndexMap = new HashMap<String, Integer>();
+        inputHandlers = new InputHandler[0];
+        unknownStreamWarned = new boolean[0];
+        lastStreamId = null;
+    }
+
+    /**
+     * Resolves the input handler of a stream and assigns it the next stream index.
+     */
+    private int addStream(String streamId) {
+        int streamIndex = inputHandlers.length;
+        inputHandlers = Arrays.copyOf(inputHandlers, streamIndex + 1);
+        unknownStreamWarned = Arrays.copyOf(unknownStreamWarned, streamIndex + 1);
+        inputHandlers[streamIndex] = executionPlanRuntime.getInputHandler(streamId);
+        streamIndexMap.put(streamId.intern(), streamIndex);
+        return streamIndex;
+    }
+
+    private int getStreamIndex(String streamId) {
+        if (streamId == lastStreamId) {
+            return lastStreamIndex;
+        }
+        Integer streamIndex = streamIndexMap.get(streamId);
+        // Streams which are not known to the topology context are resolved on their first tuple
+        int index = (streamIndex != null) ? streamIndex : addStream(streamId);
+        lastStreamId = streamId;
+        lastStreamIndex = index;
+        return index;
     }
 
     @Override
@@ -140,30 +227,133 @@ public class SiddhiBolt extends BaseBasicBolt {
         if (siddhiManager == null) {
             init();
         }
-        inputThroughputProbe.update();
+        if (streamIndexMap == null) {
+            clearStreamIndex();
+        }
 
         try {
             this.collector = collector;
-            InputHandler inputHandler = executionPlanRuntime.getInputHandler(tuple.getSourceStreamId());
-            Object[] dataArray = tuple.getValues().toArray();
-            long timestamp = (Long) dataArray[dataArray.length - 1];
-            dataArray = ArrayUtils.remove(dataArray, dataArray.length - 1);
+            if (isTickTuple(tuple)) {
+                flushPendingEvents();
+                return;
+            }
+            inputThroughputProbe.update();
+            int streamIndex = getStreamIndex(tuple.getSourceStreamId());
+            InputHandler inputHandler = inputHandlers[streamIndex];
+            Object[] dataArray = EventTupleValues.getData(tuple);
+            long timestamp = EventTupleValues.getTimestamp(tuple);
 
             if (log.isDebugEnabled()) {
                 log.debug(logPrefix + "Received Event: " + tuple.getSourceStreamId() + ":" + Arrays.deepToString(dataArray) + "@" + timestamp);
             }
 
             if (inputHandler != null) {
-                inputHandler.send(timestamp, dataArray);
-            } else {
+                String trace = traced ? LatencyTrace.addHop(EventTupleValues.getTrace(tuple), name) : null;
+                if (microBatchSize > 1) {
+                    addPendingEvent(streamIndex, timestamp, dataArray, trace);
+                } else if (LatencyTrace.isSampled(trace)) {
+                    currentTrace = trace;
+                    try {
+                        inputHandler.send(timestamp, dataArray);
+                    } finally {
+                        currentTrace = LatencyTrace.NOT_SAMPLED;
+                    }
+                } else {
+                    inputHandler.send(timestamp, dataArray);
+                }
+            } else if (!unknownStreamWarned[streamIndex]) {
+                unknownStreamWarned[streamIndex] = true;
                 log.warn(logPrefix + "Event received for unknown stream " + tuple.getSourceStreamId() + ". Discarding" +
-                        " the Event: " + tuple.getSourceStreamId() + ":" + Arrays.deepToString(dataArray) + "@" + timestamp);
+                        " all events of the stream");
             }
         } catch (InterruptedException e) {
             log.error(e);
         }
     }
 
+    private void addPendingEvent(int streamIndex, long timestamp, Object[] data, String trace)
+            throws InterruptedException {
+        if (pendingEvents == null) {
+            pendingEvents = new Event[microBatchSize];
+            pendingEventCount = 0;
+        }
+        if (pendingEventCount > 0 && pendingStreamIndex != streamIndex) {
+            flushPendingEvents();
+        }
+        Event event = pendingEvents[pendingEventCount];
+        if (event == null) {
+            event = new Event();
+            pendingEvents[pendingEventCount] = event;
+        }
+        event.setTimestamp(timestamp);
+        event.setData(data);
+        if (LatencyTrace.isSampled(trace)) {
+            pendingTrace = trace;
+        }
+        pendingStreamIndex = streamIndex;
+        if (++pendingEventCount >= microBatchSize) {
+            flushPendingEvents();
+        }
+    }
+
+    /**
+     * Sends the buffered events to Siddhi. Siddhi copies the events on send, hence the event objects are re-used for
+     * the next batch.
+     */
+    private void flushPendingEvents() throws InterruptedException {
+        if (pendingEventCount == 0) {
+            return;
+        }
+        Event[] events = (pendingEventCount == pendingEvents.length) ? pendingEvents :
+                Arrays.copyOf(pendingEvents, pendingEventCount);
+        currentTrace = pendingTrace;
+        try {
+            inputHandlers[pendingStreamIndex].send(events);
+        } finally {
+            for (int i = 0; i < pendingEventCount; i++) {
+                pendingEvents[i].setData(null);
+            }
+            pendingEventCount = 0;
+            currentTrace = LatencyTrace.NOT_SAMPLED;
+            pendingTrace = LatencyTrace.NOT_SAMPLED;
+        }
+    }
+
+    /**
+     * Sends the pending micro batch to Siddhi, so that its events are processed and their output emitted before the
+     * bolt is killed or rebalanced. Storm calls cleanup only when the worker shuts down in an orderly way, hence the
+     * flush interval still bounds the events lost when a worker dies.
+     */
+    @Override
+    public void cleanup() {
+        try {
+            flushPendingEvents();
+        } catch (InterruptedException e) {
+            log.error(logPrefix + "Interrupted while sending " + pendingEventCount + " pending events to Siddhi", e);
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            log.error(logPrefix + "Error while sending pending events to Siddhi on cleanup", e);
+        }
+        inputThroughputProbe.stopSampling();
+        emitThroughputProbe.stopSampling();
+    }
+
+    private static boolean isTickTuple(Tuple tuple) {
+        return Constants.SYSTEM_COMPONENT_ID.equals(tuple.getSourceComponent())
+                && Constants.SYSTEM_TICK_STREAM_ID.equals(tuple.getSourceStreamId());
+    }
+
+    @Override
+    public Map<String, Object> getComponentConfiguration() {
+        if (microBatchSize > 1) {
+            // Tick tuples flush partially filled batches when events arrive slowly
+            Map<String, Object> configuration = new HashMap<String, Object>();
+            configuration.put(Config.TOPOLOGY_TICK_TUPLE_FREQ_SECS, microBatchFlushIntervalSeconds);
+            return configuration;
+        }
+        return null;
+    }
+
     @Override
     public void declareOutputFields(OutputFieldsDeclarer declarer) {
         if (siddhiManager == null) {
@@ -181,6 +371,9 @@ public class SiddhiBolt extends BaseBasicBolt {
             for (Attribute attribute : siddhiOutputDefinition.getAttributeList()) {
                 list.add(attribute.getName());
             }
+            if (traced) {
+                list.add(LatencyTrace.TRACE_ATTRIBUTE);
+            }
             Fields fields = new Fields(list);
             declarer.declareStream(siddhiOutputDefinition.getId(), fields);
             log.info(logPrefix + "Declaring output field for stream :" + siddhiOutputDefinition.getId());
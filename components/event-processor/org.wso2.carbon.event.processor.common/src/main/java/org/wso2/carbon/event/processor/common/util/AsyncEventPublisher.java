@@ -16,10 +16,16 @@
 
 package org.wso2.carbon.event.processor.common.util;
 
+import com.lmax.disruptor.BlockingWaitStrategy;
 import com.lmax.disruptor.EventFactory;
 import com.lmax.disruptor.EventHandler;
+import com.lmax.disruptor.InsufficientCapacityException;
 import com.lmax.disruptor.RingBuffer;
+import com.lmax.disruptor.Sequence;
+import com.lmax.disruptor.SequenceReportingEventHandler;
+import com.lmax.disruptor.WaitStrategy;
 import com.lmax.disruptor.dsl.Disruptor;
+import com.lmax.disruptor.dsl.ProducerType;
 import org.apache.log4j.Logger;
 import org.apache.thrift.TException;
 import org.apache.thrift.protocol.TBinaryProtocol;
@@ -36,13 +42,22 @@ import org.wso2.carbon.event.processor.manager.commons.transport.server.Connecti
 import org.wso2.carbon.event.processor.manager.commons.utils.HostAndPort;
 import org.wso2.carbon.event.processor.manager.commons.utils.Utils;
 import org.wso2.carbon.event.processor.manager.core.config.DistributedConfiguration;
+import org.wso2.siddhi.core.event.Event;
 import org.wso2.siddhi.query.api.definition.StreamDefinition;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.SocketException;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Sending events asynchronously from "CEP Receiver" -> "Storm Receiver" and
@@ -50,7 +65,8 @@ import java.util.concurrent.Executors;
  * discover and connect to the endpoint(i.e. Storm Receiver/CEP Publisher) to
  * send events by talking to "Storm Management" service using EndpointConnectionCreator.
  */
-public class AsyncEventPublisher implements EventHandler<AsynchronousEventBuffer.DataHolder>, ConnectionFailureHandler {
+public class AsyncEventPublisher implements SequenceReportingEventHandler<AsynchronousEventBuffer.DataHolder>,
+        ConnectionFailureHandler {
     public enum DestinationType {STORM_RECEIVER, CEP_PUBLISHER}
 
     private transient Logger log = Logger.getLogger(AsyncEventPublisher.class);
@@ -70,14 +86,48 @@ public class AsyncEventPublisher implements EventHandler<AsynchronousEventBuffer
 
     private ConnectionCallback connectionCallback;
 
-    private TCPEventPublisher tcpEventPublisher = null;
+    private volatile TCPEventPublisher tcpEventPublisher = null;
     private EndpointConnectionCreator endpointConnectionCreator;
+    private final AtomicBoolean reconnecting = new AtomicBoolean(false);
 
     private boolean shutdown = false;
 
     private ThroughputProbe inputThroughputProbe;
     private ThroughputProbe publishThroughputProbe;
 
+    /**
+     * Events gathered by the disruptor consumer thread which are written to the TCP connection as a single batch.
+     * Only accessed from the consumer thread.
+     */
+    private final int maxBatchSize;
+    private final long maxBatchLingerNanos;
+    private final AsynchronousEventBuffer.DataHolder[] batch;
+    private int batchSize = 0;
+    private long batchStartTime;
+    /**
+     * Sequence of the consumer, set to release the slots of sent or discarded events before the end of the disruptor
+     * batch, so that producers waiting for space under the DROP_OLDEST overflow policy get them right away.
+     */
+    private Sequence sequenceCallback;
+
+    private final long initialRetryInterval;
+    private volatile long lastDropWarningTime = 0;
+
+    /**
+     * Whether the streams carry a latency trace as their trailing attribute. A hop is added to sampled traces when
+     * events leave the ring buffer.
+     */
+    private final boolean traced;
+    private final String traceHop;
+
+    /**
+     * Journal of events which could not be sent, when the SPILL overflow policy is used. Null otherwise.
+     */
+    private SpillJournal spillJournal;
+    private EventBufferSchema spillSchema;
+    private double spillHighWatermark;
+    private long lastSpillLogTime = 0;
+
     /**
      * @param connectionCallback is a callback, invoked on connect() and disconnect() methods of TCPEventPublisher. Set to null if the callback is not needed.
      */
@@ -99,9 +149,63 @@ public class AsyncEventPublisher implements EventHandler<AsynchronousEventBuffer
 
         int bufferSize = (publisherTypeString.equals("CEPReceiver")) ?
                 stormDeploymentConfig.getCepReceiverOutputQueueSize() : stormDeploymentConfig.getStormPublisherOutputQueueSize();
-        eventSendBuffer = new AsynchronousEventBuffer<Object[]>(bufferSize, this);
+
+        this.maxBatchSize = TransportConfiguration.getPublisherBatchSize();
+        this.maxBatchLingerNanos = TimeUnit.MILLISECONDS.toNanos(TransportConfiguration.getPublisherBatchLingerMillis());
+        this.batch = new AsynchronousEventBuffer.DataHolder[maxBatchSize];
+        this.initialRetryInterval = TransportConfiguration.getPublisherRetryInitialIntervalMillis();
 
         this.logPrefix = "[" + tenantId + ":" + executionPlanName + ":" + publisherTypeString + "] ";
+        this.traced = !streams.isEmpty() && LatencyTrace.isTraced(streams.iterator().next());
+        this.traceHop = publisherTypeString + ".send";
+
+        EventBufferSchema schema = TransportConfiguration.isPublisherBufferSchemaEnabled() ? new EventBufferSchema(streams) : null;
+        // Publisher bolts add events only from their executor thread, where as many event receiver threads publish on CEP receivers
+        ProducerType defaultProducerType = (destinationType == DestinationType.CEP_PUBLISHER) ? ProducerType.SINGLE : ProducerType.MULTI;
+        ProducerType producerType = TransportConfiguration.getPublisherBufferProducerType(executionPlanName, defaultProducerType);
+        WaitStrategy waitStrategy = TransportConfiguration.getPublisherBufferWaitStrategy(executionPlanName);
+        OverflowPolicy overflowPolicy = TransportConfiguration.getPublisherBufferOverflowPolicy(executionPlanName);
+        if (overflowPolicy == OverflowPolicy.SPILL && producerType == ProducerType.SINGLE) {
+            // The connecting thread publishes a trigger to replay the journal once connected, which makes it a second
+            // producer besides the publishing thread
+            producerType = ProducerType.MULTI;
+        }
+        ThreadFactory threadFactory = new PublisherThreadFactory("AsyncEventPublisher-" + tenantId + ":" +
+                executionPlanName + ":" + publisherTypeString, TransportConfiguration.getPublisherBufferThreadPriority(executionPlanName));
+        eventSendBuffer = new AsynchronousEventBuffer<Object[]>(bufferSize, this, schema, producerType, waitStrategy,
+                overflowPolicy, threadFactory);
+        log.info(logPrefix + "Created event buffer of size " + bufferSize + " with " + producerType.name().toLowerCase()
+                + " producer, " + waitStrategy.getClass().getSimpleName() + " and " + overflowPolicy.name()
+                + " overflow policy");
+
+        if (overflowPolicy == OverflowPolicy.SPILL) {
+            openSpillJournal(schema);
+        }
+    }
+
+    private void openSpillJournal(EventBufferSchema bufferSchema) {
+        spillSchema = (bufferSchema != null) ? bufferSchema : new EventBufferSchema(streams);
+        spillHighWatermark = TransportConfiguration.getPublisherSpillHighWatermark(executionPlanName);
+        StringBuilder journalName = new StringBuilder(publisherTypeString);
+        for (StreamDefinition streamDefinition : streams) {
+            journalName.append('-').append(streamDefinition.getId());
+        }
+        File baseDirectory = new File(new File(TransportConfiguration.getPublisherSpillDirectory(),
+                String.valueOf(tenantId)), toFileName(executionPlanName));
+        try {
+            spillJournal = SpillJournal.open(baseDirectory, toFileName(journalName.toString()), spillSchema,
+                    streams.size(), TransportConfiguration.getPublisherSpillSegmentSize());
+            log.info(logPrefix + "Spilling undeliverable events to " + spillJournal.getDirectory().getAbsolutePath()
+                    + " above buffer fill ratio of " + spillHighWatermark);
+        } catch (IOException e) {
+            log.error(logPrefix + "Cannot open spill journal at " + baseDirectory.getAbsolutePath() + ", events will " +
+                    "be buffered in memory only", e);
+            spillJournal = null;
+        }
+    }
+
+    private static String toFileName(String name) {
+        return name.replaceAll("[^a-zA-Z0-9._-]", "_");
     }
 
     /**
@@ -120,8 +224,8 @@ public class AsyncEventPublisher implements EventHandler<AsynchronousEventBuffer
                 Thread thread = new Thread(endpointConnectionCreator);
                 thread.start();
             }
-            inputThroughputProbe = new ThroughputProbe(logPrefix + "-In", 10);
-            publishThroughputProbe = new ThroughputProbe(logPrefix + " -Publish", 10);
+            inputThroughputProbe = new ThroughputProbe(tenantId, executionPlanName, publisherTypeString, "In", 10);
+            publishThroughputProbe = new ThroughputProbe(tenantId, executionPlanName, publisherTypeString, "Publish", 10);
 
             inputThroughputProbe.startSampling();
             publishThroughputProbe.startSampling();
@@ -139,14 +243,69 @@ public class AsyncEventPublisher implements EventHandler<AsynchronousEventBuffer
      * @param streamId
      */
     public void sendEvent(Object[] eventData, long timestamp, String streamId) {
-        eventSendBuffer.addEvent(eventData, timestamp, streamId);
-        inputThroughputProbe.update();
+        int streamIndex = getStreamIndex(streamId);
+        boolean added;
+        if (streamIndex >= 0) {
+            added = eventSendBuffer.addEvent(eventData, timestamp, streamIndex);
+        } else {
+            added = eventSendBuffer.addEvent(eventData, timestamp, streamId);
+        }
+        if (added) {
+            inputThroughputProbe.update();
+        } else {
+            warnDroppedEvents();
+        }
     }
 
     /**
-     * Callback from disruptor for the consumer to consume data. This is where events are actually dispatched to the remote end.
-     * If an exception occurs when trying send data it will keep trying to send for ever until succeeds. Returns only
-     * after sending the event.
+     * Add event of a stream resolved through {@link #getStreamIndex(String)} to the outbound event buffer. When the
+     * buffer is schema aware the event data is copied into the buffer, hence the caller may re-use the array.
+     *
+     * @param eventData
+     * @param timestamp
+     * @param streamIndex index returned by {@link #getStreamIndex(String)}
+     */
+    public void sendEvent(Object[] eventData, long timestamp, int streamIndex) {
+        if (eventSendBuffer.addEvent(eventData, timestamp, streamIndex)) {
+            inputThroughputProbe.update();
+        } else {
+            warnDroppedEvents();
+        }
+    }
+
+    /**
+     * Add a batch of events of a stream to the outbound event buffer, claiming slots for the whole batch at once when
+     * the buffer has room for it. Otherwise the events are added one by one as per the overflow policy.
+     *
+     * @param events      events matching the definition of the stream
+     * @param streamIndex index returned by {@link #getStreamIndex(String)}, or -1 to reference the events by stream ID
+     * @param streamId    stream ID of the events
+     */
+    public void sendEvents(Event[] events, int streamIndex, String streamId) {
+        int added = eventSendBuffer.addEvents(events, streamIndex, streamId);
+        inputThroughputProbe.update(added);
+        if (added < events.length) {
+            warnDroppedEvents();
+        }
+    }
+
+    /**
+     * @return index of the stream in the schema aware event buffer, or -1 if the buffer is not schema aware or the
+     * stream is not known to it.
+     */
+    public int getStreamIndex(String streamId) {
+        EventBufferSchema schema = eventSendBuffer.getSchema();
+        return (schema == null) ? -1 : schema.getStreamIndex(streamId);
+    }
+
+    /**
+     * Callback from disruptor for the consumer to consume data. Events are gathered into a batch which is dispatched to
+     * the remote end when the disruptor reports the end of the available batch, when the batch reaches the maximum batch
+     * size or when the oldest event in the batch has waited for the maximum linger time.
+     * <p/>
+     * A batch never outlives the disruptor batch it is gathered from, since the disruptor releases the slots at its
+     * end. Hence a lone event is sent as soon as it is consumed, and the linger time only bounds how long the events
+     * of a long disruptor batch are held back, without the need of a timer.
      *
      * @param dataHolder
      * @param sequence
@@ -154,51 +313,316 @@ public class AsyncEventPublisher implements EventHandler<AsynchronousEventBuffer
      */
     @Override
     public void onEvent(AsynchronousEventBuffer.DataHolder dataHolder, long sequence, boolean endOfBatch) {
-        while (tcpEventPublisher == null) {
-            log.info(logPrefix + "Can't send event. TCP event publisher not initialized. Waiting " + stormDeploymentConfig.getTransportReconnectInterval() + "s");
+        if (dropOldest(dataHolder, sequence)) {
+            return;
+        }
+        if (!dataHolder.trigger) {
+            if (batchSize == 0) {
+                batchStartTime = System.nanoTime();
+            }
+            // Slots are not released to producers until the disruptor batch ends, hence they can be referenced until then.
+            batch[batchSize++] = dataHolder;
+        }
+
+        if (endOfBatch || batchSize >= maxBatchSize || System.nanoTime() - batchStartTime >= maxBatchLingerNanos) {
+            publishBatch();
+            if (batchSize == 0) {
+                sequenceCallback.set(sequence);
+            }
+        }
+    }
+
+    @Override
+    public void setSequenceCallback(Sequence sequenceCallback) {
+        this.sequenceCallback = sequenceCallback;
+    }
+
+    /**
+     * Discards the gathered batch and the event, which are the oldest events not sent yet, when producers are waiting
+     * for space under the DROP_OLDEST overflow policy, and releases their slots to the producers right away. Hence
+     * producers wait at most until the batch being written is sent, instead of until the whole buffer is drained.
+     *
+     * @return true if the event is discarded
+     */
+    private boolean dropOldest(AsynchronousEventBuffer.DataHolder dataHolder, long sequence) {
+        int eventCount = dataHolder.trigger ? batchSize : batchSize + 1;
+        if (eventCount == 0 || !eventSendBuffer.takeDropRequests(eventCount)) {
+            return false;
+        }
+        if (!dataHolder.trigger) {
+            batch[batchSize++] = dataHolder;
+        }
+        eventSendBuffer.recordDroppedOldest(eventCount);
+        clearBatch();
+        sequenceCallback.set(sequence);
+        warnDroppedEvents();
+        return true;
+    }
+
+    /**
+     * Writes the current batch to the TCP connection and flushes it once. If the connection is not available or an
+     * exception occurs when trying send data, the whole batch is resent once reconnected, waiting with an exponential
+     * backoff between attempts. Keeps trying for ever until succeeds, unless the publisher is shutdown or the
+     * DROP_OLDEST overflow policy requires the batch to be discarded. Since the batch is resent as a whole, events of
+     * a partially written batch may be delivered more than once.
+     */
+    private void publishBatch() {
+        if (spillJournal != null) {
+            publishOrSpillBatch();
+            return;
+        }
+        long maxRetryInterval = Math.max(initialRetryInterval, stormDeploymentConfig.getTransportReconnectInterval());
+        long retryInterval = initialRetryInterval;
+        boolean waitLogged = false;
+        while (true) {
+            synchronized (this) {
+                if (shutdown) {
+                    log.info(logPrefix + "Aborting retry to send events. AsyncEventPublisher has shutdown, discarding "
+                            + batchSize + " event(s).");
+                    // The consumer may still be handed events until the buffer is terminated
+                    clearBatch();
+                    return;
+                }
+            }
+
+            TCPEventPublisher publisher = tcpEventPublisher;
+            if (publisher != null) {
+                try {
+                    writeBatch(publisher);
+                    clearBatch();
+                    return;
+                } catch (IOException e) {
+                    log.error(logPrefix + "Error while trying to send batch of " + batchSize + " events to "
+                            + destinationTypeString + " at " + publisher.getHostUrl(), e);
+                    reconnect(publisher);
+                }
+            }
+
+            if (batchSize > 0 && eventSendBuffer.takeDropRequests(batchSize)) {
+                eventSendBuffer.recordDroppedOldest(batchSize);
+                clearBatch();
+                warnDroppedEvents();
+                return;
+            }
+
+            if (!waitLogged) {
+                log.info(logPrefix + "Can't send events. TCP event publisher not connected. Retrying in intervals of up to "
+                        + maxRetryInterval + "ms");
+                waitLogged = true;
+            }
             try {
-                synchronized (this) {
-                    if (shutdown) {
-                        log.info(logPrefix + "Aborting retry to send events. AsyncEventPublisher has shutdown.");
-                        return;
+                Thread.sleep(retryInterval);
+            } catch (InterruptedException e) {
+            }
+            retryInterval = Math.min(retryInterval * 2, maxRetryInterval);
+        }
+    }
+
+    /**
+     * Used with the SPILL overflow policy instead of waiting for the connection. Replays the journal before sending the
+     * batch, so that events are sent in order, and spills the batch when the remote end is unreachable, the journal
+     * cannot be drained or the buffer is filled above the high watermark.
+     */
+    private void publishOrSpillBatch() {
+        TCPEventPublisher publisher = tcpEventPublisher;
+        if (publisher != null && eventSendBuffer.getFillRatio() < spillHighWatermark) {
+            try {
+                replayJournal(publisher);
+                if (spillJournal.isEmpty()) {
+                    writeBatch(publisher);
+                    clearBatch();
+                    return;
+                }
+            } catch (IOException e) {
+                log.error(logPrefix + "Error while trying to send events to " + destinationTypeString + " at "
+                        + publisher.getHostUrl() + ", spilling events to journal", e);
+                reconnect(publisher);
+            }
+        }
+        spillBatch();
+    }
+
+    private void replayJournal(final TCPEventPublisher publisher) throws IOException {
+        SpillJournal.EventSink sink = new SpillJournal.EventSink() {
+            @Override
+            public void send(String streamId, long timestamp, Object[] data, boolean flush) throws IOException {
+                publisher.sendEvent(streamId, timestamp, data, flush);
+                publishThroughputProbe.update();
+            }
+        };
+        while (!spillJournal.isEmpty() && eventSendBuffer.getFillRatio() < spillHighWatermark) {
+            spillJournal.replay(sink, maxBatchSize);
+        }
+    }
+
+    private void spillBatch() {
+        if (batchSize == 0) {
+            return;
+        }
+        EventBufferSchema schema = eventSendBuffer.getSchema();
+        int lostEvents = 0;
+        IOException error = null;
+        for (int i = 0; i < batchSize; i++) {
+            AsynchronousEventBuffer.DataHolder dataHolder = batch[i];
+            try {
+                if (dataHolder.isEncoded()) {
+                    spillJournal.append(dataHolder.streamIndex, dataHolder.getTimestamp(), schema.decode(dataHolder));
+                } else {
+                    int streamIndex = spillSchema.getStreamIndex(dataHolder.getStreamId());
+                    if (streamIndex < 0) {
+                        throw new IOException("Unknown stream " + dataHolder.getStreamId());
                     }
+                    spillJournal.append(streamIndex, dataHolder.getTimestamp(), (Object[]) dataHolder.getData());
                 }
-                Thread.sleep(stormDeploymentConfig.getTransportReconnectInterval());
-            } catch (InterruptedException e) {
+            } catch (IOException e) {
+                lostEvents++;
+                error = e;
             }
         }
+        if (error != null) {
+            log.error(logPrefix + "Error while spilling events to journal, " + lostEvents + " event(s) lost", error);
+        }
+        long currentTime = System.currentTimeMillis();
+        if (currentTime - lastSpillLogTime >= 10000) {
+            lastSpillLogTime = currentTime;
+            log.info(logPrefix + "Spilling events to journal. Spilled: " + spillJournal.getSpilledEventCount()
+                    + ", replayed: " + spillJournal.getReplayedEventCount());
+        }
+        clearBatch();
+    }
 
-        // TODO : comment on message lost of the last batch
-        try {
-            tcpEventPublisher.sendEvent(dataHolder.getStreamId(), dataHolder.getTimestamp(), (Object[]) dataHolder.getData(), endOfBatch);
-            publishThroughputProbe.update();
-        } catch (IOException e) {
-            log.error(logPrefix + "Error while trying to send event to " + destinationTypeString + " at " + tcpEventPublisher.getHostUrl(), e);
-            reconnect();
-            onEvent(dataHolder, sequence, endOfBatch);
+    /**
+     * Wakes up the consumer to replay journaled events once connected, without waiting for new events. Called from
+     * the connecting threads, hence the buffer uses a multi producer ring when journaling.
+     */
+    private void onConnected() {
+        if (spillJournal != null && !spillJournal.isEmpty()) {
+            eventSendBuffer.addTrigger();
         }
     }
 
     /**
-     * First tires to reconnect to the already obtained end point. If failed re-initialize the connection.
+     * Writes the batch to the publisher. TCPEventPublisher has no batch API, hence the events are written one by one
+     * into its buffered output stream and only the last one flushes it, so that the batch reaches the socket with as
+     * few writes as the stream buffer allows rather than one per event. The time taken per batch is recorded as the
+     * publish latency.
      */
-    private void reconnect() {
-        String destinationHostPort = tcpEventPublisher.getHostUrl();
-        resetTCPEventPublisher();
-        // Retrying to connect to the existing endpoint.
-        tcpEventPublisher = endpointConnectionCreator.connectToEndpoint(destinationHostPort, 3);
-        // Initialize connection from the beginning if can't connect to the existing endpoint
-        if (tcpEventPublisher == null) {
-            log.error(logPrefix + "Failed to connect to existing " + destinationTypeString + " at " + destinationHostPort + ". Reinitializing connection process");
-            initializeConnection(true);
+    private void writeBatch(TCPEventPublisher publisher) throws IOException {
+        long startTime = System.nanoTime();
+        EventBufferSchema schema = eventSendBuffer.getSchema();
+        int lastIndex = batchSize - 1;
+        for (int i = 0; i < batchSize; i++) {
+            AsynchronousEventBuffer.DataHolder dataHolder = batch[i];
+            if (dataHolder.isEncoded()) {
+                publisher.sendEvent(schema.getStreamId(dataHolder.streamIndex), dataHolder.getTimestamp(),
+                        addTraceHop(schema.decode(dataHolder)), i == lastIndex);
+            } else {
+                publisher.sendEvent(dataHolder.getStreamId(), dataHolder.getTimestamp(),
+                        addTraceHop((Object[]) dataHolder.getData()), i == lastIndex);
+            }
         }
+        publishThroughputProbe.update(batchSize);
+        publishThroughputProbe.recordLatency(System.nanoTime() - startTime);
     }
 
-    private void resetTCPEventPublisher() {
-        if (tcpEventPublisher != null) {
-            tcpEventPublisher.terminate();
+    /**
+     * The event data may be referenced by the caller, and a batch is resent as is on failure, hence only a copy of the
+     * event data carries the hop.
+     */
+    private Object[] addTraceHop(Object[] data) {
+        return traced ? LatencyTrace.addHop(data, traceHop) : data;
+    }
+
+    /**
+     * Logs the overflow counters of the event buffer, at most once in every 10 seconds.
+     */
+    private void warnDroppedEvents() {
+        long currentTime = System.currentTimeMillis();
+        if (currentTime - lastDropWarningTime >= 10000) {
+            lastDropWarningTime = currentTime;
+            log.warn(logPrefix + "Event buffer is full, discarding events as per " + eventSendBuffer.getOverflowPolicy()
+                    + " overflow policy. Dropped newest: " + eventSendBuffer.getDroppedNewestCount() + ", dropped oldest: "
+                    + eventSendBuffer.getDroppedOldestCount() + ", blocked publishes: " + eventSendBuffer.getBlockedCount());
+        }
+    }
+
+    /**
+     * @return number of events discarded because the event buffer was full
+     */
+    public long getDroppedEventCount() {
+        return eventSendBuffer.getDroppedNewestCount() + eventSendBuffer.getDroppedOldestCount();
+    }
+
+    /**
+     * @return number of publishes which had to wait because the event buffer was full
+     */
+    public long getBlockedEventCount() {
+        return eventSendBuffer.getBlockedCount();
+    }
+
+    /**
+     * @return number of events written to the spill journal, or 0 when the SPILL overflow policy is not used
+     */
+    public long getSpilledEventCount() {
+        return (spillJournal == null) ? 0 : spillJournal.getSpilledEventCount();
+    }
+
+    private void clearBatch() {
+        EventBufferSchema schema = eventSendBuffer.getSchema();
+        for (int i = 0; i < batchSize; i++) {
+            if (batch[i].isEncoded()) {
+                schema.release(batch[i]);
+            } else {
+                batch[i].setData(null);
+            }
+            batch[i] = null;
+        }
+        batchSize = 0;
+    }
+
+    /**
+     * Drops the failed connection and reconnects on a separate thread, so that the consumer thread can keep applying
+     * the overflow policy while disconnected. First tires to reconnect to the already obtained end point. If failed
+     * re-initialize the connection. Only one reconnection runs at a time.
+     *
+     * @param failedPublisher the publisher of the broken connection
+     */
+    private void reconnect(TCPEventPublisher failedPublisher) {
+        synchronized (this) {
+            if (tcpEventPublisher != failedPublisher) {
+                // Already reset by an earlier failure
+                return;
+            }
             tcpEventPublisher = null;
         }
+        failedPublisher.terminate();
+        if (!reconnecting.compareAndSet(false, true)) {
+            return;
+        }
+
+        final String destinationHostPort = failedPublisher.getHostUrl();
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    // Retrying to connect to the existing endpoint.
+                    TCPEventPublisher publisher = endpointConnectionCreator.connectToEndpoint(destinationHostPort, 3);
+                    if (publisher != null) {
+                        tcpEventPublisher = publisher;
+                        onConnected();
+                    } else {
+                        // Initialize connection from the beginning if can't connect to the existing endpoint
+                        log.error(logPrefix + "Failed to connect to existing " + destinationTypeString + " at " +
+                                destinationHostPort + ". Reinitializing connection process");
+                        endpointConnectionCreator.establishConnection();
+                    }
+                } finally {
+                    reconnecting.set(false);
+                }
+            }
+        }, "AsyncEventPublisher-" + tenantId + ":" + executionPlanName + ":" + publisherTypeString + "-Reconnect");
+        thread.setDaemon(true);
+        thread.start();
     }
 
     @Override
@@ -214,19 +638,53 @@ public class AsyncEventPublisher implements EventHandler<AsynchronousEventBuffer
             shutdown = true;
         }
         eventSendBuffer.terminate();
+        if (spillJournal != null) {
+            spillJournal.close();
+        }
+        if (inputThroughputProbe != null) {
+            inputThroughputProbe.stopSampling();
+            publishThroughputProbe.stopSampling();
+        }
         finalize();
     }
 
     @Override
     public void onConnectionFail(Exception e) {
+        TCPEventPublisher publisher = tcpEventPublisher;
+        if (publisher == null) {
+            // Reconnection is already in progress
+            return;
+        }
         if (log.isDebugEnabled()) {
-            log.debug("Pinging failed to " + tcpEventPublisher.getHostUrl() + ". Trying to re-connect.");
+            log.debug("Pinging failed to " + publisher.getHostUrl() + ". Trying to re-connect.");
         }
 
         if (!shutdown) {
-            reconnect();
+            reconnect(publisher);
         } else {
-            log.info("Not trying to reconnect to " + tcpEventPublisher.getHostUrl() + " because event publisher is shutdown");
+            log.info("Not trying to reconnect to " + publisher.getHostUrl() + " because event publisher is shutdown");
+        }
+    }
+
+    /**
+     * Creates named daemon threads for the ring buffer consumer, so that they can be identified in thread dumps.
+     */
+    static class PublisherThreadFactory implements ThreadFactory {
+        private final String name;
+        private final int priority;
+        private final AtomicInteger threadCount = new AtomicInteger(0);
+
+        PublisherThreadFactory(String name, int priority) {
+            this.name = name;
+            this.priority = priority;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, name + "-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(priority);
+            return thread;
         }
     }
 
@@ -378,6 +836,7 @@ public class AsyncEventPublisher implements EventHandler<AsynchronousEventBuffer
                     tcpEventPublisher = connectToEndpoint(endpointHostPort, 3);
                 }
             } while (tcpEventPublisher == null);
+            onConnected();
         }
 
         @Override
@@ -395,6 +854,21 @@ public class AsyncEventPublisher implements EventHandler<AsynchronousEventBuffer
 class AsynchronousEventBuffer<Type> {
     private Disruptor<DataHolder> disruptor;
     private RingBuffer<DataHolder> ringBuffer;
+    private final EventBufferSchema schema;
+    private final ExecutorService executorService;
+    private final OverflowPolicy overflowPolicy;
+
+    /**
+     * Overflow metrics
+     */
+    private final AtomicLong droppedNewestCount = new AtomicLong(0);
+    private final AtomicLong droppedOldestCount = new AtomicLong(0);
+    private final AtomicLong blockedCount = new AtomicLong(0);
+    /**
+     * Number of events producers waiting for space under the DROP_OLDEST overflow policy ask the consumer to discard.
+     */
+    private final AtomicInteger dropRequests = new AtomicInteger(0);
+    private static final long DROP_OLDEST_RETRY_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
 
     /**
      * Creates a AsynchronousEventBuffer instance
@@ -403,12 +877,38 @@ class AsynchronousEventBuffer<Type> {
      * @param publishHandler Instance of publish handler which is responsible for consuming events in the buffer
      */
     public AsynchronousEventBuffer(int bufferSize, EventHandler publishHandler) {
+        this(bufferSize, publishHandler, null, ProducerType.MULTI, new BlockingWaitStrategy(), OverflowPolicy.BLOCK,
+                Executors.defaultThreadFactory());
+    }
+
+    /**
+     * Creates a AsynchronousEventBuffer instance
+     *
+     * @param bufferSize     size of the buffer
+     * @param publishHandler Instance of publish handler which is responsible for consuming events in the buffer
+     * @param schema         column layout of the slots. If not null, events of the streams in the schema are copied
+     *                       into pre-allocated primitive columns of the slots instead of being referenced.
+     * @param producerType   whether one or many threads add events to the buffer
+     * @param waitStrategy   strategy used by the consumer thread to wait for events
+     * @param overflowPolicy what to do with new events when the buffer is full
+     * @param threadFactory  factory creating the consumer thread
+     */
+    public AsynchronousEventBuffer(int bufferSize, EventHandler publishHandler, final EventBufferSchema schema,
+                                   ProducerType producerType, WaitStrategy waitStrategy, OverflowPolicy overflowPolicy,
+                                   ThreadFactory threadFactory) {
+        this.schema = schema;
+        this.overflowPolicy = overflowPolicy;
+        this.executorService = Executors.newSingleThreadExecutor(threadFactory);
         this.disruptor = new Disruptor<DataHolder>(new EventFactory<DataHolder>() {
             @Override
             public DataHolder newInstance() {
-                return new DataHolder();
+                DataHolder dataHolder = new DataHolder();
+                if (schema != null) {
+                    schema.allocate(dataHolder);
+                }
+                return dataHolder;
             }
-        }, bufferSize, Executors.newSingleThreadExecutor());
+        }, bufferSize, executorService, producerType, waitStrategy);
 
         this.ringBuffer = disruptor.getRingBuffer();
 
@@ -417,20 +917,221 @@ class AsynchronousEventBuffer<Type> {
         disruptor.start();
     }
 
-    public void addEvent(Type data, long timestamp, String streamId) {
-        long sequenceNo = ringBuffer.next();
+    /**
+     * @return false if the event is discarded as per the overflow policy
+     */
+    public boolean addEvent(Type data, long timestamp, String streamId) {
+        long sequenceNo = claim();
+        if (sequenceNo < 0) {
+            return false;
+        }
         try {
             DataHolder existingHolder = ringBuffer.get(sequenceNo);
             existingHolder.setData(data);
             existingHolder.setTimestamp(timestamp);
             existingHolder.setStreamId(streamId);
+            existingHolder.streamIndex = -1;
+            existingHolder.trigger = false;
+        } finally {
+            ringBuffer.publish(sequenceNo);
+        }
+        return true;
+    }
+
+    /**
+     * Copies the event into the columns of the next slot. Only valid when the buffer is created with a schema.
+     *
+     * @param data        event data matching the definition of the stream
+     * @param timestamp   event timestamp
+     * @param streamIndex index of the stream in the schema
+     * @return false if the event is discarded as per the overflow policy
+     */
+    public boolean addEvent(Object[] data, long timestamp, int streamIndex) {
+        long sequenceNo = claim();
+        if (sequenceNo < 0) {
+            return false;
+        }
+        try {
+            DataHolder existingHolder = ringBuffer.get(sequenceNo);
+            schema.encode(streamIndex, data, existingHolder);
+            existingHolder.setData(null);
+            existingHolder.setTimestamp(timestamp);
+            existingHolder.setStreamId(null);
+            existingHolder.streamIndex = streamIndex;
+            existingHolder.trigger = false;
+        } finally {
+            ringBuffer.publish(sequenceNo);
+        }
+        return true;
+    }
+
+    /**
+     * Adds the events to contiguous ranges of slots, each claimed and published in a single step. When a range cannot
+     * be claimed without waiting, the events of that range are added one by one, applying the overflow policy.
+     *
+     * @param streamIndex index of the stream in the schema, or -1 to reference the event data by stream ID
+     * @return number of events added, i.e. not discarded as per the overflow policy
+     */
+    @SuppressWarnings("unchecked")
+    public int addEvents(Event[] events, int streamIndex, String streamId) {
+        int added = 0;
+        int maxClaimSize = ringBuffer.getBufferSize();
+        for (int offset = 0; offset < events.length; offset += maxClaimSize) {
+            int count = Math.min(maxClaimSize, events.length - offset);
+            long highSequence;
+            try {
+                highSequence = ringBuffer.tryNext(count);
+            } catch (InsufficientCapacityException e) {
+                for (int i = offset; i < offset + count; i++) {
+                    Event event = events[i];
+                    boolean eventAdded = (streamIndex >= 0) ? addEvent(event.getData(), event.getTimestamp(), streamIndex) :
+                            addEvent((Type) event.getData(), event.getTimestamp(), streamId);
+                    if (eventAdded) {
+                        added++;
+                    }
+                }
+                continue;
+            }
+            long lowSequence = highSequence - count + 1;
+            try {
+                for (int i = 0; i < count; i++) {
+                    Event event = events[offset + i];
+                    DataHolder existingHolder = ringBuffer.get(lowSequence + i);
+                    if (streamIndex >= 0) {
+                        schema.encode(streamIndex, event.getData(), existingHolder);
+                        existingHolder.setData(null);
+                        existingHolder.setStreamId(null);
+                    } else {
+                        existingHolder.setData((Type) event.getData());
+                        existingHolder.setStreamId(streamId);
+                    }
+                    existingHolder.setTimestamp(event.getTimestamp());
+                    existingHolder.streamIndex = streamIndex;
+                    existingHolder.trigger = false;
+                }
+            } finally {
+                ringBuffer.publish(lowSequence, highSequence);
+            }
+            added += count;
+        }
+        return added;
+    }
+
+    /**
+     * Publishes a slot without an event, to wake up the consumer. Skipped when the buffer is full, since the consumer
+     * is busy then anyway.
+     */
+    public void addTrigger() {
+        long sequenceNo;
+        try {
+            sequenceNo = ringBuffer.tryNext();
+        } catch (InsufficientCapacityException e) {
+            return;
+        }
+        try {
+            DataHolder existingHolder = ringBuffer.get(sequenceNo);
+            existingHolder.setData(null);
+            existingHolder.setStreamId(null);
+            existingHolder.streamIndex = -1;
+            existingHolder.trigger = true;
         } finally {
             ringBuffer.publish(sequenceNo);
         }
     }
 
+    /**
+     * @return fraction of the buffer holding unconsumed events
+     */
+    public double getFillRatio() {
+        return 1.0 - (double) ringBuffer.remainingCapacity() / ringBuffer.getBufferSize();
+    }
+
+    /**
+     * Claims the next slot of the ring buffer applying the overflow policy when it is full.
+     *
+     * @return sequence of the claimed slot, or -1 if the event has to be discarded
+     */
+    private long claim() {
+        try {
+            return ringBuffer.tryNext();
+        } catch (InsufficientCapacityException e) {
+            switch (overflowPolicy) {
+                case DROP_NEWEST:
+                    droppedNewestCount.incrementAndGet();
+                    return -1;
+                case DROP_OLDEST:
+                    return claimDroppingOldest();
+                default:
+                    blockedCount.incrementAndGet();
+                    return ringBuffer.next();
+            }
+        }
+    }
+
+    /**
+     * Asks the consumer to discard the oldest unconsumed event, and claims the next slot as soon as one is released,
+     * either by the consumer discarding events or by it sending them.
+     */
+    private long claimDroppingOldest() {
+        dropRequests.incrementAndGet();
+        try {
+            while (true) {
+                try {
+                    return ringBuffer.tryNext();
+                } catch (InsufficientCapacityException e) {
+                    LockSupport.parkNanos(DROP_OLDEST_RETRY_NANOS);
+                }
+            }
+        } finally {
+            // withdraws the request if the slot was released without the consumer discarding an event for it
+            takeDropRequests(1);
+        }
+    }
+
+    /**
+     * Takes up to eventCount outstanding drop requests, to be served by discarding at least as many events.
+     *
+     * @return false if there are no outstanding drop requests
+     */
+    public boolean takeDropRequests(int eventCount) {
+        while (true) {
+            int requests = dropRequests.get();
+            if (requests == 0) {
+                return false;
+            }
+            if (dropRequests.compareAndSet(requests, Math.max(0, requests - eventCount))) {
+                return true;
+            }
+        }
+    }
+
+    public void recordDroppedOldest(int eventCount) {
+        droppedOldestCount.addAndGet(eventCount);
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public long getDroppedNewestCount() {
+        return droppedNewestCount.get();
+    }
+
+    public long getDroppedOldestCount() {
+        return droppedOldestCount.get();
+    }
+
+    public long getBlockedCount() {
+        return blockedCount.get();
+    }
+
+    public EventBufferSchema getSchema() {
+        return schema;
+    }
+
     public void terminate() {
         disruptor.halt();
+        executorService.shutdown();
     }
 
     class DataHolder {
@@ -438,6 +1139,20 @@ class AsynchronousEventBuffer<Type> {
         String streamId;
         private long timestamp;
 
+        /**
+         * Columns used when the buffer has a schema. streamIndex is -1 when the slot holds a referenced event.
+         */
+        int streamIndex = -1;
+        /**
+         * Set on slots published through addTrigger, which carry no event.
+         */
+        boolean trigger = false;
+        long[] longs;
+        double[] doubles;
+        int[] ints;
+        Object[] objects;
+        boolean[] nulls;
+
         public void setData(Type data) {
             this.data = data;
         }
@@ -462,7 +1177,8 @@ class AsynchronousEventBuffer<Type> {
             this.timestamp = timestamp;
         }
 
+        public boolean isEncoded() {
+            return streamIndex >= 0;
+        }
     }
 }
-
-
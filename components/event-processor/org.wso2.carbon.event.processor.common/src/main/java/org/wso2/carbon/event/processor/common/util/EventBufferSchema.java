@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wso2.carbon.event.processor.common.util;
+
+import org.wso2.siddhi.query.api.definition.Attribute;
+import org.wso2.siddhi.query.api.definition.StreamDefinition;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Column layout of the slots of a schema aware AsynchronousEventBuffer. Each stream gets an index and each attribute
+ * of a stream is mapped to a position in one of the primitive columns (long, double, int) or the object column of a
+ * slot, so that events can be copied into pre-allocated slots without keeping the caller's event array alive.
+ * <p/>
+ * Events are rebuilt on the consumer thread as Object[] with boxed attribute values, as that is what TCPEventPublisher
+ * sends, so numeric attributes are boxed again per event unless they are unchanged from the previous event of the
+ * stream or cached by the wrapper classes. What the schema saves is the retention of the callers' arrays and boxes for
+ * as long as the events wait in the buffer, which would otherwise be promoted to the old generation under backlog, not
+ * the per event allocation.
+ */
+class EventBufferSchema {
+    private final Map<String, Integer> streamIndexMap = new HashMap<String, Integer>();
+    private final String[] streamIds;
+    private final Attribute.Type[][] attributeTypes;
+    private final int[][] columnPositions;
+    /**
+     * Re-used arrays to rebuild events on the consumer thread. Only valid until the next decode of the same stream.
+     */
+    private final Object[][] decodeBuffers;
+
+    private int longColumns = 0;
+    private int doubleColumns = 0;
+    private int intColumns = 0;
+    private int objectColumns = 0;
+    private int maxAttributes = 0;
+
+    EventBufferSchema(Collection<StreamDefinition> streamDefinitions) {
+        int streamCount = streamDefinitions.size();
+        streamIds = new String[streamCount];
+        attributeTypes = new Attribute.Type[streamCount][];
+        columnPositions = new int[streamCount][];
+        decodeBuffers = new Object[streamCount][];
+
+        int streamIndex = 0;
+        for (StreamDefinition streamDefinition : streamDefinitions) {
+            List<Attribute> attributes = streamDefinition.getAttributeList();
+            int attributeCount = attributes.size();
+            streamIds[streamIndex] = streamDefinition.getId().intern();
+            streamIndexMap.put(streamIds[streamIndex], streamIndex);
+            attributeTypes[streamIndex] = new Attribute.Type[attributeCount];
+            columnPositions[streamIndex] = new int[attributeCount];
+            decodeBuffers[streamIndex] = new Object[attributeCount];
+
+            int longs = 0, doubles = 0, ints = 0, objects = 0;
+            for (int i = 0; i < attributeCount; i++) {
+                Attribute.Type type = attributes.get(i).getType();
+                attributeTypes[streamIndex][i] = type;
+                switch (type) {
+                    case LONG:
+                        columnPositions[streamIndex][i] = longs++;
+                        break;
+                    case DOUBLE:
+                    case FLOAT:
+                        columnPositions[streamIndex][i] = doubles++;
+                        break;
+                    case INT:
+                    case BOOL:
+                        columnPositions[streamIndex][i] = ints++;
+                        break;
+                    default:
+                        columnPositions[streamIndex][i] = objects++;
+                        break;
+                }
+            }
+            longColumns = Math.max(longColumns, longs);
+            doubleColumns = Math.max(doubleColumns, doubles);
+            intColumns = Math.max(intColumns, ints);
+            objectColumns = Math.max(objectColumns, objects);
+            maxAttributes = Math.max(maxAttributes, attributeCount);
+            streamIndex++;
+        }
+    }
+
+    /**
+     * @return index of the stream or -1 if the stream is not part of this schema
+     */
+    int getStreamIndex(String streamId) {
+        Integer index = streamIndexMap.get(streamId);
+        return (index == null) ? -1 : index;
+    }
+
+    String getStreamId(int streamIndex) {
+        return streamIds[streamIndex];
+    }
+
+    Attribute.Type[] getAttributeTypes(int streamIndex) {
+        return attributeTypes[streamIndex];
+    }
+
+    /**
+     * Allocates the columns of a slot. Called once per slot when the ring buffer is created.
+     */
+    void allocate(AsynchronousEventBuffer.DataHolder holder) {
+        holder.longs = new long[longColumns];
+        holder.doubles = new double[doubleColumns];
+        holder.ints = new int[intColumns];
+        holder.objects = new Object[objectColumns];
+        holder.nulls = new boolean[maxAttributes];
+    }
+
+    /**
+     * Copies the attribute values of an event into the columns of the given slot.
+     */
+    void encode(int streamIndex, Object[] data, AsynchronousEventBuffer.DataHolder holder) {
+        Attribute.Type[] types = attributeTypes[streamIndex];
+        int[] positions = columnPositions[streamIndex];
+        for (int i = 0; i < types.length; i++) {
+            Object value = data[i];
+            holder.nulls[i] = (value == null);
+            if (value == null) {
+                continue;
+            }
+            switch (types[i]) {
+                case LONG:
+                    holder.longs[positions[i]] = ((Number) value).longValue();
+                    break;
+                case DOUBLE:
+                case FLOAT:
+                    holder.doubles[positions[i]] = ((Number) value).doubleValue();
+                    break;
+                case INT:
+                    holder.ints[positions[i]] = ((Number) value).intValue();
+                    break;
+                case BOOL:
+                    holder.ints[positions[i]] = ((Boolean) value) ? 1 : 0;
+                    break;
+                default:
+                    holder.objects[positions[i]] = value;
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Rebuilds the event stored in the given slot. The returned array is re-used by subsequent calls for the same
+     * stream, hence must be consumed before the next call. Numeric values are boxed per call, unless equal to the
+     * value of the previous call, whose box is kept.
+     */
+    Object[] decode(AsynchronousEventBuffer.DataHolder holder) {
+        int streamIndex = holder.streamIndex;
+        Attribute.Type[] types = attributeTypes[streamIndex];
+        int[] positions = columnPositions[streamIndex];
+        Object[] data = decodeBuffers[streamIndex];
+        for (int i = 0; i < types.length; i++) {
+            if (holder.nulls[i]) {
+                data[i] = null;
+                continue;
+            }
+            switch (types[i]) {
+                case LONG: {
+                    long value = holder.longs[positions[i]];
+                    if (!(data[i] instanceof Long) || (Long) data[i] != value) {
+                        data[i] = value;
+                    }
+                    break;
+                }
+                case DOUBLE: {
+                    double value = holder.doubles[positions[i]];
+                    if (!(data[i] instanceof Double)
+                            || Double.doubleToLongBits((Double) data[i]) != Double.doubleToLongBits(value)) {
+                        data[i] = value;
+                    }
+                    break;
+                }
+                case FLOAT: {
+                    float value = (float) holder.doubles[positions[i]];
+                    if (!(data[i] instanceof Float)
+                            || Float.floatToIntBits((Float) data[i]) != Float.floatToIntBits(value)) {
+                        data[i] = value;
+                    }
+                    break;
+                }
+                case INT: {
+                    int value = holder.ints[positions[i]];
+                    if (!(data[i] instanceof Integer) || (Integer) data[i] != value) {
+                        data[i] = value;
+                    }
+                    break;
+                }
+                case BOOL:
+                    data[i] = holder.ints[positions[i]] == 1 ? Boolean.TRUE : Boolean.FALSE;
+                    break;
+                default:
+                    data[i] = holder.objects[positions[i]];
+                    break;
+            }
+        }
+        return data;
+    }
+
+    /**
+     * Drops the object references held by the given slot once its event has been sent.
+     */
+    void release(AsynchronousEventBuffer.DataHolder holder) {
+        for (int i = 0; i < holder.objects.length; i++) {
+            holder.objects[i] = null;
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wso2.carbon.event.processor.common.util;
+
+import org.wso2.siddhi.query.api.definition.Attribute;
+import org.wso2.siddhi.query.api.definition.StreamDefinition;
+
+import java.util.List;
+
+/**
+ * Latency trace of an event on its way from a CEP receiver through Storm to a CEP publisher. When tracing is enabled
+ * for an execution plan, events on the transport and in Storm tuples carry a trailing string attribute "_trace".
+ * For sampled events it holds the hops passed so far, as "hop=time;hop=time...", where time is in nanoseconds since
+ * the epoch. It is empty for events which are not sampled.
+ * <p/>
+ * Hop times are taken from System.nanoTime() anchored to the wall clock when the class is loaded, hence latencies of
+ * hops on different hosts include the clock offset between the hosts.
+ */
+public final class LatencyTrace {
+    public static final String TRACE_ATTRIBUTE = "_trace";
+    public static final String NOT_SAMPLED = "";
+
+    private static final char HOP_SEPARATOR = ';';
+    private static final char TIME_SEPARATOR = '=';
+    private static final long CLOCK_OFFSET = System.currentTimeMillis() * 1000000L - System.nanoTime();
+
+    private LatencyTrace() {
+    }
+
+    /**
+     * @return current time in nanoseconds since the epoch
+     */
+    public static long currentTime() {
+        return System.nanoTime() + CLOCK_OFFSET;
+    }
+
+    /**
+     * @return a new trace holding the given hop as its first hop
+     */
+    public static String start(String hop) {
+        return hop + TIME_SEPARATOR + currentTime();
+    }
+
+    /**
+     * @return the trace with the given hop appended, or the trace as is if the event is not sampled
+     */
+    public static String addHop(String trace, String hop) {
+        if (!isSampled(trace)) {
+            return trace;
+        }
+        return trace + HOP_SEPARATOR + hop + TIME_SEPARATOR + currentTime();
+    }
+
+    public static boolean isSampled(String trace) {
+        return trace != null && !trace.isEmpty();
+    }
+
+    /**
+     * @return names of the hops of a sampled trace, in order
+     */
+    public static String[] getHops(String trace) {
+        String[] hops = trace.split(String.valueOf(HOP_SEPARATOR));
+        for (int i = 0; i < hops.length; i++) {
+            hops[i] = hops[i].substring(0, hops[i].lastIndexOf(TIME_SEPARATOR));
+        }
+        return hops;
+    }
+
+    /**
+     * @return times of the hops of a sampled trace, in the order of {@link #getHops(String)}
+     */
+    public static long[] getHopTimes(String trace) {
+        String[] hops = trace.split(String.valueOf(HOP_SEPARATOR));
+        long[] times = new long[hops.length];
+        for (int i = 0; i < hops.length; i++) {
+            times[i] = Long.parseLong(hops[i].substring(hops[i].lastIndexOf(TIME_SEPARATOR) + 1));
+        }
+        return times;
+    }
+
+    /**
+     * @return the trace held by the trailing attribute of the event data of a traced stream
+     */
+    public static String getTrace(Object[] tracedData) {
+        return (String) tracedData[tracedData.length - 1];
+    }
+
+    /**
+     * Adds a hop to the trace of the event data of a traced stream. The event data may be shared, hence it is never
+     * updated in place: the event data of a sampled event is copied, and that of other events is returned as is.
+     *
+     * @return event data with the hop added to its trace
+     */
+    public static Object[] addHop(Object[] tracedData, String hop) {
+        String trace = getTrace(tracedData);
+        if (!isSampled(trace)) {
+            return tracedData;
+        }
+        Object[] data = tracedData.clone();
+        data[data.length - 1] = addHop(trace, hop);
+        return data;
+    }
+
+    /**
+     * @return a copy of the event data with the given trace appended as the trailing attribute
+     */
+    public static Object[] appendTrace(Object[] data, String trace) {
+        Object[] tracedData = new Object[data.length + 1];
+        System.arraycopy(data, 0, tracedData, 0, data.length);
+        tracedData[data.length] = trace;
+        return tracedData;
+    }
+
+    /**
+     * @return a copy of the event data of a traced stream without the trailing attribute
+     */
+    public static Object[] removeTrace(Object[] tracedData) {
+        Object[] data = new Object[tracedData.length - 1];
+        System.arraycopy(tracedData, 0, data, 0, data.length);
+        return data;
+    }
+
+    /**
+     * @return definition of the stream on the transport, i.e. the given definition with the trailing trace attribute
+     */
+    public static StreamDefinition toTracedDefinition(StreamDefinition streamDefinition) {
+        StreamDefinition tracedDefinition = StreamDefinition.id(streamDefinition.getId());
+        for (Attribute attribute : streamDefinition.getAttributeList()) {
+            tracedDefinition.attribute(attribute.getName(), attribute.getType());
+        }
+        tracedDefinition.attribute(TRACE_ATTRIBUTE, Attribute.Type.STRING);
+        return tracedDefinition;
+    }
+
+    /**
+     * @return true if the definition carries the trailing trace attribute
+     */
+    public static boolean isTraced(StreamDefinition streamDefinition) {
+        List<Attribute> attributes = streamDefinition.getAttributeList();
+        return !attributes.isEmpty() && TRACE_ATTRIBUTE.equals(attributes.get(attributes.size() - 1).getName());
+    }
+
+    /**
+     * Picks the events to be traced, one in every 1/ratio events. Not thread safe; concurrent callers only skew the
+     * sampling interval.
+     */
+    public static class Sampler {
+        private final long interval;
+        private long count = 0;
+
+        public Sampler(double ratio) {
+            this.interval = (ratio > 0.0) ? Math.max(1, Math.round(1.0 / ratio)) : Long.MAX_VALUE;
+        }
+
+        public boolean sample() {
+            if (++count >= interval) {
+                count = 0;
+                return true;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wso2.carbon.event.processor.common.util;
+
+import org.apache.log4j.Logger;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Aggregates the latency traces of an execution plan arriving at the CEP publisher. Each pair of consecutive hops,
+ * e.g. "EventReceiverSpout->EventReceiverSpout.emit" for the time spent in the spout queue, and the whole path
+ * ("end-to-end") gets a ThroughputProbe whose latency percentiles are logged and exposed over JMX.
+ */
+public class LatencyTraceRecorder {
+    private static Logger log = Logger.getLogger(LatencyTraceRecorder.class);
+    private static final String END_TO_END = "end-to-end";
+
+    private final int tenantId;
+    private final String executionPlanName;
+    private final String component;
+    private final ConcurrentMap<String, ThroughputProbe> probes = new ConcurrentHashMap<String, ThroughputProbe>();
+    private volatile boolean closed = false;
+
+    public LatencyTraceRecorder(int tenantId, String executionPlanName, String component) {
+        this.tenantId = tenantId;
+        this.executionPlanName = executionPlanName;
+        this.component = component;
+    }
+
+    /**
+     * @param trace sampled trace, ending with the hop of the caller
+     */
+    public void record(String trace) {
+        String[] hops;
+        long[] times;
+        try {
+            hops = LatencyTrace.getHops(trace);
+            times = LatencyTrace.getHopTimes(trace);
+        } catch (RuntimeException e) {
+            log.warn("Discarding malformed latency trace '" + trace + "' of execution plan " + executionPlanName);
+            return;
+        }
+        for (int i = 1; i < hops.length; i++) {
+            record(hops[i - 1] + "->" + hops[i], times[i] - times[i - 1]);
+        }
+        record(END_TO_END, times[times.length - 1] - times[0]);
+    }
+
+    private void record(String segment, long latency) {
+        ThroughputProbe probe = probes.get(segment);
+        if (probe == null) {
+            if (closed) {
+                return;
+            }
+            probe = new ThroughputProbe(tenantId, executionPlanName, component, "Latency:" + segment, 10);
+            ThroughputProbe existingProbe = probes.putIfAbsent(segment, probe);
+            if (existingProbe != null) {
+                probe = existingProbe;
+            } else {
+                probe.startSampling();
+            }
+        }
+        probe.update();
+        probe.recordLatency(latency);
+    }
+
+    public void close() {
+        closed = true;
+        for (ThroughputProbe probe : probes.values()) {
+            probe.stopSampling();
+        }
+        probes.clear();
+    }
+}
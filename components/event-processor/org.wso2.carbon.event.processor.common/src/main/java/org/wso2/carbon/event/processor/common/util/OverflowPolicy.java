@@ -0,0 +1,43 @@
+/*
+ * Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wso2.carbon.event.processor.common.util;
+
+/**
+ * What an AsyncEventPublisher does with a new event when its event buffer is full.
+ */
+public enum OverflowPolicy {
+    /**
+     * Block the publishing thread until the buffer has space.
+     */
+    BLOCK,
+    /**
+     * Let the consumer discard the oldest events not sent yet to make space for the new event, whether the remote end
+     * is unreachable or slow. The publishing thread waits at most until the consumer finishes writing its current
+     * batch.
+     */
+    DROP_OLDEST,
+    /**
+     * Discard the new event and return immediately.
+     */
+    DROP_NEWEST,
+    /**
+     * Block the publishing thread, and let the consumer write events to a disk journal instead of sending them while
+     * the remote end is unreachable or the buffer is above the spill high watermark. Journaled events are replayed in
+     * order once the remote end is reachable.
+     */
+    SPILL
+}
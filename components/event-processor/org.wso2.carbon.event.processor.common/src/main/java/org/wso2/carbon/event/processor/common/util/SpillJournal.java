@@ -0,0 +1,649 @@
+/*
+ * Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wso2.carbon.event.processor.common.util;
+
+import org.apache.log4j.Logger;
+import org.wso2.siddhi.query.api.definition.Attribute;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Append only journal of events which could not be sent by an AsyncEventPublisher. The journal is a sequence of
+ * memory mapped segment files in a directory owned (locked) by a single publisher. Events are replayed in the order
+ * they were appended, and a segment is deleted once all its events have been replayed and flushed.
+ * <p/>
+ * Segment layout: [int committed read position][int schema length][schema] followed by records of [int length][body].
+ * The schema lists the stream ids and attribute types of the journaled streams; segments written with another schema,
+ * e.g. before a stream definition was changed, are set aside when the journal is opened instead of being decoded with
+ * the wrong types. The length of a record is written after its body, so a partially written record is never
+ * replayed. Replay is at-least-once, as events sent after the last committed read position are sent again after a
+ * failure or a restart. OBJECT attributes are journaled with Java serialization, and only the classes allowed through
+ * {@link TransportConfiguration#getPublisherSpillAllowedClasses()} are journaled and read back, so that a tampered
+ * segment cannot instantiate arbitrary classes.
+ * <p/>
+ * Segments are unmapped as soon as they are no longer written or read, rather than when their buffers are garbage
+ * collected, so that a long outage does not pile up mapped segments, nor replayed segments which are deleted but still
+ * take disk space while mapped.
+ */
+class SpillJournal {
+    private static Logger log = Logger.getLogger(SpillJournal.class);
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".journal";
+    private static final String LOCK_FILE = "journal.lock";
+    private static final String INCOMPATIBLE_SUFFIX = ".incompatible";
+    private static final int MAX_JOURNALS_PER_NAME = 1000;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Receives replayed events.
+     */
+    interface EventSink {
+        void send(String streamId, long timestamp, Object[] data, boolean flush) throws IOException;
+    }
+
+    private final File directory;
+    private final EventBufferSchema schema;
+    private final int segmentSize;
+    private final byte[] schemaDescriptor;
+    private final int headerSize;
+    private final RandomAccessFile lockFile;
+    private final FileLock lock;
+    private final Object[][] decodeBuffers;
+    private final List<String> allowedClasses;
+
+    private long writeSegmentId;
+    private MappedByteBuffer writeBuffer;
+    private int writePosition;
+
+    private long readSegmentId;
+    private MappedByteBuffer readBuffer;
+    private int readPosition;
+
+    private ByteBuffer recordBuffer = ByteBuffer.allocate(1024);
+    private long spilledEventCount = 0;
+    private long replayedEventCount = 0;
+    private boolean closed = false;
+
+    private SpillJournal(File directory, RandomAccessFile lockFile, FileLock lock, EventBufferSchema schema,
+                         int segmentSize, int streamCount) throws IOException {
+        this.directory = directory;
+        this.lockFile = lockFile;
+        this.lock = lock;
+        this.schema = schema;
+        this.segmentSize = segmentSize;
+        this.schemaDescriptor = describe(schema, streamCount);
+        this.headerSize = 8 + schemaDescriptor.length;
+        if (headerSize >= segmentSize) {
+            throw new IOException("Spill journal segment size of " + segmentSize + " bytes is too small for the " +
+                    "schema of the streams");
+        }
+        this.decodeBuffers = new Object[streamCount][];
+        for (int i = 0; i < streamCount; i++) {
+            decodeBuffers[i] = new Object[schema.getAttributeTypes(i).length];
+        }
+        this.allowedClasses = TransportConfiguration.getPublisherSpillAllowedClasses();
+
+        List<Long> segmentIds = listCompatibleSegments();
+        if (segmentIds.isEmpty()) {
+            writeSegmentId = 0;
+            writeBuffer = createSegment(writeSegmentId);
+            writePosition = headerSize;
+            readSegmentId = writeSegmentId;
+            readBuffer = writeBuffer;
+            readPosition = headerSize;
+        } else {
+            writeSegmentId = segmentIds.get(segmentIds.size() - 1);
+            writeBuffer = mapSegment(writeSegmentId);
+            writePosition = headerSize;
+            while (hasRecord(writeBuffer, writePosition)) {
+                writePosition += 4 + writeBuffer.getInt(writePosition);
+            }
+            readSegmentId = segmentIds.get(0);
+            readBuffer = (readSegmentId == writeSegmentId) ? writeBuffer : mapSegment(readSegmentId);
+            readPosition = Math.max(headerSize, readBuffer.getInt(0));
+            log.info("Recovered spill journal at " + directory.getAbsolutePath() + " with " + segmentIds.size() +
+                    " segment(s)");
+        }
+    }
+
+    /**
+     * Opens the first journal named with the given name which is not used by another publisher, creating it if needed.
+     *
+     * @param baseDirectory directory holding the journals
+     * @param name          name of the journal, unique for the publisher type, plan and streams
+     * @param schema        schema of the streams of the events to journal
+     * @param streamCount   number of streams in the schema
+     * @param segmentSize   size of a segment file in bytes
+     * @return the opened journal
+     * @throws IOException if no journal can be opened
+     */
+    static SpillJournal open(File baseDirectory, String name, EventBufferSchema schema, int streamCount,
+                            int segmentSize) throws IOException {
+        for (int i = 0; i < MAX_JOURNALS_PER_NAME; i++) {
+            File directory = new File(baseDirectory, name + "-" + i);
+            if (!directory.exists() && !directory.mkdirs()) {
+                throw new IOException("Cannot create spill journal directory " + directory.getAbsolutePath());
+            }
+            RandomAccessFile lockFile = new RandomAccessFile(new File(directory, LOCK_FILE), "rw");
+            FileLock lock;
+            try {
+                lock = lockFile.getChannel().tryLock();
+            } catch (OverlappingFileLockException e) {
+                // Locked by another publisher of this JVM
+                lock = null;
+            } catch (IOException e) {
+                lockFile.close();
+                throw e;
+            }
+            if (lock == null) {
+                lockFile.close();
+                continue;
+            }
+            try {
+                return new SpillJournal(directory, lockFile, lock, schema, segmentSize, streamCount);
+            } catch (IOException e) {
+                lock.release();
+                lockFile.close();
+                throw e;
+            }
+        }
+        throw new IOException("All spill journals named " + name + " at " + baseDirectory.getAbsolutePath() + " are in use");
+    }
+
+    /**
+     * Appends an event to the journal.
+     *
+     * @throws IOException if the event cannot be written
+     */
+    synchronized void append(int streamIndex, long timestamp, Object[] data) throws IOException {
+        if (closed) {
+            throw new IOException("Spill journal at " + directory.getAbsolutePath() + " is closed");
+        }
+        encode(streamIndex, timestamp, data);
+        int length = recordBuffer.remaining();
+        if (headerSize + 4 + length + 4 > segmentSize) {
+            throw new IOException("Event of " + length + " bytes does not fit in a spill journal segment of "
+                    + segmentSize + " bytes");
+        }
+        if (writePosition + 4 + length + 4 > segmentSize) {
+            roll();
+        }
+        ByteBuffer target = writeBuffer.duplicate();
+        target.position(writePosition + 4);
+        target.put(recordBuffer);
+        writeBuffer.putInt(writePosition, length);
+        writePosition += 4 + length;
+        spilledEventCount++;
+    }
+
+    /**
+     * Replays journaled events in order until the journal is empty or the given number of events is sent. The read
+     * position is committed only after a flush, so that events are never lost when sending fails.
+     *
+     * @return number of events replayed
+     * @throws IOException if sending fails. Unflushed events will be replayed again on the next call
+     */
+    synchronized int replay(EventSink sink, int maxEvents) throws IOException {
+        int committedReadPosition = readPosition;
+        int count = 0;
+        try {
+            while (count < maxEvents && !closed) {
+                if (!hasRecord(readBuffer, readPosition)) {
+                    if (readSegmentId == writeSegmentId) {
+                        break;
+                    }
+                    advanceReadSegment();
+                    committedReadPosition = readPosition;
+                    continue;
+                }
+                int length = readBuffer.getInt(readPosition);
+                ByteBuffer source = readBuffer.duplicate();
+                source.position(readPosition + 4);
+                source.limit(readPosition + 4 + length);
+                int streamIndex = source.getInt();
+                long timestamp = source.getLong();
+                Object[] data = decode(streamIndex, source);
+
+                int nextPosition = readPosition + 4 + length;
+                count++;
+                boolean flush = (count == maxEvents) || !hasRecord(readBuffer, nextPosition);
+                sink.send(schema.getStreamId(streamIndex), timestamp, data, flush);
+                readPosition = nextPosition;
+                if (flush) {
+                    readBuffer.putInt(0, readPosition);
+                    committedReadPosition = readPosition;
+                }
+            }
+        } catch (IOException e) {
+            readPosition = committedReadPosition;
+            throw e;
+        }
+        replayedEventCount += count;
+        return count;
+    }
+
+    synchronized boolean isEmpty() {
+        return readSegmentId == writeSegmentId && !hasRecord(readBuffer, readPosition);
+    }
+
+    synchronized long getSpilledEventCount() {
+        return spilledEventCount;
+    }
+
+    synchronized long getReplayedEventCount() {
+        return replayedEventCount;
+    }
+
+    File getDirectory() {
+        return directory;
+    }
+
+    synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        writeBuffer.force();
+        unmap(writeBuffer);
+        if (readBuffer != writeBuffer) {
+            unmap(readBuffer);
+        }
+        try {
+            lock.release();
+            lockFile.close();
+        } catch (IOException e) {
+            log.warn("Error while releasing spill journal at " + directory.getAbsolutePath(), e);
+        }
+    }
+
+    private void roll() throws IOException {
+        writeBuffer.force();
+        if (writeBuffer != readBuffer) {
+            // mapped again when it is replayed
+            unmap(writeBuffer);
+        }
+        writeBuffer = null;
+        writeSegmentId++;
+        writeBuffer = createSegment(writeSegmentId);
+        writePosition = headerSize;
+    }
+
+    private void advanceReadSegment() throws IOException {
+        File segmentFile = getSegmentFile(readSegmentId);
+        unmap(readBuffer);
+        readBuffer = null;
+        readSegmentId++;
+        readBuffer = (readSegmentId == writeSegmentId) ? writeBuffer : mapSegment(readSegmentId);
+        readPosition = Math.max(headerSize, readBuffer.getInt(0));
+        if (!segmentFile.delete()) {
+            log.warn("Cannot delete replayed spill journal segment " + segmentFile.getAbsolutePath());
+        }
+    }
+
+    private boolean hasRecord(MappedByteBuffer buffer, int position) {
+        return position + 4 <= segmentSize && buffer.getInt(position) > 0;
+    }
+
+    private MappedByteBuffer createSegment(long segmentId) throws IOException {
+        MappedByteBuffer buffer = mapSegment(segmentId);
+        buffer.putInt(0, headerSize);
+        buffer.putInt(4, schemaDescriptor.length);
+        ByteBuffer schemaBuffer = buffer.duplicate();
+        schemaBuffer.position(8);
+        schemaBuffer.put(schemaDescriptor);
+        return buffer;
+    }
+
+    private MappedByteBuffer mapSegment(long segmentId) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(getSegmentFile(segmentId), "rw");
+        try {
+            return file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        } finally {
+            file.close();
+        }
+    }
+
+    private File getSegmentFile(long segmentId) {
+        return new File(directory, SEGMENT_PREFIX + String.format("%019d", segmentId) + SEGMENT_SUFFIX);
+    }
+
+    /**
+     * Lists the segments written with the schema of this journal, setting aside the others with a warning. The
+     * segments set aside are kept for inspection, renamed so that they are not opened again.
+     */
+    private List<Long> listCompatibleSegments() throws IOException {
+        List<Long> segmentIds = new ArrayList<Long>();
+        for (Long segmentId : listSegments()) {
+            File segmentFile = getSegmentFile(segmentId);
+            if (Arrays.equals(schemaDescriptor, readSchemaDescriptor(segmentFile))) {
+                segmentIds.add(segmentId);
+                continue;
+            }
+            File incompatibleFile = new File(directory, segmentFile.getName() + "." + System.currentTimeMillis()
+                    + INCOMPATIBLE_SUFFIX);
+            log.warn("Spill journal segment " + segmentFile.getAbsolutePath() + " was written for other stream " +
+                    "definitions, hence its events are not replayed. Moving it to " + incompatibleFile.getName());
+            if (!segmentFile.renameTo(incompatibleFile)) {
+                throw new IOException("Cannot move incompatible spill journal segment " + segmentFile.getAbsolutePath());
+            }
+        }
+        return segmentIds;
+    }
+
+    /**
+     * @return the schema descriptor in the header of the segment, or null if the segment has none
+     */
+    private static byte[] readSchemaDescriptor(File segmentFile) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(segmentFile, "r");
+        try {
+            if (file.length() < 8) {
+                return null;
+            }
+            file.seek(4);
+            int length = file.readInt();
+            if (length <= 0 || 8 + (long) length > file.length()) {
+                return null;
+            }
+            byte[] descriptor = new byte[length];
+            file.readFully(descriptor);
+            return descriptor;
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * @return the stream ids and attribute types of the streams, as written in the header of the segments
+     */
+    private static byte[] describe(EventBufferSchema schema, int streamCount) throws IOException {
+        ByteArrayOutputStream descriptor = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(descriptor);
+        output.writeInt(streamCount);
+        for (int i = 0; i < streamCount; i++) {
+            output.writeUTF(schema.getStreamId(i));
+            Attribute.Type[] types = schema.getAttributeTypes(i);
+            output.writeInt(types.length);
+            for (Attribute.Type type : types) {
+                output.writeUTF(type.name());
+            }
+        }
+        output.flush();
+        return descriptor.toByteArray();
+    }
+
+    /**
+     * Releases the mapping of the buffer right away instead of when it is garbage collected. The buffer must not be
+     * used afterwards. If the platform does not allow it, the mapping is left to be released by the garbage collector.
+     */
+    private static void unmap(MappedByteBuffer buffer) {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            try {
+                // Java 9 and later
+                Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+                Field unsafeField = unsafeClass.getDeclaredField("theUnsafe");
+                unsafeField.setAccessible(true);
+                invokeCleaner.invoke(unsafeField.get(null), buffer);
+                return;
+            } catch (NoSuchMethodException e) {
+                // Java 7 and 8
+            }
+            Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            Object cleaner = cleanerMethod.invoke(buffer);
+            if (cleaner != null) {
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+        } catch (Exception e) {
+            if (log.isDebugEnabled()) {
+                log.debug("Cannot unmap spill journal segment, leaving it to the garbage collector", e);
+            }
+        }
+    }
+
+    private List<Long> listSegments() {
+        List<Long> segmentIds = new ArrayList<Long>();
+        String[] fileNames = directory.list();
+        if (fileNames != null) {
+            for (String fileName : fileNames) {
+                if (fileName.startsWith(SEGMENT_PREFIX) && fileName.endsWith(SEGMENT_SUFFIX)) {
+                    try {
+                        segmentIds.add(Long.parseLong(fileName.substring(SEGMENT_PREFIX.length(),
+                                fileName.length() - SEGMENT_SUFFIX.length())));
+                    } catch (NumberFormatException e) {
+                        log.warn("Ignoring unknown file " + fileName + " in spill journal " + directory.getAbsolutePath());
+                    }
+                }
+            }
+        }
+        Collections.sort(segmentIds);
+        return segmentIds;
+    }
+
+    private void encode(int streamIndex, long timestamp, Object[] data) throws IOException {
+        while (true) {
+            recordBuffer.clear();
+            try {
+                recordBuffer.putInt(streamIndex);
+                recordBuffer.putLong(timestamp);
+                Attribute.Type[] types = schema.getAttributeTypes(streamIndex);
+                for (int i = 0; i < types.length; i++) {
+                    Object value = data[i];
+                    if (value == null) {
+                        recordBuffer.put((byte) 0);
+                        continue;
+                    }
+                    recordBuffer.put((byte) 1);
+                    switch (types[i]) {
+                        case INT:
+                            recordBuffer.putInt(((Number) value).intValue());
+                            break;
+                        case LONG:
+                            recordBuffer.putLong(((Number) value).longValue());
+                            break;
+                        case FLOAT:
+                            recordBuffer.putFloat(((Number) value).floatValue());
+                            break;
+                        case DOUBLE:
+                            recordBuffer.putDouble(((Number) value).doubleValue());
+                            break;
+                        case BOOL:
+                            recordBuffer.put(((Boolean) value) ? (byte) 1 : (byte) 0);
+                            break;
+                        case OBJECT:
+                            if (!isAllowed(value.getClass().getName(), allowedClasses)) {
+                                throw new IOException("Class " + value.getClass().getName() + " of attribute " + i
+                                        + " is not allowed in spill journals, see "
+                                        + TransportConfiguration.PUBLISHER_SPILL_ALLOWED_CLASSES);
+                            }
+                            byte[] serialized = serialize(value);
+                            recordBuffer.putInt(serialized.length);
+                            recordBuffer.put(serialized);
+                            break;
+                        default:
+                            byte[] bytes = value.toString().getBytes(UTF_8);
+                            recordBuffer.putInt(bytes.length);
+                            recordBuffer.put(bytes);
+                            break;
+                    }
+                }
+                recordBuffer.flip();
+                return;
+            } catch (BufferOverflowException e) {
+                recordBuffer = ByteBuffer.allocate(recordBuffer.capacity() * 2);
+            }
+        }
+    }
+
+    private Object[] decode(int streamIndex, ByteBuffer source) {
+        Attribute.Type[] types = schema.getAttributeTypes(streamIndex);
+        Object[] data = decodeBuffers[streamIndex];
+        for (int i = 0; i < types.length; i++) {
+            if (source.get() == 0) {
+                data[i] = null;
+                continue;
+            }
+            switch (types[i]) {
+                case INT:
+                    data[i] = source.getInt();
+                    break;
+                case LONG:
+                    data[i] = source.getLong();
+                    break;
+                case FLOAT:
+                    data[i] = source.getFloat();
+                    break;
+                case DOUBLE:
+                    data[i] = source.getDouble();
+                    break;
+                case BOOL:
+                    data[i] = source.get() == 1;
+                    break;
+                case OBJECT:
+                    byte[] serialized = new byte[source.getInt()];
+                    source.get(serialized);
+                    data[i] = deserialize(serialized, streamIndex, i);
+                    break;
+                default:
+                    byte[] bytes = new byte[source.getInt()];
+                    source.get(bytes);
+                    data[i] = new String(bytes, UTF_8);
+                    break;
+            }
+        }
+        return data;
+    }
+
+    /**
+     * @throws IOException if the value is not serializable, in which case the event is not journaled
+     */
+    private static byte[] serialize(Object value) throws IOException {
+        ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+        ObjectOutputStream output = new ObjectOutputStream(serialized);
+        output.writeObject(value);
+        output.close();
+        return serialized.toByteArray();
+    }
+
+    /**
+     * @return the deserialized value, or null if it cannot be deserialized, e.g. as its class is no longer available
+     */
+    private Object deserialize(byte[] serialized, int streamIndex, int attributeIndex) {
+        try {
+            ObjectInputStream input = new JournalObjectInputStream(new ByteArrayInputStream(serialized), allowedClasses);
+            try {
+                return input.readObject();
+            } finally {
+                input.close();
+            }
+        } catch (IOException | ClassNotFoundException e) {
+            log.warn("Cannot deserialize attribute " + attributeIndex + " of journaled event of stream "
+                    + schema.getStreamId(streamIndex) + ", replaying it as null. " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @param className      name of a class, or of an array class as returned by Class#getName()
+     * @param allowedClasses class names and package patterns as returned by
+     *                       {@link TransportConfiguration#getPublisherSpillAllowedClasses()}
+     * @return whether objects of the class may be journaled. Arrays are allowed if their component type is.
+     */
+    static boolean isAllowed(String className, List<String> allowedClasses) {
+        if (className.startsWith("[")) {
+            String componentName = className.substring(className.lastIndexOf('[') + 1);
+            if (componentName.length() == 1) {
+                // array of primitives
+                return true;
+            }
+            if (!componentName.startsWith("L") || !componentName.endsWith(";")) {
+                return false;
+            }
+            className = componentName.substring(1, componentName.length() - 1);
+        }
+        for (String allowedClass : allowedClasses) {
+            if (allowedClass.endsWith(".*")) {
+                String packagePrefix = allowedClass.substring(0, allowedClass.length() - 1);
+                if (className.startsWith(packagePrefix) && className.indexOf('.', packagePrefix.length()) < 0) {
+                    return true;
+                }
+            } else if (allowedClass.equals(className)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Only resolves allowed classes, and no proxies. Classes are resolved with the context class loader first, as the
+     * journal is loaded by another bundle than the classes of the journaled objects.
+     */
+    private static class JournalObjectInputStream extends ObjectInputStream {
+        private final List<String> allowedClasses;
+
+        JournalObjectInputStream(InputStream input, List<String> allowedClasses) throws IOException {
+            super(input);
+            this.allowedClasses = allowedClasses;
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass description) throws IOException, ClassNotFoundException {
+            if (!isAllowed(description.getName(), allowedClasses)) {
+                throw new InvalidClassException(description.getName(), "Class is not allowed in spill journals, see "
+                        + TransportConfiguration.PUBLISHER_SPILL_ALLOWED_CLASSES);
+            }
+            ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+            if (classLoader != null) {
+                try {
+                    return Class.forName(description.getName(), false, classLoader);
+                } catch (ClassNotFoundException e) {
+                    // falls back to the default resolution
+                }
+            }
+            return super.resolveClass(description);
+        }
+
+        @Override
+        protected Class<?> resolveProxyClass(String[] interfaces) throws IOException {
+            throw new InvalidClassException("Proxy classes are not allowed in spill journals");
+        }
+    }
+}
@@ -2,77 +2,241 @@ package org.wso2.carbon.event.processor.common.util;
 
 import org.apache.log4j.Logger;
 
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
 import java.text.DecimalFormat;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Probe to calculate the throughput by sampling in a given rate. first the the startSampling() must be used to start the probe
- * and the call  update() for each message.
+ * and the call  update() for each message. Latencies can be recorded with recordLatency().
+ * <p/>
+ * Counters are striped so that probes can be updated from many threads. All probes of a JVM are sampled by a single
+ * shared daemon thread, and each started probe is registered as an MBean under
+ * org.wso2.carbon.event.processor:type=ThroughputProbe with its tenant, plan, component and probe name.
  */
-public class ThroughputProbe extends TimerTask {
+public class ThroughputProbe implements Runnable, ThroughputProbeMBean {
     private static Logger log = Logger.getLogger(ThroughputProbe.class);
-    private long count = 0;
+    private static final String MBEAN_DOMAIN = "org.wso2.carbon.event.processor";
+
+    private static final ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "ThroughputProbe-Sampler");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final StripedCounter totalCount = new StripedCounter();
+    private final LatencyHistogram latencyHistogram = new LatencyHistogram();
+    private final LatencyHistogram.Snapshot latencySnapshot = new LatencyHistogram.Snapshot();
+    private final long samplingRateInSeconds;
+    private final String name;
+    private final String mBeanKey;
+    private DecimalFormat formatter = new DecimalFormat("#.000");
+
+    private ScheduledFuture<?> samplingTask;
+    private ObjectName mBeanName;
+
+    /**
+     * Sampled values, written by the sampler thread only
+     */
+    private long lastTotalCount = 0;
     private int sampleCount = 0;
-    private long samplingRateInSeconds;
-    private String name;
-    private double maxThroughput = 0.0;
-    private double minThroughput = Double.MAX_VALUE;
     private double accumulatedThroughput = 0.0;
-    DecimalFormat formatter = new DecimalFormat("#.000");
-    Timer timer;
-    private long totalEventCount = 0;
+    private volatile double throughput = 0.0;
+    private volatile double maxThroughput = 0.0;
+    private volatile double minThroughput = Double.MAX_VALUE;
+    private volatile long latencySampleCount = 0;
+    private volatile long latencyP50 = 0;
+    private volatile long latencyP99 = 0;
+    private volatile long latencyP999 = 0;
+    private volatile long latencyMax = 0;
 
-    public ThroughputProbe(String name, int samplingRateInSeconds){
+    public ThroughputProbe(String name, int samplingRateInSeconds) {
         this.name = name;
         this.samplingRateInSeconds = samplingRateInSeconds;
+        this.mBeanKey = "name=" + ObjectName.quote(name);
     }
 
     /**
-        Starting the probe, this will start calculating the throughout
+     * @param tenantId          tenant of the execution plan
+     * @param executionPlanName execution plan the component belongs to
+     * @param component         e.g. EventReceiverSpout or the name of a Siddhi bolt
+     * @param probeName         what the probe measures within the component, e.g. IN
      */
-    public void startSampling(){
-        count = 0l;
-        timer = new Timer();
-        timer.schedule(this, samplingRateInSeconds * 1000, samplingRateInSeconds * 1000);
+    public ThroughputProbe(int tenantId, String executionPlanName, String component, String probeName,
+                           int samplingRateInSeconds) {
+        this.name = "[" + tenantId + ":" + executionPlanName + ":" + component + "] -" + probeName;
+        this.samplingRateInSeconds = samplingRateInSeconds;
+        this.mBeanKey = "tenant=" + tenantId + ",plan=" + ObjectName.quote(executionPlanName) + ",component="
+                + ObjectName.quote(component) + ",name=" + ObjectName.quote(probeName);
+    }
+
+    /**
+     * Starting the probe, this will start calculating the throughout
+     */
+    public synchronized void startSampling() {
+        if (samplingTask != null) {
+            return;
+        }
+        lastTotalCount = totalCount.sum();
+        samplingTask = sampler.scheduleAtFixedRate(this, samplingRateInSeconds, samplingRateInSeconds, TimeUnit.SECONDS);
+        registerMBean();
+    }
+
+    /**
+     * Stops sampling and removes the MBean of the probe.
+     */
+    public synchronized void stopSampling() {
+        if (samplingTask != null) {
+            samplingTask.cancel(false);
+            samplingTask = null;
+        }
+        unregisterMBean();
     }
 
     /**
      * This must be called when a message received.
      */
-    public void update(){
-        count++;
-        totalEventCount++;
+    public void update() {
+        totalCount.increment();
+    }
+
+    /**
+     * To be called when a batch of messages is received.
+     */
+    public void update(int messageCount) {
+        totalCount.add(messageCount);
+    }
+
+    public void recordLatency(long latencyInNanos) {
+        latencyHistogram.record(latencyInNanos);
     }
 
     /**
-     * The action to be performed by this timer task.
+     * The action to be performed by the sampler on each sampling interval.
      */
     @Override
     public void run() {
-        if (log.isDebugEnabled()){
-            if (totalEventCount > 0){
-                double throughput = count / samplingRateInSeconds;
-
-                if (maxThroughput < throughput){
-                    maxThroughput = throughput;
-                }
-                if (minThroughput > throughput && throughput != 0.0){
-                    minThroughput = throughput;
-                }
+        long currentTotalCount = totalCount.sum();
+        long count = currentTotalCount - lastTotalCount;
+        lastTotalCount = currentTotalCount;
+        double currentThroughput = (double) count / samplingRateInSeconds;
+        throughput = currentThroughput;
+        if (maxThroughput < currentThroughput) {
+            maxThroughput = currentThroughput;
+        }
+        if (minThroughput > currentThroughput && currentThroughput != 0.0) {
+            minThroughput = currentThroughput;
+        }
+        accumulatedThroughput += currentThroughput;
+        sampleCount++;
 
-                accumulatedThroughput += throughput;
-                sampleCount++;
+        latencyHistogram.drainTo(latencySnapshot);
+        latencySampleCount = latencySnapshot.getTotalCount();
+        latencyP50 = latencySnapshot.getValueAtPercentile(50);
+        latencyP99 = latencySnapshot.getValueAtPercentile(99);
+        latencyP999 = latencySnapshot.getValueAtPercentile(99.9);
+        latencyMax = latencySnapshot.getMaxValue();
 
-                log.debug("[ThroughputProbe:" + name + "] " + count + " events in " + samplingRateInSeconds
-                        + " seconds. Throughput=" + formatter.format(throughput)
-                        + " events/s.(Avg=" + formatter.format(accumulatedThroughput / sampleCount)
-                        + " ,Max=" + formatter.format(maxThroughput)
-                        + " ,Min=" + ((minThroughput == Double.MAX_VALUE) ? "0.0" : formatter.format(minThroughput))
-                        + " ) TotalEvents=" + totalEventCount);
+        if (log.isDebugEnabled() && currentTotalCount > 0) {
+            log.debug("[ThroughputProbe:" + name + "] " + count + " events in " + samplingRateInSeconds
+                    + " seconds. Throughput=" + formatter.format(currentThroughput)
+                    + " events/s.(Avg=" + formatter.format(getAverageThroughput())
+                    + " ,Max=" + formatter.format(maxThroughput)
+                    + " ,Min=" + formatter.format(getMinThroughput())
+                    + " ) TotalEvents=" + currentTotalCount
+                    + ((latencySampleCount > 0) ? " Latency(ns) p50=" + latencyP50 + " ,p99=" + latencyP99
+                    + " ,p999=" + latencyP999 + " ,max=" + latencyMax : ""));
+        }
+    }
 
-                count = 0l;
+    private void registerMBean() {
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName objectName = new ObjectName(MBEAN_DOMAIN + ":type=ThroughputProbe," + mBeanKey);
+            // Several instances of a component may run in the same JVM (e.g. bolts of a worker)
+            for (int instance = 2; ; instance++) {
+                try {
+                    mBeanServer.registerMBean(this, objectName);
+                    mBeanName = objectName;
+                    return;
+                } catch (InstanceAlreadyExistsException e) {
+                    objectName = new ObjectName(MBEAN_DOMAIN + ":type=ThroughputProbe," + mBeanKey + ",instance=" + instance);
+                }
             }
+        } catch (Exception e) {
+            log.warn("Cannot register MBean for throughput probe " + name, e);
+        }
+    }
+
+    private void unregisterMBean() {
+        if (mBeanName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(mBeanName);
+        } catch (Exception e) {
+            log.warn("Cannot unregister MBean " + mBeanName, e);
         }
+        mBeanName = null;
+    }
+
+    @Override
+    public long getTotalEventCount() {
+        return totalCount.sum();
+    }
+
+    @Override
+    public double getThroughput() {
+        return throughput;
+    }
+
+    @Override
+    public double getAverageThroughput() {
+        return (sampleCount == 0) ? 0.0 : accumulatedThroughput / sampleCount;
+    }
+
+    @Override
+    public double getMaxThroughput() {
+        return maxThroughput;
+    }
+
+    @Override
+    public double getMinThroughput() {
+        return (minThroughput == Double.MAX_VALUE) ? 0.0 : minThroughput;
+    }
+
+    @Override
+    public long getLatencySampleCount() {
+        return latencySampleCount;
+    }
+
+    @Override
+    public long getLatencyP50Nanos() {
+        return latencyP50;
+    }
+
+    @Override
+    public long getLatencyP99Nanos() {
+        return latencyP99;
+    }
+
+    @Override
+    public long getLatencyP999Nanos() {
+        return latencyP999;
+    }
+
+    @Override
+    public long getLatencyMaxNanos() {
+        return latencyMax;
     }
 }
@@ -0,0 +1,337 @@
+/*
+ * Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.wso2.carbon.event.processor.common.util;
+
+import com.lmax.disruptor.BlockingWaitStrategy;
+import com.lmax.disruptor.BusySpinWaitStrategy;
+import com.lmax.disruptor.SleepingWaitStrategy;
+import com.lmax.disruptor.WaitStrategy;
+import com.lmax.disruptor.YieldingWaitStrategy;
+import com.lmax.disruptor.dsl.ProducerType;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tuning parameters of the event transport between CEP nodes and Storm ("CEP Receiver" -> "Storm Receiver" and
+ * "Storm Publisher" -> "CEP Publisher") and of the Storm components. These are read from system properties so that
+ * they can be set on both CEP nodes and Storm workers (through worker childopts) without changing the distributed
+ * configuration.
+ * <p/>
+ * Properties taking an execution plan name can be overridden per execution plan by suffixing the property name with
+ * ".[plan name]", e.g. cep.transport.publisher.buffer.wait.strategy.MyPlan=busy-spin
+ */
+public final class TransportConfiguration {
+    private static Logger log = Logger.getLogger(TransportConfiguration.class);
+
+    public static final String PUBLISHER_BATCH_SIZE = "cep.transport.publisher.batch.size";
+    public static final String PUBLISHER_BATCH_LINGER_MS = "cep.transport.publisher.batch.linger.ms";
+    public static final String PUBLISHER_BUFFER_SCHEMA_ENABLED = "cep.transport.publisher.buffer.schema.enabled";
+    public static final String PUBLISHER_BUFFER_WAIT_STRATEGY = "cep.transport.publisher.buffer.wait.strategy";
+    public static final String PUBLISHER_BUFFER_PRODUCER_TYPE = "cep.transport.publisher.buffer.producer.type";
+    public static final String PUBLISHER_BUFFER_THREAD_PRIORITY = "cep.transport.publisher.buffer.thread.priority";
+    public static final String PUBLISHER_BUFFER_OVERFLOW_POLICY = "cep.transport.publisher.buffer.overflow.policy";
+    public static final String PUBLISHER_RETRY_INITIAL_INTERVAL_MS = "cep.transport.publisher.retry.initial.interval.ms";
+    public static final String PUBLISHER_SPILL_DIR = "cep.transport.publisher.spill.dir";
+    public static final String PUBLISHER_SPILL_SEGMENT_SIZE = "cep.transport.publisher.spill.segment.size";
+    public static final String PUBLISHER_SPILL_HIGH_WATERMARK = "cep.transport.publisher.spill.high.watermark";
+    public static final String PUBLISHER_SPILL_ALLOWED_CLASSES = "cep.transport.publisher.spill.allowed.classes";
+    public static final String SPOUT_EMIT_BATCH_SIZE = "cep.transport.spout.emit.batch.size";
+    public static final String BOLT_MICRO_BATCH_SIZE = "cep.storm.bolt.micro.batch.size";
+    public static final String BOLT_MICRO_BATCH_FLUSH_INTERVAL_SECS = "cep.storm.bolt.micro.batch.flush.interval.secs";
+    public static final String LATENCY_TRACE_SAMPLE_RATIO = "cep.transport.latency.trace.sample.ratio";
+    public static final String CEP_PUBLISHER_DISPATCH_BATCH_SIZE = "cep.transport.cep.publisher.dispatch.batch.size";
+    public static final String CEP_PUBLISHER_DISPATCH_QUEUE_SIZE = "cep.transport.cep.publisher.dispatch.queue.size";
+
+    public static final String WAIT_STRATEGY_BLOCKING = "blocking";
+    public static final String WAIT_STRATEGY_SLEEPING = "sleeping";
+    public static final String WAIT_STRATEGY_YIELDING = "yielding";
+    public static final String WAIT_STRATEGY_BUSY_SPIN = "busy-spin";
+
+    private static final int DEFAULT_PUBLISHER_BATCH_SIZE = 500;
+    private static final long DEFAULT_PUBLISHER_BATCH_LINGER_MS = 100;
+    private static final long DEFAULT_PUBLISHER_RETRY_INITIAL_INTERVAL_MS = 100;
+    private static final int DEFAULT_PUBLISHER_SPILL_SEGMENT_SIZE = 64 * 1024 * 1024;
+    private static final double DEFAULT_PUBLISHER_SPILL_HIGH_WATERMARK = 0.8;
+    private static final int DEFAULT_SPOUT_EMIT_BATCH_SIZE = 100;
+    private static final int DEFAULT_BOLT_MICRO_BATCH_FLUSH_INTERVAL_SECS = 1;
+    private static final int DEFAULT_CEP_PUBLISHER_DISPATCH_BATCH_SIZE = 100;
+    private static final int DEFAULT_CEP_PUBLISHER_DISPATCH_QUEUE_SIZE = 8192;
+
+    private TransportConfiguration() {
+    }
+
+    /**
+     * @return maximum number of events written to the TCP connection before it is flushed
+     */
+    public static int getPublisherBatchSize() {
+        return (int) Math.max(1, getLong(PUBLISHER_BATCH_SIZE, DEFAULT_PUBLISHER_BATCH_SIZE));
+    }
+
+    /**
+     * @return maximum time in milliseconds an event is held in a batch before the batch is flushed
+     */
+    public static long getPublisherBatchLingerMillis() {
+        return Math.max(0, getLong(PUBLISHER_BATCH_LINGER_MS, DEFAULT_PUBLISHER_BATCH_LINGER_MS));
+    }
+
+    /**
+     * @return whether the publisher ring buffer copies events into pre-allocated primitive columns built from the
+     * stream definitions, instead of referencing the event arrays of the callers. This keeps waiting events from
+     * retaining the callers' arrays, but events are still boxed when sent, see EventBufferSchema.
+     */
+    public static boolean isPublisherBufferSchemaEnabled() {
+        return Boolean.parseBoolean(System.getProperty(PUBLISHER_BUFFER_SCHEMA_ENABLED, "false"));
+    }
+
+    /**
+     * Wait strategy of the publisher ring buffer consumer. "blocking" (default) uses the least CPU, "sleeping" and
+     * "yielding" trade CPU for latency and "busy-spin" gives the lowest latency at the cost of a dedicated core.
+     */
+    public static WaitStrategy getPublisherBufferWaitStrategy(String executionPlanName) {
+        String waitStrategy = getString(PUBLISHER_BUFFER_WAIT_STRATEGY, executionPlanName, WAIT_STRATEGY_BLOCKING);
+        if (WAIT_STRATEGY_SLEEPING.equalsIgnoreCase(waitStrategy)) {
+            return new SleepingWaitStrategy();
+        } else if (WAIT_STRATEGY_YIELDING.equalsIgnoreCase(waitStrategy)) {
+            return new YieldingWaitStrategy();
+        } else if (WAIT_STRATEGY_BUSY_SPIN.equalsIgnoreCase(waitStrategy)) {
+            return new BusySpinWaitStrategy();
+        } else if (!WAIT_STRATEGY_BLOCKING.equalsIgnoreCase(waitStrategy)) {
+            log.warn("Unknown wait strategy '" + waitStrategy + "' for " + PUBLISHER_BUFFER_WAIT_STRATEGY + ", using "
+                    + WAIT_STRATEGY_BLOCKING);
+        }
+        return new BlockingWaitStrategy();
+    }
+
+    /**
+     * Producer type of the publisher ring buffer. "single" must only be used when a single thread publishes to the
+     * buffer (e.g. the executor thread of a publisher bolt), since it claims slots without CAS. It is not used with
+     * the SPILL overflow policy, where the connecting thread publishes to the buffer as well.
+     */
+    public static ProducerType getPublisherBufferProducerType(String executionPlanName, ProducerType defaultType) {
+        String producerType = getString(PUBLISHER_BUFFER_PRODUCER_TYPE, executionPlanName, defaultType.name());
+        try {
+            return ProducerType.valueOf(producerType.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            log.warn("Unknown producer type '" + producerType + "' for " + PUBLISHER_BUFFER_PRODUCER_TYPE + ", using "
+                    + defaultType.name());
+            return defaultType;
+        }
+    }
+
+    /**
+     * @return priority of the publisher ring buffer consumer thread
+     */
+    public static int getPublisherBufferThreadPriority(String executionPlanName) {
+        long priority = getLong(PUBLISHER_BUFFER_THREAD_PRIORITY, executionPlanName, Thread.NORM_PRIORITY);
+        return (int) Math.min(Thread.MAX_PRIORITY, Math.max(Thread.MIN_PRIORITY, priority));
+    }
+
+    /**
+     * @return what to do with new events when the publisher ring buffer is full. Defaults to blocking the publisher.
+     */
+    public static OverflowPolicy getPublisherBufferOverflowPolicy(String executionPlanName) {
+        String overflowPolicy = getString(PUBLISHER_BUFFER_OVERFLOW_POLICY, executionPlanName, OverflowPolicy.BLOCK.name());
+        try {
+            return OverflowPolicy.valueOf(overflowPolicy.toUpperCase().replace('-', '_'));
+        } catch (IllegalArgumentException e) {
+            log.warn("Unknown overflow policy '" + overflowPolicy + "' for " + PUBLISHER_BUFFER_OVERFLOW_POLICY + ", using "
+                    + OverflowPolicy.BLOCK.name());
+            return OverflowPolicy.BLOCK;
+        }
+    }
+
+    /**
+     * @return first interval in milliseconds to wait before resending a batch while the remote end is unreachable. The
+     * interval doubles on each attempt up to the transport reconnect interval.
+     */
+    public static long getPublisherRetryInitialIntervalMillis() {
+        return Math.max(1, getLong(PUBLISHER_RETRY_INITIAL_INTERVAL_MS, DEFAULT_PUBLISHER_RETRY_INITIAL_INTERVAL_MS));
+    }
+
+    /**
+     * @return directory holding the spill journals of publishers using the SPILL overflow policy. Defaults to
+     * repository/data/cep-spill of the Carbon server, or to .cep-spill in the home directory of the user on Storm
+     * workers, so that journals survive a reboot and are not placed in a world writable directory.
+     */
+    public static File getPublisherSpillDirectory() {
+        String directory = System.getProperty(PUBLISHER_SPILL_DIR);
+        if (directory != null && !directory.trim().isEmpty()) {
+            return new File(directory.trim());
+        }
+        String carbonHome = System.getProperty("carbon.home");
+        if (carbonHome != null && !carbonHome.trim().isEmpty()) {
+            return new File(carbonHome.trim(), "repository" + File.separator + "data" + File.separator + "cep-spill");
+        }
+        return new File(System.getProperty("user.home"), ".cep-spill");
+    }
+
+    /**
+     * Classes of OBJECT attribute values which may be read back from spill journals, in addition to strings, boxed
+     * primitives and the classes of java.util and java.math. Given as a comma separated list of class names, where
+     * "[package].*" allows the classes of a package (but not of its sub packages).
+     *
+     * @return allowed class names and package patterns
+     */
+    public static List<String> getPublisherSpillAllowedClasses() {
+        List<String> allowedClasses = new ArrayList<String>(Arrays.asList("java.lang.String", "java.lang.Boolean",
+                "java.lang.Character", "java.lang.Byte", "java.lang.Short", "java.lang.Integer", "java.lang.Long",
+                "java.lang.Float", "java.lang.Double", "java.lang.Number", "java.lang.Enum", "java.math.*",
+                "java.util.*"));
+        String configuredClasses = System.getProperty(PUBLISHER_SPILL_ALLOWED_CLASSES);
+        if (configuredClasses != null) {
+            for (String className : configuredClasses.split(",")) {
+                if (!className.trim().isEmpty()) {
+                    allowedClasses.add(className.trim());
+                }
+            }
+        }
+        return allowedClasses;
+    }
+
+    /**
+     * @return size in bytes of a memory mapped spill journal segment file
+     */
+    public static int getPublisherSpillSegmentSize() {
+        long segmentSize = getLong(PUBLISHER_SPILL_SEGMENT_SIZE, DEFAULT_PUBLISHER_SPILL_SEGMENT_SIZE);
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(64 * 1024, segmentSize));
+    }
+
+    /**
+     * @return fraction of the publisher ring buffer which, when filled, makes the publisher spill events to the journal
+     * instead of sending them, so that producers are not blocked by a slow remote end
+     */
+    public static double getPublisherSpillHighWatermark(String executionPlanName) {
+        String value = getString(PUBLISHER_SPILL_HIGH_WATERMARK, executionPlanName, null);
+        if (value == null) {
+            return DEFAULT_PUBLISHER_SPILL_HIGH_WATERMARK;
+        }
+        try {
+            return Math.min(1.0, Math.max(0.0, Double.parseDouble(value)));
+        } catch (NumberFormatException e) {
+            log.warn("Invalid value '" + value + "' for " + PUBLISHER_SPILL_HIGH_WATERMARK + ", using default "
+                    + DEFAULT_PUBLISHER_SPILL_HIGH_WATERMARK);
+            return DEFAULT_PUBLISHER_SPILL_HIGH_WATERMARK;
+        }
+    }
+
+    /**
+     * @return maximum number of events emitted by an event receiver spout on a single nextTuple call
+     */
+    public static int getSpoutEmitBatchSize() {
+        return (int) Math.max(1, getLong(SPOUT_EMIT_BATCH_SIZE, DEFAULT_SPOUT_EMIT_BATCH_SIZE));
+    }
+
+    /**
+     * @return number of events a Siddhi bolt buffers before sending them to Siddhi as a single batch. 1 (default)
+     * disables micro batching. Read when the topology is built.
+     */
+    public static int getBoltMicroBatchSize(String executionPlanName) {
+        return (int) Math.max(1, getLong(BOLT_MICRO_BATCH_SIZE, executionPlanName, 1));
+    }
+
+    /**
+     * @return interval in seconds of the tick tuples which flush partially filled micro batches of a Siddhi bolt
+     */
+    public static int getBoltMicroBatchFlushIntervalSeconds(String executionPlanName) {
+        return (int) Math.max(1, getLong(BOLT_MICRO_BATCH_FLUSH_INTERVAL_SECS, executionPlanName,
+                DEFAULT_BOLT_MICRO_BATCH_FLUSH_INTERVAL_SECS));
+    }
+
+    /**
+     * @return fraction of the events entering the distributed execution plan at the CEP receivers which carry a
+     * latency trace to the CEP publishers. 0 (default) disables tracing. Since tracing adds an attribute to the events
+     * on the transport, it must be configured alike on all CEP nodes of the cluster.
+     */
+    public static double getLatencyTraceSampleRatio(String executionPlanName) {
+        String value = getString(LATENCY_TRACE_SAMPLE_RATIO, executionPlanName, null);
+        if (value == null) {
+            return 0.0;
+        }
+        try {
+            return Math.min(1.0, Math.max(0.0, Double.parseDouble(value)));
+        } catch (NumberFormatException e) {
+            log.warn("Invalid value '" + value + "' for " + LATENCY_TRACE_SAMPLE_RATIO + ", disabling latency tracing");
+            return 0.0;
+        }
+    }
+
+    public static boolean isLatencyTracingEnabled(String executionPlanName) {
+        return getLatencyTraceSampleRatio(executionPlanName) > 0.0;
+    }
+
+    /**
+     * @return maximum number of events received from Storm which a CEP publisher hands to an output stream listener
+     * as a single batch
+     */
+    public static int getCEPPublisherDispatchBatchSize(String executionPlanName) {
+        return (int) Math.max(1, getLong(CEP_PUBLISHER_DISPATCH_BATCH_SIZE, executionPlanName,
+                DEFAULT_CEP_PUBLISHER_DISPATCH_BATCH_SIZE));
+    }
+
+    /**
+     * @return number of events received from Storm which wait for dispatching at a CEP publisher before the receiving
+     * connections are blocked
+     */
+    public static int getCEPPublisherDispatchQueueSize(String executionPlanName) {
+        return (int) Math.max(1, getLong(CEP_PUBLISHER_DISPATCH_QUEUE_SIZE, executionPlanName,
+                DEFAULT_CEP_PUBLISHER_DISPATCH_QUEUE_SIZE));
+    }
+
+    static String getString(String property, String executionPlanName, String defaultValue) {
+        String value = null;
+        if (executionPlanName != null) {
+            value = System.getProperty(property + "." + executionPlanName);
+        }
+        if (value == null || value.trim().isEmpty()) {
+            value = System.getProperty(property);
+        }
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        return value.trim();
+    }
+
+    static long getLong(String property, String executionPlanName, long defaultValue) {
+        String value = getString(property, executionPlanName, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            log.warn("Invalid value '" + value + "' for " + property + ", using default " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    static long getLong(String property, long defaultValue) {
+        String value = System.getProperty(property);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            log.warn("Invalid value '" + value + "' for " + property + ", using default " + defaultValue);
+            return defaultValue;
+        }
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wso2.carbon.event.processor.common.storm.component;
+
+import junit.framework.Assert;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class EventReceiverRingTestCase {
+    private static final Log log = LogFactory.getLog(EventReceiverRingTestCase.class);
+
+    @Test
+    public void testCapacity() {
+        // rounded up to a power of two
+        EventReceiverRing ring = new EventReceiverRing(Thread.currentThread(), 3);
+        for (int i = 0; i < 4; i++) {
+            Assert.assertTrue(ring.offer(0, i, new Object[]{i}));
+        }
+        Assert.assertFalse("Full ring accepted an event", ring.offer(0, 4, new Object[]{4}));
+
+        CollectingConsumer consumer = new CollectingConsumer();
+        Assert.assertEquals(1, ring.drain(consumer, 1));
+        Assert.assertTrue(ring.offer(0, 4, new Object[]{4}));
+    }
+
+    @Test
+    public void testDrainInOrder() {
+        EventReceiverRing ring = new EventReceiverRing(Thread.currentThread(), 8);
+        Assert.assertTrue(ring.isEmpty());
+        CollectingConsumer consumer = new CollectingConsumer();
+        // wraps around the ring several times
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 6; i++) {
+                long sequence = round * 6 + i;
+                Assert.assertTrue(ring.offer(i % 2, sequence, new Object[]{sequence}));
+            }
+            Assert.assertEquals(4, ring.drain(consumer, 4));
+            Assert.assertEquals(2, ring.drain(consumer, 100));
+            Assert.assertEquals(0, ring.drain(consumer, 100));
+            Assert.assertTrue(ring.isEmpty());
+        }
+        Assert.assertEquals(30, consumer.timestamps.size());
+        for (int i = 0; i < 30; i++) {
+            Assert.assertEquals((long) i, (long) consumer.timestamps.get(i));
+            Assert.assertEquals(i % 6 % 2, (int) consumer.streamIndexes.get(i));
+            Assert.assertEquals((long) i, consumer.data.get(i)[0]);
+        }
+    }
+
+    @Test
+    public void testIdleRingIsRetired() {
+        EventReceiverRing ring = new EventReceiverRing(Thread.currentThread(), 4);
+        CollectingConsumer consumer = new CollectingConsumer();
+        Assert.assertTrue(ring.offer(0, 0, new Object[]{0}));
+        Assert.assertFalse("Ring with events is discardable", ring.isDiscardable(0));
+        Assert.assertFalse(ring.isRetired());
+
+        Assert.assertEquals(1, ring.drain(consumer, 10));
+        Assert.assertFalse("Ring is retired before the idle timeout", ring.isDiscardable(Long.MAX_VALUE));
+        Assert.assertTrue(ring.offer(0, 1, new Object[]{1}));
+        Assert.assertEquals(1, ring.drain(consumer, 10));
+
+        Assert.assertTrue(ring.isDiscardable(0));
+        Assert.assertTrue(ring.isRetired());
+        Assert.assertFalse("Retired ring accepted an event", ring.offer(0, 2, new Object[]{2}));
+        Assert.assertTrue(ring.isEmpty());
+    }
+
+    @Test
+    public void testRetiredRingIsDrainedBeforeDiscarding() throws InterruptedException {
+        final EventReceiverRing[] ring = new EventReceiverRing[1];
+        final CountDownLatch created = new CountDownLatch(1);
+        final CountDownLatch finish = new CountDownLatch(1);
+        final List<Boolean> offers = new ArrayList<Boolean>();
+        Thread owner = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                ring[0] = new EventReceiverRing(Thread.currentThread(), 1024);
+                created.countDown();
+                // keeps adding events while the consumer retires the ring
+                for (int i = 0; i < 100000; i++) {
+                    boolean offered = ring[0].offer(0, i, new Object[]{i});
+                    if (!offered && ring[0].isRetired()) {
+                        break;
+                    }
+                    if (offered) {
+                        synchronized (offers) {
+                            offers.add(Boolean.TRUE);
+                        }
+                    }
+                }
+                try {
+                    finish.await();
+                } catch (InterruptedException e) {
+                    log.error("Interrupted", e);
+                }
+            }
+        });
+        owner.start();
+        created.await();
+
+        CollectingConsumer consumer = new CollectingConsumer();
+        boolean discarded = false;
+        while (!discarded) {
+            int drained = ring[0].drain(consumer, 100);
+            discarded = drained == 0 && ring[0].isDiscardable(0);
+        }
+        finish.countDown();
+        owner.join();
+        synchronized (offers) {
+            Assert.assertEquals("Events added to the retired ring are lost", offers.size(), consumer.timestamps.size());
+        }
+    }
+
+    @Test
+    public void testAbandoned() throws InterruptedException {
+        final AtomicReference<EventReceiverRing> ringReference = new AtomicReference<EventReceiverRing>();
+        final CountDownLatch offered = new CountDownLatch(1);
+        final CountDownLatch finish = new CountDownLatch(1);
+        // rings are created by the receiver threads owning them
+        Thread owner = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                EventReceiverRing ring = new EventReceiverRing(Thread.currentThread(), 4);
+                ring.offer(0, 0, new Object[0]);
+                ringReference.set(ring);
+                offered.countDown();
+                try {
+                    finish.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        owner.start();
+        offered.await();
+        EventReceiverRing ring = ringReference.get();
+        ring.drain(new CollectingConsumer(), 10);
+        Assert.assertFalse("Ring of a running thread is abandoned", ring.isAbandoned());
+
+        finish.countDown();
+        owner.join();
+        Assert.assertTrue(ring.isAbandoned());
+    }
+
+    @Test
+    public void testEventsOfEndedThreadAreDrained() throws InterruptedException {
+        final AtomicReference<EventReceiverRing> ringReference = new AtomicReference<EventReceiverRing>();
+        Thread owner = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                EventReceiverRing ring = new EventReceiverRing(Thread.currentThread(), 4);
+                ring.offer(0, 0, new Object[0]);
+                ringReference.set(ring);
+            }
+        });
+        owner.start();
+        owner.join();
+        EventReceiverRing ring = ringReference.get();
+        Assert.assertFalse("Ring with events is abandoned", ring.isAbandoned());
+        Assert.assertEquals(1, ring.drain(new CollectingConsumer(), 10));
+        Assert.assertTrue(ring.isAbandoned());
+    }
+
+    @Test
+    public void testConcurrentProducerAndConsumer() throws InterruptedException {
+        final int eventCount = 1000000;
+        final AtomicReference<EventReceiverRing> ringReference = new AtomicReference<EventReceiverRing>();
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                EventReceiverRing ring = ringReference.get();
+                for (int i = 0; i < eventCount; i++) {
+                    while (!ring.offer(0, i, null)) {
+                        Thread.yield();
+                    }
+                }
+            }
+        });
+        ringReference.set(new EventReceiverRing(producer, 1024));
+        final long[] expected = {0};
+        final boolean[] outOfOrder = {false};
+        EventReceiverRing.EventConsumer consumer = new EventReceiverRing.EventConsumer() {
+            @Override
+            public void consume(int streamIndex, long timestamp, Object[] data) {
+                if (timestamp != expected[0]++) {
+                    outOfOrder[0] = true;
+                }
+            }
+        };
+        long startTime = System.nanoTime();
+        producer.start();
+        while (!ringReference.get().isAbandoned()) {
+            if (ringReference.get().drain(consumer, 256) == 0) {
+                Thread.yield();
+            }
+        }
+        log.info("Passed " + eventCount + " events through the ring in "
+                + (System.nanoTime() - startTime) / 1000000 + " ms");
+        Assert.assertEquals(eventCount, expected[0]);
+        Assert.assertFalse("Events were drained out of order", outOfOrder[0]);
+    }
+
+    private static class CollectingConsumer implements EventReceiverRing.EventConsumer {
+        private final List<Integer> streamIndexes = new ArrayList<Integer>();
+        private final List<Long> timestamps = new ArrayList<Long>();
+        private final List<Object[]> data = new ArrayList<Object[]>();
+
+        @Override
+        public void consume(int streamIndex, long timestamp, Object[] eventData) {
+            streamIndexes.add(streamIndex);
+            timestamps.add(timestamp);
+            data.add(eventData);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wso2.carbon.event.processor.common.storm.component;
+
+import junit.framework.Assert;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class EventTupleValuesTestCase {
+    private static final Log log = LogFactory.getLog(EventTupleValuesTestCase.class);
+
+    @Test
+    public void testValuesBackedByEventData() {
+        Object[] data = {"WSO2", 55.25, 100};
+        EventTupleValues values = new EventTupleValues(data, 1431936000000L);
+
+        Assert.assertEquals(Arrays.<Object>asList("WSO2", 55.25, 100, 1431936000000L), values);
+        Assert.assertEquals(4, values.size());
+        Assert.assertSame("Event data is copied", data, values.getData());
+        Assert.assertEquals(1431936000000L, values.getTimestamp());
+        Assert.assertNull(values.getTrace());
+
+        // the values reflect the backing array
+        data[1] = 56.0;
+        Assert.assertEquals(56.0, values.get(1));
+    }
+
+    @Test
+    public void testTracedValues() {
+        // event data as received on the transport, with the trace as trailing attribute
+        Object[] data = {"WSO2", 55.25, "trace-received"};
+        EventTupleValues values = new EventTupleValues(data, 2, 1431936000000L, "trace-emitted");
+
+        Assert.assertEquals(Arrays.<Object>asList("WSO2", 55.25, 1431936000000L, "trace-emitted"), values);
+        Assert.assertEquals("trace-emitted", values.getTrace());
+        Object[] eventData = values.getData();
+        Assert.assertNotSame(data, eventData);
+        Assert.assertTrue(Arrays.equals(new Object[]{"WSO2", 55.25}, eventData));
+    }
+
+    @Test
+    public void testTraceWithoutTrailingAttribute() {
+        Object[] data = {"WSO2", 55.25};
+        EventTupleValues values = new EventTupleValues(data, 1431936000000L, "trace");
+        Assert.assertEquals(4, values.size());
+        Assert.assertEquals("trace", values.get(3));
+        Assert.assertSame(data, values.getData());
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wso2.carbon.event.processor.common.storm.component;
+
+import backtype.storm.task.IOutputCollector;
+import backtype.storm.task.OutputCollector;
+import backtype.storm.topology.BasicOutputCollector;
+import backtype.storm.tuple.Tuple;
+import junit.framework.Assert;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.After;
+import org.junit.Test;
+import org.wso2.carbon.event.processor.common.util.TransportConfiguration;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+public class SiddhiBoltTestCase {
+    private static final Log log = LogFactory.getLog(SiddhiBoltTestCase.class);
+    private static final String EXECUTION_PLAN_NAME = "SiddhiBoltTestPlan";
+
+    private final List<SiddhiBolt> bolts = new ArrayList<SiddhiBolt>();
+
+    @After
+    public void cleanup() {
+        for (SiddhiBolt bolt : bolts) {
+            bolt.cleanup();
+        }
+        System.clearProperty(TransportConfiguration.BOLT_MICRO_BATCH_SIZE + "." + EXECUTION_PLAN_NAME);
+    }
+
+    @Test
+    public void testEventsAreSentToTheirStream() {
+        SiddhiBolt bolt = createBolt();
+        CollectingOutputCollector output = new CollectingOutputCollector();
+        BasicOutputCollector collector = new BasicOutputCollector(new OutputCollector(output));
+
+        // stream ids which are equal, but not the same instance as the ids the input handlers are cached with
+        bolt.execute(tuple(new String("StockStream"), "WSO2", 55.25), collector);
+        bolt.execute(tuple(new String("StockStream"), "IBM", 120.5), collector);
+        bolt.execute(tuple(new String("QuoteStream"), "MSFT", 45.0), collector);
+        bolt.execute(tuple(new String("StockStream"), "WSO2", 56.0), collector);
+
+        Assert.assertEquals(Arrays.asList("StockOutStream", "StockOutStream", "QuoteOutStream", "StockOutStream"),
+                output.streamIds);
+        Assert.assertEquals(Arrays.<Object>asList("WSO2", "IBM", "MSFT", "WSO2"), output.values(0));
+        Assert.assertEquals(Arrays.<Object>asList(55.25, 120.5, 45.0, 56.0), output.values(1));
+    }
+
+    @Test
+    public void testPendingEventsAreSentOnCleanup() {
+        System.setProperty(TransportConfiguration.BOLT_MICRO_BATCH_SIZE + "." + EXECUTION_PLAN_NAME, "10");
+        SiddhiBolt bolt = createBolt();
+        CollectingOutputCollector output = new CollectingOutputCollector();
+        BasicOutputCollector collector = new BasicOutputCollector(new OutputCollector(output));
+
+        bolt.execute(tuple("StockStream", "WSO2", 55.25), collector);
+        bolt.execute(tuple("StockStream", "IBM", 120.5), collector);
+        bolt.execute(tuple("StockStream", "MSFT", 45.0), collector);
+        Assert.assertTrue("Events are sent before the micro batch is full", output.streamIds.isEmpty());
+
+        bolt.cleanup();
+        Assert.assertEquals(Arrays.<Object>asList("WSO2", "IBM", "MSFT"), output.values(0));
+    }
+
+    private SiddhiBolt createBolt() {
+        SiddhiBolt bolt = new SiddhiBolt("siddhiBolt",
+                Arrays.asList("define stream StockStream (symbol string, price double);",
+                        "define stream QuoteStream (symbol string, price double);"),
+                "from StockStream select symbol, price insert into StockOutStream; " +
+                        "from QuoteStream select symbol, price insert into QuoteOutStream;",
+                Arrays.asList("define stream StockOutStream (symbol string, price double);",
+                        "define stream QuoteOutStream (symbol string, price double);"),
+                EXECUTION_PLAN_NAME, -1234);
+        bolts.add(bolt);
+        return bolt;
+    }
+
+    private static Tuple tuple(final String streamId, Object... data) {
+        final EventTupleValues values = new EventTupleValues(data, System.currentTimeMillis());
+        return (Tuple) Proxy.newProxyInstance(Tuple.class.getClassLoader(), new Class[]{Tuple.class},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        String methodName = method.getName();
+                        if ("getSourceStreamId".equals(methodName)) {
+                            return streamId;
+                        } else if ("getSourceComponent".equals(methodName)) {
+                            return "eventReceiverSpout";
+                        } else if ("getValues".equals(methodName)) {
+                            return values;
+                        } else if ("getValue".equals(methodName)) {
+                            return values.get((Integer) args[0]);
+                        } else if ("size".equals(methodName)) {
+                            return values.size();
+                        } else if ("toString".equals(methodName)) {
+                            return streamId + values;
+                        }
+                        throw new UnsupportedOperationException(methodName);
+                    }
+                });
+    }
+
+    /**
+     * Records the tuples emitted by the bolt.
+     */
+    private static class CollectingOutputCollector implements IOutputCollector {
+        private final List<String> streamIds = new ArrayList<String>();
+        private final List<List<Object>> tuples = new ArrayList<List<Object>>();
+
+        @Override
+        public List<Integer> emit(String streamId, Collection<Tuple> anchors, List<Object> tuple) {
+            streamIds.add(streamId);
+            tuples.add(tuple);
+            return Collections.emptyList();
+        }
+
+        @Override
+        public void emitDirect(int taskId, String streamId, Collection<Tuple> anchors, List<Object> tuple) {
+            emit(streamId, anchors, tuple);
+        }
+
+        @Override
+        public void ack(Tuple input) {
+        }
+
+        @Override
+        public void fail(Tuple input) {
+        }
+
+        @Override
+        public void reportError(Throwable error) {
+            log.error("Error reported by the bolt", error);
+        }
+
+        private List<Object> values(int index) {
+            List<Object> values = new ArrayList<Object>();
+            for (List<Object> tuple : tuples) {
+                values.add(tuple.get(index));
+            }
+            return values;
+        }
+    }
+}
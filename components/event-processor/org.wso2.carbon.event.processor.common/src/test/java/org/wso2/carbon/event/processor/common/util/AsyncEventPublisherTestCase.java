@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wso2.carbon.event.processor.common.util;
+
+import com.lmax.disruptor.Sequence;
+import junit.framework.Assert;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.wso2.carbon.event.processor.manager.commons.utils.HostAndPort;
+import org.wso2.carbon.event.processor.manager.core.config.DistributedConfiguration;
+import org.wso2.siddhi.query.api.definition.Attribute;
+import org.wso2.siddhi.query.api.definition.StreamDefinition;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+
+public class AsyncEventPublisherTestCase {
+    private static final Log log = LogFactory.getLog(AsyncEventPublisherTestCase.class);
+
+    private static final String PLAN_NAME = "AsyncEventPublisherTestPlan";
+
+    private StreamDefinition streamDefinition;
+    private File spillDirectory;
+    private AsyncEventPublisher publisher;
+
+    @Before
+    public void setUp() throws IOException {
+        streamDefinition = StreamDefinition.id("TestStream").attribute("att1", Attribute.Type.INT);
+        spillDirectory = Files.createTempDirectory("async-publisher-spill").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        if (publisher != null) {
+            publisher.shutdown();
+        }
+        System.clearProperty(TransportConfiguration.PUBLISHER_BUFFER_OVERFLOW_POLICY + "." + PLAN_NAME);
+        System.clearProperty(TransportConfiguration.PUBLISHER_SPILL_DIR);
+        delete(spillDirectory);
+    }
+
+    @Test
+    public void testLoneEventIsDispatchedAtEndOfBatch() {
+        // Without a connection, events are spilled as soon as they are dispatched
+        System.setProperty(TransportConfiguration.PUBLISHER_BUFFER_OVERFLOW_POLICY + "." + PLAN_NAME, "SPILL");
+        System.setProperty(TransportConfiguration.PUBLISHER_SPILL_DIR, spillDirectory.getPath());
+        publisher = createPublisher();
+
+        publisher.onEvent(newDataHolder(1), 0, false);
+        Assert.assertEquals(0, publisher.getSpilledEventCount());
+        publisher.onEvent(newDataHolder(2), 1, true);
+        Assert.assertEquals(2, publisher.getSpilledEventCount());
+
+        // A lone event does not wait for further events
+        publisher.onEvent(newDataHolder(3), 2, true);
+        Assert.assertEquals(3, publisher.getSpilledEventCount());
+    }
+
+    @Test
+    public void testShutdownDiscardsGatheredBatch() {
+        publisher = createPublisher();
+        publisher.shutdown();
+        // The consumer may be handed more events than a batch holds after the publisher has shutdown
+        int eventCount = TransportConfiguration.getPublisherBatchSize() * 2 + 1;
+        for (int i = 0; i < eventCount; i++) {
+            publisher.onEvent(newDataHolder(i), i, false);
+        }
+        publisher.onEvent(newDataHolder(eventCount), eventCount, true);
+    }
+
+    private AsyncEventPublisher createPublisher() {
+        AsyncEventPublisher asyncEventPublisher = new AsyncEventPublisher(
+                AsyncEventPublisher.DestinationType.STORM_RECEIVER, Collections.singleton(streamDefinition),
+                new ArrayList<HostAndPort>(), PLAN_NAME, -1234, new DistributedConfiguration(), null);
+        asyncEventPublisher.setSequenceCallback(new Sequence());
+        return asyncEventPublisher;
+    }
+
+    @SuppressWarnings("unchecked")
+    private AsynchronousEventBuffer.DataHolder newDataHolder(int value) {
+        AsynchronousEventBuffer.DataHolder dataHolder = publisher.eventSendBuffer.new DataHolder();
+        dataHolder.setStreamId(streamDefinition.getId());
+        dataHolder.setTimestamp(System.currentTimeMillis());
+        dataHolder.setData(new Object[]{value});
+        return dataHolder;
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
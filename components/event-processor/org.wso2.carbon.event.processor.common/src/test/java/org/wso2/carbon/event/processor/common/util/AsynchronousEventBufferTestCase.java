@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wso2.carbon.event.processor.common.util;
+
+import com.lmax.disruptor.BlockingWaitStrategy;
+import com.lmax.disruptor.EventHandler;
+import com.lmax.disruptor.dsl.ProducerType;
+import junit.framework.Assert;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class AsynchronousEventBufferTestCase {
+    private static final Log log = LogFactory.getLog(AsynchronousEventBufferTestCase.class);
+
+    private static final int BUFFER_SIZE = 4;
+
+    private final CountDownLatch consumerReleased = new CountDownLatch(1);
+    private final AtomicInteger consumedCount = new AtomicInteger(0);
+    private AsynchronousEventBuffer<Object[]> eventBuffer;
+
+    @After
+    public void terminateBuffer() {
+        consumerReleased.countDown();
+        if (eventBuffer != null) {
+            eventBuffer.terminate();
+        }
+    }
+
+    @Test
+    public void testDropNewest() throws InterruptedException {
+        eventBuffer = createBuffer(OverflowPolicy.DROP_NEWEST);
+        // the consumer holds the slots of the events until it is released
+        for (int i = 0; i < BUFFER_SIZE; i++) {
+            Assert.assertTrue(eventBuffer.addEvent(new Object[]{i}, i, "stream"));
+        }
+        Assert.assertEquals(1.0, eventBuffer.getFillRatio());
+        Assert.assertFalse(eventBuffer.addEvent(new Object[]{BUFFER_SIZE}, BUFFER_SIZE, "stream"));
+        Assert.assertEquals(1, eventBuffer.getDroppedNewestCount());
+        Assert.assertEquals(0, eventBuffer.getBlockedCount());
+
+        consumerReleased.countDown();
+        waitForConsumedEvents(BUFFER_SIZE);
+        Assert.assertTrue(eventBuffer.addEvent(new Object[]{BUFFER_SIZE}, BUFFER_SIZE, "stream"));
+        waitForConsumedEvents(BUFFER_SIZE + 1);
+    }
+
+    @Test
+    public void testBlock() throws InterruptedException {
+        eventBuffer = createBuffer(OverflowPolicy.BLOCK);
+        for (int i = 0; i < BUFFER_SIZE; i++) {
+            Assert.assertTrue(eventBuffer.addEvent(new Object[]{i}, i, "stream"));
+        }
+        final AtomicBoolean added = new AtomicBoolean(false);
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                added.set(eventBuffer.addEvent(new Object[]{BUFFER_SIZE}, BUFFER_SIZE, "stream"));
+            }
+        });
+        producer.start();
+        producer.join(200);
+        Assert.assertTrue("Producer does not wait for space", producer.isAlive());
+
+        consumerReleased.countDown();
+        producer.join(5000);
+        Assert.assertTrue(added.get());
+        Assert.assertEquals(1, eventBuffer.getBlockedCount());
+        Assert.assertEquals(0, eventBuffer.getDroppedNewestCount());
+        waitForConsumedEvents(BUFFER_SIZE + 1);
+    }
+
+    @Test
+    public void testDropOldestRequestsConsumerToDiscard() throws InterruptedException {
+        eventBuffer = createBuffer(OverflowPolicy.DROP_OLDEST);
+        Assert.assertFalse(eventBuffer.takeDropRequests(1));
+        for (int i = 0; i < BUFFER_SIZE; i++) {
+            Assert.assertTrue(eventBuffer.addEvent(new Object[]{i}, i, "stream"));
+        }
+        final AtomicBoolean added = new AtomicBoolean(false);
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                added.set(eventBuffer.addEvent(new Object[]{BUFFER_SIZE}, BUFFER_SIZE, "stream"));
+            }
+        });
+        producer.start();
+
+        // the waiting producer asks the consumer to discard an event, which is taken by the consumer
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        boolean requested = false;
+        while (!requested && System.nanoTime() < deadline) {
+            requested = eventBuffer.takeDropRequests(1);
+            Thread.sleep(1);
+        }
+        Assert.assertTrue("Producer did not request to discard the oldest event", requested);
+        eventBuffer.recordDroppedOldest(1);
+
+        consumerReleased.countDown();
+        producer.join(5000);
+        Assert.assertTrue(added.get());
+        Assert.assertEquals(1, eventBuffer.getDroppedOldestCount());
+        Assert.assertEquals(0, eventBuffer.getBlockedCount());
+        Assert.assertFalse(eventBuffer.takeDropRequests(1));
+    }
+
+    @Test
+    public void testTriggerIsSkippedWhenFull() {
+        eventBuffer = createBuffer(OverflowPolicy.DROP_NEWEST);
+        for (int i = 0; i < BUFFER_SIZE; i++) {
+            eventBuffer.addEvent(new Object[]{i}, i, "stream");
+        }
+        // returns without waiting for space
+        eventBuffer.addTrigger();
+        Assert.assertEquals(0, eventBuffer.getBlockedCount());
+    }
+
+    private AsynchronousEventBuffer<Object[]> createBuffer(OverflowPolicy overflowPolicy) {
+        return new AsynchronousEventBuffer<Object[]>(BUFFER_SIZE, new EventHandler<Object>() {
+            @Override
+            public void onEvent(Object event, long sequence, boolean endOfBatch) throws InterruptedException {
+                consumerReleased.await();
+                consumedCount.incrementAndGet();
+            }
+        }, null, ProducerType.MULTI, new BlockingWaitStrategy(), overflowPolicy, Executors.defaultThreadFactory());
+    }
+
+    private void waitForConsumedEvents(int eventCount) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (consumedCount.get() < eventCount && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(eventCount, consumedCount.get());
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wso2.carbon.event.processor.common.util;
+
+import com.lmax.disruptor.EventHandler;
+import junit.framework.Assert;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.wso2.siddhi.query.api.definition.Attribute;
+import org.wso2.siddhi.query.api.definition.StreamDefinition;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+public class EventBufferSchemaTestCase {
+    private static final Log log = LogFactory.getLog(EventBufferSchemaTestCase.class);
+
+    private AsynchronousEventBuffer<Object[]> eventBuffer;
+    private EventBufferSchema schema;
+
+    @Before
+    public void createSchema() {
+        eventBuffer = new AsynchronousEventBuffer<Object[]>(16, new EventHandler<Object>() {
+            @Override
+            public void onEvent(Object event, long sequence, boolean endOfBatch) {
+            }
+        });
+        schema = new EventBufferSchema(Arrays.asList(
+                StreamDefinition.id("stock")
+                        .attribute("symbol", Attribute.Type.STRING)
+                        .attribute("volume", Attribute.Type.INT)
+                        .attribute("timestamp", Attribute.Type.LONG)
+                        .attribute("change", Attribute.Type.FLOAT)
+                        .attribute("price", Attribute.Type.DOUBLE)
+                        .attribute("active", Attribute.Type.BOOL)
+                        .attribute("meta", Attribute.Type.OBJECT),
+                StreamDefinition.id("quote")
+                        .attribute("price", Attribute.Type.DOUBLE)
+                        .attribute("bid", Attribute.Type.DOUBLE)
+                        .attribute("ask", Attribute.Type.DOUBLE)));
+    }
+
+    @After
+    public void terminateBuffer() {
+        eventBuffer.terminate();
+    }
+
+    @Test
+    public void testStreamIndex() {
+        Assert.assertEquals(0, schema.getStreamIndex("stock"));
+        Assert.assertEquals(1, schema.getStreamIndex("quote"));
+        Assert.assertEquals(-1, schema.getStreamIndex("unknown"));
+        Assert.assertEquals("quote", schema.getStreamId(1));
+        Assert.assertEquals(3, schema.getAttributeTypes(1).length);
+    }
+
+    @Test
+    public void testEncodeAndDecode() {
+        AsynchronousEventBuffer<Object[]>.DataHolder holder = newDataHolder();
+        Object[] stock = {"WSO2", 100, 1431936000000L, 1.5f, 55.25, true, Collections.singletonList("meta")};
+        encode(0, stock, holder);
+        Assert.assertTrue(Arrays.equals(stock, schema.decode(holder)));
+
+        // the same slot re-used by a stream with another layout
+        Object[] quote = {55.25, 55.0, 55.5};
+        encode(1, quote, holder);
+        Assert.assertTrue(Arrays.equals(quote, schema.decode(holder)));
+    }
+
+    @Test
+    public void testNullValues() {
+        AsynchronousEventBuffer<Object[]>.DataHolder holder = newDataHolder();
+        Object[] stock = {"WSO2", 100, 1431936000000L, 1.5f, 55.25, true, "meta"};
+        encode(0, stock, holder);
+        schema.decode(holder);
+        Object[] nulls = new Object[7];
+        encode(0, nulls, holder);
+        Assert.assertTrue(Arrays.equals(nulls, schema.decode(holder)));
+    }
+
+    @Test
+    public void testUnchangedValuesKeepTheirBoxes() {
+        AsynchronousEventBuffer<Object[]>.DataHolder holder = newDataHolder();
+        encode(0, new Object[]{"WSO2", 1000, 1431936000000L, 1.5f, 55.25, true, "meta"}, holder);
+        Object[] first = schema.decode(holder).clone();
+        encode(0, new Object[]{"WSO2", 1000, 1431936000000L, -1.5f, -0.0, true, "meta"}, holder);
+        Object[] second = schema.decode(holder);
+
+        Assert.assertSame(first[1], second[1]);
+        Assert.assertSame(first[2], second[2]);
+        Assert.assertEquals(-1.5f, second[3]);
+        // -0.0 equals 0.0 numerically, but is a different value
+        Assert.assertEquals(Double.valueOf(-0.0), second[4]);
+        Assert.assertSame(Boolean.TRUE, second[5]);
+    }
+
+    @Test
+    public void testRelease() {
+        AsynchronousEventBuffer<Object[]>.DataHolder holder = newDataHolder();
+        encode(0, new Object[]{"WSO2", 100, 1L, 1.5f, 55.25, true, "meta"}, holder);
+        schema.release(holder);
+        for (Object value : holder.objects) {
+            Assert.assertNull("Slot holds an object of a sent event", value);
+        }
+    }
+
+    private void encode(int streamIndex, Object[] data, AsynchronousEventBuffer<Object[]>.DataHolder holder) {
+        holder.streamIndex = streamIndex;
+        schema.encode(streamIndex, data, holder);
+    }
+
+    private AsynchronousEventBuffer<Object[]>.DataHolder newDataHolder() {
+        AsynchronousEventBuffer<Object[]>.DataHolder holder = eventBuffer.new DataHolder();
+        schema.allocate(holder);
+        return holder;
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wso2.carbon.event.processor.common.util;
+
+import junit.framework.Assert;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class LatencyHistogramTestCase {
+    private static final Log log = LogFactory.getLog(LatencyHistogramTestCase.class);
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 100000; value++) {
+            histogram.record(value);
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.drainTo(new LatencyHistogram.Snapshot());
+        Assert.assertEquals(100000, snapshot.getTotalCount());
+        assertWithinError(50000, snapshot.getValueAtPercentile(50));
+        assertWithinError(99000, snapshot.getValueAtPercentile(99));
+        assertWithinError(99900, snapshot.getValueAtPercentile(99.9));
+        assertWithinError(100000, snapshot.getMaxValue());
+    }
+
+    @Test
+    public void testSmallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 0; value < 32; value++) {
+            histogram.record(value);
+        }
+        // negative values are recorded as 0
+        histogram.record(-5);
+        LatencyHistogram.Snapshot snapshot = histogram.drainTo(new LatencyHistogram.Snapshot());
+        Assert.assertEquals(33, snapshot.getTotalCount());
+        Assert.assertEquals(0, snapshot.getValueAtPercentile(0));
+        Assert.assertEquals(15, snapshot.getValueAtPercentile(50));
+        Assert.assertEquals(31, snapshot.getMaxValue());
+    }
+
+    @Test
+    public void testBucketBounds() {
+        Random random = new Random(1);
+        for (int i = 0; i < 100000; i++) {
+            long value = (random.nextLong() >>> 1) >>> random.nextInt(63);
+            int index = LatencyHistogram.indexOf(value);
+            long highestValue = LatencyHistogram.highestValueOf(index);
+            Assert.assertTrue(value + " above the bucket ending at " + highestValue, value <= highestValue);
+            Assert.assertTrue(value + " below the bucket ending at " + highestValue,
+                    index == 0 || LatencyHistogram.highestValueOf(index - 1) < value);
+            assertWithinError(value, highestValue);
+        }
+        Assert.assertEquals(Long.MAX_VALUE, LatencyHistogram.highestValueOf(LatencyHistogram.indexOf(Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void testDrainClearsHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1000);
+        LatencyHistogram.Snapshot snapshot = new LatencyHistogram.Snapshot();
+        Assert.assertEquals(1, histogram.drainTo(snapshot).getTotalCount());
+        histogram.drainTo(snapshot);
+        Assert.assertEquals(0, snapshot.getTotalCount());
+        Assert.assertEquals(0, snapshot.getValueAtPercentile(99));
+        Assert.assertEquals(0, snapshot.getMaxValue());
+    }
+
+    @Test
+    public void testConcurrentRecording() throws InterruptedException {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 100000; j++) {
+                        histogram.record(j);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(400000, histogram.drainTo(new LatencyHistogram.Snapshot()).getTotalCount());
+    }
+
+    private static void assertWithinError(long expected, long actual) {
+        Assert.assertTrue("Expected " + expected + " within 3.2% but was " + actual,
+                Math.abs(actual - expected) <= expected * 0.032);
+    }
+}
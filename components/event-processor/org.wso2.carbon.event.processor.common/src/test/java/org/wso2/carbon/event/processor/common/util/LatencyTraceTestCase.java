@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wso2.carbon.event.processor.common.util;
+
+import junit.framework.Assert;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class LatencyTraceTestCase {
+    private static final Log log = LogFactory.getLog(LatencyTraceTestCase.class);
+
+    @Test
+    public void testHops() {
+        String trace = LatencyTrace.addHop(LatencyTrace.addHop(LatencyTrace.start("publisher"), "spout"), "bolt");
+        Assert.assertTrue(Arrays.equals(new String[]{"publisher", "spout", "bolt"}, LatencyTrace.getHops(trace)));
+        long[] times = LatencyTrace.getHopTimes(trace);
+        Assert.assertEquals(3, times.length);
+        Assert.assertTrue(times[0] <= times[1] && times[1] <= times[2]);
+        Assert.assertSame(LatencyTrace.NOT_SAMPLED, LatencyTrace.addHop(LatencyTrace.NOT_SAMPLED, "spout"));
+    }
+
+    @Test
+    public void testHopIsAddedToACopyOfTheEventData() {
+        String trace = LatencyTrace.start("publisher");
+        Object[] tracedData = {"WSO2", 55.25, trace};
+        Object[] data = LatencyTrace.addHop(tracedData, "spout");
+
+        Assert.assertNotSame(tracedData, data);
+        Assert.assertSame("Event data shared with the caller is updated", trace, tracedData[2]);
+        Assert.assertEquals("WSO2", data[0]);
+        Assert.assertEquals(55.25, data[1]);
+        Assert.assertTrue(Arrays.equals(new String[]{"publisher", "spout"},
+                LatencyTrace.getHops(LatencyTrace.getTrace(data))));
+
+        // a resent event gets the hop once more, rather than carrying it over from the previous attempt
+        Object[] resentData = LatencyTrace.addHop(tracedData, "spout");
+        Assert.assertEquals(2, LatencyTrace.getHops(LatencyTrace.getTrace(resentData)).length);
+    }
+
+    @Test
+    public void testEventDataOfUnsampledEventIsNotCopied() {
+        Object[] tracedData = {"WSO2", 55.25, LatencyTrace.NOT_SAMPLED};
+        Assert.assertSame(tracedData, LatencyTrace.addHop(tracedData, "spout"));
+        tracedData[2] = null;
+        Assert.assertSame(tracedData, LatencyTrace.addHop(tracedData, "spout"));
+    }
+}
@@ -0,0 +1,296 @@
+/*
+ * Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wso2.carbon.event.processor.common.util;
+
+import junit.framework.Assert;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.wso2.siddhi.query.api.definition.Attribute;
+import org.wso2.siddhi.query.api.definition.StreamDefinition;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+public class SpillJournalTestCase {
+    private static final Log log = LogFactory.getLog(SpillJournalTestCase.class);
+    private static final int SEGMENT_SIZE = 4096;
+
+    private File baseDirectory;
+    private final List<SpillJournal> journals = new ArrayList<SpillJournal>();
+
+    @Before
+    public void createDirectory() throws IOException {
+        baseDirectory = Files.createTempDirectory("spill-journal").toFile();
+    }
+
+    @After
+    public void deleteDirectory() {
+        for (SpillJournal journal : journals) {
+            journal.close();
+        }
+        delete(baseDirectory);
+        System.clearProperty(TransportConfiguration.PUBLISHER_SPILL_ALLOWED_CLASSES);
+    }
+
+    @Test
+    public void testReplayEveryAttributeType() throws IOException {
+        SpillJournal journal = open(stockSchema());
+        List<Object[]> events = Arrays.asList(
+                new Object[]{"WSO2", 100, 1431936000000L, 1.5f, 55.25, true, new Date(1431936000000L)},
+                new Object[]{"IBM", -1, Long.MIN_VALUE, Float.MAX_VALUE, Double.MIN_VALUE, false,
+                        new ArrayList<String>(Arrays.asList("a", "b"))},
+                new Object[]{"\u0dc1\u0dca\u200d\u0dbb\u0dd3", 0, 0L, 0f, 0.0, true, "string object"},
+                new Object[7]);
+        for (int i = 0; i < events.size(); i++) {
+            journal.append(0, i, events.get(i));
+        }
+        journal.append(1, 10, new Object[]{55.25, null, 55.5});
+        Assert.assertEquals(5, journal.getSpilledEventCount());
+
+        CollectingSink sink = new CollectingSink();
+        Assert.assertEquals(5, journal.replay(sink, 100));
+        Assert.assertTrue(journal.isEmpty());
+        Assert.assertEquals(5, journal.getReplayedEventCount());
+        for (int i = 0; i < events.size(); i++) {
+            Assert.assertEquals("stock", sink.streamIds.get(i));
+            Assert.assertEquals((long) i, (long) sink.timestamps.get(i));
+            Assert.assertTrue("Event " + i + " replayed as " + Arrays.toString(sink.events.get(i)),
+                    Arrays.equals(events.get(i), sink.events.get(i)));
+        }
+        Assert.assertEquals("quote", sink.streamIds.get(4));
+        Assert.assertTrue(Arrays.equals(new Object[]{55.25, null, 55.5}, sink.events.get(4)));
+        Assert.assertTrue("Last replayed event is flushed", sink.flushes.get(4));
+    }
+
+    @Test
+    public void testReplayAcrossSegments() throws IOException {
+        SpillJournal journal = open(stockSchema());
+        for (int i = 0; i < 1000; i++) {
+            journal.append(1, i, new Object[]{(double) i, (double) i, (double) i});
+        }
+        Assert.assertTrue("Events span several segments", segmentCount(journal) > 5);
+
+        CollectingSink sink = new CollectingSink();
+        int replayed = 0;
+        while (!journal.isEmpty()) {
+            replayed += journal.replay(sink, 64);
+        }
+        Assert.assertEquals(1000, replayed);
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertEquals((long) i, (long) sink.timestamps.get(i));
+            Assert.assertEquals((double) i, sink.events.get(i)[0]);
+        }
+        Assert.assertEquals("Replayed segments are deleted", 1, segmentCount(journal));
+    }
+
+    @Test
+    public void testReplayAfterReopen() throws IOException {
+        SpillJournal journal = open(stockSchema());
+        for (int i = 0; i < 10; i++) {
+            journal.append(1, i, new Object[]{(double) i, null, null});
+        }
+        Assert.assertEquals(4, journal.replay(new CollectingSink(), 4));
+        journal.close();
+        journals.remove(journal);
+
+        journal = open(stockSchema());
+        CollectingSink sink = new CollectingSink();
+        Assert.assertEquals(6, journal.replay(sink, 100));
+        Assert.assertEquals(Arrays.asList(4L, 5L, 6L, 7L, 8L, 9L), sink.timestamps);
+    }
+
+    @Test
+    public void testFailedSendIsReplayedAgain() throws IOException {
+        SpillJournal journal = open(stockSchema());
+        for (int i = 0; i < 5; i++) {
+            journal.append(1, i, new Object[]{(double) i, null, null});
+        }
+        CollectingSink sink = new CollectingSink();
+        sink.failAt = 2;
+        try {
+            journal.replay(sink, 100);
+            Assert.fail("Failure of the sink was not reported");
+        } catch (IOException e) {
+            log.info("Expected: " + e.getMessage());
+        }
+        Assert.assertEquals(5, journal.replay(sink, 100));
+        // at least once, the events sent after the last flush are sent again
+        Assert.assertEquals(Arrays.asList(0L, 1L, 0L, 1L, 2L, 3L, 4L), sink.timestamps);
+    }
+
+    @Test
+    public void testIncompatibleSegmentsAreSetAside() throws IOException {
+        SpillJournal journal = open(stockSchema());
+        journal.append(1, 0, new Object[]{1.0, 2.0, 3.0});
+        File directory = journal.getDirectory();
+        journal.close();
+        journals.remove(journal);
+
+        // the quote stream changed since the event was journaled
+        EventBufferSchema changedSchema = new EventBufferSchema(Arrays.asList(stockDefinition(),
+                StreamDefinition.id("quote").attribute("price", Attribute.Type.DOUBLE)));
+        journal = open(changedSchema);
+        Assert.assertEquals(directory, journal.getDirectory());
+        Assert.assertTrue("Event journaled with other stream definitions was replayed", journal.isEmpty());
+        String[] fileNames = directory.list();
+        boolean setAside = false;
+        for (String fileName : fileNames) {
+            setAside |= fileName.endsWith(".incompatible");
+        }
+        Assert.assertTrue("Incompatible segment is kept", setAside);
+    }
+
+    @Test
+    public void testJournalInUse() throws IOException {
+        SpillJournal first = open(stockSchema());
+        SpillJournal second = open(stockSchema());
+        Assert.assertFalse(first.getDirectory().equals(second.getDirectory()));
+        second.append(1, 0, new Object[]{1.0, 2.0, 3.0});
+        Assert.assertTrue(first.isEmpty());
+    }
+
+    private SpillJournal open(EventBufferSchema schema) throws IOException {
+        SpillJournal journal = SpillJournal.open(baseDirectory, "publisher", schema, 2, SEGMENT_SIZE);
+        journals.add(journal);
+        return journal;
+    }
+
+    @Test
+    public void testOnlyAllowedObjectClassesAreJournaled() throws IOException {
+        Object[] event = {"WSO2", 100, 1L, 1.5f, 55.25, true, new Quote("WSO2", 55.25)};
+        SpillJournal journal = open(stockSchema());
+        try {
+            journal.append(0, 1, event);
+            Assert.fail("Journaled an object of a class which is not allowed");
+        } catch (IOException e) {
+            log.info("Expected failure: " + e.getMessage());
+        }
+        Assert.assertTrue(journal.isEmpty());
+        journal.close();
+        journals.remove(journal);
+
+        System.setProperty(TransportConfiguration.PUBLISHER_SPILL_ALLOWED_CLASSES, " java.awt.*, " + Quote.class.getName());
+        journal = open(stockSchema());
+        journal.append(0, 1, event);
+        journal.close();
+        journals.remove(journal);
+
+        // a segment holding a class which is no longer allowed is read back without instantiating the class
+        System.clearProperty(TransportConfiguration.PUBLISHER_SPILL_ALLOWED_CLASSES);
+        journal = open(stockSchema());
+        CollectingSink sink = new CollectingSink();
+        Assert.assertEquals(1, journal.replay(sink, 10));
+        Assert.assertEquals("WSO2", sink.events.get(0)[0]);
+        Assert.assertNull(sink.events.get(0)[6]);
+    }
+
+    @Test
+    public void testAllowedClasses() {
+        List<String> allowedClasses = Arrays.asList("java.lang.String", "java.util.*", "org.example.Quote");
+        Assert.assertTrue(SpillJournal.isAllowed("java.lang.String", allowedClasses));
+        Assert.assertTrue(SpillJournal.isAllowed("java.util.HashMap", allowedClasses));
+        Assert.assertTrue(SpillJournal.isAllowed("java.util.Collections$UnmodifiableList", allowedClasses));
+        Assert.assertTrue(SpillJournal.isAllowed("org.example.Quote", allowedClasses));
+        Assert.assertTrue(SpillJournal.isAllowed("[[Lorg.example.Quote;", allowedClasses));
+        Assert.assertTrue(SpillJournal.isAllowed("[J", allowedClasses));
+
+        Assert.assertFalse(SpillJournal.isAllowed("java.util.concurrent.ConcurrentHashMap", allowedClasses));
+        Assert.assertFalse(SpillJournal.isAllowed("java.lang.Runtime", allowedClasses));
+        Assert.assertFalse(SpillJournal.isAllowed("org.example.QuoteHandler", allowedClasses));
+        Assert.assertFalse(SpillJournal.isAllowed("[Ljava.lang.Object;", allowedClasses));
+    }
+
+    private static EventBufferSchema stockSchema() {
+        return new EventBufferSchema(Arrays.asList(stockDefinition(),
+                StreamDefinition.id("quote")
+                        .attribute("price", Attribute.Type.DOUBLE)
+                        .attribute("bid", Attribute.Type.DOUBLE)
+                        .attribute("ask", Attribute.Type.DOUBLE)));
+    }
+
+    private static StreamDefinition stockDefinition() {
+        return StreamDefinition.id("stock")
+                .attribute("symbol", Attribute.Type.STRING)
+                .attribute("volume", Attribute.Type.INT)
+                .attribute("timestamp", Attribute.Type.LONG)
+                .attribute("change", Attribute.Type.FLOAT)
+                .attribute("price", Attribute.Type.DOUBLE)
+                .attribute("active", Attribute.Type.BOOL)
+                .attribute("meta", Attribute.Type.OBJECT);
+    }
+
+    private static int segmentCount(SpillJournal journal) {
+        int count = 0;
+        for (String fileName : journal.getDirectory().list()) {
+            if (fileName.endsWith(".journal")) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    public static class Quote implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private final String symbol;
+        private final double price;
+
+        Quote(String symbol, double price) {
+            this.symbol = symbol;
+            this.price = price;
+        }
+    }
+
+    private static class CollectingSink implements SpillJournal.EventSink {
+        private final List<String> streamIds = new ArrayList<String>();
+        private final List<Long> timestamps = new ArrayList<Long>();
+        private final List<Object[]> events = new ArrayList<Object[]>();
+        private final List<Boolean> flushes = new ArrayList<Boolean>();
+        private int failAt = -1;
+
+        @Override
+        public void send(String streamId, long timestamp, Object[] data, boolean flush) throws IOException {
+            if (timestamps.size() == failAt) {
+                failAt = -1;
+                throw new IOException("Cannot send event " + timestamp);
+            }
+            streamIds.add(streamId);
+            timestamps.add(timestamp);
+            // the journal re-uses the array for the next event of the stream
+            events.add(data.clone());
+            flushes.add(flush);
+        }
+    }
+}
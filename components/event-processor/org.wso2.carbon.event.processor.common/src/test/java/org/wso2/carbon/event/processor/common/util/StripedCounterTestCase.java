@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wso2.carbon.event.processor.common.util;
+
+import junit.framework.Assert;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+public class StripedCounterTestCase {
+    private static final Log log = LogFactory.getLog(StripedCounterTestCase.class);
+
+    @Test
+    public void testSingleThread() {
+        StripedCounter counter = new StripedCounter();
+        Assert.assertEquals(0, counter.sum());
+        counter.increment();
+        counter.add(41);
+        counter.add(-2);
+        Assert.assertEquals(40, counter.sum());
+    }
+
+    @Test
+    public void testConcurrentUpdates() throws InterruptedException {
+        final StripedCounter counter = new StripedCounter();
+        final int threadCount = 8;
+        final int updatesPerThread = 100000;
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int j = 0; j < updatesPerThread; j++) {
+                        if ((j & 1) == 0) {
+                            counter.increment();
+                        } else {
+                            counter.add(2);
+                        }
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(threadCount * (updatesPerThread / 2) * 3L, counter.sum());
+    }
+}
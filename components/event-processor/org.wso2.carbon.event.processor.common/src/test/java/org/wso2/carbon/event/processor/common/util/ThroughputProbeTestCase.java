@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wso2.carbon.event.processor.common.util;
+
+import junit.framework.Assert;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+public class ThroughputProbeTestCase {
+    private static final Log log = LogFactory.getLog(ThroughputProbeTestCase.class);
+
+    private static final String PLAN_NAME = "ThroughputProbeTestPlan";
+
+    @Test
+    public void testSampling() {
+        ThroughputProbe probe = new ThroughputProbe("test", 2);
+        probe.update();
+        probe.update(9);
+        Assert.assertEquals(10, probe.getTotalEventCount());
+        Assert.assertEquals(0.0, probe.getThroughput());
+        Assert.assertEquals(0.0, probe.getMinThroughput());
+
+        probe.run();
+        Assert.assertEquals(5.0, probe.getThroughput());
+
+        probe.update(30);
+        probe.run();
+        Assert.assertEquals(15.0, probe.getThroughput());
+        Assert.assertEquals(15.0, probe.getMaxThroughput());
+        Assert.assertEquals(5.0, probe.getMinThroughput());
+        Assert.assertEquals(10.0, probe.getAverageThroughput());
+
+        // an idle interval does not count as the minimum
+        probe.run();
+        Assert.assertEquals(0.0, probe.getThroughput());
+        Assert.assertEquals(5.0, probe.getMinThroughput());
+        Assert.assertEquals(40, probe.getTotalEventCount());
+    }
+
+    @Test
+    public void testLatencyPerInterval() {
+        ThroughputProbe probe = new ThroughputProbe("test", 1);
+        for (long latency = 1; latency <= 1000; latency++) {
+            probe.recordLatency(latency * 1000);
+        }
+        probe.run();
+        Assert.assertEquals(1000, probe.getLatencySampleCount());
+        assertWithinError(500000, probe.getLatencyP50Nanos());
+        assertWithinError(990000, probe.getLatencyP99Nanos());
+        assertWithinError(999000, probe.getLatencyP999Nanos());
+        assertWithinError(1000000, probe.getLatencyMaxNanos());
+
+        // latencies are reported for the last interval only
+        probe.run();
+        Assert.assertEquals(0, probe.getLatencySampleCount());
+        Assert.assertEquals(0, probe.getLatencyMaxNanos());
+    }
+
+    @Test
+    public void testMBeanRegistration() throws Exception {
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        ObjectName objectName = new ObjectName("org.wso2.carbon.event.processor:type=ThroughputProbe,tenant=-1234,plan="
+                + ObjectName.quote(PLAN_NAME) + ",component=\"Spout\",name=\"In\"");
+        ObjectName secondName = new ObjectName(objectName + ",instance=2");
+
+        ThroughputProbe probe = new ThroughputProbe(-1234, PLAN_NAME, "Spout", "In", 60);
+        ThroughputProbe secondProbe = new ThroughputProbe(-1234, PLAN_NAME, "Spout", "In", 60);
+        probe.startSampling();
+        secondProbe.startSampling();
+        try {
+            probe.update(7);
+            Assert.assertEquals(7L, mBeanServer.getAttribute(objectName, "TotalEventCount"));
+            Assert.assertTrue(mBeanServer.isRegistered(secondName));
+        } finally {
+            probe.stopSampling();
+            secondProbe.stopSampling();
+        }
+        Assert.assertFalse(mBeanServer.isRegistered(objectName));
+        Assert.assertFalse(mBeanServer.isRegistered(secondName));
+    }
+
+    private static void assertWithinError(long expected, long actual) {
+        Assert.assertTrue("Expected " + expected + " within 3.2% but was " + actual,
+                Math.abs(actual - expected) <= expected * 0.032);
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wso2.carbon.event.processor.common.util;
+
+import com.lmax.disruptor.BlockingWaitStrategy;
+import com.lmax.disruptor.BusySpinWaitStrategy;
+import com.lmax.disruptor.SleepingWaitStrategy;
+import com.lmax.disruptor.dsl.ProducerType;
+import junit.framework.Assert;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+
+public class TransportConfigurationTestCase {
+    private static final Log log = LogFactory.getLog(TransportConfigurationTestCase.class);
+
+    private static final String PLAN_NAME = "TransportConfigurationTestPlan";
+
+    @After
+    public void clearProperties() {
+        for (String property : new String[]{TransportConfiguration.PUBLISHER_BUFFER_WAIT_STRATEGY,
+                TransportConfiguration.PUBLISHER_BUFFER_PRODUCER_TYPE,
+                TransportConfiguration.PUBLISHER_BUFFER_THREAD_PRIORITY,
+                TransportConfiguration.PUBLISHER_BUFFER_OVERFLOW_POLICY}) {
+            System.clearProperty(property);
+            System.clearProperty(property + "." + PLAN_NAME);
+        }
+    }
+
+    @Test
+    public void testWaitStrategy() {
+        Assert.assertTrue(TransportConfiguration.getPublisherBufferWaitStrategy(PLAN_NAME) instanceof BlockingWaitStrategy);
+
+        System.setProperty(TransportConfiguration.PUBLISHER_BUFFER_WAIT_STRATEGY, "sleeping");
+        Assert.assertTrue(TransportConfiguration.getPublisherBufferWaitStrategy(PLAN_NAME) instanceof SleepingWaitStrategy);
+
+        // the execution plan specific value takes precedence
+        System.setProperty(TransportConfiguration.PUBLISHER_BUFFER_WAIT_STRATEGY + "." + PLAN_NAME, "Busy-Spin");
+        Assert.assertTrue(TransportConfiguration.getPublisherBufferWaitStrategy(PLAN_NAME) instanceof BusySpinWaitStrategy);
+        Assert.assertTrue(TransportConfiguration.getPublisherBufferWaitStrategy("other") instanceof SleepingWaitStrategy);
+
+        System.setProperty(TransportConfiguration.PUBLISHER_BUFFER_WAIT_STRATEGY + "." + PLAN_NAME, "unknown");
+        Assert.assertTrue(TransportConfiguration.getPublisherBufferWaitStrategy(PLAN_NAME) instanceof BlockingWaitStrategy);
+    }
+
+    @Test
+    public void testProducerType() {
+        Assert.assertEquals(ProducerType.SINGLE,
+                TransportConfiguration.getPublisherBufferProducerType(PLAN_NAME, ProducerType.SINGLE));
+
+        System.setProperty(TransportConfiguration.PUBLISHER_BUFFER_PRODUCER_TYPE + "." + PLAN_NAME, "multi");
+        Assert.assertEquals(ProducerType.MULTI,
+                TransportConfiguration.getPublisherBufferProducerType(PLAN_NAME, ProducerType.SINGLE));
+
+        System.setProperty(TransportConfiguration.PUBLISHER_BUFFER_PRODUCER_TYPE + "." + PLAN_NAME, "many");
+        Assert.assertEquals(ProducerType.SINGLE,
+                TransportConfiguration.getPublisherBufferProducerType(PLAN_NAME, ProducerType.SINGLE));
+    }
+
+    @Test
+    public void testThreadPriority() {
+        Assert.assertEquals(Thread.NORM_PRIORITY, TransportConfiguration.getPublisherBufferThreadPriority(PLAN_NAME));
+
+        System.setProperty(TransportConfiguration.PUBLISHER_BUFFER_THREAD_PRIORITY + "." + PLAN_NAME, "7");
+        Assert.assertEquals(7, TransportConfiguration.getPublisherBufferThreadPriority(PLAN_NAME));
+
+        System.setProperty(TransportConfiguration.PUBLISHER_BUFFER_THREAD_PRIORITY + "." + PLAN_NAME, "100");
+        Assert.assertEquals(Thread.MAX_PRIORITY, TransportConfiguration.getPublisherBufferThreadPriority(PLAN_NAME));
+
+        System.setProperty(TransportConfiguration.PUBLISHER_BUFFER_THREAD_PRIORITY + "." + PLAN_NAME, "high");
+        Assert.assertEquals(Thread.NORM_PRIORITY, TransportConfiguration.getPublisherBufferThreadPriority(PLAN_NAME));
+    }
+
+    @Test
+    public void testOverflowPolicy() {
+        Assert.assertEquals(OverflowPolicy.BLOCK, TransportConfiguration.getPublisherBufferOverflowPolicy(PLAN_NAME));
+
+        System.setProperty(TransportConfiguration.PUBLISHER_BUFFER_OVERFLOW_POLICY + "." + PLAN_NAME, "drop-oldest");
+        Assert.assertEquals(OverflowPolicy.DROP_OLDEST, TransportConfiguration.getPublisherBufferOverflowPolicy(PLAN_NAME));
+
+        System.setProperty(TransportConfiguration.PUBLISHER_BUFFER_OVERFLOW_POLICY + "." + PLAN_NAME, "DROP_NEWEST");
+        Assert.assertEquals(OverflowPolicy.DROP_NEWEST, TransportConfiguration.getPublisherBufferOverflowPolicy(PLAN_NAME));
+
+        System.setProperty(TransportConfiguration.PUBLISHER_BUFFER_OVERFLOW_POLICY + "." + PLAN_NAME, "discard");
+        Assert.assertEquals(OverflowPolicy.BLOCK, TransportConfiguration.getPublisherBufferOverflowPolicy(PLAN_NAME));
+    }
+
+    @Test
+    public void testSpillDirectory() {
+        String carbonHome = System.getProperty("carbon.home");
+        try {
+            System.setProperty("carbon.home", "/opt/wso2cep");
+            Assert.assertEquals(new File("/opt/wso2cep", "repository/data/cep-spill"),
+                    TransportConfiguration.getPublisherSpillDirectory());
+
+            System.clearProperty("carbon.home");
+            Assert.assertEquals(new File(System.getProperty("user.home"), ".cep-spill"),
+                    TransportConfiguration.getPublisherSpillDirectory());
+
+            System.setProperty(TransportConfiguration.PUBLISHER_SPILL_DIR, "/data/spill");
+            Assert.assertEquals(new File("/data/spill"), TransportConfiguration.getPublisherSpillDirectory());
+        } finally {
+            System.clearProperty(TransportConfiguration.PUBLISHER_SPILL_DIR);
+            if (carbonHome != null) {
+                System.setProperty("carbon.home", carbonHome);
+            }
+        }
+    }
+
+    @Test
+    public void testPublisherThreadFactory() {
+        AsyncEventPublisher.PublisherThreadFactory threadFactory =
+                new AsyncEventPublisher.PublisherThreadFactory("AsyncEventPublisher--1234:plan:CEPReceiver", 7);
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+            }
+        };
+        Thread thread = threadFactory.newThread(task);
+        Assert.assertEquals("AsyncEventPublisher--1234:plan:CEPReceiver-1", thread.getName());
+        Assert.assertTrue(thread.isDaemon());
+        Assert.assertEquals(7, thread.getPriority());
+        Assert.assertEquals("AsyncEventPublisher--1234:plan:CEPReceiver-2", threadFactory.newThread(task).getName());
+    }
+}
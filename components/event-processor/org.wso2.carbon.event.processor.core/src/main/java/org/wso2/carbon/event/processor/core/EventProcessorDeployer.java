@@ -27,7 +27,10 @@ import org.wso2.carbon.event.application.deployer.EventProcessingDeployer;
 import org.wso2.carbon.event.processor.core.exception.ExecutionPlanConfigurationException;
 import org.wso2.carbon.event.processor.core.exception.ExecutionPlanDependencyValidationException;
 import org.wso2.carbon.event.processor.core.internal.CarbonEventProcessorService;
+import org.wso2.carbon.event.processor.core.internal.CompiledExecutionPlan;
 import org.wso2.carbon.event.processor.core.internal.ds.EventProcessorValueHolder;
+import org.wso2.carbon.event.processor.core.internal.util.EventProcessorConstants;
+import org.wso2.carbon.event.processor.core.internal.util.ExecutionPlanStartOrder;
 import org.wso2.carbon.event.processor.core.internal.util.helper.EventProcessorHelper;
 
 import java.io.BufferedReader;
@@ -35,12 +38,28 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Deploy query plans as axis2 service
+ * <p/>
+ * When the system property "cep.execution.plan.deployment.parallelism" is greater than 1, the execution plans found
+ * when the deployer is first called for a tenant (i.e. at server startup and tenant loading) are deployed together:
+ * they are compiled concurrently on that many threads and then started in the order of their stream dependencies.
  */
 @SuppressWarnings("unused")
 public class EventProcessorDeployer extends AbstractDeployer implements EventProcessingDeployer {
@@ -49,6 +68,8 @@ public class EventProcessorDeployer extends AbstractDeployer implements EventPro
     private ConfigurationContext configurationContext;
     private Set<String> deployedExecutionPlanFilePaths = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
     private Set<String> unDeployedExecutionPlanFilePaths = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final int deploymentParallelism = getDeploymentParallelism();
+    private volatile boolean startupDeploymentDone = false;
 
     public void init(ConfigurationContext configurationContext) {
         this.configurationContext = configurationContext;
@@ -66,7 +87,11 @@ public class EventProcessorDeployer extends AbstractDeployer implements EventPro
             String path = deploymentFileData.getAbsolutePath();
             if (!deployedExecutionPlanFilePaths.contains(path)) {
                 try {
-                    processDeploy(deploymentFileData);
+                    if (!startupDeploymentDone && deploymentParallelism > 1) {
+                        processStartupDeploy(deploymentFileData);
+                    } else {
+                        processDeploy(deploymentFileData);
+                    }
                 } catch (ExecutionPlanConfigurationException e) {
                     throw new DeploymentException("Execution plan not deployed properly.", e);
                 }
@@ -111,9 +136,8 @@ public class EventProcessorDeployer extends AbstractDeployer implements EventPro
         CarbonEventProcessorService carbonEventProcessorService = EventProcessorValueHolder.getEventProcessorService();
 
         File executionPlanFile = deploymentFileData.getFile();
-        boolean isEditable = !executionPlanFile.getAbsolutePath().contains(File.separator + "carbonapps" + File.separator);
+        boolean isEditable = isEditable(executionPlanFile);
         int tenantId = PrivilegedCarbonContext.getThreadLocalCarbonContext().getTenantId();
-        ExecutionPlanConfigurationFile executionPlanConfigurationFile = new ExecutionPlanConfigurationFile();
         if (!carbonEventProcessorService.isExecutionPlanFileAlreadyExist(executionPlanFile.getName())) {
             String executionPlanName = "";
             try {
@@ -122,32 +146,20 @@ public class EventProcessorDeployer extends AbstractDeployer implements EventPro
 
                 executionPlanName = EventProcessorHelper.getExecutionPlanName(executionPlan);
                 carbonEventProcessorService.addExecutionPlan(executionPlan, isEditable);
-                executionPlanConfigurationFile.setStatus(ExecutionPlanConfigurationFile.Status.DEPLOYED);
-                executionPlanConfigurationFile.setExecutionPlanName(executionPlanName);
-                executionPlanConfigurationFile.setFileName(deploymentFileData.getName());
-                executionPlanConfigurationFile.setFilePath(deploymentFileData.getAbsolutePath());
-                carbonEventProcessorService.addExecutionPlanConfigurationFile(executionPlanConfigurationFile);
+                addExecutionPlanConfigurationFile(deploymentFileData, executionPlanName,
+                        ExecutionPlanConfigurationFile.Status.DEPLOYED, null, null);
 
                 log.info("Execution plan is deployed successfully and in active state  : " + executionPlanName);
 
             } catch (ExecutionPlanDependencyValidationException ex) {
-                executionPlanConfigurationFile.setDependency(ex.getDependency());
-                executionPlanConfigurationFile.setDeploymentStatusMessage(ex.getMessage());
-                executionPlanConfigurationFile.setStatus(ExecutionPlanConfigurationFile.Status.WAITING_FOR_DEPENDENCY);
-                executionPlanConfigurationFile.setExecutionPlanName(executionPlanName);
-                executionPlanConfigurationFile.setFileName(deploymentFileData.getName());
-                executionPlanConfigurationFile.setFilePath(deploymentFileData.getAbsolutePath());
-                carbonEventProcessorService.addExecutionPlanConfigurationFile(executionPlanConfigurationFile);
-
-                log.info("Execution plan deployment held back and in inactive state : " + executionPlanConfigurationFile.getFileName() + ", Dependency validation exception: " + ex.getMessage());
+                addExecutionPlanConfigurationFile(deploymentFileData, executionPlanName,
+                        ExecutionPlanConfigurationFile.Status.WAITING_FOR_DEPENDENCY, ex.getMessage(), ex.getDependency());
+
+                log.info("Execution plan deployment held back and in inactive state : " + deploymentFileData.getName() + ", Dependency validation exception: " + ex.getMessage());
             } catch (Exception ex) {
                 if (isEditable) {
-                    executionPlanConfigurationFile.setDeploymentStatusMessage(ex.getMessage());
-                    executionPlanConfigurationFile.setStatus(ExecutionPlanConfigurationFile.Status.ERROR);
-                    executionPlanConfigurationFile.setExecutionPlanName(executionPlanName);
-                    executionPlanConfigurationFile.setFileName(deploymentFileData.getName());
-                    executionPlanConfigurationFile.setFilePath(deploymentFileData.getAbsolutePath());
-                    carbonEventProcessorService.addExecutionPlanConfigurationFile(executionPlanConfigurationFile);
+                    addExecutionPlanConfigurationFile(deploymentFileData, executionPlanName,
+                            ExecutionPlanConfigurationFile.Status.ERROR, ex.getMessage(), null);
 
                     log.error("Execution plan is not deployed and in inactive state : " + executionPlanFile.getName(), ex);
                 }
@@ -160,6 +172,175 @@ public class EventProcessorDeployer extends AbstractDeployer implements EventPro
 
     }
 
+    /**
+     * Deploys the given execution plan file together with the other execution plan files of its directory which are
+     * not deployed yet. Execution plans are read and validated concurrently, then those with a name already taken by
+     * an earlier file are held back, so that no two runtimes of the same name are created. The others are compiled
+     * concurrently, and then started one by one in the order of their stream dependencies. Other files which are deployed successfully here are skipped when the
+     * deployer is called for them; those which fail, or wait for a dependency, are deployed again on that call, so
+     * that their status is recorded and their failure reported as for any other deployment.
+     *
+     * @param deploymentFileData the execution plan file the deployer is called for
+     * @throws ExecutionPlanConfigurationException if the given execution plan file could not be deployed
+     */
+    public synchronized void processStartupDeploy(DeploymentFileData deploymentFileData)
+            throws ExecutionPlanConfigurationException {
+        startupDeploymentDone = true;
+        CarbonEventProcessorService carbonEventProcessorService = EventProcessorValueHolder.getEventProcessorService();
+        if (carbonEventProcessorService.isExecutionPlanFileAlreadyExist(deploymentFileData.getName())) {
+            processDeploy(deploymentFileData);
+            return;
+        }
+        final int tenantId = PrivilegedCarbonContext.getThreadLocalCarbonContext().getTenantId();
+
+        List<StartupDeployment> deployments = new ArrayList<StartupDeployment>();
+        deployments.add(new StartupDeployment(deploymentFileData));
+        File[] executionPlanFiles = deploymentFileData.getFile().getParentFile().listFiles();
+        if (executionPlanFiles != null) {
+            Arrays.sort(executionPlanFiles);
+            for (File executionPlanFile : executionPlanFiles) {
+                String path = executionPlanFile.getAbsolutePath();
+                if (executionPlanFile.isFile() && executionPlanFile.getName().endsWith(
+                        EventProcessorConstants.EP_CONFIG_FILE_EXTENSION_WITH_DOT)
+                        && !path.equals(deploymentFileData.getAbsolutePath())
+                        && !deployedExecutionPlanFilePaths.contains(path)
+                        && !carbonEventProcessorService.isExecutionPlanFileAlreadyExist(executionPlanFile.getName())) {
+                    deployments.add(new StartupDeployment(new DeploymentFileData(executionPlanFile)));
+                }
+            }
+        }
+        log.info("Deploying " + deployments.size() + " execution plans of tenant " + tenantId + " using "
+                + deploymentParallelism + " threads");
+
+        ExecutorService executorService = Executors.newFixedThreadPool(Math.min(deploymentParallelism,
+                deployments.size()), new ThreadFactory() {
+            private final AtomicInteger threadCount = new AtomicInteger(0);
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "ExecutionPlanDeployer-" + tenantId + "-"
+                        + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try {
+            runConcurrently(executorService, deployments, tenantId, false);
+            Set<String> executionPlanNames = new HashSet<String>();
+            for (StartupDeployment deployment : deployments) {
+                if (deployment.error == null && !executionPlanNames.add(deployment.executionPlanName)) {
+                    deployment.error = new ExecutionPlanConfigurationException("Execution plan with the same name "
+                            + "already exists. Please remove it and retry.");
+                }
+            }
+            runConcurrently(executorService, deployments, tenantId, true);
+        } finally {
+            executorService.shutdownNow();
+        }
+
+        Map<CompiledExecutionPlan, StartupDeployment> compiledDeployments =
+                new HashMap<CompiledExecutionPlan, StartupDeployment>();
+        List<CompiledExecutionPlan> compiledExecutionPlans = new ArrayList<CompiledExecutionPlan>();
+        for (StartupDeployment deployment : deployments) {
+            if (deployment.compiledExecutionPlan != null) {
+                compiledDeployments.put(deployment.compiledExecutionPlan, deployment);
+                compiledExecutionPlans.add(deployment.compiledExecutionPlan);
+            }
+        }
+        for (CompiledExecutionPlan compiledExecutionPlan : ExecutionPlanStartOrder.getStartOrder(compiledExecutionPlans)) {
+            StartupDeployment deployment = compiledDeployments.get(compiledExecutionPlan);
+            try {
+                carbonEventProcessorService.startExecutionPlan(compiledExecutionPlan);
+            } catch (Exception e) {
+                deployment.error = e;
+            }
+        }
+
+        ExecutionPlanConfigurationException deploymentException = null;
+        for (StartupDeployment deployment : deployments) {
+            DeploymentFileData fileData = deployment.deploymentFileData;
+            if (fileData != deploymentFileData && deployment.error != null) {
+                // left to the deployer call for the file, which records its status and reports the failure
+                log.debug("Execution plan file " + fileData.getName() + " is not deployed with the other execution "
+                        + "plans of tenant " + tenantId + " and will be deployed on its own");
+                continue;
+            }
+            if (deployment.error == null) {
+                addExecutionPlanConfigurationFile(fileData, deployment.executionPlanName,
+                        ExecutionPlanConfigurationFile.Status.DEPLOYED, null, null);
+                log.info("Execution plan is deployed successfully and in active state  : " + deployment.executionPlanName);
+                if (fileData != deploymentFileData) {
+                    deployedExecutionPlanFilePaths.add(fileData.getAbsolutePath());
+                }
+            } else if (deployment.error instanceof ExecutionPlanDependencyValidationException) {
+                ExecutionPlanDependencyValidationException ex = (ExecutionPlanDependencyValidationException) deployment.error;
+                addExecutionPlanConfigurationFile(fileData, deployment.executionPlanName,
+                        ExecutionPlanConfigurationFile.Status.WAITING_FOR_DEPENDENCY, ex.getMessage(), ex.getDependency());
+                log.info("Execution plan deployment held back and in inactive state : " + fileData.getName() + ", Dependency validation exception: " + ex.getMessage());
+            } else {
+                if (deployment.isEditable) {
+                    addExecutionPlanConfigurationFile(fileData, deployment.executionPlanName,
+                            ExecutionPlanConfigurationFile.Status.ERROR, deployment.error.getMessage(), null);
+
+                    log.error("Execution plan is not deployed and in inactive state : " + fileData.getName(),
+                            deployment.error);
+                }
+                deploymentException = new ExecutionPlanConfigurationException(deployment.error.getMessage(),
+                        deployment.error);
+            }
+        }
+        if (deploymentException != null) {
+            throw deploymentException;
+        }
+    }
+
+    /**
+     * Runs a deployment step of the given execution plan files on the executor, for the files which have not failed
+     * yet, and waits for them to complete.
+     *
+     * @param compile whether to compile the execution plans, or to read and validate them
+     */
+    private static void runConcurrently(ExecutorService executorService, List<StartupDeployment> deployments,
+                                        final int tenantId, final boolean compile)
+            throws ExecutionPlanConfigurationException {
+        List<StartupDeployment> pendingDeployments = new ArrayList<StartupDeployment>(deployments.size());
+        List<Future<?>> futures = new ArrayList<Future<?>>(deployments.size());
+        for (final StartupDeployment deployment : deployments) {
+            if (deployment.error != null) {
+                continue;
+            }
+            pendingDeployments.add(deployment);
+            futures.add(executorService.submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        PrivilegedCarbonContext.startTenantFlow();
+                        PrivilegedCarbonContext.getThreadLocalCarbonContext().setTenantId(tenantId);
+                        PrivilegedCarbonContext.getThreadLocalCarbonContext().getTenantDomain(true);
+                        if (compile) {
+                            deployment.compile();
+                        } else {
+                            deployment.read();
+                        }
+                    } finally {
+                        PrivilegedCarbonContext.endTenantFlow();
+                    }
+                }
+            }));
+        }
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                futures.get(i).get();
+            } catch (ExecutionException e) {
+                pendingDeployments.get(i).error = (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ExecutionPlanConfigurationException("Interrupted while deploying execution plans of tenant "
+                        + tenantId, e);
+            }
+        }
+    }
+
     public synchronized void processUndeploy(String filePath) {
 
         String fileName = new File(filePath).getName();
@@ -182,7 +363,7 @@ public class EventProcessorDeployer extends AbstractDeployer implements EventPro
         processUndeploy(filePath);
     }
 
-    private String readFile(String path) throws ExecutionPlanConfigurationException {
+    private static String readFile(String path) throws ExecutionPlanConfigurationException {
         BufferedReader br = null;
         try {
             br = new BufferedReader(new FileReader(path));
@@ -227,4 +408,73 @@ public class EventProcessorDeployer extends AbstractDeployer implements EventPro
     public void processUndeployment(String filePath) throws Exception {
         processUndeploy(filePath);
     }
-}
\ No newline at end of file
+
+    private void addExecutionPlanConfigurationFile(DeploymentFileData deploymentFileData, String executionPlanName,
+                                                   ExecutionPlanConfigurationFile.Status status,
+                                                   String deploymentStatusMessage, String dependency) {
+        ExecutionPlanConfigurationFile executionPlanConfigurationFile = new ExecutionPlanConfigurationFile();
+        executionPlanConfigurationFile.setStatus(status);
+        if (deploymentStatusMessage != null) {
+            executionPlanConfigurationFile.setDeploymentStatusMessage(deploymentStatusMessage);
+        }
+        executionPlanConfigurationFile.setDependency(dependency);
+        executionPlanConfigurationFile.setExecutionPlanName(executionPlanName);
+        executionPlanConfigurationFile.setFileName(deploymentFileData.getName());
+        executionPlanConfigurationFile.setFilePath(deploymentFileData.getAbsolutePath());
+        EventProcessorValueHolder.getEventProcessorService().addExecutionPlanConfigurationFile(executionPlanConfigurationFile);
+    }
+
+    private static boolean isEditable(File executionPlanFile) {
+        return !executionPlanFile.getAbsolutePath().contains(File.separator + "carbonapps" + File.separator);
+    }
+
+    private static int getDeploymentParallelism() {
+        String value = System.getProperty(EventProcessorConstants.EXECUTION_PLAN_DEPLOYMENT_PARALLELISM);
+        if (value == null || value.trim().isEmpty()) {
+            return 1;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            log.warn("Invalid value '" + value + "' for " + EventProcessorConstants.EXECUTION_PLAN_DEPLOYMENT_PARALLELISM
+                    + ", deploying execution plans one by one");
+            return 1;
+        }
+    }
+
+    /**
+     * State of an execution plan file deployed by {@link #processStartupDeploy(DeploymentFileData)}.
+     */
+    private static class StartupDeployment {
+        private final DeploymentFileData deploymentFileData;
+        private final boolean isEditable;
+        private String executionPlanName = "";
+        private String executionPlan;
+        private CompiledExecutionPlan compiledExecutionPlan;
+        private Exception error;
+
+        private StartupDeployment(DeploymentFileData deploymentFileData) {
+            this.deploymentFileData = deploymentFileData;
+            this.isEditable = isEditable(deploymentFileData.getFile());
+        }
+
+        private void read() {
+            try {
+                executionPlan = readFile(deploymentFileData.getAbsolutePath());
+                EventProcessorHelper.validateExecutionPlan(executionPlan);
+                executionPlanName = EventProcessorHelper.getExecutionPlanName(executionPlan);
+            } catch (Exception e) {
+                error = e;
+            }
+        }
+
+        private void compile() {
+            try {
+                compiledExecutionPlan = EventProcessorValueHolder.getEventProcessorService().compileExecutionPlan(
+                        executionPlan, isEditable);
+            } catch (Exception e) {
+                error = e;
+            }
+        }
+    }
+}
@@ -143,6 +143,25 @@ public interface EventProcessorService {
     public void setStatisticsEnabled(String executionPlanName, boolean isEnabled)
             throws ExecutionPlanConfigurationException;
 
+    /**
+     * @param executionPlanName the name of the execution plan
+     * @return the persisted revisions of the execution plan state, oldest first
+     * @throws ExecutionPlanConfigurationException if persistence is not enabled
+     */
+    public List<String> getExecutionPlanRevisions(String executionPlanName)
+            throws ExecutionPlanConfigurationException;
+
+    /**
+     * Restores the state of an active execution plan to a persisted revision.
+     *
+     * @param executionPlanName the name of the execution plan
+     * @param revision          one of the revisions returned by {@link #getExecutionPlanRevisions(String)}
+     * @throws ExecutionPlanConfigurationException if persistence is not enabled, the execution plan is not active or
+     *                                             the revision cannot be loaded
+     */
+    public void restoreExecutionPlanRevision(String executionPlanName, String revision)
+            throws ExecutionPlanConfigurationException;
+
 
     /**
      * Validates a given execution plan. returns true if valid.
@@ -15,6 +15,7 @@
  */
 package org.wso2.carbon.event.processor.core;
 
+import org.wso2.carbon.event.processor.core.internal.listener.SiddhiOutputStreamListener;
 import org.wso2.carbon.event.processor.core.internal.storm.SiddhiStormOutputEventListener;
 import org.wso2.carbon.event.processor.core.internal.storm.status.monitor.StormStatusMapListener;
 import org.wso2.carbon.event.processor.core.internal.storm.status.monitor.StormStatusMonitor;
@@ -27,7 +28,8 @@ import java.util.List;
 
 // acts as a holder for the components of a query plan.
 public class ExecutionPlan {
-    private ExecutionPlanRuntime executionPlanRuntime;
+    // read by the snapshot scheduler while the runtime may be swapped
+    private volatile ExecutionPlanRuntime executionPlanRuntime;
     private ExecutionPlanConfiguration executionPlanConfiguration;
     private String name;
     private List<EventProducer> eventProducers = new ArrayList<EventProducer>();
@@ -84,6 +86,11 @@ public class ExecutionPlan {
         for (SiddhiEventConsumer siddhiEventConsumer : siddhiEventConsumers) {
             siddhiEventConsumer.shutdown();
         }
+        for (EventProducer eventProducer : eventProducers) {
+            if (eventProducer instanceof SiddhiOutputStreamListener) {
+                ((SiddhiOutputStreamListener) eventProducer).shutdown();
+            }
+        }
         if(stormStatusMonitor != null){
             stormStatusMonitor.shutdown();
         }
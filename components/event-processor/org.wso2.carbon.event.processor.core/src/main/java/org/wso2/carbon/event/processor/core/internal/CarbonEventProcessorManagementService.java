@@ -33,13 +33,11 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class CarbonEventProcessorManagementService extends EventProcessorManagementService {
     private static final Log log = LogFactory.getLog(CarbonEventProcessorManagementService.class);
-    private int tenantId;
     private ReentrantReadWriteLock readWriteLock = new ReentrantReadWriteLock();
 
     public CarbonEventProcessorManagementService() {
         EventProcessorValueHolder.getEventManagementService().subscribe(this);
         EventProcessorValueHolder.getEventProcessorService().setManagementInfo(EventProcessorValueHolder.getEventManagementService().getManagementModeInfo());
-        tenantId = PrivilegedCarbonContext.getThreadLocalCarbonContext().getTenantId();
     }
 
     public byte[] getState() {
@@ -94,14 +92,32 @@ public class CarbonEventProcessorManagementService extends EventProcessorManagem
 
 
     public void persist(){
-        try {
-            PrivilegedCarbonContext.startTenantFlow();
-            PrivilegedCarbonContext.getThreadLocalCarbonContext().setTenantId(tenantId,true);
-            EventProcessorValueHolder.getSiddhiManager().persist();
-        } catch (Throwable e) {
-            log.error("Unable to persist state for tenant :" + tenantId, e);
-        } finally {
-            PrivilegedCarbonContext.endTenantFlow();
+        persist(EventProcessorValueHolder.getEventProcessorService().getTenantSpecificExecutionPlans());
+    }
+
+    /**
+     * Persists the runtimes of the active execution plans, each in the tenant flow of its tenant. The runtimes are
+     * taken from the execution plans rather than from the SiddhiManager, which keeps them by execution plan name and
+     * hence loses track of the runtime of an edited execution plan once the runtime it replaces is shut down.
+     */
+    static void persist(Map<Integer, ConcurrentHashMap<String, ExecutionPlan>> tenantSpecificExecutionPlans) {
+        for (Map.Entry<Integer, ConcurrentHashMap<String, ExecutionPlan>> tenantEntry : tenantSpecificExecutionPlans.entrySet()) {
+            try {
+                PrivilegedCarbonContext.startTenantFlow();
+                PrivilegedCarbonContext.getThreadLocalCarbonContext().setTenantId(tenantEntry.getKey(), true);
+                for (ExecutionPlan executionPlan : tenantEntry.getValue().values()) {
+                    try {
+                        executionPlan.getExecutionPlanRuntime().persist();
+                    } catch (Throwable e) {
+                        log.error("Unable to persist state of execution plan '" + executionPlan.getName()
+                                + "' for tenant :" + tenantEntry.getKey(), e);
+                    }
+                }
+            } catch (Throwable e) {
+                log.error("Unable to persist state for tenant :" + tenantEntry.getKey(), e);
+            } finally {
+                PrivilegedCarbonContext.endTenantFlow();
+            }
         }
     }
 }
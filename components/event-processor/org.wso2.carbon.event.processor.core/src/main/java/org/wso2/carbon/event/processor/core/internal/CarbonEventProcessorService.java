@@ -29,6 +29,8 @@ import org.wso2.carbon.event.processor.core.internal.ds.EventProcessorValueHolde
 import org.wso2.carbon.event.processor.core.internal.listener.AbstractSiddhiInputEventDispatcher;
 import org.wso2.carbon.event.processor.core.internal.listener.SiddhiInputEventDispatcher;
 import org.wso2.carbon.event.processor.core.internal.listener.SiddhiOutputStreamListener;
+import org.wso2.carbon.event.processor.core.internal.persistence.RevisionedPersistenceStore;
+import org.wso2.carbon.event.processor.core.internal.persistence.SnapshotScheduler;
 import org.wso2.carbon.event.processor.core.internal.storm.SiddhiStormInputEventDispatcher;
 import org.wso2.carbon.event.processor.core.internal.storm.SiddhiStormOutputEventListener;
 import org.wso2.carbon.event.processor.core.internal.storm.StormTopologyManager;
@@ -38,6 +40,8 @@ import org.wso2.carbon.event.processor.core.internal.storm.status.monitor.except
 import org.wso2.carbon.event.processor.core.internal.util.EventProcessorConfigurationFilesystemInvoker;
 import org.wso2.carbon.event.processor.core.internal.util.EventProcessorConstants;
 import org.wso2.carbon.event.processor.core.internal.util.EventProcessorUtil;
+import org.wso2.carbon.event.processor.core.internal.util.ParsedExecutionPlan;
+import org.wso2.carbon.event.processor.core.internal.util.StreamIdIndex;
 import org.wso2.carbon.event.processor.core.internal.util.helper.EventProcessorHelper;
 import org.wso2.carbon.event.processor.core.util.DistributedModeConstants;
 import org.wso2.carbon.event.processor.core.util.ExecutionPlanStatusHolder;
@@ -50,10 +54,10 @@ import org.wso2.carbon.event.stream.core.exception.EventStreamConfigurationExcep
 import org.wso2.siddhi.core.ExecutionPlanRuntime;
 import org.wso2.siddhi.core.SiddhiManager;
 import org.wso2.siddhi.core.stream.input.InputHandler;
+import org.wso2.siddhi.core.util.persistence.PersistenceStore;
 import org.wso2.siddhi.query.api.annotation.Element;
 import org.wso2.siddhi.query.api.definition.AbstractDefinition;
 import org.wso2.siddhi.query.api.util.AnnotationHelper;
-import org.wso2.siddhi.query.compiler.SiddhiCompiler;
 import org.wso2.siddhi.query.compiler.exception.SiddhiParserException;
 
 import java.io.File;
@@ -68,6 +72,15 @@ public class CarbonEventProcessorService implements EventProcessorService {
     // not distinguishing between deployed vs failed here.
     private Map<Integer, List<ExecutionPlanConfigurationFile>> tenantSpecificExecutionPlanFiles;
     private ManagementModeInfo managementInfo;
+    private final SnapshotScheduler snapshotScheduler = new SnapshotScheduler();
+    // stream id -> names of the active execution plans importing and exporting the stream
+    private final StreamIdIndex<String> importingExecutionPlans = new StreamIdIndex<String>();
+    private final StreamIdIndex<String> exportingExecutionPlans = new StreamIdIndex<String>();
+    // dependency (stream id or OSGi service id, in lower case) -> configuration files which depend on it
+    private final StreamIdIndex<ExecutionPlanConfigurationFile> dependentExecutionPlanFiles =
+            new StreamIdIndex<ExecutionPlanConfigurationFile>();
+    // guards the shared SiddhiManager, which execution plans may be compiled on concurrently
+    private final Object siddhiManagerLock = new Object();
 
 //    private List<String> importDefinitions;              //old code block kept for reference
 //    private List<String> exportDefinitions;              //old code block kept for reference
@@ -82,10 +95,10 @@ public class CarbonEventProcessorService implements EventProcessorService {
     public void deployExecutionPlan(String executionPlan)
             throws ExecutionPlanDependencyValidationException, ExecutionPlanConfigurationException {
         //validate execution plan
-        org.wso2.siddhi.query.api.ExecutionPlan parsedExecutionPlan;
+        ParsedExecutionPlan parsedExecutionPlan;
         try {
-            parsedExecutionPlan = SiddhiCompiler.parse(executionPlan);
-            String executionPlanName = AnnotationHelper.getAnnotationElement(EventProcessorConstants.ANNOTATION_NAME_NAME, null, parsedExecutionPlan.getAnnotations()).getValue();
+            parsedExecutionPlan = ParsedExecutionPlan.parse(executionPlan);
+            String executionPlanName = parsedExecutionPlan.getPlanAnnotationValue(EventProcessorConstants.ANNOTATION_NAME_NAME);
 
             if (!(isExecutionPlanAlreadyExist(executionPlanName))) {
                 throw new ExecutionPlanConfigurationException(executionPlanName + " already registered as an execution in this tenant");
@@ -139,13 +152,14 @@ public class CarbonEventProcessorService implements EventProcessorService {
                                         String executionPlanName)
             throws ExecutionPlanConfigurationException, ExecutionPlanDependencyValidationException {
         EventProcessorHelper.validateExecutionPlan(executionPlan);
-        org.wso2.siddhi.query.api.ExecutionPlan parsedExecutionPlan = SiddhiCompiler.parse(executionPlan);
-        String newExecutionPlanName = AnnotationHelper.getAnnotationElement(EventProcessorConstants.ANNOTATION_NAME_NAME, null, parsedExecutionPlan.getAnnotations()).getValue();
+        String newExecutionPlanName = ParsedExecutionPlan.parse(executionPlan).getPlanAnnotationValue(EventProcessorConstants.ANNOTATION_NAME_NAME);
         if (!(newExecutionPlanName.equals(executionPlanName))) {
             if (!(isExecutionPlanAlreadyExist(newExecutionPlanName))) {
                 throw new ExecutionPlanConfigurationException(newExecutionPlanName + " " +
                         "already registered as an execution in this tenant");
             }
+        } else if (swapExecutionPlanRuntime(executionPlan, executionPlanName)) {
+            return;
         }
         if (executionPlanName != null && executionPlanName.length() > 0) {
             String fileName;
@@ -166,8 +180,7 @@ public class CarbonEventProcessorService implements EventProcessorService {
     public void editInactiveExecutionPlan(String executionPlan, String filename)
             throws ExecutionPlanConfigurationException, ExecutionPlanDependencyValidationException {
         EventProcessorHelper.validateExecutionPlan(executionPlan);
-        org.wso2.siddhi.query.api.ExecutionPlan parsedExecutionPlan = SiddhiCompiler.parse(executionPlan);
-        String newExecutionPlanName = AnnotationHelper.getAnnotationElement(EventProcessorConstants.ANNOTATION_NAME_NAME, null, parsedExecutionPlan.getAnnotations()).getValue();
+        String newExecutionPlanName = ParsedExecutionPlan.parse(executionPlan).getPlanAnnotationValue(EventProcessorConstants.ANNOTATION_NAME_NAME);
         EventProcessorConfigurationFilesystemInvoker.delete(filename);
         EventProcessorConfigurationFilesystemInvoker.save(executionPlan, newExecutionPlanName, filename);
     }
@@ -181,13 +194,34 @@ public class CarbonEventProcessorService implements EventProcessorService {
      * @throws ExecutionPlanConfigurationException
      */
     public void addExecutionPlan(String executionPlan, boolean isEditable) throws ExecutionPlanConfigurationException {
+        startExecutionPlan(compileExecutionPlan(executionPlan, isEditable));
+    }
+
+    /**
+     * Parses the given (valid) execution plan and creates its execution plan runtime, without starting it or
+     * connecting it to the event streams. Does not change the state of the service, hence execution plans of a tenant
+     * can be compiled concurrently, e.g. when deploying execution plans at startup, as long as their names differ: the
+     * SiddhiManager keeps the runtimes by execution plan name.
+     *
+     * @param executionPlan Execution plan. It is assumed that the execution plan is a valid one when reaching this function.
+     * @param isEditable    whether the execution plan is editable.
+     * @return the compiled execution plan, to be started with {@link #startExecutionPlan(CompiledExecutionPlan)}
+     * @throws ExecutionPlanConfigurationException
+     */
+    public CompiledExecutionPlan compileExecutionPlan(String executionPlan, boolean isEditable)
+            throws ExecutionPlanConfigurationException {
+        return compileExecutionPlan(executionPlan, isEditable, false);
+    }
+
+    private CompiledExecutionPlan compileExecutionPlan(String executionPlan, boolean isEditable,
+                                                       boolean replacesActiveExecutionPlan)
+            throws ExecutionPlanConfigurationException {
 
         int tenantId = PrivilegedCarbonContext.getThreadLocalCarbonContext().getTenantId();
 
-        SiddhiManager siddhiManager = EventProcessorValueHolder.getSiddhiManager();
-        EventProcessorHelper.loadDataSourceConfiguration(siddhiManager);
         ExecutionPlanRuntime executionPlanRuntime = null;
-        org.wso2.siddhi.query.api.ExecutionPlan parsedExecutionPlan = SiddhiCompiler.parse(executionPlan);
+        // parsed once for validating the execution plan, and reused here and when building the Storm query plan
+        org.wso2.siddhi.query.api.ExecutionPlan parsedExecutionPlan = ParsedExecutionPlan.parse(executionPlan).getExecutionPlan();
 
         ExecutionPlanConfiguration executionPlanConfiguration = new ExecutionPlanConfiguration();
         executionPlanConfiguration.setExecutionPlan(executionPlan);
@@ -219,12 +253,11 @@ public class CarbonEventProcessorService implements EventProcessorService {
             executionPlanConfiguration.setStatisticsEnabled(false);
         }
         executionPlanConfiguration.setEditable(isEditable);
+        // validated here, so that an invalid interval fails the deployment instead of the scheduling of snapshots
+        getSnapshotInterval(executionPlan);
 
         ConcurrentHashMap<String, ExecutionPlan> tenantExecutionPlans = tenantSpecificExecutionPlans.get(tenantId);
-        if (tenantExecutionPlans == null) {
-            tenantExecutionPlans = new ConcurrentHashMap<String, ExecutionPlan>();
-            tenantSpecificExecutionPlans.put(tenantId, tenantExecutionPlans);
-        } else if (tenantExecutionPlans.get(executionPlanName) != null) {
+        if (!replacesActiveExecutionPlan && tenantExecutionPlans != null && tenantExecutionPlans.get(executionPlanName) != null) {
             // if an execution plan with the same name already exists, we are not going to override it with this plan.
             throw new ExecutionPlanConfigurationException("Execution plan with the same name already exists. Please remove it and retry.");
         }
@@ -256,10 +289,6 @@ public class CarbonEventProcessorService implements EventProcessorService {
             }
         }
 
-        Map<String, InputHandler> inputHandlerMap = new ConcurrentHashMap<String,
-                InputHandler>(importsMap.size());
-
-
         List<String> importDefinitions;
         List<String> exportDefinitions;
 
@@ -290,17 +319,51 @@ public class CarbonEventProcessorService implements EventProcessorService {
             }
         }
 
-        /**
-         * Section to handle query deployment
-         */
-        DistributedConfiguration stormDeploymentConfiguration = EventProcessorValueHolder.getStormDeploymentConfiguration();
-
         try {
-            executionPlanRuntime = siddhiManager.createExecutionPlanRuntime(executionPlan);
+            executionPlanRuntime = createExecutionPlanRuntime(ParsedExecutionPlan.parse(executionPlan).newExecutionPlan());
         } catch (Exception e) {
             throw new ExecutionPlanConfigurationException("Invalid query specified, " + e.getMessage(), e);
         }
 
+        return new CompiledExecutionPlan(tenantId, executionPlanConfiguration, executionPlanRuntime, importsMap,
+                exportsMap, importDefinitions, exportDefinitions);
+    }
+
+    /**
+     * Starts the execution plan runtime of a compiled execution plan and connects it to the event streams.
+     *
+     * @param compiledExecutionPlan execution plan compiled by {@link #compileExecutionPlan(String, boolean)}
+     * @throws ExecutionPlanConfigurationException
+     */
+    public void startExecutionPlan(CompiledExecutionPlan compiledExecutionPlan)
+            throws ExecutionPlanConfigurationException {
+        int tenantId = compiledExecutionPlan.getTenantId();
+        ExecutionPlanConfiguration executionPlanConfiguration = compiledExecutionPlan.getExecutionPlanConfiguration();
+        String executionPlanName = executionPlanConfiguration.getName();
+        ExecutionPlanRuntime executionPlanRuntime = compiledExecutionPlan.getExecutionPlanRuntime();
+        Map<String, String> importsMap = compiledExecutionPlan.getImportsMap();
+        Map<String, String> exportsMap = compiledExecutionPlan.getExportsMap();
+        List<String> importDefinitions = compiledExecutionPlan.getImportDefinitions();
+        List<String> exportDefinitions = compiledExecutionPlan.getExportDefinitions();
+
+        ConcurrentHashMap<String, ExecutionPlan> tenantExecutionPlans = tenantSpecificExecutionPlans.get(tenantId);
+        if (tenantExecutionPlans == null) {
+            tenantExecutionPlans = new ConcurrentHashMap<String, ExecutionPlan>();
+            tenantSpecificExecutionPlans.put(tenantId, tenantExecutionPlans);
+        } else if (tenantExecutionPlans.get(executionPlanName) != null) {
+            // checked again, as another execution plan with the same name may have been started since compiling this one.
+            executionPlanRuntime.shutdown();
+            throw new ExecutionPlanConfigurationException("Execution plan with the same name already exists. Please remove it and retry.");
+        }
+
+        Map<String, InputHandler> inputHandlerMap = new ConcurrentHashMap<String,
+                InputHandler>(importsMap.size());
+
+        /**
+         * Section to handle query deployment
+         */
+        DistributedConfiguration stormDeploymentConfiguration = EventProcessorValueHolder.getStormDeploymentConfiguration();
+
         if (managementInfo.getMode() == Mode.Distributed) {
             if (stormDeploymentConfiguration != null && stormDeploymentConfiguration.isManagerNode() && EventProcessorValueHolder
                     .getStormManagerServer().isStormCoordinator()) {
@@ -322,6 +385,12 @@ public class CarbonEventProcessorService implements EventProcessorService {
         ExecutionPlan processorExecutionPlan = new ExecutionPlan(executionPlanName, executionPlanRuntime,
                 executionPlanConfiguration);
         tenantExecutionPlans.put(executionPlanName, processorExecutionPlan);
+        for (StreamConfiguration streamConfiguration : executionPlanConfiguration.getImportedStreams()) {
+            importingExecutionPlans.add(tenantId, streamConfiguration.getStreamId(), executionPlanName);
+        }
+        for (StreamConfiguration streamConfiguration : executionPlanConfiguration.getExportedStreams()) {
+            exportingExecutionPlans.add(tenantId, streamConfiguration.getStreamId(), executionPlanName);
+        }
 
         boolean isDistributedEnabledAndIsWorker = (managementInfo.getMode() == Mode.Distributed && stormDeploymentConfiguration != null
                 && stormDeploymentConfiguration.isWorkerNode());
@@ -423,14 +492,146 @@ public class CarbonEventProcessorService implements EventProcessorService {
         if (EventProcessorValueHolder.getPersistenceConfiguration() != null) {
             executionPlanRuntime.restoreLastRevision();
         }
+        if (EventProcessorValueHolder.getPersistenceStore() != null) {
+            snapshotScheduler.schedule(tenantId, processorExecutionPlan,
+                    getSnapshotInterval(executionPlanConfiguration.getExecutionPlan()));
+        }
 
+    }
 
+    /**
+     * Replaces the execution plan runtime of an active execution plan with one created for the edited execution plan,
+     * without undeploying the execution plan. The new runtime is created while the active runtime keeps processing
+     * events. It takes over the state of the active runtime through a snapshot, before it is started or connected to
+     * the output stream listeners, and then the input event dispatchers of the execution plan are switched to it.
+     * Output stream listeners and the event stream subscriptions of the execution plan are kept as they are.
+     * <p/>
+     * State is only taken over if the edited execution plan has the same stream and table definitions, queries and
+     * partitions as the active one (e.g. when only its description or @Plan annotations are edited); otherwise the
+     * new runtime starts with empty state. Events received by the active runtime after the snapshot is taken are
+     * processed by it, but do not contribute to the state of the new runtime.
+     *
+     * @return false if the runtime cannot be swapped, i.e. in distributed mode, or when the edited execution plan
+     * changes the imported or exported streams, tracing or statistics; the execution plan is then to be redeployed
+     */
+    private boolean swapExecutionPlanRuntime(String executionPlan, String executionPlanName)
+            throws ExecutionPlanConfigurationException {
+        if (managementInfo.getMode() == Mode.Distributed) {
+            return false;
+        }
+        int tenantId = PrivilegedCarbonContext.getThreadLocalCarbonContext().getTenantId();
+        ExecutionPlan activeExecutionPlan = getActiveExecutionPlan(executionPlanName, tenantId);
+        ExecutionPlanConfigurationFile configFile = getExecutionPlanConfigurationFileByPlanName(executionPlanName);
+        if (activeExecutionPlan == null || configFile == null) {
+            return false;
+        }
+        ExecutionPlanConfiguration activeConfiguration = activeExecutionPlan.getExecutionPlanConfiguration();
+
+        CompiledExecutionPlan compiledExecutionPlan = compileExecutionPlan(executionPlan,
+                activeConfiguration.isEditable(), true);
+        ExecutionPlanConfiguration newConfiguration = compiledExecutionPlan.getExecutionPlanConfiguration();
+        if (!compiledExecutionPlan.getImportsMap().equals(getSiddhiStreamNameToStreamIdMap(activeConfiguration.getImportedStreams()))
+                || !compiledExecutionPlan.getExportsMap().equals(getSiddhiStreamNameToStreamIdMap(activeConfiguration.getExportedStreams()))
+                || newConfiguration.isTracingEnabled() != activeConfiguration.isTracingEnabled()
+                || newConfiguration.isStatisticsEnabled() != activeConfiguration.isStatisticsEnabled()) {
+            compiledExecutionPlan.discard();
+            return false;
+        }
+
+        ExecutionPlanRuntime activeRuntime = activeExecutionPlan.getExecutionPlanRuntime();
+        // restored before the runtime is started, so that its timers do not emit output for the state as well
+        if (ParsedExecutionPlan.parse(executionPlan).hasSameStateLayout(
+                ParsedExecutionPlan.parse(activeConfiguration.getExecutionPlan()))) {
+            try {
+                compiledExecutionPlan.getExecutionPlanRuntime().restore(activeRuntime.snapshot());
+            } catch (Throwable t) {
+                // a partially restored runtime is replaced by a fresh one
+                compiledExecutionPlan.discard();
+                compiledExecutionPlan = compileExecutionPlan(executionPlan, activeConfiguration.isEditable(), true);
+                log.warn("Could not transfer the state of execution plan '" + executionPlanName + "' of tenant "
+                        + tenantId + " to the edited execution plan, which starts with empty state. " + t.getMessage());
+            }
+        } else {
+            log.info("Definitions, queries or partitions of execution plan '" + executionPlanName + "' of tenant "
+                    + tenantId + " are edited, hence the edited execution plan starts with empty state");
+        }
+
+        try {
+            EventProcessorConfigurationFilesystemInvoker.overwrite(executionPlan, executionPlanName,
+                    configFile.getFileName());
+        } catch (ExecutionPlanConfigurationException e) {
+            compiledExecutionPlan.discard();
+            throw e;
+        }
+
+        ExecutionPlanRuntime newRuntime = compiledExecutionPlan.getExecutionPlanRuntime();
+        for (EventProducer eventProducer : activeExecutionPlan.getEventProducers()) {
+            SiddhiOutputStreamListener outputStreamListener = (SiddhiOutputStreamListener) eventProducer;
+            newRuntime.addCallback(outputStreamListener.getSiddhiStreamName(), outputStreamListener);
+        }
+        newRuntime.start();
+
+        for (SiddhiEventConsumer eventConsumer : activeExecutionPlan.getSiddhiEventConsumers()) {
+            if (eventConsumer instanceof SiddhiInputEventDispatcher) {
+                SiddhiInputEventDispatcher eventDispatcher = (SiddhiInputEventDispatcher) eventConsumer;
+                eventDispatcher.setInputHandler(newRuntime.getInputHandler(eventDispatcher.getSiddhiStreamId()));
+            }
+        }
+
+        activeConfiguration.setExecutionPlan(newConfiguration.getExecutionPlan());
+        activeConfiguration.setDescription(newConfiguration.getDescription());
+        activeExecutionPlan.setExecutionPlanRuntime(newRuntime);
+        activeRuntime.shutdown();
+        if (EventProcessorValueHolder.getPersistenceStore() != null) {
+            // the snapshot interval may have been edited
+            snapshotScheduler.schedule(tenantId, activeExecutionPlan,
+                    getSnapshotInterval(newConfiguration.getExecutionPlan()));
+        }
+        log.info("Execution plan runtime of " + executionPlanName + " is replaced by the edited execution plan");
+        return true;
     }
 
-    public List<StreamDefinition> getSiddhiStreams(String executionPlan) {
+    /**
+     * @return snapshot interval in milliseconds set by the @Plan:persist annotation of the execution plan, or null if
+     * the execution plan has no such annotation
+     */
+    private static Long getSnapshotInterval(String executionPlan) throws ExecutionPlanConfigurationException {
+        String interval = ParsedExecutionPlan.parse(executionPlan).getPlanAnnotationValue(
+                EventProcessorConstants.ANNOTATION_NAME_PERSIST, EventProcessorConstants.ANNOTATION_ELEMENT_INTERVAL);
+        if (interval == null) {
+            return null;
+        }
+        try {
+            return SnapshotScheduler.parseInterval(interval);
+        } catch (IllegalArgumentException e) {
+            throw new ExecutionPlanConfigurationException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Creates an execution plan runtime on the shared SiddhiManager. Loading the data sources into the SiddhiManager
+     * and registering the runtime with it are not thread safe, hence they are serialized while the rest of the
+     * compilation of execution plans may run concurrently.
+     */
+    private ExecutionPlanRuntime createExecutionPlanRuntime(org.wso2.siddhi.query.api.ExecutionPlan parsedExecutionPlan) {
         SiddhiManager siddhiManager = EventProcessorValueHolder.getSiddhiManager();
-        EventProcessorHelper.loadDataSourceConfiguration(siddhiManager);
-        ExecutionPlanRuntime executionPlanRuntime = siddhiManager.createExecutionPlanRuntime(executionPlan);
+        synchronized (siddhiManagerLock) {
+            EventProcessorHelper.loadDataSourceConfiguration(siddhiManager);
+            return siddhiManager.createExecutionPlanRuntime(parsedExecutionPlan);
+        }
+    }
+
+    private static Map<String, String> getSiddhiStreamNameToStreamIdMap(List<StreamConfiguration> streamConfigurations) {
+        Map<String, String> siddhiStreamNameToStreamId = new HashMap<String, String>();
+        for (StreamConfiguration streamConfiguration : streamConfigurations) {
+            siddhiStreamNameToStreamId.put(streamConfiguration.getSiddhiStreamName(), streamConfiguration.getStreamId());
+        }
+        return siddhiStreamNameToStreamId;
+    }
+
+    public List<StreamDefinition> getSiddhiStreams(String executionPlan) {
+        ExecutionPlanRuntime executionPlanRuntime = createExecutionPlanRuntime(
+                ParsedExecutionPlan.parse(executionPlan).newExecutionPlan());
         Collection<AbstractDefinition> streamDefinitions = executionPlanRuntime.getStreamDefinitionMap().values();
         List<StreamDefinition> databridgeStreamDefinitions = new ArrayList<StreamDefinition>(streamDefinitions.size());
         for (AbstractDefinition siddhiStreamDef : streamDefinitions) {
@@ -512,9 +713,16 @@ public class CarbonEventProcessorService implements EventProcessorService {
         Map<String, ExecutionPlan> executionPlanMap = tenantSpecificExecutionPlans.get(tenantId);
         if (executionPlanMap != null && executionPlanMap.containsKey(name)) {
             ExecutionPlan executionPlan = executionPlanMap.remove(name);
+            snapshotScheduler.unschedule(tenantId, name);
             executionPlan.shutdown();
 
             ExecutionPlanConfiguration executionPlanConfiguration = executionPlan.getExecutionPlanConfiguration();
+            for (StreamConfiguration streamConfiguration : executionPlanConfiguration.getImportedStreams()) {
+                importingExecutionPlans.remove(tenantId, streamConfiguration.getStreamId(), name);
+            }
+            for (StreamConfiguration streamConfiguration : executionPlanConfiguration.getExportedStreams()) {
+                exportingExecutionPlans.remove(tenantId, streamConfiguration.getStreamId(), name);
+            }
 
             DistributedConfiguration stormDeploymentConfig = EventProcessorValueHolder.getStormDeploymentConfiguration();
             if (managementInfo.getMode() == Mode.Distributed && stormDeploymentConfig != null && stormDeploymentConfig.isManagerNode() &&
@@ -568,6 +776,14 @@ public class CarbonEventProcessorService implements EventProcessorService {
             tenantSpecificExecutionPlanFiles.put(tenantId, executionPlanConfigurationFiles);
         }
         executionPlanConfigurationFiles.add(configurationFile);
+        if (configurationFile.getDependency() != null) {
+            dependentExecutionPlanFiles.add(tenantId, getDependencyKey(configurationFile.getDependency()),
+                    configurationFile);
+        }
+    }
+
+    private static String getDependencyKey(String dependency) {
+        return dependency.toLowerCase(Locale.ENGLISH);
     }
 
     /**
@@ -576,14 +792,19 @@ public class CarbonEventProcessorService implements EventProcessorService {
      * @param fileName the filename of the {@link ExecutionPlanConfigurationFile} to be removed
      */
     public void removeExecutionPlanConfigurationFile(String fileName) {
+        int tenantId = PrivilegedCarbonContext.getThreadLocalCarbonContext().getTenantId();
         List<ExecutionPlanConfigurationFile> executionPlanConfigurationFiles = tenantSpecificExecutionPlanFiles
-                .get(PrivilegedCarbonContext.getThreadLocalCarbonContext().getTenantId());
+                .get(tenantId);
         for (ExecutionPlanConfigurationFile configurationFile : executionPlanConfigurationFiles) {
             if (new File(configurationFile.getFileName()).getName().equals(fileName)) {
                 if (configurationFile.getStatus().equals(ExecutionPlanConfigurationFile.Status.DEPLOYED)) {
                     removeExecutionPlanConfiguration(configurationFile.getExecutionPlanName());
                 }
                 executionPlanConfigurationFiles.remove(configurationFile);
+                if (configurationFile.getDependency() != null) {
+                    dependentExecutionPlanFiles.remove(tenantId, getDependencyKey(configurationFile.getDependency()),
+                            configurationFile);
+                }
                 return;
             }
         }
@@ -618,39 +839,24 @@ public class CarbonEventProcessorService implements EventProcessorService {
 
     @Override
     public Map<String, ExecutionPlanConfiguration> getAllExportedStreamSpecificActiveExecutionConfigurations(String streamId) {
-        Map<String, ExecutionPlanConfiguration> configurationMap = new HashMap<String, ExecutionPlanConfiguration>();
-        Map<String, ExecutionPlan> executionPlanMap = tenantSpecificExecutionPlans
-                .get(PrivilegedCarbonContext.getThreadLocalCarbonContext().getTenantId());
-        if (executionPlanMap != null) {
-            for (Map.Entry<String, ExecutionPlan> entry : executionPlanMap.entrySet()) {
-
-                List<StreamConfiguration> streamConfigurationList = entry.getValue().getExecutionPlanConfiguration().getExportedStreams();
-                for (StreamConfiguration streamConfiguration : streamConfigurationList) {
-                    String streamNameWithVersion = streamConfiguration.getName() + ":" + streamConfiguration.getVersion();
-                    if (streamNameWithVersion.equals(streamId)) {
-                        configurationMap.put(entry.getKey(), entry.getValue().getExecutionPlanConfiguration());
-                    }
-                }
-            }
-        }
-        return configurationMap;
+        return getStreamSpecificActiveExecutionConfigurations(exportingExecutionPlans, streamId);
     }
 
     @Override
     public Map<String, ExecutionPlanConfiguration> getAllImportedStreamSpecificActiveExecutionConfigurations(String streamId) {
+        return getStreamSpecificActiveExecutionConfigurations(importingExecutionPlans, streamId);
+    }
+
+    private Map<String, ExecutionPlanConfiguration> getStreamSpecificActiveExecutionConfigurations(
+            StreamIdIndex<String> executionPlanIndex, String streamId) {
         Map<String, ExecutionPlanConfiguration> configurationMap = new HashMap<String, ExecutionPlanConfiguration>();
-        Map<String, ExecutionPlan> executionPlanMap = tenantSpecificExecutionPlans
-                .get(PrivilegedCarbonContext.getThreadLocalCarbonContext().getTenantId());
+        int tenantId = PrivilegedCarbonContext.getThreadLocalCarbonContext().getTenantId();
+        Map<String, ExecutionPlan> executionPlanMap = tenantSpecificExecutionPlans.get(tenantId);
         if (executionPlanMap != null) {
-            for (Map.Entry<String, ExecutionPlan> entry : executionPlanMap.entrySet()) {
-
-                List<StreamConfiguration> streamConfigurationList = entry.getValue().getExecutionPlanConfiguration()
-                        .getImportedStreams();
-                for (StreamConfiguration streamConfiguration : streamConfigurationList) {
-                    String streamNameWithVersion = streamConfiguration.getName() + ":" + streamConfiguration.getVersion();
-                    if (streamNameWithVersion.equals(streamId)) {
-                        configurationMap.put(entry.getKey(), entry.getValue().getExecutionPlanConfiguration());
-                    }
+            for (String executionPlanName : executionPlanIndex.get(tenantId, streamId)) {
+                ExecutionPlan executionPlan = executionPlanMap.get(executionPlanName);
+                if (executionPlan != null) {
+                    configurationMap.put(executionPlanName, executionPlan.getExecutionPlanConfiguration());
                 }
             }
         }
@@ -736,6 +942,47 @@ public class CarbonEventProcessorService implements EventProcessorService {
         }
     }
 
+    @Override
+    public List<String> getExecutionPlanRevisions(String executionPlanName)
+            throws ExecutionPlanConfigurationException {
+        PersistenceStore persistenceStore = getPersistenceStore();
+        if (persistenceStore instanceof RevisionedPersistenceStore) {
+            return ((RevisionedPersistenceStore) persistenceStore).getRevisions(executionPlanName);
+        }
+        String lastRevision = persistenceStore.getLastRevision(executionPlanName);
+        if (lastRevision == null) {
+            return new ArrayList<String>();
+        }
+        return Collections.singletonList(lastRevision);
+    }
+
+    @Override
+    public void restoreExecutionPlanRevision(String executionPlanName, String revision)
+            throws ExecutionPlanConfigurationException {
+        PersistenceStore persistenceStore = getPersistenceStore();
+        Map<String, ExecutionPlan> executionPlans = tenantSpecificExecutionPlans
+                .get(PrivilegedCarbonContext.getThreadLocalCarbonContext().getTenantId());
+        ExecutionPlan executionPlan = (executionPlans != null) ? executionPlans.get(executionPlanName) : null;
+        if (executionPlan == null || executionPlan.getExecutionPlanRuntime() == null) {
+            throw new ExecutionPlanConfigurationException("Execution plan " + executionPlanName + " is not active");
+        }
+        byte[] snapshot = persistenceStore.load(executionPlanName, revision);
+        if (snapshot == null) {
+            throw new ExecutionPlanConfigurationException("Cannot load the revision " + revision + " of execution plan "
+                    + executionPlanName);
+        }
+        executionPlan.getExecutionPlanRuntime().restore(snapshot);
+        log.info("Restored execution plan " + executionPlanName + " to revision " + revision);
+    }
+
+    private PersistenceStore getPersistenceStore() throws ExecutionPlanConfigurationException {
+        PersistenceStore persistenceStore = EventProcessorValueHolder.getPersistenceStore();
+        if (persistenceStore == null) {
+            throw new ExecutionPlanConfigurationException("Persistence is not enabled for execution plans");
+        }
+        return persistenceStore;
+    }
+
     /**
      * Activate Inactive Execution Plan Configurations
      *
@@ -746,17 +993,12 @@ public class CarbonEventProcessorService implements EventProcessorService {
             throws ExecutionPlanConfigurationException {
 
         List<ExecutionPlanConfigurationFile> reloadFileList = new ArrayList<ExecutionPlanConfigurationFile>();
-        if (tenantSpecificExecutionPlanFiles != null && tenantSpecificExecutionPlanFiles.size() > 0) {
-            List<ExecutionPlanConfigurationFile> executionPlanConfigurationFiles = tenantSpecificExecutionPlanFiles
-                    .get(PrivilegedCarbonContext.getThreadLocalCarbonContext().getTenantId());
-
-            if (executionPlanConfigurationFiles != null) {
-                for (ExecutionPlanConfigurationFile executionPlanConfigurationFile : executionPlanConfigurationFiles) {
-                    if ((executionPlanConfigurationFile.getStatus().equals(status)) && resolvedDependencyId
-                            .equalsIgnoreCase(executionPlanConfigurationFile.getDependency())) {
-                        reloadFileList.add(executionPlanConfigurationFile);
-                    }
-                }
+        for (ExecutionPlanConfigurationFile executionPlanConfigurationFile : dependentExecutionPlanFiles.get(
+                PrivilegedCarbonContext.getThreadLocalCarbonContext().getTenantId(),
+                getDependencyKey(resolvedDependencyId))) {
+            if ((executionPlanConfigurationFile.getStatus().equals(status)) && resolvedDependencyId
+                    .equalsIgnoreCase(executionPlanConfigurationFile.getDependency())) {
+                reloadFileList.add(executionPlanConfigurationFile);
             }
         }
         for (ExecutionPlanConfigurationFile executionPlanConfigurationFile : reloadFileList) {
@@ -772,30 +1014,9 @@ public class CarbonEventProcessorService implements EventProcessorService {
 
     public void deactivateActiveExecutionPlanConfigurations(String streamId) {
 
-        List<String> toDeactivateExecutionPlan = new ArrayList<String>();
-        Map<String, ExecutionPlan> executionPlanMap = tenantSpecificExecutionPlans
-                .get(PrivilegedCarbonContext.getThreadLocalCarbonContext().getTenantId());
-        if (executionPlanMap != null) {
-            for (ExecutionPlan executionPlan : executionPlanMap.values()) {
-                boolean done = false;
-                for (EventProducer eventProducer : executionPlan.getEventProducers()) {
-                    if (eventProducer.getStreamId().equals(streamId)) {
-                        toDeactivateExecutionPlan.add(executionPlan.getName());
-                        done = true;
-                        break;
-                    }
-                }
-
-                if (!done) {
-                    for (SiddhiEventConsumer eventConsumer : executionPlan.getSiddhiEventConsumers()) {
-                        if (eventConsumer.getStreamId().equals(streamId)) {
-                            toDeactivateExecutionPlan.add(executionPlan.getName());
-                            break;
-                        }
-                    }
-                }
-            }
-        }
+        int tenantId = PrivilegedCarbonContext.getThreadLocalCarbonContext().getTenantId();
+        Set<String> toDeactivateExecutionPlan = new LinkedHashSet<String>(exportingExecutionPlans.get(tenantId, streamId));
+        toDeactivateExecutionPlan.addAll(importingExecutionPlans.get(tenantId, streamId));
         if (toDeactivateExecutionPlan.size() > 0) {
             for (String name : toDeactivateExecutionPlan) {
                 ExecutionPlanConfigurationFile executionPlanConfigurationFile = getExecutionPlanConfigurationFileByPlanName(name);
@@ -877,6 +1098,7 @@ public class CarbonEventProcessorService implements EventProcessorService {
     }
 
     public void shutdown() {
+        snapshotScheduler.shutdown();
 
         for (Map.Entry<Integer, ConcurrentHashMap<String, ExecutionPlan>> executionPlans : tenantSpecificExecutionPlans.entrySet()) {
             for (ExecutionPlan executionPlan : executionPlans.getValue().values()) {
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wso2.carbon.event.processor.core.internal;
+
+import org.wso2.carbon.event.processor.core.ExecutionPlanConfiguration;
+import org.wso2.siddhi.core.ExecutionPlanRuntime;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Execution plan whose execution plan runtime is created but not yet started, as returned by
+ * {@link CarbonEventProcessorService#compileExecutionPlan(String, boolean)}.
+ */
+public class CompiledExecutionPlan {
+    private final int tenantId;
+    private final ExecutionPlanConfiguration executionPlanConfiguration;
+    private final ExecutionPlanRuntime executionPlanRuntime;
+    private final Map<String, String> importsMap;   //<SiddhiStreamName, StreamID>
+    private final Map<String, String> exportsMap;   //<SiddhiStreamName, StreamID>
+    private final List<String> importDefinitions;
+    private final List<String> exportDefinitions;
+
+    CompiledExecutionPlan(int tenantId, ExecutionPlanConfiguration executionPlanConfiguration,
+                          ExecutionPlanRuntime executionPlanRuntime, Map<String, String> importsMap,
+                          Map<String, String> exportsMap, List<String> importDefinitions,
+                          List<String> exportDefinitions) {
+        this.tenantId = tenantId;
+        this.executionPlanConfiguration = executionPlanConfiguration;
+        this.executionPlanRuntime = executionPlanRuntime;
+        this.importsMap = importsMap;
+        this.exportsMap = exportsMap;
+        this.importDefinitions = importDefinitions;
+        this.exportDefinitions = exportDefinitions;
+    }
+
+    public String getName() {
+        return executionPlanConfiguration.getName();
+    }
+
+    /**
+     * @return ids (name:version) of the event streams the execution plan consumes
+     */
+    public Collection<String> getImportedStreamIds() {
+        return importsMap.values();
+    }
+
+    /**
+     * @return ids (name:version) of the event streams the execution plan produces
+     */
+    public Collection<String> getExportedStreamIds() {
+        return exportsMap.values();
+    }
+
+    /**
+     * Releases the execution plan runtime of an execution plan which is not going to be started.
+     */
+    public void discard() {
+        executionPlanRuntime.shutdown();
+    }
+
+    int getTenantId() {
+        return tenantId;
+    }
+
+    ExecutionPlanConfiguration getExecutionPlanConfiguration() {
+        return executionPlanConfiguration;
+    }
+
+    ExecutionPlanRuntime getExecutionPlanRuntime() {
+        return executionPlanRuntime;
+    }
+
+    Map<String, String> getImportsMap() {
+        return importsMap;
+    }
+
+    Map<String, String> getExportsMap() {
+        return exportsMap;
+    }
+
+    List<String> getImportDefinitions() {
+        return importDefinitions;
+    }
+
+    List<String> getExportDefinitions() {
+        return exportDefinitions;
+    }
+}
@@ -103,6 +103,7 @@ public class EventProcessorServiceDS {
                 siddhiManager.setPersistenceStore(persistenceStore);
                 persistenceStore.setProperties(persistConfig.getPropertiesMap());
                 EventProcessorValueHolder.registerPersistenceConfiguration(persistConfig);
+                EventProcessorValueHolder.registerPersistenceStore(persistenceStore);
             }
             if (log.isDebugEnabled()) {
                 log.debug("Successfully deployed EventProcessorService");
@@ -31,6 +31,7 @@ import org.wso2.carbon.ndatasource.core.DataSourceService;
 import org.wso2.carbon.user.core.UserRealm;
 import org.wso2.carbon.utils.ConfigurationContextService;
 import org.wso2.siddhi.core.SiddhiManager;
+import org.wso2.siddhi.core.util.persistence.PersistenceStore;
 
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -47,6 +48,7 @@ public class EventProcessorValueHolder {
     private static StormManagerServer stormManagerServer;
     private static DistributedConfiguration stormDeploymentConfiguration;
     private static PersistenceConfiguration persistenceConfiguration;
+    private static PersistenceStore persistenceStore;
     private static CarbonEventProcessorManagementService carbonEventProcessorManagementService;
     private static SiddhiManager siddhiManager;
     private static StormTopologyManager stormTopologyManager;
@@ -174,6 +176,14 @@ public class EventProcessorValueHolder {
         return persistenceConfiguration;
     }
 
+    public static void registerPersistenceStore(PersistenceStore persistenceStore) {
+        EventProcessorValueHolder.persistenceStore = persistenceStore;
+    }
+
+    public static PersistenceStore getPersistenceStore() {
+        return persistenceStore;
+    }
+
 
     public static CarbonEventProcessorManagementService getCarbonEventReceiverManagementService() {
         return carbonEventProcessorManagementService;
@@ -17,11 +17,11 @@ package org.wso2.carbon.event.processor.core.internal.listener;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.apache.log4j.Logger;
 import org.wso2.carbon.event.processor.core.ExecutionPlanConfiguration;
 import org.wso2.carbon.event.processor.core.internal.ds.EventProcessorValueHolder;
 import org.wso2.carbon.event.processor.core.internal.util.EventProcessorConstants;
-import org.wso2.carbon.event.statistics.EventStatisticsMonitor;
+import org.wso2.carbon.event.processor.core.internal.util.EventStatisticsCounter;
+import org.wso2.carbon.event.processor.core.internal.util.EventTraceWriter;
 import org.wso2.carbon.event.stream.core.SiddhiEventConsumer;
 import org.wso2.siddhi.core.event.Event;
 
@@ -31,7 +31,6 @@ import java.util.Arrays;
  * Abstract class for classes which feeds incoming events to Siddhi.
  */
 public abstract class AbstractSiddhiInputEventDispatcher implements SiddhiEventConsumer {
-    private Logger trace = Logger.getLogger(EventProcessorConstants.EVENT_TRACE_LOGGER);
     private static Log log = LogFactory.getLog(AbstractSiddhiInputEventDispatcher.class);
 
     protected final String streamId;
@@ -40,8 +39,8 @@ public abstract class AbstractSiddhiInputEventDispatcher implements SiddhiEventC
     protected final int tenantId;
     private final boolean traceEnabled;
     private final boolean statisticsEnabled;
-    private EventStatisticsMonitor statisticsMonitor;
-    private String tracerPrefix = "";
+    private EventStatisticsCounter statisticsCounter;
+    private EventTraceWriter traceWriter;
 
     public AbstractSiddhiInputEventDispatcher(String streamId, String siddhiStreamId, ExecutionPlanConfiguration executionPlanConfiguration, int tenantId) {
         this.streamId = streamId;
@@ -51,10 +50,11 @@ public abstract class AbstractSiddhiInputEventDispatcher implements SiddhiEventC
         this.traceEnabled = executionPlanConfiguration.isTracingEnabled();
         this.statisticsEnabled = executionPlanConfiguration.isStatisticsEnabled();
         if (statisticsEnabled) {
-            statisticsMonitor = EventProcessorValueHolder.getEventStatisticsService().getEventStatisticMonitor(tenantId, EventProcessorConstants.EVENT_PROCESSOR, executionPlanConfiguration.getName(), streamId + " (" + siddhiStreamId + ")");
+            statisticsCounter = new EventStatisticsCounter(EventProcessorValueHolder.getEventStatisticsService().getEventStatisticMonitor(tenantId, EventProcessorConstants.EVENT_PROCESSOR, executionPlanConfiguration.getName(), streamId + " (" + siddhiStreamId + ")"));
         }
         if (traceEnabled) {
-            this.tracerPrefix = "TenantId : " + tenantId + ", " + EventProcessorConstants.EVENT_PROCESSOR + " : " + executionPlanConfiguration.getName() + ", " + EventProcessorConstants.EVENT_STREAM + " : " + streamId + " (" + siddhiStreamId + "), before processing " + System.getProperty("line.separator");
+            String tracerPrefix = "TenantId : " + tenantId + ", " + EventProcessorConstants.EVENT_PROCESSOR + " : " + executionPlanConfiguration.getName() + ", " + EventProcessorConstants.EVENT_STREAM + " : " + streamId + " (" + siddhiStreamId + "), before processing " + System.getProperty("line.separator");
+            this.traceWriter = new EventTraceWriter(tracerPrefix);
         }
     }
 
@@ -66,17 +66,15 @@ public abstract class AbstractSiddhiInputEventDispatcher implements SiddhiEventC
     @Override
     public void consumeEvents(Event[] events) {
         if (traceEnabled) {
-            trace.info(tracerPrefix + Arrays.deepToString(events));
+            traceWriter.trace(events);
         }
-        for (Event event : events) {
-            try {
-                if (statisticsEnabled) {
-                    statisticsMonitor.incrementRequest();
-                }
-                sendEvent(event);
-            } catch (InterruptedException e) {
-                log.error("Error in dispatching events " + Arrays.deepToString(events) + " to Siddhi stream :" + siddhiStreamId);
-            }
+        if (statisticsEnabled) {
+            statisticsCounter.incrementRequest(events.length);
+        }
+        try {
+            sendEvents(events);
+        } catch (InterruptedException e) {
+            log.error("Error in dispatching events " + Arrays.deepToString(events) + " to Siddhi stream :" + siddhiStreamId);
         }
     }
 
@@ -84,10 +82,10 @@ public abstract class AbstractSiddhiInputEventDispatcher implements SiddhiEventC
     public void consumeEvent(Event event) {
         try {
             if (traceEnabled) {
-                trace.info(tracerPrefix + event);
+                traceWriter.trace(event);
             }
             if (statisticsEnabled) {
-                statisticsMonitor.incrementRequest();
+                statisticsCounter.incrementRequest(1);
             }
             sendEvent(event);
         } catch (InterruptedException e) {
@@ -95,6 +93,10 @@ public abstract class AbstractSiddhiInputEventDispatcher implements SiddhiEventC
         }
     }
 
+    public String getSiddhiStreamId() {
+        return siddhiStreamId;
+    }
+
     public String getExecutionPlanName() {
         return ((ExecutionPlanConfiguration) owner).getName();
     }
@@ -107,7 +109,22 @@ public abstract class AbstractSiddhiInputEventDispatcher implements SiddhiEventC
      */
     public abstract void sendEvent(Event event) throws InterruptedException;
 
-    public void shutdown() {
+    /**
+     * When a batch of events is received this method will be called. Sends the events one by one unless overridden to
+     * dispatch the batch as a whole.
+     *
+     * @param events Event objects
+     * @throws InterruptedException
+     */
+    public void sendEvents(Event[] events) throws InterruptedException {
+        for (Event event : events) {
+            sendEvent(event);
+        }
+    }
 
+    public void shutdown() {
+        if (statisticsEnabled) {
+            statisticsCounter.close();
+        }
     }
 }
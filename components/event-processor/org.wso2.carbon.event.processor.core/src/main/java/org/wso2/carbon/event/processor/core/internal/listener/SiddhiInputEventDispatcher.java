@@ -25,9 +25,9 @@ import org.wso2.siddhi.core.stream.input.InputHandler;
 public class SiddhiInputEventDispatcher extends AbstractSiddhiInputEventDispatcher {
 
     /**
-     * Siddhi Input event handler
+     * Siddhi Input event handler. Replaced when the execution plan runtime is swapped for an edited execution plan.
      */
-    protected InputHandler inputHandler;
+    protected volatile InputHandler inputHandler;
 
     public SiddhiInputEventDispatcher(String streamId, InputHandler inputHandler, ExecutionPlanConfiguration executionPlanConfiguration, int tenantId) {
         super(streamId, inputHandler.getStreamId(), executionPlanConfiguration, tenantId);
@@ -39,4 +39,16 @@ public class SiddhiInputEventDispatcher extends AbstractSiddhiInputEventDispatch
         inputHandler.send(event.getTimestamp(), event.getData());
     }
 
+    @Override
+    public void sendEvents(Event[] events) throws InterruptedException {
+        inputHandler.send(events);
+    }
+
+    /**
+     * Directs subsequent events to the given input handler, which must be of the same Siddhi stream.
+     */
+    public void setInputHandler(InputHandler inputHandler) {
+        this.inputHandler = inputHandler;
+    }
+
 }
@@ -15,29 +15,26 @@
  */
 package org.wso2.carbon.event.processor.core.internal.listener;
 
-import org.apache.log4j.Logger;
 import org.wso2.carbon.context.PrivilegedCarbonContext;
 import org.wso2.carbon.event.processor.core.ExecutionPlanConfiguration;
 import org.wso2.carbon.event.processor.core.internal.ds.EventProcessorValueHolder;
 import org.wso2.carbon.event.processor.core.internal.util.EventProcessorConstants;
-import org.wso2.carbon.event.statistics.EventStatisticsMonitor;
+import org.wso2.carbon.event.processor.core.internal.util.EventStatisticsCounter;
+import org.wso2.carbon.event.processor.core.internal.util.EventTraceWriter;
 import org.wso2.carbon.event.stream.core.EventProducer;
 import org.wso2.carbon.event.stream.core.EventProducerCallback;
 import org.wso2.siddhi.core.event.Event;
 import org.wso2.siddhi.core.stream.output.StreamCallback;
 
-import java.util.Arrays;
-
 public class SiddhiOutputStreamListener extends StreamCallback implements EventProducer {
     protected final String siddhiStreamName;
     protected final int tenantId;
     protected final boolean traceEnabled;
     protected final boolean statisticsEnabled;
     private final String streamId;
-    protected EventStatisticsMonitor statisticsMonitor;
-    protected String tracerPrefix;
+    protected EventStatisticsCounter statisticsCounter;
+    protected EventTraceWriter traceWriter;
     protected EventProducerCallback eventProducerCallback;
-    private Logger trace = Logger.getLogger(EventProcessorConstants.EVENT_TRACE_LOGGER);
 
     public SiddhiOutputStreamListener(String siddhiStreamName, String streamId, ExecutionPlanConfiguration executionPlanConfiguration, int tenantId) {
         this.streamId = streamId;
@@ -46,33 +43,30 @@ public class SiddhiOutputStreamListener extends StreamCallback implements EventP
         this.traceEnabled = executionPlanConfiguration.isTracingEnabled();
         this.statisticsEnabled = executionPlanConfiguration.isStatisticsEnabled();
         if (statisticsEnabled) {
-            statisticsMonitor = EventProcessorValueHolder.getEventStatisticsService().getEventStatisticMonitor(tenantId, EventProcessorConstants.EVENT_PROCESSOR, executionPlanConfiguration.getName(), streamId + " (" + siddhiStreamName + ")");
+            statisticsCounter = new EventStatisticsCounter(EventProcessorValueHolder.getEventStatisticsService().getEventStatisticMonitor(tenantId, EventProcessorConstants.EVENT_PROCESSOR, executionPlanConfiguration.getName(), streamId + " (" + siddhiStreamName + ")"));
         }
         if (traceEnabled) {
-            this.tracerPrefix = "TenantId : " + tenantId + ", " + EventProcessorConstants.EVENT_PROCESSOR + " : " + executionPlanConfiguration.getName() + ", " + EventProcessorConstants.EVENT_STREAM + " : " + streamId + " (" + siddhiStreamName + "), after processing " + System.getProperty("line.separator");
+            String tracerPrefix = "TenantId : " + tenantId + ", " + EventProcessorConstants.EVENT_PROCESSOR + " : " + executionPlanConfiguration.getName() + ", " + EventProcessorConstants.EVENT_STREAM + " : " + streamId + " (" + siddhiStreamName + "), after processing " + System.getProperty("line.separator");
+            this.traceWriter = new EventTraceWriter(tracerPrefix);
         }
     }
 
     @Override
     public void receive(Event[] events) {
-        try {
-            /**
-             * Setting tenant id here because sometimes Siddhi creates its own threads, which does not
-             * have tenant information initialized. These method calls can be a performance hit,
-             * which needs to be profiled properly. Please update this comment one day after the
-             * profiling is done properly.
-             */
-            PrivilegedCarbonContext.startTenantFlow();
-            PrivilegedCarbonContext privilegedCarbonContext = PrivilegedCarbonContext.getThreadLocalCarbonContext();
-            privilegedCarbonContext.setTenantId(this.tenantId);
+        sendEvents(events);
+    }
 
+    /**
+     * Sends a batch of events to the event stream, setting up the tenant flow once for the batch.
+     */
+    public void sendEvents(Event[] events) {
+        startTenantFlow();
+        try {
             if (traceEnabled) {
-                trace.info(tracerPrefix + Arrays.deepToString(events));
+                traceWriter.trace(events);
             }
             if (statisticsEnabled) {
-                for (Object obj : events) {
-                    statisticsMonitor.incrementResponse();
-                }
+                statisticsCounter.incrementResponse(events.length);
             }
             eventProducerCallback.sendEvents(events);
         } finally {
@@ -81,22 +75,13 @@ public class SiddhiOutputStreamListener extends StreamCallback implements EventP
     }
 
     public void sendEvent(Event event) {
+        startTenantFlow();
         try {
-            /**
-             * Setting tenant id here because sometimes Siddhi creates its own threads, which does not
-             * have tenant information initialized. These method calls can be a performance hit,
-             * which needs to be profiled properly. Please update this comment one day after the
-             * profiling is done properly.
-             */
-            PrivilegedCarbonContext.startTenantFlow();
-            PrivilegedCarbonContext privilegedCarbonContext = PrivilegedCarbonContext.getThreadLocalCarbonContext();
-            privilegedCarbonContext.setTenantId(this.tenantId);
-
             if (traceEnabled) {
-                trace.info(tracerPrefix + event);
+                traceWriter.trace(event);
             }
             if (statisticsEnabled) {
-                statisticsMonitor.incrementResponse();
+                statisticsCounter.incrementResponse(1);
             }
             eventProducerCallback.sendEvent(event);
         } finally {
@@ -104,12 +89,32 @@ public class SiddhiOutputStreamListener extends StreamCallback implements EventP
         }
     }
 
+    /**
+     * Setting tenant id here because sometimes Siddhi creates its own threads, which does not have tenant information
+     * initialized. The flow is started even if the thread already carries the tenant id, as the rest of the carbon
+     * context of the caller must not leak into the event stream.
+     */
+    private void startTenantFlow() {
+        PrivilegedCarbonContext.startTenantFlow();
+        PrivilegedCarbonContext.getThreadLocalCarbonContext().setTenantId(this.tenantId);
+    }
+
     public String getStreamId() {
         return streamId;
     }
 
+    public String getSiddhiStreamName() {
+        return siddhiStreamName;
+    }
+
     @Override
     public void setCallBack(EventProducerCallback eventProducerCallback) {
         this.eventProducerCallback = eventProducerCallback;
     }
+
+    public void shutdown() {
+        if (statisticsEnabled) {
+            statisticsCounter.close();
+        }
+    }
 }
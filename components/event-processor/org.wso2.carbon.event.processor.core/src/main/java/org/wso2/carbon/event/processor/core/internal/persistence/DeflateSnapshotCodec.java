@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wso2.carbon.event.processor.core.internal.persistence;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Deflate (java.util.zip) codec. Slower than LZ4 but writes fewer bytes; the level is set by the "compressionLevel"
+ * property of the persistence configuration (1, the fastest, by default).
+ */
+public class DeflateSnapshotCodec extends SnapshotCodec {
+    public static final String NAME = "deflate";
+    public static final byte ID = 1;
+    public static final int DEFAULT_LEVEL = Deflater.BEST_SPEED;
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final int level;
+
+    public DeflateSnapshotCodec(int level) {
+        this.level = level;
+    }
+
+    @Override
+    public byte getId() {
+        return ID;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public byte[] compress(byte[] content) throws IOException {
+        Deflater deflater = new Deflater(level);
+        try {
+            deflater.setInput(content);
+            deflater.finish();
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(CHUNK_SIZE, content.length / 4));
+            byte[] chunk = new byte[CHUNK_SIZE];
+            while (!deflater.finished()) {
+                int length = deflater.deflate(chunk);
+                compressed.write(chunk, 0, length);
+            }
+            return compressed.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    @Override
+    public int decompress(ByteBuffer compressed, byte[] content, int length) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            ByteBuffer input = compressed.duplicate();
+            byte[] chunk = input.hasArray() ? null : new byte[CHUNK_SIZE];
+            int decompressed = 0;
+            while (decompressed < length && !inflater.finished()) {
+                if (inflater.needsInput()) {
+                    if (!input.hasRemaining()) {
+                        break;
+                    }
+                    int inputLength = Math.min(CHUNK_SIZE, input.remaining());
+                    if (chunk == null) {
+                        inflater.setInput(input.array(), input.arrayOffset() + input.position(), inputLength);
+                        input.position(input.position() + inputLength);
+                    } else {
+                        input.get(chunk, 0, inputLength);
+                        inflater.setInput(chunk, 0, inputLength);
+                    }
+                }
+                if (inflater.needsDictionary()) {
+                    throw new IOException("Deflate stream of snapshot needs a dictionary");
+                }
+                decompressed += inflater.inflate(content, decompressed, length - decompressed);
+            }
+            return decompressed;
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupted deflate stream of snapshot", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wso2.carbon.event.processor.core.internal.persistence;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Persists the snapshots of execution plans of all tenants in a single {@link SnapshotLog} file,
+ * persistenceLocation/snapshots.db, keyed by tenantId/executionPlan/revision, instead of one file per revision.
+ * Concurrent saves are group committed, and revisions are found by scanning the in-memory index of the keys.
+ * Besides "persistenceLocation", the following properties of the persistence configuration are supported:
+ * <ul>
+ * <li>"compression" and "compressionLevel" - as of {@link FileSystemPersistenceStore}.</li>
+ * <li>"retainedRevisions" - number of latest revisions kept per execution plan (0 by default, i.e. all).</li>
+ * <li>"compactionThreshold" - fraction of the file taken by deleted or replaced records (0.5 by default) at which
+ * the file is compacted.</li>
+ * </ul>
+ * The snapshot log is opened once per location, setting the properties again keeps it open and only closes it when
+ * the location changes.
+ */
+public class EmbeddedPersistenceStore implements RevisionedPersistenceStore {
+    private static final Log log = LogFactory.getLog(EmbeddedPersistenceStore.class);
+    private static final String LOG_FILE_NAME = "snapshots.db";
+    private static final String KEY_SEPARATOR = "/";
+    private static final double DEFAULT_COMPACTION_THRESHOLD = 0.5;
+
+    private volatile SnapshotLog snapshotLog;
+    private SnapshotCodec codec = null;
+    private int retainedRevisions = 0;
+
+    @Override
+    public void save(String queryPlanIdentifier, String revision, byte[] bytes) {
+        SnapshotLog snapshotLog = getSnapshotLog();
+        if (snapshotLog == null) {
+            return;
+        }
+        String prefix = getKeyPrefix(queryPlanIdentifier);
+        try {
+            snapshotLog.put(prefix + revision, bytes, codec);
+            if (log.isDebugEnabled()) {
+                log.debug("Saved revision " + revision + " of ExecutionPlan:" + queryPlanIdentifier + " to the snapshot log.");
+            }
+            if (retainedRevisions > 0) {
+                List<String> keys = snapshotLog.getKeys(prefix);
+                if (keys.size() > retainedRevisions) {
+                    snapshotLog.delete(keys.subList(0, keys.size() - retainedRevisions));
+                }
+            }
+        } catch (IOException e) {
+            log.error("Cannot save the revision " + revision + " of ExecutionPlan:" + queryPlanIdentifier +
+                    " to the snapshot log.", e);
+        }
+    }
+
+    @Override
+    public byte[] load(String queryPlanIdentifier, String revision) {
+        SnapshotLog snapshotLog = getSnapshotLog();
+        if (snapshotLog == null) {
+            return null;
+        }
+        try {
+            byte[] bytes = snapshotLog.get(getKeyPrefix(queryPlanIdentifier) + revision);
+            if (bytes == null) {
+                log.error("Revision " + revision + " of ExecutionPlan:" + queryPlanIdentifier +
+                        " is not in the snapshot log.");
+            } else if (log.isDebugEnabled()) {
+                log.debug("Loaded revision " + revision + " of ExecutionPlan:" + queryPlanIdentifier + " from the snapshot log.");
+            }
+            return bytes;
+        } catch (IOException e) {
+            log.error("Cannot load the revision " + revision + " of ExecutionPlan:" + queryPlanIdentifier +
+                    " from the snapshot log.", e);
+        }
+        return null;
+    }
+
+    @Override
+    public String getLastRevision(String executionPlanIdentifier) {
+        SnapshotLog snapshotLog = getSnapshotLog();
+        if (snapshotLog == null) {
+            return null;
+        }
+        String prefix = getKeyPrefix(executionPlanIdentifier);
+        String lastKey = snapshotLog.getLastKey(prefix);
+        return (lastKey != null) ? lastKey.substring(prefix.length()) : null;
+    }
+
+    @Override
+    public List<String> getRevisions(String executionPlanIdentifier) {
+        List<String> revisions = new ArrayList<String>();
+        SnapshotLog snapshotLog = getSnapshotLog();
+        if (snapshotLog != null) {
+            String prefix = getKeyPrefix(executionPlanIdentifier);
+            for (String key : snapshotLog.getKeys(prefix)) {
+                revisions.add(key.substring(prefix.length()));
+            }
+        }
+        return revisions;
+    }
+
+    @Override
+    public void setProperties(Map properties) {
+        String location = (String) properties.get("persistenceLocation");
+        if (location == null) {
+            location = "repository" + File.separator + "cep_persistence";
+        }
+        String compression = (String) properties.get("compression");
+        try {
+            codec = SnapshotCodec.forName(compression, FileSystemPersistenceStore.getIntProperty(properties,
+                    "compressionLevel", DeflateSnapshotCodec.DEFAULT_LEVEL, 0));
+        } catch (IllegalArgumentException e) {
+            log.warn("Invalid value '" + compression + "' for persistence property compression, snapshots will not " +
+                    "be compressed");
+            codec = null;
+        }
+        retainedRevisions = FileSystemPersistenceStore.getIntProperty(properties, "retainedRevisions", 0, 0);
+        double compactionThreshold = FileSystemPersistenceStore.getDoubleProperty(properties, "compactionThreshold",
+                DEFAULT_COMPACTION_THRESHOLD);
+        File logFile = new File(location, LOG_FILE_NAME).getAbsoluteFile();
+        synchronized (this) {
+            SnapshotLog oldSnapshotLog = snapshotLog;
+            if (oldSnapshotLog != null && oldSnapshotLog.getFile().getAbsoluteFile().equals(logFile)) {
+                oldSnapshotLog.setCompactionThreshold(compactionThreshold);
+                return;
+            }
+            try {
+                snapshotLog = new SnapshotLog(logFile, compactionThreshold);
+            } catch (IOException e) {
+                snapshotLog = null;
+                log.error("Cannot open the snapshot log in " + location + ", execution plan state will not be " +
+                        "persisted", e);
+            }
+            if (oldSnapshotLog != null) {
+                try {
+                    oldSnapshotLog.close();
+                } catch (IOException e) {
+                    log.error("Cannot close the snapshot log " + oldSnapshotLog.getFile().getPath(), e);
+                }
+            }
+        }
+    }
+
+    private SnapshotLog getSnapshotLog() {
+        SnapshotLog snapshotLog = this.snapshotLog;
+        if (snapshotLog == null) {
+            log.error("Snapshot log is not open, check the persistenceLocation of the persistence configuration");
+        }
+        return snapshotLog;
+    }
+
+    private static String getKeyPrefix(String executionPlanIdentifier) {
+        return FileSystemPersistenceStore.getTenantId() + KEY_SEPARATOR + executionPlanIdentifier + KEY_SEPARATOR;
+    }
+}
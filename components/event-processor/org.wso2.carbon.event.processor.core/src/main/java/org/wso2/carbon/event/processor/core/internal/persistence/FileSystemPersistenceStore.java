@@ -15,45 +15,101 @@
  */
 package org.wso2.carbon.event.processor.core.internal.persistence;
 
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
 import com.google.common.io.Files;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.wso2.carbon.context.PrivilegedCarbonContext;
-import org.wso2.siddhi.core.util.persistence.PersistenceStore;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
-public class FileSystemPersistenceStore implements PersistenceStore {
+/**
+ * Persists the snapshots of execution plans as files, one file per revision, in
+ * persistenceLocation/tenantId/executionPlan/revision. Files are checksummed and replaced atomically (see
+ * {@link SnapshotFile}). The revisions of each execution plan are listed, latest first, in a manifest file
+ * (".revisions") in the same directory, which is replaced atomically whenever revisions are added or removed, so that
+ * the last revision is found by reading one line instead of listing the directory. If the last revision of an
+ * execution plan cannot be read, it is moved aside and the latest older revision which can be read is loaded instead.
+ * <p/>
+ * Besides "persistenceLocation", the following properties of the persistence configuration are supported:
+ * <ul>
+ * <li>"incremental" - if true, only the chunks of a snapshot which are not found in the last full snapshot of the
+ * execution plan are written (see {@link SnapshotDelta}), and a full snapshot is written every
+ * "fullSnapshotInterval" revisions (10 by default). Chunks are "blockSize" bytes on average (65536 by default). A
+ * full snapshot is also written when the delta would be larger than "maxDeltaRatio" (0.5 by default) times the
+ * snapshot.</li>
+ * <li>"asyncWrite" - if true, snapshots are written by a background thread. A snapshot of an execution plan which is
+ * still waiting to be written when the next one arrives is replaced by the next one.</li>
+ * <li>"retainedRevisions" - number of latest revisions kept per execution plan (0 by default, i.e. all). Older
+ * revisions are deleted; retained deltas whose full snapshot gets deleted are rewritten as full snapshots.</li>
+ * <li>"compression" - codec the content of files is compressed with: "none" (the default), "lz4" or "deflate" (see
+ * {@link SnapshotCodec}). The level of "deflate" is set by "compressionLevel".</li>
+ * <li>"mmapThreshold" - files of at least this many bytes (16 MB by default) are memory mapped when loaded, instead of
+ * being read onto the heap. Compressed files are still decompressed onto the heap.</li>
+ * </ul>
+ */
+public class FileSystemPersistenceStore implements RevisionedPersistenceStore {
     private static final Log log = LogFactory.getLog(FileSystemPersistenceStore.class);
     private static final String folderSeparator = File.separator;
     private static String folder = "repository" + folderSeparator + "cep_persistence";
 
+    private static final String MANIFEST_FILE_NAME = ".revisions";
+    private static final String CORRUPT_FILE_SUFFIX = ".corrupt";
+    private static final int DEFAULT_FULL_SNAPSHOT_INTERVAL = 10;
+    private static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+    private static final double DEFAULT_MAX_DELTA_RATIO = 0.5;
+    private static final int DEFAULT_MMAP_THRESHOLD = 16 * 1024 * 1024;
+
+    private boolean incremental = false;
+    private int fullSnapshotInterval = DEFAULT_FULL_SNAPSHOT_INTERVAL;
+    private int blockSize = DEFAULT_BLOCK_SIZE;
+    private double maxDeltaRatio = DEFAULT_MAX_DELTA_RATIO;
+    private int retainedRevisions = 0;
+    private int mmapThreshold = DEFAULT_MMAP_THRESHOLD;
+    private SnapshotCodec codec = null;
+    private volatile SnapshotWriter snapshotWriter;
+
+    // tenantId/executionPlan -> revisions and incremental snapshot state of the execution plan
+    private final ConcurrentMap<String, PlanState> planStates = new ConcurrentHashMap<String, PlanState>();
+
     @Override
     public void save(String queryPlanIdentifier, String revision, byte[] bytes) {
         String tenantId = getTenantId();
-        File file = new File(folder + folderSeparator + tenantId + folderSeparator +
-                queryPlanIdentifier + folderSeparator + revision);
-        try {
-            Files.createParentDirs(file);
-            Files.write(bytes, file);
-            if (log.isDebugEnabled()) {
-                log.debug("Saved revision " + revision + " of ExecutionPlan:" + queryPlanIdentifier + " to the file system.");
-            }
-        } catch (IOException e) {
-            log.error("Cannot load the revision " + revision + " of ExecutionPlan:" + queryPlanIdentifier +
-                    "from file system.", e);
+        SnapshotWriter writer = snapshotWriter;
+        if (writer != null) {
+            writer.enqueue(new PendingSnapshot(tenantId, queryPlanIdentifier, revision, bytes));
+        } else {
+            write(tenantId, queryPlanIdentifier, revision, bytes);
         }
     }
 
     @Override
     public byte[] load(String queryPlanIdentifier, String revision) {
         String tenantId = getTenantId();
-        File file = new File(folder + folderSeparator + tenantId + folderSeparator +
-                queryPlanIdentifier + folderSeparator + revision);
+        SnapshotWriter writer = snapshotWriter;
+        if (writer != null) {
+            PendingSnapshot pendingSnapshot = writer.getPending(getPlanKey(tenantId, queryPlanIdentifier));
+            if (pendingSnapshot != null && pendingSnapshot.revision.equals(revision)) {
+                return pendingSnapshot.bytes;
+            }
+        }
+        File dir = getPlanDir(tenantId, queryPlanIdentifier);
         try {
-            byte[] bytes = Files.toByteArray(file);
+            byte[] bytes = readSnapshot(dir, revision);
             if (log.isDebugEnabled()) {
                 log.debug("Loaded revision " + revision + " of ExecutionPlan:" + queryPlanIdentifier + " from the file system.");
             }
@@ -62,7 +118,7 @@ public class FileSystemPersistenceStore implements PersistenceStore {
             log.error("Cannot load the revision " + revision + " of ExecutionPlan:" + queryPlanIdentifier +
                     "from file system.", e);
         }
-        return null;
+        return loadPreviousRevision(dir, tenantId, queryPlanIdentifier, revision);
     }
 
     @Override
@@ -70,31 +126,448 @@ public class FileSystemPersistenceStore implements PersistenceStore {
 
         String tenantId = getTenantId();
 
-        File dir = new File(folder + folderSeparator + tenantId + folderSeparator + executionPlanIdentifier);
-        File[] files = dir.listFiles();
-
-        if (files == null || files.length == 0) {
-            return null;
+        String lastRevision = null;
+        SnapshotWriter writer = snapshotWriter;
+        if (writer != null) {
+            PendingSnapshot pendingSnapshot = writer.getPending(getPlanKey(tenantId, executionPlanIdentifier));
+            if (pendingSnapshot != null) {
+                lastRevision = pendingSnapshot.revision;
+            }
         }
 
-        String lastRevision = null;
-        for (File file : files) {
-            String fileName = file.getName();
-            if (lastRevision == null || fileName.compareTo(lastRevision) > 0) {
-                lastRevision = fileName;
+        File dir = getPlanDir(tenantId, executionPlanIdentifier);
+        PlanState planState = getPlanState(getPlanKey(tenantId, executionPlanIdentifier));
+        String savedLastRevision;
+        synchronized (planState) {
+            try {
+                if (planState.revisions == null && new File(dir, MANIFEST_FILE_NAME).exists()) {
+                    savedLastRevision = Files.readFirstLine(new File(dir, MANIFEST_FILE_NAME), Charsets.UTF_8);
+                } else {
+                    NavigableSet<String> revisions = getRevisions(dir, planState);
+                    savedLastRevision = revisions.isEmpty() ? null : revisions.last();
+                }
+            } catch (IOException e) {
+                log.error("Cannot read the revisions of ExecutionPlan:" + executionPlanIdentifier +
+                        " from file system.", e);
+                return lastRevision;
             }
         }
+        if (savedLastRevision != null && (lastRevision == null || savedLastRevision.compareTo(lastRevision) > 0)) {
+            lastRevision = savedLastRevision;
+        }
         return lastRevision;
     }
 
-    private String getTenantId() {
+    @Override
+    public List<String> getRevisions(String executionPlanIdentifier) {
+        String tenantId = getTenantId();
+        File dir = getPlanDir(tenantId, executionPlanIdentifier);
+        String planKey = getPlanKey(tenantId, executionPlanIdentifier);
+        PlanState planState = getPlanState(planKey);
+        List<String> revisions;
+        synchronized (planState) {
+            try {
+                revisions = new ArrayList<String>(getRevisions(dir, planState));
+            } catch (IOException e) {
+                log.error("Cannot read the revisions of ExecutionPlan:" + executionPlanIdentifier +
+                        " from file system.", e);
+                return new ArrayList<String>();
+            }
+        }
+        SnapshotWriter writer = snapshotWriter;
+        if (writer != null) {
+            PendingSnapshot pendingSnapshot = writer.getPending(planKey);
+            if (pendingSnapshot != null && !revisions.contains(pendingSnapshot.revision)) {
+                revisions.add(pendingSnapshot.revision);
+            }
+        }
+        return revisions;
+    }
+
+    static String getTenantId() {
         return String.valueOf(PrivilegedCarbonContext.getThreadLocalCarbonContext().getTenantId()).replaceAll("-", "M");
     }
 
     @Override
     public void setProperties(Map properties) {
         folder = (String) properties.get("persistenceLocation");
+        incremental = Boolean.parseBoolean((String) properties.get("incremental"));
+        fullSnapshotInterval = getIntProperty(properties, "fullSnapshotInterval", DEFAULT_FULL_SNAPSHOT_INTERVAL, 1);
+        blockSize = getIntProperty(properties, "blockSize", DEFAULT_BLOCK_SIZE, 1);
+        maxDeltaRatio = getDoubleProperty(properties, "maxDeltaRatio", DEFAULT_MAX_DELTA_RATIO);
+        retainedRevisions = getIntProperty(properties, "retainedRevisions", 0, 0);
+        mmapThreshold = getIntProperty(properties, "mmapThreshold", DEFAULT_MMAP_THRESHOLD, 0);
+        String compression = (String) properties.get("compression");
+        try {
+            codec = SnapshotCodec.forName(compression, getIntProperty(properties, "compressionLevel",
+                    DeflateSnapshotCodec.DEFAULT_LEVEL, 0));
+        } catch (IllegalArgumentException e) {
+            log.warn("Invalid value '" + compression + "' for persistence property compression, snapshots will not " +
+                    "be compressed");
+            codec = null;
+        }
+        if (Boolean.parseBoolean((String) properties.get("asyncWrite")) && snapshotWriter == null) {
+            snapshotWriter = new SnapshotWriter();
+            snapshotWriter.start();
+        }
     }
 
-}
+    private void write(String tenantId, String queryPlanIdentifier, String revision, byte[] bytes) {
+        File dir = getPlanDir(tenantId, queryPlanIdentifier);
+        File file = new File(dir, revision);
+        PlanState planState = getPlanState(getPlanKey(tenantId, queryPlanIdentifier));
+        synchronized (planState) {
+            try {
+                Files.createParentDirs(file);
+                byte[] delta = null;
+                if (incremental && planState.base != null
+                        && planState.deltasSinceBase < fullSnapshotInterval - 1
+                        && !planState.base.getRevision().equals(revision)) {
+                    delta = SnapshotDelta.encode(planState.base, bytes);
+                    if (delta.length > maxDeltaRatio * bytes.length) {
+                        // most of the state changed since the base, hence the snapshot becomes the new base
+                        delta = null;
+                    }
+                }
+                if (delta != null) {
+                    SnapshotFile.write(file, delta, codec);
+                    planState.deltasSinceBase++;
+                } else {
+                    SnapshotFile.write(file, bytes, codec);
+                    planState.base = incremental ? new SnapshotDelta.Base(revision, bytes, blockSize) : null;
+                    planState.deltasSinceBase = 0;
+                }
+                NavigableSet<String> revisions = getRevisions(dir, planState);
+                revisions.add(revision);
+                List<String> removedRevisions = (retainedRevisions > 0) ?
+                        removeOldRevisions(dir, queryPlanIdentifier, planState) : new ArrayList<String>();
+                writeManifest(dir, revisions);
+                // deleted only once the manifest no longer lists them
+                for (String removedRevision : removedRevisions) {
+                    if (!new File(dir, removedRevision).delete()) {
+                        log.warn("Cannot delete the revision " + removedRevision + " of ExecutionPlan:" +
+                                queryPlanIdentifier);
+                    }
+                }
+                if (log.isDebugEnabled()) {
+                    log.debug("Saved revision " + revision + " of ExecutionPlan:" + queryPlanIdentifier + " to the file system.");
+                }
+            } catch (IOException e) {
+                log.error("Cannot save the revision " + revision + " of ExecutionPlan:" + queryPlanIdentifier +
+                        " to file system.", e);
+                // the next snapshot must not be a delta to a base which may not have been written
+                planState.base = null;
+            }
+        }
+    }
+
+    /**
+     * Removes all but the latest retainedRevisions revisions from the revisions of the execution plan. Retained deltas
+     * whose full snapshot is removed are compacted into full snapshots first, so that every retained revision can
+     * still be restored.
+     *
+     * @return the removed revisions, whose files are to be deleted
+     */
+    private List<String> removeOldRevisions(File dir, String queryPlanIdentifier, PlanState planState) {
+        List<String> removedRevisionList = new ArrayList<String>();
+        if (planState.revisions.size() <= retainedRevisions) {
+            return removedRevisionList;
+        }
+        String[] revisions = planState.revisions.toArray(new String[planState.revisions.size()]);
+        int removedCount = revisions.length - retainedRevisions;
+        Set<String> removedRevisions = new HashSet<String>();
+        for (int i = 0; i < removedCount; i++) {
+            removedRevisions.add(revisions[i]);
+        }
+        for (int i = removedCount; i < revisions.length; i++) {
+            try {
+                String baseRevision = readBaseRevision(new File(dir, revisions[i]));
+                if (baseRevision != null && removedRevisions.contains(baseRevision)) {
+                    SnapshotFile.write(new File(dir, revisions[i]), readSnapshot(dir, revisions[i]), codec);
+                    if (log.isDebugEnabled()) {
+                        log.debug("Compacted revision " + revisions[i] + " of ExecutionPlan:" + queryPlanIdentifier
+                                + " into a full snapshot.");
+                    }
+                }
+            } catch (IOException e) {
+                log.error("Cannot compact the revision " + revisions[i] + " of ExecutionPlan:" + queryPlanIdentifier
+                        + ", hence not removing old revisions.", e);
+                return removedRevisionList;
+            }
+        }
+        if (planState.base != null && removedRevisions.contains(planState.base.getRevision())) {
+            planState.base = null;
+        }
+        for (int i = 0; i < removedCount; i++) {
+            planState.revisions.remove(revisions[i]);
+            removedRevisionList.add(revisions[i]);
+        }
+        return removedRevisionList;
+    }
+
+    private PlanState getPlanState(String planKey) {
+        PlanState planState = planStates.get(planKey);
+        if (planState == null) {
+            planState = new PlanState();
+            PlanState existingState = planStates.putIfAbsent(planKey, planState);
+            if (existingState != null) {
+                planState = existingState;
+            }
+        }
+        return planState;
+    }
+
+    /**
+     * Reads the revisions of an execution plan from its manifest the first time they are needed. Directories written
+     * before manifests were introduced are listed once, and a manifest is created for them.
+     * Must be called holding the lock of the plan state.
+     */
+    private static NavigableSet<String> getRevisions(File dir, PlanState planState) throws IOException {
+        if (planState.revisions == null) {
+            NavigableSet<String> revisions = new TreeSet<String>();
+            File manifest = new File(dir, MANIFEST_FILE_NAME);
+            if (manifest.exists()) {
+                for (String revision : Files.readLines(manifest, Charsets.UTF_8)) {
+                    if (!revision.isEmpty()) {
+                        revisions.add(revision);
+                    }
+                }
+            } else {
+                String[] fileNames = dir.list();
+                if (fileNames != null) {
+                    for (String fileName : fileNames) {
+                        if (!fileName.startsWith(".")) {
+                            revisions.add(fileName);
+                        }
+                    }
+                }
+                if (!revisions.isEmpty()) {
+                    writeManifest(dir, revisions);
+                }
+            }
+            planState.revisions = revisions;
+        }
+        return planState.revisions;
+    }
+
+    private static void writeManifest(File dir, NavigableSet<String> revisions) throws IOException {
+        SnapshotFile.writeAtomically(new File(dir, MANIFEST_FILE_NAME),
+                Joiner.on('\n').join(revisions.descendingSet()).getBytes(Charsets.UTF_8));
+    }
 
+    /**
+     * Falls back from the last revision of an execution plan, which cannot be read, to the latest older revision
+     * which can. Revisions which cannot be read are moved aside, so that they are no longer the last revision. Other
+     * revisions do not fall back, as they are only loaded when asked for explicitly.
+     */
+    private byte[] loadPreviousRevision(File dir, String tenantId, String queryPlanIdentifier, String revision) {
+        PlanState planState = getPlanState(getPlanKey(tenantId, queryPlanIdentifier));
+        synchronized (planState) {
+            try {
+                NavigableSet<String> revisions = getRevisions(dir, planState);
+                if (revisions.isEmpty() || !revisions.last().equals(revision)) {
+                    return null;
+                }
+                String unreadableRevision = revision;
+                while (unreadableRevision != null) {
+                    revisions.remove(unreadableRevision);
+                    writeManifest(dir, revisions);
+                    if (!new File(dir, unreadableRevision).renameTo(
+                            new File(dir, "." + unreadableRevision + CORRUPT_FILE_SUFFIX))) {
+                        log.warn("Cannot move aside the revision " + unreadableRevision + " of ExecutionPlan:" +
+                                queryPlanIdentifier);
+                    }
+                    if (planState.base != null && planState.base.getRevision().equals(unreadableRevision)) {
+                        planState.base = null;
+                    }
+                    if (revisions.isEmpty()) {
+                        return null;
+                    }
+                    String previousRevision = revisions.last();
+                    try {
+                        byte[] bytes = readSnapshot(dir, previousRevision);
+                        log.warn("Loaded revision " + previousRevision + " of ExecutionPlan:" + queryPlanIdentifier +
+                                " instead of revision " + revision + ", which cannot be read.");
+                        return bytes;
+                    } catch (IOException e) {
+                        log.error("Cannot load the revision " + previousRevision + " of ExecutionPlan:" +
+                                queryPlanIdentifier + " from file system.", e);
+                        unreadableRevision = previousRevision;
+                    }
+                }
+            } catch (IOException e) {
+                log.error("Cannot update the revisions of ExecutionPlan:" + queryPlanIdentifier +
+                        " in file system.", e);
+            }
+            return null;
+        }
+    }
+
+    private byte[] readSnapshot(File dir, String revision) throws IOException {
+        ByteBuffer content = SnapshotFile.read(new File(dir, revision), mmapThreshold);
+        if (SnapshotDelta.isDelta(content)) {
+            String baseRevision = SnapshotDelta.getBaseRevision(content);
+            ByteBuffer baseContent = SnapshotFile.read(new File(dir, baseRevision), mmapThreshold);
+            if (SnapshotDelta.isDelta(baseContent)) {
+                throw new IOException("Base revision " + baseRevision + " of revision " + revision
+                        + " is not a full snapshot");
+            }
+            return SnapshotDelta.apply(baseContent, content);
+        }
+        return SnapshotFile.toByteArray(content);
+    }
+
+    private static String readBaseRevision(File file) throws IOException {
+        ByteBuffer prefix = ByteBuffer.wrap(SnapshotFile.readPrefix(file,
+                SnapshotDelta.MAX_BASE_REVISION_HEADER_LENGTH));
+        return SnapshotDelta.isDelta(prefix) ? SnapshotDelta.getBaseRevision(prefix) : null;
+    }
+
+    private static File getPlanDir(String tenantId, String queryPlanIdentifier) {
+        return new File(folder + folderSeparator + tenantId + folderSeparator + queryPlanIdentifier);
+    }
+
+    private static String getPlanKey(String tenantId, String queryPlanIdentifier) {
+        return tenantId + folderSeparator + queryPlanIdentifier;
+    }
+
+    static int getIntProperty(Map properties, String name, int defaultValue, int minValue) {
+        String value = (String) properties.get(name);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Math.max(minValue, Integer.parseInt(value.trim()));
+        } catch (NumberFormatException e) {
+            log.warn("Invalid value '" + value + "' for persistence property " + name + ", using default "
+                    + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    static double getDoubleProperty(Map properties, String name, double defaultValue) {
+        String value = (String) properties.get(name);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Math.max(0.0, Double.parseDouble(value.trim()));
+        } catch (NumberFormatException e) {
+            log.warn("Invalid value '" + value + "' for persistence property " + name + ", using default "
+                    + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    private static class PlanState {
+        // null until read from the manifest
+        private NavigableSet<String> revisions;
+        private SnapshotDelta.Base base;
+        private int deltasSinceBase;
+    }
+
+    private static class PendingSnapshot {
+        private final String tenantId;
+        private final String queryPlanIdentifier;
+        private final String revision;
+        private final byte[] bytes;
+
+        private PendingSnapshot(String tenantId, String queryPlanIdentifier, String revision, byte[] bytes) {
+            this.tenantId = tenantId;
+            this.queryPlanIdentifier = queryPlanIdentifier;
+            this.revision = revision;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Writes snapshots in the background, keeping at most one pending snapshot, the latest, per execution plan.
+     * Pending snapshots are written on JVM shutdown.
+     */
+    private class SnapshotWriter implements Runnable {
+        // tenantId/executionPlan -> latest snapshot not yet written, in the order execution plans were queued
+        private final Map<String, PendingSnapshot> pendingSnapshots = new LinkedHashMap<String, PendingSnapshot>();
+
+        private void start() {
+            Thread writerThread = new Thread(this, "FileSystemPersistenceStore-Writer");
+            writerThread.setDaemon(true);
+            writerThread.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    flush();
+                }
+            }, "FileSystemPersistenceStore-Flush"));
+        }
+
+        private void enqueue(PendingSnapshot snapshot) {
+            synchronized (pendingSnapshots) {
+                PendingSnapshot replaced = pendingSnapshots.put(getPlanKey(snapshot.tenantId,
+                        snapshot.queryPlanIdentifier), snapshot);
+                if (replaced != null && log.isDebugEnabled()) {
+                    log.debug("Revision " + replaced.revision + " of ExecutionPlan:" + replaced.queryPlanIdentifier
+                            + " is replaced by revision " + snapshot.revision + " before being saved.");
+                }
+                pendingSnapshots.notifyAll();
+            }
+        }
+
+        private PendingSnapshot getPending(String planKey) {
+            synchronized (pendingSnapshots) {
+                return pendingSnapshots.get(planKey);
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    PendingSnapshot snapshot;
+                    synchronized (pendingSnapshots) {
+                        while (pendingSnapshots.isEmpty()) {
+                            pendingSnapshots.wait();
+                        }
+                        snapshot = pendingSnapshots.values().iterator().next();
+                    }
+                    writePending(snapshot);
+                } catch (InterruptedException e) {
+                    return;
+                } catch (Throwable e) {
+                    log.error("Error while saving snapshot", e);
+                }
+            }
+        }
+
+        private void flush() {
+            while (true) {
+                PendingSnapshot snapshot;
+                synchronized (pendingSnapshots) {
+                    Iterator<PendingSnapshot> iterator = pendingSnapshots.values().iterator();
+                    if (!iterator.hasNext()) {
+                        return;
+                    }
+                    snapshot = iterator.next();
+                }
+                writePending(snapshot);
+            }
+        }
+
+        /**
+         * The snapshot stays visible to load and getLastRevision until it is written, unless a later snapshot of the
+         * same execution plan replaced it meanwhile.
+         */
+        private void writePending(PendingSnapshot snapshot) {
+            try {
+                write(snapshot.tenantId, snapshot.queryPlanIdentifier, snapshot.revision, snapshot.bytes);
+            } finally {
+                synchronized (pendingSnapshots) {
+                    String planKey = getPlanKey(snapshot.tenantId, snapshot.queryPlanIdentifier);
+                    if (pendingSnapshots.get(planKey) == snapshot) {
+                        pendingSnapshots.remove(planKey);
+                    }
+                }
+            }
+        }
+    }
+
+}
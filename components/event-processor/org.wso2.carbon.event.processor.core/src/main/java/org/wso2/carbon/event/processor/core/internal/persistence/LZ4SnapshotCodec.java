@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wso2.carbon.event.processor.core.internal.persistence;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Pure Java codec of the LZ4 block format, with a greedy single-probe compressor. Much faster than Deflate at a lower
+ * compression ratio, which suits the highly repetitive serialized window state of execution plans.
+ */
+public class LZ4SnapshotCodec extends SnapshotCodec {
+    public static final String NAME = "lz4";
+    public static final byte ID = 2;
+
+    private static final int MIN_MATCH = 4;
+    private static final int LAST_LITERALS = 5;
+    private static final int MF_LIMIT = 12;
+    private static final int MAX_DISTANCE = 65535;
+    private static final int HASH_LOG = 16;
+    private static final int SKIP_TRIGGER = 6;
+
+    @Override
+    public byte getId() {
+        return ID;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public byte[] compress(byte[] content) {
+        int contentLength = content.length;
+        byte[] compressed = new byte[contentLength + contentLength / 255 + 16];
+        int compressedLength = 0;
+        int anchor = 0;
+
+        if (contentLength >= MF_LIMIT + 1) {
+            // position + 1 of the last occurrence of each hashed 4 byte sequence, 0 if none
+            int[] hashTable = new int[1 << HASH_LOG];
+            int matchLimit = contentLength - LAST_LITERALS;
+            int searchLimit = contentLength - MF_LIMIT;
+            int position = 0;
+            int misses = 0;
+            while (position < searchLimit) {
+                int sequence = readInt(content, position);
+                int hash = hash(sequence);
+                int reference = hashTable[hash] - 1;
+                hashTable[hash] = position + 1;
+                if (reference < 0 || position - reference > MAX_DISTANCE || readInt(content, reference) != sequence) {
+                    // skip faster through incompressible content
+                    position += 1 + (misses++ >>> SKIP_TRIGGER);
+                    continue;
+                }
+                misses = 0;
+                while (position > anchor && reference > 0 && content[position - 1] == content[reference - 1]) {
+                    position--;
+                    reference--;
+                }
+                int matchLength = MIN_MATCH;
+                while (position + matchLength < matchLimit
+                        && content[position + matchLength] == content[reference + matchLength]) {
+                    matchLength++;
+                }
+                compressedLength = writeSequence(content, anchor, position - anchor, position - reference, matchLength,
+                        compressed, compressedLength);
+                position += matchLength;
+                anchor = position;
+            }
+        }
+
+        int literalLength = contentLength - anchor;
+        int token = compressedLength++;
+        if (literalLength >= 15) {
+            compressed[token] = (byte) (15 << 4);
+            compressedLength = writeLength(literalLength - 15, compressed, compressedLength);
+        } else {
+            compressed[token] = (byte) (literalLength << 4);
+        }
+        System.arraycopy(content, anchor, compressed, compressedLength, literalLength);
+        compressedLength += literalLength;
+        return Arrays.copyOf(compressed, compressedLength);
+    }
+
+    @Override
+    public int decompress(ByteBuffer compressed, byte[] content, int length) throws IOException {
+        ByteBuffer input = compressed.duplicate();
+        int position = input.position();
+        int end = input.limit();
+        int decompressed = 0;
+        try {
+            while (position < end && decompressed < length) {
+                int token = input.get(position++) & 0xFF;
+                int literalLength = token >>> 4;
+                if (literalLength == 15) {
+                    int lengthByte;
+                    do {
+                        lengthByte = input.get(position++) & 0xFF;
+                        literalLength += lengthByte;
+                    } while (lengthByte == 255);
+                }
+                int copyLength = Math.min(literalLength, length - decompressed);
+                input.position(position);
+                input.get(content, decompressed, copyLength);
+                position += literalLength;
+                decompressed += copyLength;
+                if (position >= end || decompressed >= length) {
+                    // the last sequence has only literals
+                    break;
+                }
+
+                int offset = (input.get(position++) & 0xFF) | (input.get(position++) & 0xFF) << 8;
+                if (offset == 0 || offset > decompressed) {
+                    throw new IOException("Corrupted LZ4 block of snapshot, invalid match offset " + offset);
+                }
+                int matchLength = token & 0x0F;
+                if (matchLength == 15) {
+                    int lengthByte;
+                    do {
+                        lengthByte = input.get(position++) & 0xFF;
+                        matchLength += lengthByte;
+                    } while (lengthByte == 255);
+                }
+                matchLength = Math.min(matchLength + MIN_MATCH, length - decompressed);
+                int reference = decompressed - offset;
+                if (offset >= matchLength) {
+                    System.arraycopy(content, reference, content, decompressed, matchLength);
+                } else {
+                    // overlapping match, repeating the last offset bytes
+                    for (int i = 0; i < matchLength; i++) {
+                        content[decompressed + i] = content[reference + i];
+                    }
+                }
+                decompressed += matchLength;
+            }
+        } catch (IndexOutOfBoundsException | BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("Corrupted LZ4 block of snapshot", e);
+        }
+        return decompressed;
+    }
+
+    private static int writeSequence(byte[] content, int literalStart, int literalLength, int offset,
+                                     int matchLength, byte[] compressed, int compressedLength) {
+        int token = compressedLength++;
+        if (literalLength >= 15) {
+            compressed[token] = (byte) (15 << 4);
+            compressedLength = writeLength(literalLength - 15, compressed, compressedLength);
+        } else {
+            compressed[token] = (byte) (literalLength << 4);
+        }
+        System.arraycopy(content, literalStart, compressed, compressedLength, literalLength);
+        compressedLength += literalLength;
+
+        compressed[compressedLength++] = (byte) offset;
+        compressed[compressedLength++] = (byte) (offset >>> 8);
+
+        int extraMatchLength = matchLength - MIN_MATCH;
+        if (extraMatchLength >= 15) {
+            compressed[token] |= 15;
+            compressedLength = writeLength(extraMatchLength - 15, compressed, compressedLength);
+        } else {
+            compressed[token] |= extraMatchLength;
+        }
+        return compressedLength;
+    }
+
+    private static int writeLength(int length, byte[] compressed, int compressedLength) {
+        while (length >= 255) {
+            compressed[compressedLength++] = (byte) 255;
+            length -= 255;
+        }
+        compressed[compressedLength++] = (byte) length;
+        return compressedLength;
+    }
+
+    private static int readInt(byte[] content, int position) {
+        return (content[position] & 0xFF) | (content[position + 1] & 0xFF) << 8
+                | (content[position + 2] & 0xFF) << 16 | (content[position + 3] & 0xFF) << 24;
+    }
+
+    private static int hash(int sequence) {
+        return (sequence * -1640531535) >>> (32 - HASH_LOG);
+    }
+}
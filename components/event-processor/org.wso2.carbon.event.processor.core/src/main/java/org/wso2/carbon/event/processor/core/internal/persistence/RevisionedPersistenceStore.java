@@ -0,0 +1,33 @@
+/*
+ * Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wso2.carbon.event.processor.core.internal.persistence;
+
+import org.wso2.siddhi.core.util.persistence.PersistenceStore;
+
+import java.util.List;
+
+/**
+ * Persistence store which can list the revisions it holds for an execution plan, so that execution plans can be
+ * restored to a revision other than the last one.
+ */
+public interface RevisionedPersistenceStore extends PersistenceStore {
+
+    /**
+     * @param executionPlanIdentifier name of the execution plan of the current tenant
+     * @return the revisions of the execution plan, oldest first
+     */
+    public List<String> getRevisions(String executionPlanIdentifier);
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wso2.carbon.event.processor.core.internal.persistence;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Compression codec of snapshot files, selected by the "compression" property of the persistence configuration. The
+ * id of the codec is recorded in the header of each snapshot file, so files remain readable when the configured codec
+ * changes.
+ */
+public abstract class SnapshotCodec {
+    public static final byte NONE_ID = 0;
+
+    /**
+     * @return the codec registered with the name, or null for "none"
+     * @throws IllegalArgumentException if there is no such codec
+     */
+    public static SnapshotCodec forName(String name, int level) {
+        if (name == null || name.trim().isEmpty() || "none".equalsIgnoreCase(name.trim())) {
+            return null;
+        }
+        if (DeflateSnapshotCodec.NAME.equalsIgnoreCase(name.trim())) {
+            return new DeflateSnapshotCodec(level);
+        }
+        if (LZ4SnapshotCodec.NAME.equalsIgnoreCase(name.trim())) {
+            return new LZ4SnapshotCodec();
+        }
+        throw new IllegalArgumentException("Unknown snapshot compression codec " + name);
+    }
+
+    /**
+     * @return the codec a snapshot file was written with, or null if it is not compressed
+     * @throws IOException if there is no such codec
+     */
+    public static SnapshotCodec forId(byte id) throws IOException {
+        switch (id) {
+            case NONE_ID:
+                return null;
+            case DeflateSnapshotCodec.ID:
+                return new DeflateSnapshotCodec(DeflateSnapshotCodec.DEFAULT_LEVEL);
+            case LZ4SnapshotCodec.ID:
+                return new LZ4SnapshotCodec();
+            default:
+                throw new IOException("Unknown snapshot compression codec id " + id);
+        }
+    }
+
+    public abstract byte getId();
+
+    public abstract String getName();
+
+    public abstract byte[] compress(byte[] content) throws IOException;
+
+    /**
+     * Decompresses the beginning of the compressed content, up to the given length, into the array.
+     *
+     * @param compressed compressed content, from its position to its limit; may be memory mapped
+     * @param content    array to decompress into, from index 0
+     * @param length     number of bytes to decompress, at most the length of the whole content
+     * @return number of bytes decompressed, which is less than length only if the compressed content ended
+     * @throws IOException if the compressed content is corrupted
+     */
+    public abstract int decompress(ByteBuffer compressed, byte[] content, int length) throws IOException;
+}
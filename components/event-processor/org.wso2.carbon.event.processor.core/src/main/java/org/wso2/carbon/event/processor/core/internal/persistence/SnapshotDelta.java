@@ -0,0 +1,341 @@
+/*
+ * Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wso2.carbon.event.processor.core.internal.persistence;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Difference of a snapshot to a full snapshot of the same execution plan (the base). Snapshots are split into
+ * content defined chunks: a chunk ends where a rolling hash of the last 64 bytes matches a mask, so that chunk
+ * boundaries move with the content, and an insertion or removal of bytes only changes the chunks around it instead of
+ * shifting every later chunk. A delta holds the chunks which are not found in the base, identified by their digests,
+ * and references the chunks which are. Delta files start with a magic number, which cannot start a full snapshot, as
+ * those are Java serialization streams.
+ */
+public class SnapshotDelta {
+    private static final int MAGIC = 0x43455044;   // "CEPD"
+    /**
+     * Deltas of fixed size blocks, written by earlier versions and still applied.
+     */
+    private static final byte VERSION_BLOCKS = 1;
+    private static final byte VERSION = 2;
+    private static final byte COPY = 0;
+    private static final byte LITERAL = 1;
+    /**
+     * Upper bound of the length of the header of a delta, up to and including the base revision.
+     */
+    public static final int MAX_BASE_REVISION_HEADER_LENGTH = 4 + 1 + 2 + 65535;
+
+    /**
+     * Random values per byte value for the rolling (gear) hash. The seed is fixed, so that chunk boundaries only depend
+     * on the content.
+     */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        Random random = new Random(0x43455044L);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    private SnapshotDelta() {
+    }
+
+    /**
+     * Digests of the chunks of a full snapshot, against which deltas are computed.
+     */
+    public static class Base {
+        private final String revision;
+        private final int averageChunkSize;
+        // digest -> offset and length of the chunk in the base
+        private final Map<ByteBuffer, int[]> chunks = new HashMap<ByteBuffer, int[]>();
+
+        /**
+         * @param averageChunkSize targeted average size of the chunks, rounded to a power of two
+         */
+        public Base(String revision, byte[] snapshot, int averageChunkSize) {
+            this.revision = revision;
+            this.averageChunkSize = averageChunkSize;
+            MessageDigest messageDigest = newMessageDigest();
+            Chunker chunker = new Chunker(averageChunkSize);
+            int offset = 0;
+            while (offset < snapshot.length) {
+                int end = chunker.nextBoundary(snapshot, offset);
+                ByteBuffer digest = digest(messageDigest, snapshot, offset, end - offset);
+                if (!chunks.containsKey(digest)) {
+                    chunks.put(digest, new int[]{offset, end - offset});
+                }
+                offset = end;
+            }
+        }
+
+        public String getRevision() {
+            return revision;
+        }
+    }
+
+    /**
+     * @return the chunks of the snapshot which are not found in the base, and references to those which are, encoded
+     * as a delta
+     */
+    public static byte[] encode(Base base, byte[] snapshot) throws IOException {
+        MessageDigest messageDigest = newMessageDigest();
+        Chunker chunker = new Chunker(base.averageChunkSize);
+        ByteArrayOutputStream operations = new ByteArrayOutputStream();
+        DataOutputStream operationsOutput = new DataOutputStream(operations);
+        int operationCount = 0;
+        // adjacent chunks which are both found in the base, contiguously, or both not found are merged
+        int copyOffset = -1;
+        int copyLength = 0;
+        int literalOffset = -1;
+        int literalLength = 0;
+        int offset = 0;
+        while (offset < snapshot.length) {
+            int end = chunker.nextBoundary(snapshot, offset);
+            int length = end - offset;
+            int[] baseChunk = base.chunks.get(digest(messageDigest, snapshot, offset, length));
+            if (baseChunk != null && baseChunk[1] == length) {
+                if (literalLength > 0) {
+                    writeLiteral(operationsOutput, snapshot, literalOffset, literalLength);
+                    operationCount++;
+                    literalLength = 0;
+                }
+                if (copyLength > 0 && copyOffset + copyLength == baseChunk[0]) {
+                    copyLength += length;
+                } else {
+                    if (copyLength > 0) {
+                        writeCopy(operationsOutput, copyOffset, copyLength);
+                        operationCount++;
+                    }
+                    copyOffset = baseChunk[0];
+                    copyLength = length;
+                }
+            } else {
+                if (copyLength > 0) {
+                    writeCopy(operationsOutput, copyOffset, copyLength);
+                    operationCount++;
+                    copyLength = 0;
+                }
+                if (literalLength == 0) {
+                    literalOffset = offset;
+                }
+                literalLength += length;
+            }
+            offset = end;
+        }
+        if (copyLength > 0) {
+            writeCopy(operationsOutput, copyOffset, copyLength);
+            operationCount++;
+        }
+        if (literalLength > 0) {
+            writeLiteral(operationsOutput, snapshot, literalOffset, literalLength);
+            operationCount++;
+        }
+        operationsOutput.flush();
+
+        ByteArrayOutputStream delta = new ByteArrayOutputStream(operations.size() + 64);
+        DataOutputStream deltaOutput = new DataOutputStream(delta);
+        deltaOutput.writeInt(MAGIC);
+        deltaOutput.writeByte(VERSION);
+        deltaOutput.writeUTF(base.revision);
+        deltaOutput.writeInt(snapshot.length);
+        deltaOutput.writeInt(operationCount);
+        operations.writeTo(deltaOutput);
+        deltaOutput.flush();
+        return delta.toByteArray();
+    }
+
+    /**
+     * @param content content of a snapshot file, from its position
+     */
+    public static boolean isDelta(ByteBuffer content) {
+        return content.remaining() >= 5 && content.getInt(content.position()) == MAGIC;
+    }
+
+    /**
+     * @return revision of the full snapshot the delta applies to
+     */
+    public static String getBaseRevision(ByteBuffer delta) throws IOException {
+        ByteBuffer input = delta.duplicate();
+        readHeader(input);
+        return readUTF(input);
+    }
+
+    /**
+     * Copies the chunks of the base straight from its buffer into the restored snapshot. An uncompressed base file
+     * may be memory mapped, but a compressed one is decompressed onto the heap (see {@link SnapshotFile#read}), so
+     * that the base and the restored snapshot are both on the heap while the delta is applied.
+     *
+     * @return the snapshot the delta was computed from
+     */
+    public static byte[] apply(ByteBuffer baseSnapshot, ByteBuffer delta) throws IOException {
+        ByteBuffer input = delta.duplicate();
+        byte version = readHeader(input);
+        readUTF(input);
+        try {
+            if (version == VERSION_BLOCKS) {
+                return applyBlocks(baseSnapshot, input);
+            }
+            int length = input.getInt();
+            int operationCount = input.getInt();
+            byte[] snapshot = new byte[length];
+            int position = 0;
+            for (int i = 0; i < operationCount; i++) {
+                byte operation = input.get();
+                if (operation == COPY) {
+                    int baseOffset = input.getInt();
+                    int copyLength = input.getInt();
+                    if (baseOffset < 0 || baseOffset > baseSnapshot.remaining() - copyLength) {
+                        throw new IOException("Snapshot delta refers to bytes beyond its base");
+                    }
+                    ByteBuffer base = baseSnapshot.duplicate();
+                    base.position(base.position() + baseOffset);
+                    base.get(snapshot, position, copyLength);
+                    position += copyLength;
+                } else if (operation == LITERAL) {
+                    int literalLength = input.getInt();
+                    input.get(snapshot, position, literalLength);
+                    position += literalLength;
+                } else {
+                    throw new IOException("Unknown snapshot delta operation " + operation);
+                }
+            }
+            if (position != length) {
+                throw new IOException("Snapshot delta restores " + position + " of " + length + " bytes");
+            }
+            return snapshot;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IOException("Snapshot delta is truncated or corrupt", e);
+        }
+    }
+
+    private static byte[] applyBlocks(ByteBuffer baseSnapshot, ByteBuffer input) {
+        int length = input.getInt();
+        int blockSize = input.getInt();
+        int changedBlockCount = input.getInt();
+        byte[] snapshot = new byte[length];
+        ByteBuffer base = baseSnapshot.duplicate();
+        base.get(snapshot, 0, Math.min(length, base.remaining()));
+        for (int i = 0; i < changedBlockCount; i++) {
+            int blockIndex = input.getInt();
+            int blockLength = input.getInt();
+            input.get(snapshot, blockIndex * blockSize, blockLength);
+        }
+        return snapshot;
+    }
+
+    private static void writeCopy(DataOutputStream output, int baseOffset, int length) throws IOException {
+        output.writeByte(COPY);
+        output.writeInt(baseOffset);
+        output.writeInt(length);
+    }
+
+    private static void writeLiteral(DataOutputStream output, byte[] snapshot, int offset, int length)
+            throws IOException {
+        output.writeByte(LITERAL);
+        output.writeInt(length);
+        output.write(snapshot, offset, length);
+    }
+
+    /**
+     * @return version of the delta
+     */
+    private static byte readHeader(ByteBuffer input) throws IOException {
+        if (input.remaining() < 5 || input.getInt() != MAGIC) {
+            throw new IOException("Not a snapshot delta");
+        }
+        byte version = input.get();
+        if (version != VERSION && version != VERSION_BLOCKS) {
+            throw new IOException("Unsupported snapshot delta version " + version);
+        }
+        return version;
+    }
+
+    /**
+     * Reads a string written by {@link DataOutputStream#writeUTF(String)}.
+     */
+    private static String readUTF(ByteBuffer input) throws IOException {
+        int length = input.getShort() & 0xFFFF;
+        byte[] utf = new byte[length + 2];
+        utf[0] = (byte) (length >>> 8);
+        utf[1] = (byte) length;
+        input.get(utf, 2, length);
+        return new DataInputStream(new ByteArrayInputStream(utf)).readUTF();
+    }
+
+    private static ByteBuffer digest(MessageDigest messageDigest, byte[] snapshot, int offset, int length) {
+        messageDigest.update(snapshot, offset, length);
+        return ByteBuffer.wrap(messageDigest.digest());
+    }
+
+    private static MessageDigest newMessageDigest() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            // MD5 is available on every Java platform
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Finds content defined chunk boundaries with a gear hash, whose top bits depend on the last 64 bytes. Chunks are
+     * at least a quarter and at most four times the average chunk size long.
+     */
+    static class Chunker {
+        private final long mask;
+        private final int minChunkSize;
+        private final int maxChunkSize;
+
+        Chunker(int averageChunkSize) {
+            int bits = 0;
+            while (bits < 30 && (1 << (bits + 1)) <= averageChunkSize) {
+                bits++;
+            }
+            this.mask = (bits == 0) ? 0 : -1L << (64 - bits);
+            this.minChunkSize = Math.max(1, (1 << bits) / 4);
+            this.maxChunkSize = (1 << bits) * 4;
+        }
+
+        /**
+         * @return end (exclusive) of the chunk starting at the given offset
+         */
+        int nextBoundary(byte[] data, int offset) {
+            int end = (int) Math.min(data.length, (long) offset + maxChunkSize);
+            int position = (int) Math.min(end, (long) offset + minChunkSize);
+            long hash = 0;
+            while (position < end) {
+                hash = (hash << 1) + GEAR[data[position] & 0xFF];
+                position++;
+                if ((hash & mask) == 0) {
+                    return position;
+                }
+            }
+            return end;
+        }
+    }
+}
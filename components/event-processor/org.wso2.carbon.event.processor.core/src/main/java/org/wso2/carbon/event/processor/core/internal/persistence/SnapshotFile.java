@@ -0,0 +1,270 @@
+/*
+ * Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wso2.carbon.event.processor.core.internal.persistence;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Reads and writes the files of FileSystemPersistenceStore. A snapshot file holds a header (magic number, version,
+ * compression codec id, content length, stored length and CRC32 of the stored bytes) followed by the content, a full
+ * snapshot or a {@link SnapshotDelta}, as compressed by the codec (see {@link SnapshotCodec}). Files are written to a
+ * temporary file which is synced and then renamed over the target, followed by a sync of the directory, so that a
+ * crash never leaves a partially written file in place of a revision. Files written before the header was introduced
+ * are read as they are, without verification.
+ */
+public class SnapshotFile {
+    private static final int MAGIC = 0x43455053;   // "CEPS"
+    private static final byte VERSION_1 = 1;
+    private static final byte VERSION = 2;
+    private static final int VERSION_1_HEADER_LENGTH = 4 + 1 + 8 + 4;
+    private static final int HEADER_LENGTH = 4 + 1 + 1 + 8 + 8 + 4;
+    private static final int CHECKSUM_CHUNK_SIZE = 64 * 1024;
+
+    private SnapshotFile() {
+    }
+
+    /**
+     * Atomically replaces the file with one holding the content, compressed by the codec unless that does not make it
+     * smaller, preceded by the header.
+     *
+     * @param codec compression codec, or null to store the content uncompressed
+     */
+    public static void write(File file, byte[] content, SnapshotCodec codec) throws IOException {
+        byte codecId = SnapshotCodec.NONE_ID;
+        byte[] stored = content;
+        if (codec != null) {
+            byte[] compressed = codec.compress(content);
+            if (compressed.length < content.length) {
+                codecId = codec.getId();
+                stored = compressed;
+            }
+        }
+        CRC32 crc = new CRC32();
+        crc.update(stored, 0, stored.length);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        header.putInt(MAGIC).put(VERSION).put(codecId).putLong(content.length).putLong(stored.length)
+                .putInt((int) crc.getValue());
+        writeAtomically(file, header.array(), stored);
+    }
+
+    /**
+     * Writes the parts to a temporary file next to the target, syncs it to disk, renames it over the target and syncs
+     * the directory, so that the rename itself survives a crash. The temporary file is deleted if any step before the
+     * rename fails.
+     */
+    public static void writeAtomically(File file, byte[]... parts) throws IOException {
+        File tempFile = new File(file.getParentFile(), "." + file.getName() + ".tmp");
+        boolean moved = false;
+        try {
+            FileOutputStream outputStream = new FileOutputStream(tempFile);
+            try {
+                for (byte[] part : parts) {
+                    outputStream.write(part);
+                }
+                outputStream.getFD().sync();
+            } finally {
+                outputStream.close();
+            }
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+            moved = true;
+        } finally {
+            if (!moved) {
+                Files.deleteIfExists(tempFile.toPath());
+            }
+        }
+        syncDirectory(file.getAbsoluteFile().getParentFile());
+    }
+
+    /**
+     * Syncs the entries of the directory, i.e. files created, renamed or deleted in it, to disk. Platforms which cannot
+     * open a directory for reading (e.g. Windows) do not need it.
+     */
+    public static void syncDirectory(File dir) throws IOException {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ);
+        } catch (IOException e) {
+            return;
+        }
+        try {
+            channel.force(true);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Reads the content of the file, verifying its checksum and decompressing it. Files of at least mmapThreshold
+     * bytes are memory mapped instead of being read onto the heap; otherwise the stored bytes are read into a single
+     * array of their exact size. Compressed content is decompressed onto the heap, into an array of its exact size,
+     * whether or not the file is mapped.
+     *
+     * @return the content, from position 0 to its limit
+     * @throws IOException if the file cannot be read, or is truncated or corrupted
+     */
+    public static ByteBuffer read(File file, long mmapThreshold) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            Header header = readHeader(randomAccessFile);
+            ByteBuffer stored = readStored(randomAccessFile, header, mmapThreshold);
+            if (header == null) {
+                return stored;
+            }
+            verify(file, stored, header.checksum);
+            SnapshotCodec codec = SnapshotCodec.forId(header.codecId);
+            if (codec == null) {
+                return stored;
+            }
+            byte[] content = new byte[(int) header.contentLength];
+            if (codec.decompress(stored, content, content.length) != content.length) {
+                throw new IOException("Compressed content of snapshot file " + file.getPath() + " is truncated");
+            }
+            return ByteBuffer.wrap(content);
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * Reads the beginning of the content of the file, without verifying it, e.g. to read the header of a delta.
+     *
+     * @return at most maxLength bytes from the beginning of the content
+     */
+    public static byte[] readPrefix(File file, int maxLength) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            Header header = readHeader(randomAccessFile);
+            SnapshotCodec codec = (header != null) ? SnapshotCodec.forId(header.codecId) : null;
+            if (codec == null) {
+                long storedLength = (header != null) ? header.storedLength : randomAccessFile.length();
+                byte[] prefix = new byte[(int) Math.min(maxLength, storedLength)];
+                randomAccessFile.seek((header != null) ? header.length : 0);
+                randomAccessFile.readFully(prefix);
+                return prefix;
+            }
+            ByteBuffer stored = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, header.length,
+                    header.storedLength);
+            byte[] prefix = new byte[(int) Math.min(maxLength, header.contentLength)];
+            int length = codec.decompress(stored, prefix, prefix.length);
+            if (length != prefix.length) {
+                throw new IOException("Compressed content of snapshot file " + file.getPath() + " is truncated");
+            }
+            return prefix;
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * @return the content as an array, copying it only if the buffer is not backed by an array of exactly the content
+     */
+    public static byte[] toByteArray(ByteBuffer content) {
+        if (content.hasArray() && content.arrayOffset() == 0 && content.position() == 0
+                && content.remaining() == content.array().length) {
+            return content.array();
+        }
+        byte[] bytes = new byte[content.remaining()];
+        content.duplicate().get(bytes);
+        return bytes;
+    }
+
+    /**
+     * @return the header, or null if the file was written before the header was introduced
+     */
+    private static Header readHeader(RandomAccessFile randomAccessFile) throws IOException {
+        long fileLength = randomAccessFile.length();
+        if (fileLength < VERSION_1_HEADER_LENGTH) {
+            return null;
+        }
+        byte[] headerBytes = new byte[(int) Math.min(HEADER_LENGTH, fileLength)];
+        randomAccessFile.seek(0);
+        randomAccessFile.readFully(headerBytes);
+        ByteBuffer headerBuffer = ByteBuffer.wrap(headerBytes);
+        if (headerBuffer.getInt() != MAGIC) {
+            return null;
+        }
+        Header header = new Header();
+        byte version = headerBuffer.get();
+        if (version == VERSION_1) {
+            header.length = VERSION_1_HEADER_LENGTH;
+            header.codecId = SnapshotCodec.NONE_ID;
+            header.contentLength = headerBuffer.getLong();
+            header.storedLength = header.contentLength;
+        } else if (version == VERSION && headerBytes.length == HEADER_LENGTH) {
+            header.length = HEADER_LENGTH;
+            header.codecId = headerBuffer.get();
+            header.contentLength = headerBuffer.getLong();
+            header.storedLength = headerBuffer.getLong();
+        } else {
+            throw new IOException("Unsupported snapshot file version " + version);
+        }
+        header.checksum = headerBuffer.getInt();
+        if (header.storedLength != fileLength - header.length) {
+            throw new IOException("Snapshot file is truncated, expected " + header.storedLength + " bytes of content " +
+                    "but found " + (fileLength - header.length));
+        }
+        return header;
+    }
+
+    private static ByteBuffer readStored(RandomAccessFile randomAccessFile, Header header, long mmapThreshold)
+            throws IOException {
+        long offset = (header != null) ? header.length : 0;
+        long storedLength = randomAccessFile.length() - offset;
+        if (randomAccessFile.length() >= mmapThreshold) {
+            return randomAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, offset, storedLength);
+        }
+        byte[] stored = new byte[(int) storedLength];
+        randomAccessFile.seek(offset);
+        randomAccessFile.readFully(stored);
+        return ByteBuffer.wrap(stored);
+    }
+
+    private static void verify(File file, ByteBuffer stored, int checksum) throws IOException {
+        CRC32 crc = new CRC32();
+        if (stored.hasArray()) {
+            crc.update(stored.array(), stored.arrayOffset() + stored.position(), stored.remaining());
+        } else {
+            ByteBuffer buffer = stored.duplicate();
+            byte[] chunk = new byte[CHECKSUM_CHUNK_SIZE];
+            while (buffer.hasRemaining()) {
+                int length = Math.min(chunk.length, buffer.remaining());
+                buffer.get(chunk, 0, length);
+                crc.update(chunk, 0, length);
+            }
+        }
+        if ((int) crc.getValue() != checksum) {
+            throw new IOException("Checksum mismatch in snapshot file " + file.getPath());
+        }
+    }
+
+    private static class Header {
+        private int length;
+        private byte codecId;
+        private long contentLength;
+        private long storedLength;
+        private int checksum;
+    }
+}
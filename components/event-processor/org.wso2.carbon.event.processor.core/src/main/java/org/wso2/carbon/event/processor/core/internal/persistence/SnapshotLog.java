@@ -0,0 +1,583 @@
+/*
+ * Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wso2.carbon.event.processor.core.internal.persistence;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * Single file, log structured key-value store of snapshots. Records are appended to the file and located through an
+ * in-memory sorted index of the keys, which is rebuilt from the record headers when the file is opened, so that
+ * ranges of keys can be scanned without touching the file. Each record is:
+ * <pre>
+ * type (1) | codec id (1) | key length (4) | content length (4) | stored length (4) | value CRC32 (4) | key |
+ * header CRC32 (4) | stored value
+ * </pre>
+ * Writes are group committed: a single committer thread appends all writes queued since its last commit and syncs the
+ * file once for all of them, while the writers wait for the commit. A record left incomplete by a crash at the end
+ * of the file is truncated when the file is opened. A corrupted record followed by valid ones is skipped instead,
+ * and reported, as truncating there would discard the valid records. Once live records take less than
+ * (1 - compactionThreshold) of a file larger than {@link #MIN_COMPACTION_SIZE}, the live records are copied to a new
+ * file which replaces the old one.
+ */
+public class SnapshotLog {
+    private static final Log log = LogFactory.getLog(SnapshotLog.class);
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int MAGIC = 0x4345504C;   // "CEPL"
+    private static final int VERSION = 1;
+    private static final int FILE_HEADER_LENGTH = 8;
+    private static final int RECORD_FIXED_LENGTH = 1 + 1 + 4 + 4 + 4 + 4;
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    public static final long MIN_COMPACTION_SIZE = 64 * 1024 * 1024;
+    private static final int MAX_KEY_LENGTH = 65535;
+    private static final int RESYNC_WINDOW_SIZE = 64 * 1024;
+
+    private final File file;
+    private final long minCompactionSize;
+    private volatile double compactionThreshold;
+    private final NavigableMap<String, Location> index = new ConcurrentSkipListMap<String, Location>();
+    private final BlockingQueue<Write> writeQueue = new LinkedBlockingQueue<Write>();
+    // guards the channel against being replaced by compaction while it is read
+    private final ReadWriteLock channelLock = new ReentrantReadWriteLock();
+    private FileChannel channel;
+    private long fileLength;
+    private long liveLength;
+    // queued by close() after all other writes, to stop the committer
+    private final Write closeWrite = new Write((byte) 0, null, SnapshotCodec.NONE_ID, 0, new byte[0]);
+    private final Thread committerThread;
+    private boolean closed = false;
+
+    public SnapshotLog(File file, double compactionThreshold) throws IOException {
+        this(file, compactionThreshold, MIN_COMPACTION_SIZE);
+    }
+
+    /**
+     * @param minCompactionSize size in bytes below which the file is not compacted
+     */
+    SnapshotLog(File file, double compactionThreshold, long minCompactionSize) throws IOException {
+        this.file = file;
+        this.minCompactionSize = minCompactionSize;
+        this.compactionThreshold = compactionThreshold;
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (!parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Cannot create directory " + parent.getPath());
+        }
+        channel = new RandomAccessFile(file, "rw").getChannel();
+        try {
+            recover();
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        committerThread = new Thread(new Committer(), "SnapshotLog-Committer");
+        committerThread.setDaemon(true);
+        committerThread.start();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public void setCompactionThreshold(double compactionThreshold) {
+        this.compactionThreshold = compactionThreshold;
+    }
+
+    /**
+     * Commits the writes queued so far, stops the committer thread and closes the file. Writes attempted afterwards
+     * fail.
+     */
+    public void close() throws IOException {
+        synchronized (writeQueue) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            writeQueue.add(closeWrite);
+        }
+        try {
+            committerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while closing " + file.getPath());
+        }
+        channelLock.writeLock().lock();
+        try {
+            channel.close();
+        } finally {
+            channelLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Stores the content, compressed by the codec unless that does not make it smaller, and returns once it is synced
+     * to disk.
+     *
+     * @param codec compression codec, or null to store the content uncompressed
+     */
+    public void put(String key, byte[] content, SnapshotCodec codec) throws IOException {
+        byte codecId = SnapshotCodec.NONE_ID;
+        byte[] stored = content;
+        if (codec != null) {
+            byte[] compressed = codec.compress(content);
+            if (compressed.length < content.length) {
+                codecId = codec.getId();
+                stored = compressed;
+            }
+        }
+        commit(new Write(PUT, key, codecId, content.length, stored));
+    }
+
+    public void delete(String key) throws IOException {
+        delete(Collections.singletonList(key));
+    }
+
+    /**
+     * Deletes the keys in a single commit, i.e. with a single sync of the file.
+     */
+    public void delete(Collection<String> keys) throws IOException {
+        List<Write> writes = new ArrayList<Write>(keys.size());
+        for (String key : keys) {
+            if (index.containsKey(key)) {
+                writes.add(new Write(DELETE, key, SnapshotCodec.NONE_ID, 0, new byte[0]));
+            }
+        }
+        if (!writes.isEmpty()) {
+            commit(writes);
+        }
+    }
+
+    /**
+     * @return the content stored for the key, or null if there is none
+     * @throws IOException if the content cannot be read or is corrupted
+     */
+    public byte[] get(String key) throws IOException {
+        Location location;
+        byte[] stored;
+        channelLock.readLock().lock();
+        try {
+            location = index.get(key);
+            if (location == null) {
+                return null;
+            }
+            stored = new byte[location.storedLength];
+            readFully(channel, ByteBuffer.wrap(stored), location.offset + location.headerLength);
+        } finally {
+            channelLock.readLock().unlock();
+        }
+        CRC32 crc = new CRC32();
+        crc.update(stored, 0, stored.length);
+        if ((int) crc.getValue() != location.valueCrc) {
+            throw new IOException("Checksum mismatch in the value of " + key + " in " + file.getPath());
+        }
+        SnapshotCodec codec = SnapshotCodec.forId(location.codecId);
+        if (codec == null) {
+            return stored;
+        }
+        byte[] content = new byte[location.contentLength];
+        if (codec.decompress(ByteBuffer.wrap(stored), content, content.length) != content.length) {
+            throw new IOException("Compressed value of " + key + " in " + file.getPath() + " is truncated");
+        }
+        return content;
+    }
+
+    /**
+     * @return the keys starting with the prefix, in ascending order
+     */
+    public List<String> getKeys(String prefix) {
+        return new ArrayList<String>(index.subMap(prefix, true, prefix + Character.MAX_VALUE, false).keySet());
+    }
+
+    /**
+     * @return the greatest key starting with the prefix, or null if there is none
+     */
+    public String getLastKey(String prefix) {
+        String key = index.lowerKey(prefix + Character.MAX_VALUE);
+        return (key != null && key.startsWith(prefix)) ? key : null;
+    }
+
+    private void commit(Write write) throws IOException {
+        commit(Collections.singletonList(write));
+    }
+
+    private void commit(List<Write> writes) throws IOException {
+        synchronized (writeQueue) {
+            if (closed) {
+                throw new IOException(file.getPath() + " is closed");
+            }
+            writeQueue.addAll(writes);
+        }
+        for (Write write : writes) {
+            try {
+                write.committed.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for " + write.key + " to be committed");
+            }
+            if (write.failure != null) {
+                throw write.failure;
+            }
+        }
+    }
+
+    /**
+     * Rebuilds the index from the record headers. A record which cannot be read is a torn write if no valid record
+     * follows it, and the file is truncated there; otherwise it is corrupted, and skipped up to the next valid record,
+     * as the records after it are intact.
+     */
+    private void recover() throws IOException {
+        long length = channel.size();
+        if (length == 0) {
+            ByteBuffer fileHeader = ByteBuffer.allocate(FILE_HEADER_LENGTH);
+            fileHeader.putInt(MAGIC).putInt(VERSION).flip();
+            channel.write(fileHeader, 0);
+            channel.force(true);
+            SnapshotFile.syncDirectory(file.getAbsoluteFile().getParentFile());
+            fileLength = FILE_HEADER_LENGTH;
+            return;
+        }
+        ByteBuffer fileHeader = ByteBuffer.allocate(FILE_HEADER_LENGTH);
+        if (length < FILE_HEADER_LENGTH || !readFully(channel, fileHeader, 0) || fileHeader.getInt(0) != MAGIC) {
+            throw new IOException(file.getPath() + " is not a snapshot log");
+        }
+        if (fileHeader.getInt(4) != VERSION) {
+            throw new IOException("Unsupported snapshot log version " + fileHeader.getInt(4) + " of " + file.getPath());
+        }
+
+        long offset = FILE_HEADER_LENGTH;
+        while (offset < length) {
+            Record record = readRecord(offset, length);
+            if (record == null) {
+                long nextOffset = findNextRecord(offset + 1, length);
+                if (nextOffset < 0) {
+                    break;
+                }
+                log.error("Skipping " + (nextOffset - offset) + " corrupted bytes at offset " + offset + " of " +
+                        file.getPath() + ", the revisions stored in them are lost");
+                offset = nextOffset;
+                continue;
+            }
+            apply(record.type, record.key, record.location);
+            offset += record.location.getRecordLength();
+        }
+        if (offset < length) {
+            log.warn("Truncating " + (length - offset) + " bytes of incomplete records at the end of " +
+                    file.getPath());
+            channel.truncate(offset);
+            channel.force(true);
+        }
+        fileLength = offset;
+    }
+
+    /**
+     * @return the record at the offset, or null if there is no complete record with a valid header
+     */
+    private Record readRecord(long offset, long length) throws IOException {
+        if (offset + RECORD_FIXED_LENGTH > length) {
+            return null;
+        }
+        ByteBuffer fixed = ByteBuffer.allocate(RECORD_FIXED_LENGTH);
+        if (!readFully(channel, fixed, offset)) {
+            return null;
+        }
+        fixed.flip();
+        byte type = fixed.get();
+        byte codecId = fixed.get();
+        int keyLength = fixed.getInt();
+        int contentLength = fixed.getInt();
+        int storedLength = fixed.getInt();
+        int valueCrc = fixed.getInt();
+        if ((type != PUT && type != DELETE) || keyLength < 0 || keyLength > MAX_KEY_LENGTH || storedLength < 0
+                || offset + RECORD_FIXED_LENGTH + keyLength + 4 > length) {
+            return null;
+        }
+        ByteBuffer keyAndCrc = ByteBuffer.allocate(keyLength + 4);
+        if (!readFully(channel, keyAndCrc, offset + RECORD_FIXED_LENGTH)) {
+            return null;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(fixed.array(), 0, RECORD_FIXED_LENGTH);
+        crc.update(keyAndCrc.array(), 0, keyLength);
+        int headerLength = RECORD_FIXED_LENGTH + keyLength + 4;
+        if ((int) crc.getValue() != keyAndCrc.getInt(keyLength) || offset + headerLength + storedLength > length) {
+            return null;
+        }
+        return new Record(type, new String(keyAndCrc.array(), 0, keyLength, UTF_8),
+                new Location(offset, headerLength, codecId, contentLength, storedLength, valueCrc));
+    }
+
+    /**
+     * Scans for the next complete record with a valid header, reading the file in windows and checking the header
+     * only at offsets which start with a record type.
+     *
+     * @return offset of the next valid record, or -1 if there is none
+     */
+    private long findNextRecord(long offset, long length) throws IOException {
+        ByteBuffer window = ByteBuffer.allocate(RESYNC_WINDOW_SIZE);
+        while (offset < length) {
+            window.clear();
+            window.limit((int) Math.min(RESYNC_WINDOW_SIZE, length - offset));
+            if (!readFully(channel, window, offset)) {
+                return -1;
+            }
+            for (int i = 0; i < window.limit(); i++) {
+                byte type = window.get(i);
+                if ((type == PUT || type == DELETE) && readRecord(offset + i, length) != null) {
+                    return offset + i;
+                }
+            }
+            offset += window.limit();
+        }
+        return -1;
+    }
+
+    private void apply(byte type, String key, Location location) {
+        Location previous = (type == PUT) ? index.put(key, location) : index.remove(key);
+        if (previous != null) {
+            liveLength -= previous.getRecordLength();
+        }
+        if (type == PUT) {
+            liveLength += location.getRecordLength();
+        }
+    }
+
+    /**
+     * Copies the live records to a new file which replaces the log file. Runs on the committer thread, so no writes
+     * happen meanwhile; reads are blocked only while the files are swapped.
+     */
+    private void compact() throws IOException {
+        File compactFile = new File(file.getPath() + ".compact");
+        FileChannel compactChannel = new RandomAccessFile(compactFile, "rw").getChannel();
+        Map<String, Location> compactIndex = new ConcurrentSkipListMap<String, Location>();
+        long offset;
+        try {
+            compactChannel.truncate(0);
+            ByteBuffer fileHeader = ByteBuffer.allocate(FILE_HEADER_LENGTH);
+            fileHeader.putInt(MAGIC).putInt(VERSION).flip();
+            compactChannel.write(fileHeader, 0);
+            offset = FILE_HEADER_LENGTH;
+            for (Map.Entry<String, Location> entry : index.entrySet()) {
+                Location location = entry.getValue();
+                long recordLength = location.getRecordLength();
+                long copied = 0;
+                while (copied < recordLength) {
+                    copied += channel.transferTo(location.offset + copied, recordLength - copied,
+                            compactChannel.position(offset + copied));
+                }
+                compactIndex.put(entry.getKey(), new Location(offset, location.headerLength, location.codecId,
+                        location.contentLength, location.storedLength, location.valueCrc));
+                offset += recordLength;
+            }
+            compactChannel.force(true);
+        } finally {
+            compactChannel.close();
+        }
+
+        channelLock.writeLock().lock();
+        try {
+            channel.close();
+            Files.move(compactFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+            channel = new RandomAccessFile(file, "rw").getChannel();
+            index.putAll(compactIndex);
+        } finally {
+            channelLock.writeLock().unlock();
+        }
+        // the rename only survives a crash once the directory is synced
+        SnapshotFile.syncDirectory(file.getAbsoluteFile().getParentFile());
+        log.info("Compacted " + file.getPath() + " from " + fileLength + " to " + offset + " bytes");
+        fileLength = offset;
+        liveLength = offset - FILE_HEADER_LENGTH;
+    }
+
+    private static boolean readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                return false;
+            }
+            position += read;
+        }
+        return true;
+    }
+
+    private class Committer implements Runnable {
+        @Override
+        public void run() {
+            List<Write> writes = new ArrayList<Write>();
+            boolean closing = false;
+            while (!closing) {
+                try {
+                    writes.add(writeQueue.take());
+                    writeQueue.drainTo(writes);
+                    // nothing is queued after the close write
+                    closing = writes.get(writes.size() - 1) == closeWrite;
+                    if (closing) {
+                        writes.remove(writes.size() - 1);
+                    }
+                    if (!writes.isEmpty()) {
+                        commit(writes);
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                } catch (Throwable e) {
+                    log.error("Error while committing to " + file.getPath(), e);
+                    for (Write write : writes) {
+                        if (write.failure == null) {
+                            write.failure = new IOException("Error while committing to " + file.getPath(), e);
+                        }
+                    }
+                } finally {
+                    for (Write write : writes) {
+                        write.committed.countDown();
+                    }
+                    writes.clear();
+                }
+            }
+        }
+
+        private void commit(List<Write> writes) {
+            ByteBuffer[] buffers = new ByteBuffer[writes.size() * 2];
+            List<Location> locations = new ArrayList<Location>(writes.size());
+            long offset = fileLength;
+            for (int i = 0; i < writes.size(); i++) {
+                Write write = writes.get(i);
+                byte[] key = write.key.getBytes(UTF_8);
+                CRC32 crc = new CRC32();
+                crc.update(write.stored, 0, write.stored.length);
+                ByteBuffer header = ByteBuffer.allocate(RECORD_FIXED_LENGTH + key.length + 4);
+                header.put(write.type).put(write.codecId).putInt(key.length).putInt(write.contentLength)
+                        .putInt(write.stored.length).putInt((int) crc.getValue()).put(key);
+                CRC32 headerCrc = new CRC32();
+                headerCrc.update(header.array(), 0, header.position());
+                header.putInt((int) headerCrc.getValue()).flip();
+                buffers[2 * i] = header;
+                buffers[2 * i + 1] = ByteBuffer.wrap(write.stored);
+                locations.add(new Location(offset, header.limit(), write.codecId, write.contentLength,
+                        write.stored.length, (int) crc.getValue()));
+                offset += header.limit() + write.stored.length;
+            }
+            long batchLength = offset - fileLength;
+            try {
+                channel.position(fileLength);
+                long written = 0;
+                while (written < batchLength) {
+                    written += channel.write(buffers);
+                }
+                channel.force(false);
+            } catch (IOException e) {
+                for (Write write : writes) {
+                    write.failure = e;
+                }
+                try {
+                    // drop the partially written records, so that later records follow the last complete one
+                    channel.truncate(fileLength);
+                } catch (IOException truncateException) {
+                    log.error("Cannot truncate " + file.getPath() + " after a failed commit", truncateException);
+                }
+                return;
+            }
+            fileLength = offset;
+            for (int i = 0; i < writes.size(); i++) {
+                apply(writes.get(i).type, writes.get(i).key, locations.get(i));
+            }
+            if (fileLength >= minCompactionSize && liveLength < (fileLength - FILE_HEADER_LENGTH)
+                    * (1 - compactionThreshold)) {
+                try {
+                    compact();
+                } catch (IOException e) {
+                    log.error("Cannot compact " + file.getPath(), e);
+                }
+            }
+        }
+    }
+
+    private static class Write {
+        private final byte type;
+        private final String key;
+        private final byte codecId;
+        private final int contentLength;
+        private final byte[] stored;
+        private final CountDownLatch committed = new CountDownLatch(1);
+        private volatile IOException failure;
+
+        private Write(byte type, String key, byte codecId, int contentLength, byte[] stored) {
+            this.type = type;
+            this.key = key;
+            this.codecId = codecId;
+            this.contentLength = contentLength;
+            this.stored = stored;
+        }
+    }
+
+    private static class Record {
+        private final byte type;
+        private final String key;
+        private final Location location;
+
+        private Record(byte type, String key, Location location) {
+            this.type = type;
+            this.key = key;
+            this.location = location;
+        }
+    }
+
+    private static class Location {
+        private final long offset;
+        private final int headerLength;
+        private final byte codecId;
+        private final int contentLength;
+        private final int storedLength;
+        private final int valueCrc;
+
+        private Location(long offset, int headerLength, byte codecId, int contentLength, int storedLength,
+                         int valueCrc) {
+            this.offset = offset;
+            this.headerLength = headerLength;
+            this.codecId = codecId;
+            this.contentLength = contentLength;
+            this.storedLength = storedLength;
+            this.valueCrc = valueCrc;
+        }
+
+        private long getRecordLength() {
+            return headerLength + storedLength;
+        }
+    }
+}
@@ -0,0 +1,288 @@
+/*
+ * Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wso2.carbon.event.processor.core.internal.persistence;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.context.PrivilegedCarbonContext;
+import org.wso2.carbon.event.processor.core.ExecutionPlan;
+import org.wso2.carbon.event.processor.core.internal.ds.EventProcessorValueHolder;
+import org.wso2.carbon.event.processor.core.internal.util.EventProcessorConstants;
+import org.wso2.siddhi.core.ExecutionPlanRuntime;
+import org.wso2.siddhi.core.util.persistence.PersistenceStore;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Periodically persists the state of the active execution plans of the node. Each execution plan is snapshotted at
+ * its own interval, set by the @Plan:persist(interval='...') annotation, or by the system property
+ * "cep.snapshot.interval" (e.g. "5 min", 0 by default) for execution plans without the annotation. The first snapshot
+ * of an execution plan is delayed by a fraction of its interval derived from the tenant and the execution plan name,
+ * so that the snapshots of execution plans deployed together are spread over the interval instead of being taken at
+ * the same moment.
+ * <p/>
+ * Snapshots are taken one at a time by a single thread, so that only one execution plan is paused for a snapshot at
+ * any moment. The rate at which snapshots are written is limited to the number of bytes per second set by the system
+ * property "cep.snapshot.bandwidth.limit" (0, the default, does not limit it), by delaying the next snapshot until the
+ * previous one fits in the limit.
+ * <p/>
+ * These snapshots are taken in addition to those of the persistence interval of the event processor configuration,
+ * which the event processor manager keeps taking of all execution plans of the tenant through
+ * EventProcessorManagementService.persist(). Hence existing deployments keep their periodic snapshots without
+ * configuring this scheduler, and execution plans with the annotation, or all of them if "cep.snapshot.interval" is
+ * set, are also snapshotted at their own interval. The "siddhi.persistence.snapshot.time.interval.minutes" property
+ * of the legacy execution plan format is not read.
+ * <p/>
+ * The {@link SnapshotStatistics} of each scheduled execution plan are registered as an MBean under
+ * org.wso2.carbon.event.processor:type=SnapshotStatistics with the tenant and execution plan name.
+ */
+public class SnapshotScheduler {
+    private static final Log log = LogFactory.getLog(SnapshotScheduler.class);
+    private static final Pattern INTERVAL_PATTERN = Pattern.compile("(\\d+)\\s*([a-z]*)");
+    private static final String MBEAN_DOMAIN = "org.wso2.carbon.event.processor";
+
+    private final ScheduledExecutorService executorService;
+    private final long bandwidthLimit;
+    private final long defaultInterval;
+    private final Map<String, ScheduledSnapshot> scheduledSnapshots = new ConcurrentHashMap<String, ScheduledSnapshot>();
+    private long nextSnapshotTime;
+
+    public SnapshotScheduler() {
+        this.executorService = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "EventProcessorSnapshotScheduler");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.bandwidthLimit = getLongProperty(EventProcessorConstants.SNAPSHOT_BANDWIDTH_LIMIT, 0);
+        this.defaultInterval = getDefaultInterval();
+    }
+
+    /**
+     * Parses the interval of a @Plan:persist annotation, a number of milliseconds followed by an optional unit: ms,
+     * sec, min or hour (also in plural, and in full, e.g. "5 minutes").
+     *
+     * @return the interval in milliseconds, 0 to not snapshot the execution plan
+     * @throws IllegalArgumentException if the interval is not valid
+     */
+    public static long parseInterval(String interval) {
+        Matcher matcher = INTERVAL_PATTERN.matcher(interval.trim().toLowerCase(Locale.ENGLISH));
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("Invalid snapshot interval '" + interval + "'");
+        }
+        long value;
+        try {
+            value = Long.parseLong(matcher.group(1));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid snapshot interval '" + interval + "'", e);
+        }
+        String unit = matcher.group(2);
+        if (unit.isEmpty() || unit.equals("ms") || unit.startsWith("milli")) {
+            return value;
+        } else if (unit.equals("s") || unit.startsWith("sec")) {
+            return TimeUnit.SECONDS.toMillis(value);
+        } else if (unit.equals("m") || unit.startsWith("min")) {
+            return TimeUnit.MINUTES.toMillis(value);
+        } else if (unit.equals("h") || unit.startsWith("hour")) {
+            return TimeUnit.HOURS.toMillis(value);
+        }
+        throw new IllegalArgumentException("Invalid unit '" + unit + "' of snapshot interval '" + interval + "'");
+    }
+
+    /**
+     * Schedules the snapshots of an execution plan, replacing the snapshots scheduled for it before.
+     *
+     * @param interval interval in milliseconds from the @Plan:persist annotation, or null if the execution plan has
+     *                 no such annotation
+     */
+    public void schedule(int tenantId, ExecutionPlan executionPlan, Long interval) {
+        unschedule(tenantId, executionPlan.getName());
+        long snapshotInterval = (interval != null) ? interval : defaultInterval;
+        if (snapshotInterval <= 0) {
+            return;
+        }
+        String key = tenantId + "/" + executionPlan.getName();
+        long initialDelay = (key.hashCode() & Integer.MAX_VALUE) % snapshotInterval;
+        ScheduledSnapshot scheduledSnapshot = new ScheduledSnapshot(tenantId, executionPlan, snapshotInterval);
+        scheduledSnapshot.future = executorService.scheduleAtFixedRate(scheduledSnapshot, initialDelay,
+                snapshotInterval, TimeUnit.MILLISECONDS);
+        scheduledSnapshots.put(key, scheduledSnapshot);
+        scheduledSnapshot.registerMBean();
+        if (log.isDebugEnabled()) {
+            log.debug("Scheduled snapshots of execution plan " + executionPlan.getName() + " of tenant " + tenantId
+                    + " every " + snapshotInterval + " ms, starting in " + initialDelay + " ms");
+        }
+    }
+
+    public void unschedule(int tenantId, String executionPlanName) {
+        ScheduledSnapshot scheduledSnapshot = scheduledSnapshots.remove(tenantId + "/" + executionPlanName);
+        if (scheduledSnapshot != null) {
+            scheduledSnapshot.cancelled = true;
+            scheduledSnapshot.future.cancel(false);
+            scheduledSnapshot.unregisterMBean();
+        }
+    }
+
+    public void shutdown() {
+        executorService.shutdownNow();
+        for (ScheduledSnapshot scheduledSnapshot : scheduledSnapshots.values()) {
+            scheduledSnapshot.unregisterMBean();
+        }
+        scheduledSnapshots.clear();
+    }
+
+    /**
+     * Waits until the snapshots written so far fit in the bandwidth limit. Called only by the scheduler thread.
+     */
+    private void throttle() throws InterruptedException {
+        long delay = nextSnapshotTime - System.currentTimeMillis();
+        if (delay > 0) {
+            Thread.sleep(delay);
+        }
+    }
+
+    private void recordWrite(long startTime, long bytes) {
+        if (bandwidthLimit > 0) {
+            nextSnapshotTime = Math.max(startTime, nextSnapshotTime) + bytes * 1000 / bandwidthLimit;
+        }
+    }
+
+    private static long getLongProperty(String name, long defaultValue) {
+        String value = System.getProperty(name);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Math.max(0, Long.parseLong(value.trim()));
+        } catch (NumberFormatException e) {
+            log.warn("Invalid value '" + value + "' for " + name + ", using default " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    private static long getDefaultInterval() {
+        String value = System.getProperty(EventProcessorConstants.SNAPSHOT_INTERVAL);
+        if (value == null || value.trim().isEmpty()) {
+            return 0;
+        }
+        try {
+            return parseInterval(value);
+        } catch (IllegalArgumentException e) {
+            log.warn("Invalid value '" + value + "' for " + EventProcessorConstants.SNAPSHOT_INTERVAL
+                    + ", using default 0");
+            return 0;
+        }
+    }
+
+    private class ScheduledSnapshot implements Runnable {
+        private final int tenantId;
+        private final ExecutionPlan executionPlan;
+        private final long interval;
+        private final SnapshotStatistics statistics = new SnapshotStatistics();
+        private ScheduledFuture<?> future;
+        private ObjectName mBeanName;
+        private volatile boolean cancelled;
+
+        private ScheduledSnapshot(int tenantId, ExecutionPlan executionPlan, long interval) {
+            this.tenantId = tenantId;
+            this.executionPlan = executionPlan;
+            this.interval = interval;
+        }
+
+        private void registerMBean() {
+            try {
+                ObjectName objectName = new ObjectName(MBEAN_DOMAIN + ":type=SnapshotStatistics,tenant=" + tenantId
+                        + ",plan=" + ObjectName.quote(executionPlan.getName()));
+                ManagementFactory.getPlatformMBeanServer().registerMBean(statistics, objectName);
+                mBeanName = objectName;
+            } catch (Exception e) {
+                log.warn("Cannot register MBean for the snapshot statistics of execution plan "
+                        + executionPlan.getName() + " of tenant " + tenantId, e);
+            }
+        }
+
+        private void unregisterMBean() {
+            if (mBeanName == null) {
+                return;
+            }
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(mBeanName);
+            } catch (Exception e) {
+                log.warn("Cannot unregister MBean " + mBeanName, e);
+            }
+            mBeanName = null;
+        }
+
+        @Override
+        public void run() {
+            String executionPlanName = executionPlan.getName();
+            try {
+                throttle();
+                if (cancelled) {
+                    return;
+                }
+                PersistenceStore persistenceStore = EventProcessorValueHolder.getPersistenceStore();
+                ExecutionPlanRuntime executionPlanRuntime = executionPlan.getExecutionPlanRuntime();
+                if (persistenceStore == null || executionPlanRuntime == null) {
+                    return;
+                }
+                PrivilegedCarbonContext.startTenantFlow();
+                try {
+                    PrivilegedCarbonContext.getThreadLocalCarbonContext().setTenantId(tenantId);
+                    long startTime = System.currentTimeMillis();
+                    byte[] snapshot = executionPlanRuntime.snapshot();
+                    long snapshotTime = System.currentTimeMillis();
+                    persistenceStore.save(executionPlanName, snapshotTime + "_" + executionPlanName, snapshot);
+                    long endTime = System.currentTimeMillis();
+                    recordWrite(startTime, snapshot.length);
+                    statistics.record(snapshotTime - startTime, endTime - startTime, snapshot.length);
+                    if (log.isDebugEnabled()) {
+                        log.debug("Persisted execution plan " + executionPlanName + " of tenant " + tenantId + ", "
+                                + snapshot.length + " bytes, paused for " + (snapshotTime - startTime)
+                                + " ms, written in " + (endTime - snapshotTime) + " ms");
+                    }
+                    if (endTime - startTime > interval) {
+                        log.warn("Persisting execution plan " + executionPlanName + " of tenant " + tenantId
+                                + " took " + (endTime - startTime) + " ms, longer than its snapshot interval of "
+                                + interval + " ms");
+                    }
+                } finally {
+                    PrivilegedCarbonContext.endTenantFlow();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Throwable t) {
+                // not thrown, as that would cancel the following snapshots of the execution plan
+                statistics.recordFailure();
+                log.error("Error while persisting execution plan " + executionPlanName + " of tenant " + tenantId
+                        + ", " + t.getMessage(), t);
+            }
+        }
+    }
+}
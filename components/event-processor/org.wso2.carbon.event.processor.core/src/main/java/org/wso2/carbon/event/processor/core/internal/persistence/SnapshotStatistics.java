@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wso2.carbon.event.processor.core.internal.persistence;
+
+/**
+ * Durations and sizes of the scheduled snapshots of an execution plan. Registered by the {@link SnapshotScheduler} as
+ * an MBean under org.wso2.carbon.event.processor:type=SnapshotStatistics with the tenant and execution plan name
+ * while the snapshots of the execution plan are scheduled.
+ */
+public class SnapshotStatistics implements SnapshotStatisticsMBean {
+    private volatile long snapshotCount;
+    private volatile long failureCount;
+    private volatile long lastPauseTime;
+    private volatile long lastDuration;
+    private volatile long maxDuration;
+    private volatile long lastSize;
+    private volatile long totalBytes;
+
+    synchronized void record(long pauseTime, long duration, long size) {
+        snapshotCount++;
+        lastPauseTime = pauseTime;
+        lastDuration = duration;
+        maxDuration = Math.max(maxDuration, duration);
+        lastSize = size;
+        totalBytes += size;
+    }
+
+    synchronized void recordFailure() {
+        failureCount++;
+    }
+
+    @Override
+    public long getSnapshotCount() {
+        return snapshotCount;
+    }
+
+    @Override
+    public long getFailureCount() {
+        return failureCount;
+    }
+
+    @Override
+    public long getLastPauseTime() {
+        return lastPauseTime;
+    }
+
+    @Override
+    public long getLastDuration() {
+        return lastDuration;
+    }
+
+    @Override
+    public long getMaxDuration() {
+        return maxDuration;
+    }
+
+    @Override
+    public long getLastSize() {
+        return lastSize;
+    }
+
+    @Override
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wso2.carbon.event.processor.core.internal.persistence;
+
+/**
+ * JMX view of the SnapshotStatistics of an execution plan.
+ */
+public interface SnapshotStatisticsMBean {
+
+    long getSnapshotCount();
+
+    long getFailureCount();
+
+    /**
+     * @return milliseconds the execution plan was paused for the last snapshot
+     */
+    long getLastPauseTime();
+
+    /**
+     * @return milliseconds taken to take and write the last snapshot
+     */
+    long getLastDuration();
+
+    long getMaxDuration();
+
+    /**
+     * @return size in bytes of the last snapshot, before compression by the persistence store
+     */
+    long getLastSize();
+
+    long getTotalBytes();
+}
@@ -19,6 +19,8 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.wso2.carbon.databridge.commons.StreamDefinition;
 import org.wso2.carbon.event.processor.common.util.AsyncEventPublisher;
+import org.wso2.carbon.event.processor.common.util.LatencyTrace;
+import org.wso2.carbon.event.processor.common.util.TransportConfiguration;
 import org.wso2.carbon.event.processor.core.ExecutionPlanConfiguration;
 import org.wso2.carbon.event.processor.core.internal.listener.AbstractSiddhiInputEventDispatcher;
 import org.wso2.carbon.event.processor.core.internal.util.EventProcessorUtil;
@@ -44,7 +46,12 @@ public class SiddhiStormInputEventDispatcher extends AbstractSiddhiInputEventDis
     private String logPrefix;
     private ExecutorService executorService = Executors.newSingleThreadExecutor();
     private AsyncEventPublisher asyncEventPublisher;
+    private int streamIndex = -1;
     private final ConnectionCallback connectionCallback;
+    /**
+     * Starts the latency traces of sampled events. Null when latency tracing is disabled.
+     */
+    private LatencyTrace.Sampler traceSampler;
 
     public SiddhiStormInputEventDispatcher(StreamDefinition streamDefinition, String siddhiStreamId,
                                            ExecutionPlanConfiguration executionPlanConfiguration, int tenantId,
@@ -62,7 +69,13 @@ public class SiddhiStormInputEventDispatcher extends AbstractSiddhiInputEventDis
         try {
             this.siddhiStreamDefinition = EventProcessorUtil.convertToSiddhiStreamDefinition(streamDefinition, siddhiStreamName);
             Set<org.wso2.siddhi.query.api.definition.StreamDefinition> streamDefinitions = new HashSet<>();
-            streamDefinitions.add(siddhiStreamDefinition);
+            double traceSampleRatio = TransportConfiguration.getLatencyTraceSampleRatio(executionPlanConfiguration.getName());
+            if (traceSampleRatio > 0.0) {
+                traceSampler = new LatencyTrace.Sampler(traceSampleRatio);
+                streamDefinitions.add(LatencyTrace.toTracedDefinition(siddhiStreamDefinition));
+            } else {
+                streamDefinitions.add(siddhiStreamDefinition);
+            }
 
             asyncEventPublisher = new AsyncEventPublisher(AsyncEventPublisher.DestinationType.STORM_RECEIVER,
                                                           streamDefinitions,
@@ -71,6 +84,7 @@ public class SiddhiStormInputEventDispatcher extends AbstractSiddhiInputEventDis
                                                           tenantId,
                                                           stormDeploymentConfig,
                                                           this.connectionCallback);
+            streamIndex = asyncEventPublisher.getStreamIndex(siddhiStreamDefinition.getId());
 
             asyncEventPublisher.initializeConnection(false);
         } catch (Exception e) {
@@ -80,12 +94,32 @@ public class SiddhiStormInputEventDispatcher extends AbstractSiddhiInputEventDis
 
     @Override
     public void sendEvent(Event event) throws InterruptedException {
-        asyncEventPublisher.sendEvent(event.getData(),event.getTimestamp(), this.siddhiStreamDefinition.getId());
+        Object[] data = event.getData();
+        if (traceSampler != null) {
+            data = LatencyTrace.appendTrace(data, traceSampler.sample() ? LatencyTrace.start("CEPReceiver") :
+                    LatencyTrace.NOT_SAMPLED);
+        }
+        if (streamIndex >= 0) {
+            asyncEventPublisher.sendEvent(data, event.getTimestamp(), streamIndex);
+        } else {
+            asyncEventPublisher.sendEvent(data, event.getTimestamp(), this.siddhiStreamDefinition.getId());
+        }
+    }
+
+    @Override
+    public void sendEvents(Event[] events) throws InterruptedException {
+        if (traceSampler != null) {
+            // Each event gets its own trace attribute
+            super.sendEvents(events);
+        } else {
+            asyncEventPublisher.sendEvents(events, streamIndex, this.siddhiStreamDefinition.getId());
+        }
     }
 
     @Override
     public void shutdown() {
         asyncEventPublisher.shutdown();
         executorService.shutdown();
+        super.shutdown();
     }
 }
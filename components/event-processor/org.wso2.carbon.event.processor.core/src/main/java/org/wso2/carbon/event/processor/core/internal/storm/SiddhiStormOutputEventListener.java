@@ -22,7 +22,10 @@ import org.apache.thrift.transport.TSocket;
 import org.apache.thrift.transport.TTransport;
 import org.wso2.carbon.databridge.commons.thrift.utils.HostAddressFinder;
 import org.wso2.carbon.event.processor.common.storm.manager.service.StormManagerService;
+import org.wso2.carbon.event.processor.common.util.LatencyTrace;
+import org.wso2.carbon.event.processor.common.util.LatencyTraceRecorder;
 import org.wso2.carbon.event.processor.common.util.ThroughputProbe;
+import org.wso2.carbon.event.processor.common.util.TransportConfiguration;
 import org.wso2.carbon.event.processor.core.ExecutionPlanConfiguration;
 import org.wso2.carbon.event.processor.core.internal.listener.SiddhiOutputStreamListener;
 import org.wso2.carbon.event.processor.manager.commons.transport.server.ConnectionCallback;
@@ -39,12 +42,19 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Receives events from the Event publisher bolt running on storm. There will be one SiddhiStormOutputEventListener instance
  * per execution plan per tenant (all exported streams of execution plan are handled form a single SiddhiStormOutputEventListener). When events are
  * received from storm, the event  will be directed to the relevant output stream listener depending on the stream to forward
  * the event to the relevant output adaptor for the stream.
+ * <p/>
+ * Received events are handed over to a dedicated dispatcher thread, which sends them to the output stream listeners in
+ * batches, so that the tenant flow is set up per batch instead of per event on the receiving threads. When the
+ * dispatcher falls behind, the receiving connections block on the bounded dispatch queue.
  */
 public class SiddhiStormOutputEventListener implements StreamCallback {
     private static final Logger log = Logger.getLogger(SiddhiStormOutputEventListener.class);
@@ -59,6 +69,14 @@ public class SiddhiStormOutputEventListener implements StreamCallback {
     private ExecutorService executorService = Executors.newSingleThreadExecutor();
     private int heartbeatInterval;
     private ThroughputProbe inputThroughputProbe;
+    /**
+     * Aggregates the latency traces of sampled events. Null when latency tracing is disabled.
+     */
+    private LatencyTraceRecorder traceRecorder;
+    private int dispatchBatchSize;
+    private DispatchQueue dispatchQueue;
+    private Thread dispatcherThread;
+    private volatile boolean shutdown = false;
 
     private final ConnectionCallback connectionCallback;
 
@@ -75,8 +93,19 @@ public class SiddhiStormOutputEventListener implements StreamCallback {
     private void init() {
         logPrefix = "[" + tenantId + ":" + executionPlanConfiguration.getName() + ":" + "CEPPublisher" + "] ";
         log.info(logPrefix + "Initializing storm output event listener");
-        inputThroughputProbe = new ThroughputProbe(logPrefix + "-Receive", 10);
+        inputThroughputProbe = new ThroughputProbe(tenantId, executionPlanConfiguration.getName(), "CEPPublisher",
+                "Receive", 10);
         inputThroughputProbe.startSampling();
+        if (TransportConfiguration.isLatencyTracingEnabled(executionPlanConfiguration.getName())) {
+            traceRecorder = new LatencyTraceRecorder(tenantId, executionPlanConfiguration.getName(), "CEPPublisher");
+        }
+        dispatchBatchSize = TransportConfiguration.getCEPPublisherDispatchBatchSize(executionPlanConfiguration.getName());
+        dispatchQueue = new DispatchQueue(TransportConfiguration.getCEPPublisherDispatchQueueSize(
+                executionPlanConfiguration.getName()));
+        dispatcherThread = new Thread(new Dispatcher(), "SiddhiStormOutputEventListener-Dispatcher-" + tenantId + ":"
+                + executionPlanConfiguration.getName());
+        dispatcherThread.setDaemon(true);
+        dispatcherThread.start();
         try {
             thisHostIp = HostAddressFinder.findAddress("localhost");
             listeningPort = findPort(thisHostIp);
@@ -93,15 +122,35 @@ public class SiddhiStormOutputEventListener implements StreamCallback {
     public void registerOutputStreamListener(StreamDefinition siddhiStreamDefinition, SiddhiOutputStreamListener outputStreamListener) {
         log.info(logPrefix + "Registering output stream listener for Siddhi stream : " + siddhiStreamDefinition.getId());
         streamNameToOutputStreamListenerMap.put(siddhiStreamDefinition.getId(), outputStreamListener);
-        tcpEventServer.addStreamDefinition(siddhiStreamDefinition);
+        tcpEventServer.addStreamDefinition((traceRecorder != null) ? LatencyTrace.toTracedDefinition(siddhiStreamDefinition)
+                : siddhiStreamDefinition);
     }
 
     @Override
     public void receive(String streamId, long timestamp, Object[] eventData) {
+        if (traceRecorder != null) {
+            String trace = LatencyTrace.getTrace(eventData);
+            eventData = LatencyTrace.removeTrace(eventData);
+            if (LatencyTrace.isSampled(trace)) {
+                traceRecorder.record(LatencyTrace.addHop(trace, "CEPPublisher"));
+            }
+        }
         SiddhiOutputStreamListener outputStreamListener = streamNameToOutputStreamListenerMap.get(streamId);
         if (outputStreamListener != null) {
-            outputStreamListener.sendEvent(new Event(timestamp, eventData));
-            inputThroughputProbe.update();
+            Event event = new Event(timestamp, eventData);
+            try {
+                while (!dispatchQueue.offer(outputStreamListener, event, 1, TimeUnit.SECONDS)) {
+                    if (shutdown) {
+                        log.warn(logPrefix + "Output event listener shut down. Discarding Event:" + streamId + ":"
+                                + Arrays.deepToString(eventData) + "@" + timestamp);
+                        return;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                log.warn(logPrefix + "Interrupted while dispatching. Discarding Event:" + streamId + ":"
+                        + Arrays.deepToString(eventData) + "@" + timestamp);
+            }
         } else {
             log.warn("Cannot find output event listener for stream " + streamId + " in execution plan " + executionPlanConfiguration.getName()
                     + " of tenant " + tenantId + ". Discarding Event:" + streamId +
@@ -120,7 +169,144 @@ public class SiddhiStormOutputEventListener implements StreamCallback {
 
     public void shutdown() {
         executorService.shutdown();
+        inputThroughputProbe.stopSampling();
+        if (traceRecorder != null) {
+            traceRecorder.close();
+        }
         tcpEventServer.shutdown();
+        shutdown = true;
+        dispatcherThread.interrupt();
+    }
+
+    /**
+     * Sends the received events to their output stream listeners, with consecutive events of the same stream in a
+     * single batch.
+     */
+    class Dispatcher implements Runnable {
+
+        private final SiddhiOutputStreamListener[] batchListeners = new SiddhiOutputStreamListener[dispatchBatchSize];
+        private final Event[] batchEvents = new Event[dispatchBatchSize];
+
+        @Override
+        public void run() {
+            try {
+                while (!shutdown) {
+                    dispatch(dispatchQueue.drainTo(batchListeners, batchEvents, true));
+                }
+            } catch (InterruptedException e) {
+                // Events accepted before the shutdown are still delivered
+                try {
+                    int count;
+                    while ((count = dispatchQueue.drainTo(batchListeners, batchEvents, false)) > 0) {
+                        dispatch(count);
+                    }
+                } catch (InterruptedException e1) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        private void dispatch(int count) {
+            int start = 0;
+            while (start < count) {
+                SiddhiOutputStreamListener outputStreamListener = batchListeners[start];
+                int end = start + 1;
+                while (end < count && batchListeners[end] == outputStreamListener) {
+                    end++;
+                }
+                Event[] events = Arrays.copyOfRange(batchEvents, start, end);
+                try {
+                    outputStreamListener.sendEvents(events);
+                    inputThroughputProbe.update(events.length);
+                } catch (Throwable e) {
+                    log.error(logPrefix + "Error while dispatching events to output stream listener of stream "
+                            + outputStreamListener.getStreamId(), e);
+                }
+                start = end;
+            }
+            Arrays.fill(batchListeners, 0, count, null);
+            Arrays.fill(batchEvents, 0, count, null);
+        }
+    }
+
+    /**
+     * Bounded queue of received events and their output stream listeners, held in parallel arrays so that no holder
+     * object is allocated per event.
+     */
+    private static class DispatchQueue {
+        private final SiddhiOutputStreamListener[] listeners;
+        private final Event[] events;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition notEmpty = lock.newCondition();
+        private final Condition notFull = lock.newCondition();
+        private int takeIndex = 0;
+        private int putIndex = 0;
+        private int count = 0;
+
+        private DispatchQueue(int capacity) {
+            this.listeners = new SiddhiOutputStreamListener[capacity];
+            this.events = new Event[capacity];
+        }
+
+        /**
+         * @return false if the queue is still full after the given timeout
+         */
+        private boolean offer(SiddhiOutputStreamListener listener, Event event, long timeout, TimeUnit unit)
+                throws InterruptedException {
+            long nanos = unit.toNanos(timeout);
+            lock.lockInterruptibly();
+            try {
+                while (count == events.length) {
+                    if (nanos <= 0) {
+                        return false;
+                    }
+                    nanos = notFull.awaitNanos(nanos);
+                }
+                listeners[putIndex] = listener;
+                events[putIndex] = event;
+                if (++putIndex == events.length) {
+                    putIndex = 0;
+                }
+                count++;
+                notEmpty.signal();
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Moves up to the length of the given arrays of queued events into them, waiting for an event first if the
+         * queue is empty and wait is set.
+         *
+         * @return number of events moved
+         */
+        private int drainTo(SiddhiOutputStreamListener[] toListeners, Event[] toEvents, boolean wait)
+                throws InterruptedException {
+            lock.lockInterruptibly();
+            try {
+                while (wait && count == 0) {
+                    notEmpty.await();
+                }
+                int drained = Math.min(count, toEvents.length);
+                for (int i = 0; i < drained; i++) {
+                    toListeners[i] = listeners[takeIndex];
+                    toEvents[i] = events[takeIndex];
+                    listeners[takeIndex] = null;
+                    events[takeIndex] = null;
+                    if (++takeIndex == events.length) {
+                        takeIndex = 0;
+                    }
+                }
+                count -= drained;
+                if (drained > 0) {
+                    notFull.signalAll();
+                }
+                return drained;
+            } finally {
+                lock.unlock();
+            }
+        }
     }
 
 
@@ -36,6 +36,18 @@ public class SiddhiQLStormQuerySplitter extends SiddhiQLBaseVisitor {
 
 
     public static List<String> split(String source) {
+        return split(parse(source));
+    }
+
+    public static List<String> getEventTableList(String source) {
+        return getEventTableList(parse(source));
+    }
+
+    /**
+     * Parses the given source once, so that the parse tree can be used for both {@link #split(ParseTree)} and
+     * {@link #getEventTableList(ParseTree)}.
+     */
+    public static ParseTree parse(String source) {
         ANTLRInputStream input = new ANTLRInputStream(source);
         SiddhiQLLexer lexer = new SiddhiQLLexer(input);
         lexer.removeErrorListeners();
@@ -45,27 +57,16 @@ public class SiddhiQLStormQuerySplitter extends SiddhiQLBaseVisitor {
         SiddhiQLParser parser = new SiddhiQLParser(tokens);
         parser.removeErrorListeners();
         parser.addErrorListener(SiddhiErrorListener.INSTANCE);
-        ParseTree tree = parser.parse();
+        return parser.parse();
+    }
 
+    public static List<String> split(ParseTree tree) {
         SiddhiQLVisitor eval = new SiddhiQLStormQuerySplitter();
         List<String> queryList = (List<String>) eval.visit(tree);
         return queryList;
     }
 
-
-
-    public static List<String> getEventTableList(String source) {
-        ANTLRInputStream input = new ANTLRInputStream(source);
-        SiddhiQLLexer lexer = new SiddhiQLLexer(input);
-        lexer.removeErrorListeners();
-        lexer.addErrorListener(SiddhiErrorListener.INSTANCE);
-
-        CommonTokenStream tokens = new CommonTokenStream(lexer);
-        SiddhiQLParser parser = new SiddhiQLParser(tokens);
-        parser.removeErrorListeners();
-        parser.addErrorListener(SiddhiErrorListener.INSTANCE);
-        ParseTree tree = parser.parse();
-
+    public static List<String> getEventTableList(ParseTree tree) {
         SiddhiQLVisitor eval = new SiddhiQLStormQuerySplitter();
         List<String> eventTableList = new ArrayList<>();
         SiddhiQLParser.Execution_planContext ctx = (((SiddhiQLParser.ParseContext)tree).execution_plan());
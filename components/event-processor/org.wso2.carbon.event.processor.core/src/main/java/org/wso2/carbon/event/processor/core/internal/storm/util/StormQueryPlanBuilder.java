@@ -20,9 +20,9 @@ import org.w3c.dom.Element;
 import org.wso2.carbon.event.processor.core.ExecutionPlanConfiguration;
 import org.wso2.carbon.event.processor.core.exception.StormQueryConstructionException;
 import org.wso2.carbon.event.processor.core.internal.ds.EventProcessorValueHolder;
-import org.wso2.carbon.event.processor.core.internal.storm.compiler.SiddhiQLStormQuerySplitter;
 import org.wso2.carbon.event.processor.core.internal.util.EventProcessorConstants;
 import org.wso2.carbon.event.processor.core.internal.util.EventProcessorUtil;
+import org.wso2.carbon.event.processor.core.internal.util.ParsedExecutionPlan;
 import org.wso2.carbon.event.stream.core.exception.EventStreamConfigurationException;
 import org.wso2.siddhi.core.ExecutionPlanRuntime;
 import org.wso2.siddhi.query.api.ExecutionPlan;
@@ -67,9 +67,10 @@ public class StormQueryPlanBuilder {
             List<Element> processorElements;
             Element publisherElement;
 
-            receiverElement = constructReceiverElement(document, configuration.getExecutionPlan(), importStreams);
-            publisherElement = constructPublisherElement(document, configuration.getExecutionPlan(), exportStreams);
-            processorElements = constructProcessorElement(document, configuration.getExecutionPlan(), importStreams,
+            ParsedExecutionPlan parsedExecutionPlan = ParsedExecutionPlan.parse(configuration.getExecutionPlan());
+            receiverElement = constructReceiverElement(document, parsedExecutionPlan, importStreams);
+            publisherElement = constructPublisherElement(document, parsedExecutionPlan, exportStreams);
+            processorElements = constructProcessorElement(document, parsedExecutionPlan, importStreams,
                     exportStreams);
 
             rootElement.appendChild(receiverElement);
@@ -94,15 +95,16 @@ public class StormQueryPlanBuilder {
      * Create receiver element. Assume that imported streams contains all the receiver elements.
      *
      * @param document
-     * @param queryExpressions
+     * @param parsedExecutionPlan
      * @param importedStreams  @return
      * @throws EventStreamConfigurationException
      */
-    private static Element constructReceiverElement(Document document, String queryExpressions, List<String> importedStreams)
+    private static Element constructReceiverElement(Document document, ParsedExecutionPlan parsedExecutionPlan,
+                                                    List<String> importedStreams)
             throws EventStreamConfigurationException {
         Element receiverElement = document.createElement(EventProcessorConstants.EVENT_RECEIVER);
         receiverElement.setAttribute(EventProcessorConstants.NAME, EventProcessorConstants.EVENT_RECEIVER_SPOUT);
-        ExecutionPlan executionPlan = SiddhiCompiler.parse(queryExpressions);
+        ExecutionPlan executionPlan = parsedExecutionPlan.getExecutionPlan();
         receiverElement.setAttribute(EventProcessorConstants.PARALLEL, String.valueOf(getParallelism(executionPlan.getAnnotations(),
                 EventProcessorConstants.RECEIVER_PARALLELISM)));
         Element streams = document.createElement(EventProcessorConstants.STREAMS);
@@ -121,13 +123,14 @@ public class StormQueryPlanBuilder {
      * @return
      * @throws EventStreamConfigurationException
      */
-    private static Element constructPublisherElement(Document document, String queryExpressions, List<String> exportedStreams)
+    private static Element constructPublisherElement(Document document, ParsedExecutionPlan parsedExecutionPlan,
+                                                     List<String> exportedStreams)
             throws EventStreamConfigurationException {
         Element publisherElement = document.createElement(EventProcessorConstants.EVENT_PUBLISHER);
         Element publisherInputStream = document.createElement(EventProcessorConstants.INPUT_STREAMS);
         Element publisherOutputStream = document.createElement(EventProcessorConstants.OUTPUT_STREAMS);
         publisherElement.setAttribute(EventProcessorConstants.NAME, EventProcessorConstants.EVENT_PUBLISHER_BOLT);
-        ExecutionPlan executionPlan = SiddhiCompiler.parse(queryExpressions);
+        ExecutionPlan executionPlan = parsedExecutionPlan.getExecutionPlan();
         publisherElement.setAttribute(EventProcessorConstants.PARALLEL, String.valueOf(getParallelism(executionPlan.getAnnotations(),
                 EventProcessorConstants.PUBLISHER_PARALLELISM)));
         for (String definition : exportedStreams) {
@@ -146,21 +149,22 @@ public class StormQueryPlanBuilder {
      * in the query string. queryList is used to get the map between query object and query string.
      *
      * @param document
-     * @param queryExpressions user provided query string
+     * @param parsedExecutionPlan user provided query string, parsed
      * @return
      */
-    private static List<Element> constructProcessorElement(Document document, String queryExpressions,
+    private static List<Element> constructProcessorElement(Document document, ParsedExecutionPlan parsedExecutionPlan,
                                                            List<String> importedStreams, List<String> exportedStreams)
             throws SiddhiParserException, StormQueryConstructionException {
 
-        ExecutionPlanRuntime executionPlanRuntime = EventProcessorValueHolder.getSiddhiManager().createExecutionPlanRuntime(queryExpressions);
+        ExecutionPlan executionPlan = parsedExecutionPlan.getExecutionPlan();
+        ExecutionPlanRuntime executionPlanRuntime = EventProcessorValueHolder.getSiddhiManager().createExecutionPlanRuntime(
+                parsedExecutionPlan.newExecutionPlan());
         Map<String, AbstractDefinition> streamDefinitionMap = executionPlanRuntime.getStreamDefinitionMap();
         executionPlanRuntime.shutdown();
 
         List<Element> processorElementList = new ArrayList<Element>();
-        List<String> stringQueryList = SiddhiQLStormQuerySplitter.split(queryExpressions);
-        List<String> eventTableDefinitionList = SiddhiQLStormQuerySplitter.getEventTableList(queryExpressions);
-        ExecutionPlan executionPlan = SiddhiCompiler.parse(queryExpressions);
+        List<String> stringQueryList = parsedExecutionPlan.getQueryList();
+        List<String> eventTableDefinitionList = parsedExecutionPlan.getEventTableList();
         List<ExecutionElement> executionElements = executionPlan.getExecutionElementList();
         Set<String> eventTableIdSet = executionPlan.getTableDefinitionMap().keySet();
         Map<String, QueryGroupInfoHolder> groupIdToQueryMap = getGroupIdToQueryMap(eventTableIdSet, executionElements,
@@ -100,6 +100,36 @@ public class EventProcessorConfigurationFilesystemInvoker {
         }
     }
 
+    /**
+     * Replaces the content of a deployed execution plan file without redeploying it, for execution plans whose
+     * runtime is swapped in place. The deployer skips the undeployment and deployment of the file on hot update.
+     */
+    public static void overwrite(String executionPlan, String executionPlanName, String fileName)
+            throws ExecutionPlanConfigurationException {
+        EventProcessorDeployer eventProcessorDeployer = (EventProcessorDeployer) getDeployer(EventProcessorConstants.EP_ELE_DIRECTORY);
+        String filePath = getFilePathFromFilename(fileName);
+        eventProcessorDeployer.getUnDeployedExecutionPlanFilePaths().add(filePath);
+        eventProcessorDeployer.getDeployedExecutionPlanFilePaths().add(filePath);
+        try {
+            OutputStreamWriter writer = null;
+            try {
+                writer = new OutputStreamWriter(new FileOutputStream(new File(filePath)), "UTF-8");
+                writer.write(executionPlan);
+                log.info("Execution plan configuration for " + executionPlanName + " updated in the filesystem");
+            } finally {
+                if (writer != null) {
+                    writer.flush();
+                    writer.close();
+                }
+            }
+        } catch (IOException e) {
+            eventProcessorDeployer.getUnDeployedExecutionPlanFilePaths().remove(filePath);
+            eventProcessorDeployer.getDeployedExecutionPlanFilePaths().remove(filePath);
+            log.error("Error while updating " + executionPlanName, e);
+            throw new ExecutionPlanConfigurationException("Error while updating ", e);
+        }
+    }
+
     public static void delete(String fileName)
             throws ExecutionPlanConfigurationException {
         try {
@@ -60,6 +60,10 @@ public interface EventProcessorConstants {
 
     String SIDDHI_DISTRIBUTED_PROCESSING = "siddhi.enable.distributed.processing";
     String SIDDHI_SNAPSHOT_INTERVAL = "siddhi.persistence.snapshot.time.interval.minutes";
+    String EXECUTION_PLAN_DEPLOYMENT_PARALLELISM = "cep.execution.plan.deployment.parallelism";
+    String EXECUTION_PLAN_PARSE_CACHE_SIZE = "cep.execution.plan.parse.cache.size";
+    String SNAPSHOT_BANDWIDTH_LIMIT = "cep.snapshot.bandwidth.limit";
+    String SNAPSHOT_INTERVAL = "cep.snapshot.interval";
     String EP_CONFIG_FILE_EXTENSION_WITH_DOT = ".siddhiql";
 
     String META = "meta";
@@ -108,6 +112,8 @@ public interface EventProcessorConstants {
     String ANNOTATION_NAME_DESCRIPTION = "description";
     String ANNOTATION_NAME_TRACE = "trace";
     String ANNOTATION_NAME_STATISTICS = "statistics";
+    String ANNOTATION_NAME_PERSIST = "persist";
+    String ANNOTATION_ELEMENT_INTERVAL = "interval";
 
     String ANNOTATION_TOKEN_AT = "@";
     String ANNOTATION_TOKEN_COLON = ":";
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wso2.carbon.event.processor.core.internal.util;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.event.statistics.EventStatisticsMonitor;
+
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts requests and responses of an EventStatisticsMonitor by batch. The counts are handed over to the monitor by a
+ * shared background thread every second instead of on the event processing threads. Counts are flushed one last time
+ * when the counter is closed, or, if it is never closed, once it is no longer referenced.
+ * <p/>
+ * EventStatisticsMonitor has no bulk increment, so the flush still calls the monitor once per event. This only moves
+ * that cost off the event processing threads, it does not reduce it.
+ */
+public class EventStatisticsCounter {
+    private static final Log log = LogFactory.getLog(EventStatisticsCounter.class);
+    private static final long FLUSH_INTERVAL_MS = 1000;
+
+    private static final ConcurrentLinkedQueue<Counts> registeredCounts = new ConcurrentLinkedQueue<Counts>();
+    private static final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "EventStatisticsCounter-Flusher");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    static {
+        flusher.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                Iterator<Counts> iterator = registeredCounts.iterator();
+                while (iterator.hasNext()) {
+                    Counts counts = iterator.next();
+                    // Checked before flushing, so that the last counts of a released counter are not lost
+                    boolean released = counts.owner.get() == null;
+                    try {
+                        counts.flush();
+                    } catch (Throwable e) {
+                        log.error("Error while updating event statistics", e);
+                    }
+                    if (released) {
+                        iterator.remove();
+                    }
+                }
+            }
+        }, FLUSH_INTERVAL_MS, FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private final Counts counts;
+
+    public EventStatisticsCounter(EventStatisticsMonitor statisticsMonitor) {
+        this.counts = new Counts(statisticsMonitor, this);
+        registeredCounts.add(counts);
+    }
+
+    public void incrementRequest(int eventCount) {
+        counts.requests.addAndGet(eventCount);
+    }
+
+    public void incrementResponse(int eventCount) {
+        counts.responses.addAndGet(eventCount);
+    }
+
+    /**
+     * Hands the remaining counts over to the monitor and unregisters the counter from the flusher. Called when the
+     * owning dispatcher or listener is shut down.
+     */
+    public void close() {
+        registeredCounts.remove(counts);
+        counts.flush();
+    }
+
+    /**
+     * Held by the flusher, which must not keep the counter itself reachable.
+     */
+    private static class Counts {
+        private final EventStatisticsMonitor statisticsMonitor;
+        private final WeakReference<EventStatisticsCounter> owner;
+        private final AtomicLong requests = new AtomicLong(0);
+        private final AtomicLong responses = new AtomicLong(0);
+
+        private Counts(EventStatisticsMonitor statisticsMonitor, EventStatisticsCounter owner) {
+            this.statisticsMonitor = statisticsMonitor;
+            this.owner = new WeakReference<EventStatisticsCounter>(owner);
+        }
+
+        /**
+         * Calls the monitor once per counted event, as it can only be incremented by one.
+         */
+        private void flush() {
+            for (long i = requests.getAndSet(0); i > 0; i--) {
+                statisticsMonitor.incrementRequest();
+            }
+            for (long i = responses.getAndSet(0); i > 0; i--) {
+                statisticsMonitor.incrementResponse();
+            }
+        }
+    }
+}
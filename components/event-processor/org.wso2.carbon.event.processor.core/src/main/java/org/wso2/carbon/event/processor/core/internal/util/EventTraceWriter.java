@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wso2.carbon.event.processor.core.internal.util;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.log4j.Logger;
+import org.wso2.siddhi.core.event.Event;
+
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes event traces to the event trace logger from a shared background thread, so that events are formatted off
+ * the event processing threads. Only one in every 1/ratio batches is traced, as configured by the system property
+ * "cep.event.trace.sample.ratio" (1 by default, i.e. all). Traces wait in a queue bounded by the approximate heap
+ * size of the traced events, set in bytes by "cep.event.trace.queue.max.bytes" (16 MB by default); traces which do
+ * not fit are dropped and counted.
+ */
+public class EventTraceWriter {
+    private static final Log log = LogFactory.getLog(EventTraceWriter.class);
+    private static final Logger trace = Logger.getLogger(EventProcessorConstants.EVENT_TRACE_LOGGER);
+
+    public static final String TRACE_SAMPLE_RATIO = "cep.event.trace.sample.ratio";
+    public static final String TRACE_QUEUE_MAX_BYTES = "cep.event.trace.queue.max.bytes";
+    private static final long DEFAULT_TRACE_QUEUE_MAX_BYTES = 16 * 1024 * 1024;
+    private static final long DROP_LOG_INTERVAL_MS = 10000;
+
+    /**
+     * Approximate heap sizes used to estimate the size of a trace: an event with its data array, a reference to an
+     * attribute value, a boxed value and a string without its characters.
+     */
+    private static final int EVENT_SIZE = 48;
+    private static final int REFERENCE_SIZE = 8;
+    private static final int BOXED_VALUE_SIZE = 24;
+    private static final int STRING_SIZE = 40;
+
+    private static final long queueMaxBytes = getQueueMaxBytes();
+    private static final BlockingQueue<TraceEntry> traceQueue = new LinkedBlockingQueue<TraceEntry>();
+    private static final AtomicLong queuedBytes = new AtomicLong(0);
+    private static final AtomicLong droppedTraceCount = new AtomicLong(0);
+
+    static {
+        Thread writerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long lastDropLogTime = 0;
+                while (true) {
+                    try {
+                        TraceEntry entry = traceQueue.take();
+                        queuedBytes.addAndGet(-entry.size);
+                        trace.info(entry.tracerPrefix + ((entry.events != null) ? Arrays.deepToString(entry.events) :
+                                entry.event));
+                        long currentTime = System.currentTimeMillis();
+                        if (currentTime - lastDropLogTime >= DROP_LOG_INTERVAL_MS) {
+                            long dropped = droppedTraceCount.getAndSet(0);
+                            if (dropped > 0) {
+                                log.warn(dropped + " event traces dropped since the trace queue was over its limit of "
+                                        + queueMaxBytes + " bytes");
+                            }
+                            lastDropLogTime = currentTime;
+                        }
+                    } catch (InterruptedException e) {
+                        return;
+                    } catch (Throwable e) {
+                        log.error("Error while writing event trace", e);
+                    }
+                }
+            }
+        }, "EventTraceWriter");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    private final String tracerPrefix;
+    private final long sampleInterval;
+    private long count = 0;
+
+    public EventTraceWriter(String tracerPrefix) {
+        this.tracerPrefix = tracerPrefix;
+        this.sampleInterval = getSampleInterval();
+    }
+
+    public void trace(Event[] events) {
+        if (sample()) {
+            Event[] copies = new Event[events.length];
+            long size = 0;
+            for (int i = 0; i < events.length; i++) {
+                copies[i] = copy(events[i]);
+                size += sizeOf(copies[i]);
+            }
+            enqueue(new TraceEntry(tracerPrefix, copies, null, size));
+        }
+    }
+
+    public void trace(Event event) {
+        if (sample()) {
+            Event copy = copy(event);
+            enqueue(new TraceEntry(tracerPrefix, null, copy, sizeOf(copy)));
+        }
+    }
+
+    /**
+     * Not thread safe; concurrent callers only skew the sampling interval.
+     */
+    private boolean sample() {
+        if (++count >= sampleInterval) {
+            count = 0;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Events may be re-used by the caller once this returns, hence the trace holds a copy of each event and of its
+     * data array. The attribute values themselves are shared, being immutable.
+     */
+    private static Event copy(Event event) {
+        Object[] data = event.getData();
+        Event copy = new Event(event.getTimestamp(), (data != null) ? data.clone() : null);
+        copy.setIsExpired(event.isExpired());
+        return copy;
+    }
+
+    private static long sizeOf(Event event) {
+        long size = EVENT_SIZE;
+        Object[] data = event.getData();
+        if (data != null) {
+            for (Object value : data) {
+                size += REFERENCE_SIZE;
+                if (value instanceof String) {
+                    size += STRING_SIZE + 2 * ((String) value).length();
+                } else if (value != null) {
+                    size += BOXED_VALUE_SIZE;
+                }
+            }
+        }
+        return size;
+    }
+
+    private static void enqueue(TraceEntry entry) {
+        if (queuedBytes.addAndGet(entry.size) > queueMaxBytes) {
+            queuedBytes.addAndGet(-entry.size);
+            droppedTraceCount.incrementAndGet();
+            return;
+        }
+        traceQueue.offer(entry);
+    }
+
+    private static long getSampleInterval() {
+        String value = System.getProperty(TRACE_SAMPLE_RATIO);
+        if (value == null || value.trim().isEmpty()) {
+            return 1;
+        }
+        try {
+            double ratio = Double.parseDouble(value.trim());
+            return (ratio > 0.0) ? Math.max(1, Math.round(1.0 / ratio)) : Long.MAX_VALUE;
+        } catch (NumberFormatException e) {
+            log.warn("Invalid value '" + value + "' for " + TRACE_SAMPLE_RATIO + ", tracing all events");
+            return 1;
+        }
+    }
+
+    private static long getQueueMaxBytes() {
+        String value = System.getProperty(TRACE_QUEUE_MAX_BYTES);
+        if (value == null || value.trim().isEmpty()) {
+            return DEFAULT_TRACE_QUEUE_MAX_BYTES;
+        }
+        try {
+            return Math.max(1, Long.parseLong(value.trim()));
+        } catch (NumberFormatException e) {
+            log.warn("Invalid value '" + value + "' for " + TRACE_QUEUE_MAX_BYTES + ", using default "
+                    + DEFAULT_TRACE_QUEUE_MAX_BYTES);
+            return DEFAULT_TRACE_QUEUE_MAX_BYTES;
+        }
+    }
+
+    private static class TraceEntry {
+        private final String tracerPrefix;
+        private final Event[] events;
+        private final Event event;
+        private final long size;
+
+        private TraceEntry(String tracerPrefix, Event[] events, Event event, long size) {
+            this.tracerPrefix = tracerPrefix;
+            this.events = events;
+            this.event = event;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wso2.carbon.event.processor.core.internal.util;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.event.processor.core.internal.CompiledExecutionPlan;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+
+/**
+ * Orders execution plans deployed together by their stream dependencies. An execution plan which exports a stream
+ * imported by another execution plan is started after that execution plan, so that no events are produced into a
+ * stream before the execution plans consuming it are subscribed to it. Execution plans without dependencies between
+ * them keep their given order.
+ */
+public class ExecutionPlanStartOrder {
+    private static final Log log = LogFactory.getLog(ExecutionPlanStartOrder.class);
+
+    private ExecutionPlanStartOrder() {
+    }
+
+    public static List<CompiledExecutionPlan> getStartOrder(List<CompiledExecutionPlan> executionPlans) {
+        Map<String, List<CompiledExecutionPlan>> streamIdToProducers = new HashMap<String, List<CompiledExecutionPlan>>();
+        for (CompiledExecutionPlan executionPlan : executionPlans) {
+            for (String streamId : executionPlan.getExportedStreamIds()) {
+                List<CompiledExecutionPlan> producers = streamIdToProducers.get(streamId);
+                if (producers == null) {
+                    producers = new ArrayList<CompiledExecutionPlan>();
+                    streamIdToProducers.put(streamId, producers);
+                }
+                producers.add(executionPlan);
+            }
+        }
+
+        // producer -> consumers which must be started before it
+        Map<CompiledExecutionPlan, Set<CompiledExecutionPlan>> pendingConsumers =
+                new HashMap<CompiledExecutionPlan, Set<CompiledExecutionPlan>>();
+        Map<CompiledExecutionPlan, Set<CompiledExecutionPlan>> producersOf =
+                new HashMap<CompiledExecutionPlan, Set<CompiledExecutionPlan>>();
+        for (CompiledExecutionPlan executionPlan : executionPlans) {
+            pendingConsumers.put(executionPlan, new HashSet<CompiledExecutionPlan>());
+        }
+        for (CompiledExecutionPlan consumer : executionPlans) {
+            Set<CompiledExecutionPlan> producers = new LinkedHashSet<CompiledExecutionPlan>();
+            for (String streamId : consumer.getImportedStreamIds()) {
+                List<CompiledExecutionPlan> streamProducers = streamIdToProducers.get(streamId);
+                if (streamProducers != null) {
+                    for (CompiledExecutionPlan producer : streamProducers) {
+                        if (producer != consumer) {
+                            producers.add(producer);
+                            pendingConsumers.get(producer).add(consumer);
+                        }
+                    }
+                }
+            }
+            producersOf.put(consumer, producers);
+        }
+
+        List<CompiledExecutionPlan> startOrder = new ArrayList<CompiledExecutionPlan>(executionPlans.size());
+        Queue<CompiledExecutionPlan> ready = new ArrayDeque<CompiledExecutionPlan>();
+        for (CompiledExecutionPlan executionPlan : executionPlans) {
+            if (pendingConsumers.get(executionPlan).isEmpty()) {
+                ready.add(executionPlan);
+            }
+        }
+        Set<CompiledExecutionPlan> ordered = new HashSet<CompiledExecutionPlan>();
+        while (!ready.isEmpty()) {
+            CompiledExecutionPlan executionPlan = ready.poll();
+            startOrder.add(executionPlan);
+            ordered.add(executionPlan);
+            for (CompiledExecutionPlan producer : producersOf.get(executionPlan)) {
+                Set<CompiledExecutionPlan> consumers = pendingConsumers.get(producer);
+                consumers.remove(executionPlan);
+                if (consumers.isEmpty() && !ordered.contains(producer) && !ready.contains(producer)) {
+                    ready.add(producer);
+                }
+            }
+        }
+
+        if (startOrder.size() < executionPlans.size()) {
+            for (CompiledExecutionPlan executionPlan : executionPlans) {
+                if (!ordered.contains(executionPlan)) {
+                    log.warn("Execution plan " + executionPlan.getName() + " has a cyclic stream dependency with " +
+                            "other execution plans, hence it is started without ordering");
+                    startOrder.add(executionPlan);
+                }
+            }
+        }
+        return startOrder;
+    }
+}
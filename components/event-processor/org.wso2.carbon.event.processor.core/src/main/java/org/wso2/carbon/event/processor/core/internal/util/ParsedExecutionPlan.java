@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wso2.carbon.event.processor.core.internal.util;
+
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.event.processor.core.internal.storm.compiler.SiddhiQLStormQuerySplitter;
+import org.wso2.siddhi.query.api.ExecutionPlan;
+import org.wso2.siddhi.query.api.annotation.Element;
+import org.wso2.siddhi.query.api.util.AnnotationHelper;
+import org.wso2.siddhi.query.compiler.SiddhiCompiler;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An execution plan parsed once for validation, annotation extraction and Storm query planning. Parsed execution plans
+ * are cached by their text, so that the steps of deploying an execution plan, which get the execution plan as text,
+ * do not parse it again. The number of cached execution plans is set by the system property
+ * "cep.execution.plan.parse.cache.size" (100 by default, 0 disables the cache).
+ * <p/>
+ * The parsed execution plan is shared by all users of the same text, hence it must not be modified. Execution plan
+ * runtimes are created from a copy, see {@link #newExecutionPlan()}.
+ */
+public class ParsedExecutionPlan {
+    private static final Log log = LogFactory.getLog(ParsedExecutionPlan.class);
+    private static final int DEFAULT_CACHE_SIZE = 100;
+
+    private static final int cacheSize = getCacheSize();
+    private static final Map<String, ParsedExecutionPlan> cache = Collections.synchronizedMap(
+            new LinkedHashMap<String, ParsedExecutionPlan>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, ParsedExecutionPlan> eldest) {
+                    return size() > cacheSize;
+                }
+            });
+
+    private final String executionPlanText;
+    private final ExecutionPlan executionPlan;
+    private List<String> queryList;
+    private List<String> eventTableList;
+
+    private ParsedExecutionPlan(String executionPlanText, ExecutionPlan executionPlan) {
+        this.executionPlanText = executionPlanText;
+        this.executionPlan = executionPlan;
+    }
+
+    /**
+     * @param executionPlanText SiddhiQL text of the execution plan
+     * @return the parsed execution plan, from the cache if the same text was parsed before
+     * @throws org.wso2.siddhi.query.compiler.exception.SiddhiParserException if the text cannot be parsed
+     */
+    public static ParsedExecutionPlan parse(String executionPlanText) {
+        if (cacheSize <= 0) {
+            return new ParsedExecutionPlan(executionPlanText, SiddhiCompiler.parse(executionPlanText));
+        }
+        ParsedExecutionPlan parsedExecutionPlan = cache.get(executionPlanText);
+        if (parsedExecutionPlan == null) {
+            parsedExecutionPlan = new ParsedExecutionPlan(executionPlanText, SiddhiCompiler.parse(executionPlanText));
+            cache.put(executionPlanText, parsedExecutionPlan);
+        }
+        return parsedExecutionPlan;
+    }
+
+    public String getExecutionPlanText() {
+        return executionPlanText;
+    }
+
+    public ExecutionPlan getExecutionPlan() {
+        return executionPlan;
+    }
+
+    /**
+     * Siddhi is not known to leave the execution plan it creates a runtime from untouched, and runtimes of the same
+     * text may be created concurrently, hence each runtime is created from its own copy.
+     *
+     * @return the execution plan parsed again, to create an execution plan runtime from
+     */
+    public ExecutionPlan newExecutionPlan() {
+        return SiddhiCompiler.parse(executionPlanText);
+    }
+
+    /**
+     * @return value of the given @Plan annotation element, or null if not given
+     */
+    public String getPlanAnnotationValue(String elementName) {
+        return getPlanAnnotationValue(elementName, null);
+    }
+
+    /**
+     * @return value of the given element of a @Plan annotation with elements, e.g. @Plan:persist(interval='5 min'),
+     * or null if not given
+     */
+    public String getPlanAnnotationValue(String annotationName, String elementName) {
+        Element element = AnnotationHelper.getAnnotationElement(annotationName, elementName,
+                executionPlan.getAnnotations());
+        return (element != null) ? element.getValue() : null;
+    }
+
+    /**
+     * Siddhi keys the state of an execution plan runtime by the ids of its processing elements, which are not tied to
+     * the queries themselves, hence state is only carried over between runtimes of plans with the same definitions,
+     * queries and partitions.
+     *
+     * @return true if the given execution plan defines the same streams and tables and holds the same queries and
+     * partitions in the same order, i.e. a snapshot of a runtime of either can be restored into a runtime of the other
+     */
+    public boolean hasSameStateLayout(ParsedExecutionPlan other) {
+        return executionPlan.getStreamDefinitionMap().equals(other.executionPlan.getStreamDefinitionMap())
+                && executionPlan.getTableDefinitionMap().equals(other.executionPlan.getTableDefinitionMap())
+                && executionPlan.getExecutionElementList().equals(other.executionPlan.getExecutionElementList());
+    }
+
+    /**
+     * @return texts of the queries and partitions of the execution plan, as split for the Storm query plan
+     */
+    public synchronized List<String> getQueryList() {
+        if (queryList == null) {
+            splitQueries();
+        }
+        return queryList;
+    }
+
+    /**
+     * @return texts of the event table definitions of the execution plan
+     */
+    public synchronized List<String> getEventTableList() {
+        if (eventTableList == null) {
+            splitQueries();
+        }
+        return eventTableList;
+    }
+
+    private void splitQueries() {
+        ParseTree parseTree = SiddhiQLStormQuerySplitter.parse(executionPlanText);
+        queryList = Collections.unmodifiableList(SiddhiQLStormQuerySplitter.split(parseTree));
+        eventTableList = Collections.unmodifiableList(SiddhiQLStormQuerySplitter.getEventTableList(parseTree));
+    }
+
+    private static int getCacheSize() {
+        String value = System.getProperty(EventProcessorConstants.EXECUTION_PLAN_PARSE_CACHE_SIZE);
+        if (value == null || value.trim().isEmpty()) {
+            return DEFAULT_CACHE_SIZE;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            log.warn("Invalid value '" + value + "' for " + EventProcessorConstants.EXECUTION_PLAN_PARSE_CACHE_SIZE
+                    + ", using default " + DEFAULT_CACHE_SIZE);
+            return DEFAULT_CACHE_SIZE;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wso2.carbon.event.processor.core.internal.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Inverted index of the execution plans, or execution plan configuration files, of each tenant by the event streams
+ * they depend on, so that the ones depending on a stream are found without going through all of them. The index is
+ * maintained incrementally as execution plans are started and removed, and as configuration files are added and
+ * removed.
+ *
+ * @param <T> type of the indexed values
+ */
+public class StreamIdIndex<T> {
+    private final Map<Integer, Map<String, Set<T>>> tenantSpecificIndex = new HashMap<Integer, Map<String, Set<T>>>();
+
+    public synchronized void add(int tenantId, String streamId, T value) {
+        Map<String, Set<T>> index = tenantSpecificIndex.get(tenantId);
+        if (index == null) {
+            index = new HashMap<String, Set<T>>();
+            tenantSpecificIndex.put(tenantId, index);
+        }
+        Set<T> values = index.get(streamId);
+        if (values == null) {
+            values = new LinkedHashSet<T>();
+            index.put(streamId, values);
+        }
+        values.add(value);
+    }
+
+    public synchronized void remove(int tenantId, String streamId, T value) {
+        Map<String, Set<T>> index = tenantSpecificIndex.get(tenantId);
+        if (index == null) {
+            return;
+        }
+        Set<T> values = index.get(streamId);
+        if (values != null && values.remove(value) && values.isEmpty()) {
+            index.remove(streamId);
+            if (index.isEmpty()) {
+                tenantSpecificIndex.remove(tenantId);
+            }
+        }
+    }
+
+    /**
+     * @return the values indexed by the stream, in the order they were added
+     */
+    public synchronized List<T> get(int tenantId, String streamId) {
+        Map<String, Set<T>> index = tenantSpecificIndex.get(tenantId);
+        Set<T> values = (index != null) ? index.get(streamId) : null;
+        if (values == null) {
+            return new ArrayList<T>(0);
+        }
+        return new ArrayList<T>(values);
+    }
+}
@@ -25,6 +25,7 @@ import org.wso2.carbon.event.processor.core.exception.ExecutionPlanConfiguration
 import org.wso2.carbon.event.processor.core.exception.ExecutionPlanDependencyValidationException;
 import org.wso2.carbon.event.processor.core.internal.ds.EventProcessorValueHolder;
 import org.wso2.carbon.event.processor.core.internal.util.EventProcessorConstants;
+import org.wso2.carbon.event.processor.core.internal.util.ParsedExecutionPlan;
 import org.wso2.carbon.event.stream.core.EventStreamService;
 import org.wso2.carbon.event.stream.core.exception.EventStreamConfigurationException;
 import org.wso2.carbon.ndatasource.common.DataSourceException;
@@ -35,7 +36,6 @@ import org.wso2.siddhi.query.api.ExecutionPlan;
 import org.wso2.siddhi.query.api.annotation.Element;
 import org.wso2.siddhi.query.api.exception.AttributeNotExistException;
 import org.wso2.siddhi.query.api.util.AnnotationHelper;
-import org.wso2.siddhi.query.compiler.SiddhiCompiler;
 
 import javax.sql.DataSource;
 import java.util.ArrayList;
@@ -56,10 +56,7 @@ public class EventProcessorHelper {
      * @return execution plan name as given in @Plan:name('MyPlanName'). Returns null in the absence of @Plan:name('MyPlanName')
      */
     public static String getExecutionPlanName(String executionPlanAsString) {
-        String executionPlanName = null;
-        ExecutionPlan executionPlan = SiddhiCompiler.parse(executionPlanAsString);
-        executionPlanName = AnnotationHelper.getAnnotationElement(EventProcessorConstants.ANNOTATION_NAME_NAME, null, executionPlan.getAnnotations()).getValue();
-        return executionPlanName;
+        return ParsedExecutionPlan.parse(executionPlanAsString).getPlanAnnotationValue(EventProcessorConstants.ANNOTATION_NAME_NAME);
     }
 
     public static void validateExecutionPlan(String executionPlan)
@@ -72,7 +69,7 @@ public class EventProcessorHelper {
         Pattern databridgeStreamNamePattern = Pattern.compile(EventProcessorConstants.DATABRIDGE_STREAM_REGEX);
         Pattern streamVersionPattern = Pattern.compile(EventProcessorConstants.STREAM_VER_REGEX);
 
-        ExecutionPlan parsedExecPlan = SiddhiCompiler.parse(executionPlan);
+        ExecutionPlan parsedExecPlan = ParsedExecutionPlan.parse(executionPlan).getExecutionPlan();
         Element element = AnnotationHelper.getAnnotationElement(EventProcessorConstants.ANNOTATION_NAME_NAME, null, parsedExecPlan.getAnnotations());
         if (element == null) {                                                                        // check if plan name is given
             throw new ExecutionPlanConfigurationException("Execution plan name is not given. Please specify execution plan name using the annotation " +
@@ -188,7 +185,7 @@ public class EventProcessorHelper {
         SiddhiManager siddhiManager = EventProcessorValueHolder.getSiddhiManager();
         loadDataSourceConfiguration(siddhiManager);
         try {
-            siddhiManager.validateExecutionPlan(executionPlan);
+            siddhiManager.validateExecutionPlan(parsedExecPlan);
         } catch (Throwable t) {
             throw new ExecutionPlanConfigurationException(t.getMessage(), t);
         }
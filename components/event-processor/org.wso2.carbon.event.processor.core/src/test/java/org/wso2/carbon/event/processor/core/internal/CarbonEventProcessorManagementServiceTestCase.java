@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wso2.carbon.event.processor.core.internal;
+
+import junit.framework.Assert;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.Test;
+import org.wso2.carbon.event.processor.core.ExecutionPlan;
+import org.wso2.carbon.event.processor.core.ExecutionPlanConfiguration;
+import org.wso2.siddhi.core.ExecutionPlanRuntime;
+import org.wso2.siddhi.core.SiddhiManager;
+import org.wso2.siddhi.core.util.persistence.PersistenceStore;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class CarbonEventProcessorManagementServiceTestCase {
+    private static final Log log = LogFactory.getLog(CarbonEventProcessorManagementServiceTestCase.class);
+    private static final int TENANT_ID = -1234;
+    private static final String EXECUTION_PLAN = "@Plan:name('SwapPlan')\n" +
+            "define stream StockStream (symbol string, price double);\n" +
+            "from StockStream#window.length(10) select symbol, avg(price) as avgPrice insert into AvgStream;\n";
+
+    @Test
+    public void testPersistAfterRuntimeSwap() {
+        RecordingStore store = new RecordingStore();
+        SiddhiManager siddhiManager = new SiddhiManager();
+        siddhiManager.setPersistenceStore(store.proxy());
+
+        ExecutionPlanRuntime activeRuntime = siddhiManager.createExecutionPlanRuntime(EXECUTION_PLAN);
+        activeRuntime.start();
+        ExecutionPlanConfiguration configuration = new ExecutionPlanConfiguration();
+        configuration.setName("SwapPlan");
+        ExecutionPlan executionPlan = new ExecutionPlan("SwapPlan", activeRuntime, configuration);
+        Map<Integer, ConcurrentHashMap<String, ExecutionPlan>> tenantSpecificExecutionPlans =
+                new HashMap<Integer, ConcurrentHashMap<String, ExecutionPlan>>();
+        tenantSpecificExecutionPlans.put(TENANT_ID, new ConcurrentHashMap<String, ExecutionPlan>());
+        tenantSpecificExecutionPlans.get(TENANT_ID).put("SwapPlan", executionPlan);
+
+        // as done by CarbonEventProcessorService.swapExecutionPlanRuntime for an edited execution plan
+        ExecutionPlanRuntime newRuntime = siddhiManager.createExecutionPlanRuntime(EXECUTION_PLAN);
+        newRuntime.start();
+        executionPlan.setExecutionPlanRuntime(newRuntime);
+        activeRuntime.shutdown();
+
+        try {
+            CarbonEventProcessorManagementService.persist(tenantSpecificExecutionPlans);
+            Assert.assertEquals("State of the swapped in runtime is not persisted", 1, store.savedRevisions.size());
+            Assert.assertTrue(store.savedRevisions.get(0).endsWith("SwapPlan"));
+        } finally {
+            newRuntime.shutdown();
+        }
+    }
+
+    /**
+     * Records the revisions saved to a persistence store.
+     */
+    private static class RecordingStore implements InvocationHandler {
+        private final List<String> savedRevisions = new ArrayList<String>();
+
+        private PersistenceStore proxy() {
+            return (PersistenceStore) Proxy.newProxyInstance(PersistenceStore.class.getClassLoader(),
+                    new Class[]{PersistenceStore.class}, this);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            if ("save".equals(method.getName())) {
+                // the revision precedes the snapshot
+                savedRevisions.add((String) args[args.length - 2]);
+            } else if ("toString".equals(method.getName())) {
+                return "RecordingStore";
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wso2.carbon.event.processor.core.internal;
+
+import junit.framework.Assert;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.Test;
+import org.wso2.carbon.event.processor.core.ExecutionPlanConfiguration;
+import org.wso2.carbon.event.processor.core.internal.util.ExecutionPlanStartOrder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+public class ExecutionPlanStartOrderTestCase {
+    private static final Log log = LogFactory.getLog(ExecutionPlanStartOrderTestCase.class);
+
+    @Test
+    public void testConsumersStartBeforeProducers() {
+        CompiledExecutionPlan producer = executionPlan("producer", streams(), streams("a:1.0.0"));
+        CompiledExecutionPlan filter = executionPlan("filter", streams("a:1.0.0"), streams("b:1.0.0"));
+        CompiledExecutionPlan consumer = executionPlan("consumer", streams("b:1.0.0"), streams());
+
+        List<CompiledExecutionPlan> startOrder = ExecutionPlanStartOrder.getStartOrder(
+                Arrays.asList(producer, filter, consumer));
+        Assert.assertEquals(Arrays.asList("consumer", "filter", "producer"), names(startOrder));
+    }
+
+    @Test
+    public void testProducerOfManyConsumers() {
+        CompiledExecutionPlan producer = executionPlan("producer", streams(), streams("a:1.0.0", "b:1.0.0"));
+        CompiledExecutionPlan first = executionPlan("first", streams("a:1.0.0"), streams());
+        CompiledExecutionPlan second = executionPlan("second", streams("b:1.0.0"), streams());
+
+        List<CompiledExecutionPlan> startOrder = ExecutionPlanStartOrder.getStartOrder(
+                Arrays.asList(producer, first, second));
+        Assert.assertEquals(Arrays.asList("first", "second", "producer"), names(startOrder));
+    }
+
+    @Test
+    public void testIndependentExecutionPlansKeepTheirOrder() {
+        CompiledExecutionPlan first = executionPlan("first", streams("a:1.0.0"), streams("b:1.0.0"));
+        CompiledExecutionPlan second = executionPlan("second", streams("c:1.0.0"), streams("d:1.0.0"));
+        // imports and exports the same stream, which does not order it after itself
+        CompiledExecutionPlan third = executionPlan("third", streams("e:1.0.0"), streams("e:1.0.0"));
+
+        List<CompiledExecutionPlan> startOrder = ExecutionPlanStartOrder.getStartOrder(
+                Arrays.asList(first, second, third));
+        Assert.assertEquals(Arrays.asList("first", "second", "third"), names(startOrder));
+    }
+
+    @Test
+    public void testCyclicDependency() {
+        CompiledExecutionPlan first = executionPlan("first", streams("b:1.0.0"), streams("a:1.0.0"));
+        CompiledExecutionPlan second = executionPlan("second", streams("a:1.0.0"), streams("b:1.0.0"));
+        CompiledExecutionPlan consumer = executionPlan("consumer", streams("b:1.0.0"), streams());
+        CompiledExecutionPlan independent = executionPlan("independent", streams("c:1.0.0"), streams());
+
+        List<CompiledExecutionPlan> startOrder = ExecutionPlanStartOrder.getStartOrder(
+                Arrays.asList(first, second, consumer, independent));
+        log.info("Start order of execution plans with a cyclic dependency: " + names(startOrder));
+        Assert.assertEquals(4, startOrder.size());
+        Assert.assertEquals(new HashSet<CompiledExecutionPlan>(Arrays.asList(first, second, consumer, independent)),
+                new HashSet<CompiledExecutionPlan>(startOrder));
+        Assert.assertTrue(startOrder.indexOf(consumer) < startOrder.indexOf(second));
+    }
+
+    private static CompiledExecutionPlan executionPlan(String name, Map<String, String> importsMap,
+                                                       Map<String, String> exportsMap) {
+        ExecutionPlanConfiguration executionPlanConfiguration = new ExecutionPlanConfiguration();
+        executionPlanConfiguration.setName(name);
+        return new CompiledExecutionPlan(-1234, executionPlanConfiguration, null, importsMap, exportsMap,
+                new ArrayList<String>(), new ArrayList<String>());
+    }
+
+    /**
+     * @return map of Siddhi stream names to the given stream ids
+     */
+    private static Map<String, String> streams(String... streamIds) {
+        Map<String, String> streams = new HashMap<String, String>();
+        for (String streamId : streamIds) {
+            streams.put(streamId.substring(0, streamId.indexOf(':')), streamId);
+        }
+        return streams;
+    }
+
+    private static List<String> names(List<CompiledExecutionPlan> executionPlans) {
+        List<String> names = new ArrayList<String>();
+        for (CompiledExecutionPlan executionPlan : executionPlans) {
+            names.add(executionPlan.getName());
+        }
+        return names;
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wso2.carbon.event.processor.core.internal.listener;
+
+import junit.framework.Assert;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.Test;
+import org.wso2.carbon.event.processor.core.ExecutionPlanConfiguration;
+import org.wso2.siddhi.core.ExecutionPlanRuntime;
+import org.wso2.siddhi.core.SiddhiManager;
+import org.wso2.siddhi.core.event.Event;
+import org.wso2.siddhi.core.stream.output.StreamCallback;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class SiddhiInputEventDispatcherTestCase {
+    private static final Log log = LogFactory.getLog(SiddhiInputEventDispatcherTestCase.class);
+
+    @Test
+    public void testBatchIsSentToSiddhiAsAWhole() {
+        SiddhiManager siddhiManager = new SiddhiManager();
+        ExecutionPlanRuntime executionPlanRuntime = siddhiManager.createExecutionPlanRuntime(
+                "define stream StockStream (symbol string, price double); " +
+                        "from StockStream select symbol, price insert into OutStream;");
+        final List<Event[]> receivedBatches = new ArrayList<Event[]>();
+        executionPlanRuntime.addCallback("OutStream", new StreamCallback() {
+            @Override
+            public void receive(Event[] events) {
+                receivedBatches.add(events);
+            }
+        });
+        executionPlanRuntime.start();
+        try {
+            SiddhiInputEventDispatcher dispatcher = new SiddhiInputEventDispatcher("stock:1.0.0",
+                    executionPlanRuntime.getInputHandler("StockStream"), executionPlanConfiguration(), -1234);
+            dispatcher.consumeEvents(new Event[]{new Event(1, new Object[]{"WSO2", 55.25}),
+                    new Event(2, new Object[]{"IBM", 120.5}), new Event(3, new Object[]{"MSFT", 45.0})});
+            dispatcher.shutdown();
+        } finally {
+            executionPlanRuntime.shutdown();
+        }
+
+        Assert.assertEquals("Batch split before reaching Siddhi", 1, receivedBatches.size());
+        Event[] events = receivedBatches.get(0);
+        Assert.assertEquals(3, events.length);
+        Assert.assertEquals("WSO2", events[0].getData()[0]);
+        Assert.assertEquals(3, events[2].getTimestamp());
+    }
+
+    @Test
+    public void testEventsAreSentOneByOneByDefault() {
+        final List<Event> sentEvents = new ArrayList<Event>();
+        AbstractSiddhiInputEventDispatcher dispatcher = new AbstractSiddhiInputEventDispatcher("stock:1.0.0",
+                "StockStream", executionPlanConfiguration(), -1234) {
+            @Override
+            public void sendEvent(Event event) {
+                sentEvents.add(event);
+            }
+        };
+        Event[] events = {new Event(1, new Object[]{"WSO2", 55.25}), new Event(2, new Object[]{"IBM", 120.5})};
+        dispatcher.consumeEvents(events);
+        dispatcher.consumeEvent(new Event(3, new Object[]{"MSFT", 45.0}));
+        dispatcher.shutdown();
+
+        Assert.assertEquals(3, sentEvents.size());
+        Assert.assertEquals(Arrays.asList(events), sentEvents.subList(0, 2));
+    }
+
+    private static ExecutionPlanConfiguration executionPlanConfiguration() {
+        ExecutionPlanConfiguration executionPlanConfiguration = new ExecutionPlanConfiguration();
+        executionPlanConfiguration.setName("DispatcherTestPlan");
+        return executionPlanConfiguration;
+    }
+}
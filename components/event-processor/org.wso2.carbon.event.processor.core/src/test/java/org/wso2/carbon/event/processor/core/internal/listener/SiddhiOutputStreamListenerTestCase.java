@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wso2.carbon.event.processor.core.internal.listener;
+
+import junit.framework.Assert;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.Test;
+import org.wso2.carbon.context.PrivilegedCarbonContext;
+import org.wso2.carbon.event.processor.core.ExecutionPlanConfiguration;
+import org.wso2.carbon.event.stream.core.EventProducerCallback;
+import org.wso2.siddhi.core.event.Event;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+public class SiddhiOutputStreamListenerTestCase {
+    private static final Log log = LogFactory.getLog(SiddhiOutputStreamListenerTestCase.class);
+    private static final int TENANT_ID = 5;
+
+    @Test
+    public void testBatchIsSentInTheTenantFlow() {
+        ExecutionPlanConfiguration executionPlanConfiguration = new ExecutionPlanConfiguration();
+        executionPlanConfiguration.setName("ListenerTestPlan");
+        SiddhiOutputStreamListener listener = new SiddhiOutputStreamListener("OutStream", "out:1.0.0",
+                executionPlanConfiguration, TENANT_ID);
+        RecordingCallback callback = new RecordingCallback();
+        listener.setCallBack(callback.proxy());
+        int callerTenantId = PrivilegedCarbonContext.getThreadLocalCarbonContext().getTenantId();
+
+        Event[] events = {new Event(1, new Object[]{"WSO2", 55.25}), new Event(2, new Object[]{"IBM", 120.5})};
+        listener.receive(events);
+        listener.sendEvent(new Event(3, new Object[]{"MSFT", 45.0}));
+        listener.shutdown();
+
+        Assert.assertEquals(2, callback.calls.size());
+        Assert.assertEquals("sendEvents", callback.calls.get(0));
+        Assert.assertSame("Batch is not sent as a whole", events, callback.arguments.get(0));
+        Assert.assertEquals("sendEvent", callback.calls.get(1));
+        for (int tenantId : callback.tenantIds) {
+            Assert.assertEquals(TENANT_ID, tenantId);
+        }
+        Assert.assertEquals("Tenant flow is not ended", callerTenantId,
+                PrivilegedCarbonContext.getThreadLocalCarbonContext().getTenantId());
+    }
+
+    /**
+     * Records the calls to an event producer callback, along with the tenant of the calling thread.
+     */
+    private static class RecordingCallback implements InvocationHandler {
+        private final List<String> calls = new ArrayList<String>();
+        private final List<Object> arguments = new ArrayList<Object>();
+        private final List<Integer> tenantIds = new ArrayList<Integer>();
+
+        private EventProducerCallback proxy() {
+            return (EventProducerCallback) Proxy.newProxyInstance(EventProducerCallback.class.getClassLoader(),
+                    new Class[]{EventProducerCallback.class}, this);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            if ("toString".equals(method.getName())) {
+                return "RecordingCallback";
+            }
+            calls.add(method.getName());
+            arguments.add(args[0]);
+            tenantIds.add(PrivilegedCarbonContext.getThreadLocalCarbonContext().getTenantId());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wso2.carbon.event.processor.core.internal.persistence;
+
+import junit.framework.Assert;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+public class SnapshotCodecTestCase {
+    private static final Log log = LogFactory.getLog(SnapshotCodecTestCase.class);
+
+    @Test
+    public void testDeflateRoundTrip() throws IOException {
+        assertRoundTrip(new DeflateSnapshotCodec(DeflateSnapshotCodec.DEFAULT_LEVEL));
+    }
+
+    @Test
+    public void testLZ4RoundTrip() throws IOException {
+        assertRoundTrip(new LZ4SnapshotCodec());
+    }
+
+    @Test
+    public void testDeflateDecompressPrefix() throws IOException {
+        assertDecompressPrefix(new DeflateSnapshotCodec(DeflateSnapshotCodec.DEFAULT_LEVEL));
+    }
+
+    @Test
+    public void testLZ4DecompressPrefix() throws IOException {
+        assertDecompressPrefix(new LZ4SnapshotCodec());
+    }
+
+    @Test
+    public void testLZ4CompressesRepetitiveContent() throws IOException {
+        byte[] content = repetitiveContent(1024 * 1024);
+        byte[] compressed = new LZ4SnapshotCodec().compress(content);
+        log.info("LZ4 compressed " + content.length + " bytes to " + compressed.length + " bytes");
+        Assert.assertTrue(compressed.length < content.length / 4);
+    }
+
+    @Test
+    public void testLZ4DecompressCorruptedContent() {
+        byte[] content = repetitiveContent(64 * 1024);
+        byte[] compressed = new LZ4SnapshotCodec().compress(content);
+        // a back reference before the start of the content
+        Arrays.fill(compressed, 1, compressed.length, (byte) 0xFF);
+        try {
+            new LZ4SnapshotCodec().decompress(ByteBuffer.wrap(compressed), new byte[content.length], content.length);
+            Assert.fail("Corrupted content was decompressed");
+        } catch (IOException e) {
+            log.info("Expected: " + e.getMessage());
+        }
+    }
+
+    @Test
+    public void testCodecLookup() throws IOException {
+        Assert.assertNull(SnapshotCodec.forName(null, 1));
+        Assert.assertNull(SnapshotCodec.forName("none", 1));
+        Assert.assertEquals(LZ4SnapshotCodec.ID, SnapshotCodec.forName("LZ4", 1).getId());
+        Assert.assertEquals(DeflateSnapshotCodec.ID, SnapshotCodec.forName("deflate", 1).getId());
+        Assert.assertNull(SnapshotCodec.forId(SnapshotCodec.NONE_ID));
+        Assert.assertEquals(LZ4SnapshotCodec.NAME, SnapshotCodec.forId(LZ4SnapshotCodec.ID).getName());
+        Assert.assertEquals(DeflateSnapshotCodec.NAME, SnapshotCodec.forId(DeflateSnapshotCodec.ID).getName());
+        try {
+            SnapshotCodec.forName("zip", 1);
+            Assert.fail("Unknown codec name was accepted");
+        } catch (IllegalArgumentException e) {
+            log.info("Expected: " + e.getMessage());
+        }
+        try {
+            SnapshotCodec.forId((byte) 42);
+            Assert.fail("Unknown codec id was accepted");
+        } catch (IOException e) {
+            log.info("Expected: " + e.getMessage());
+        }
+    }
+
+    private static void assertRoundTrip(SnapshotCodec codec) throws IOException {
+        Random random = new Random(7);
+        byte[] randomContent = new byte[100 * 1024];
+        random.nextBytes(randomContent);
+        byte[][] contents = {new byte[0], {42}, "snapshot".getBytes("UTF-8"), repetitiveContent(1024 * 1024),
+                randomContent};
+        for (byte[] content : contents) {
+            byte[] compressed = codec.compress(content);
+            byte[] decompressed = new byte[content.length];
+            Assert.assertEquals(content.length, codec.decompress(ByteBuffer.wrap(compressed), decompressed,
+                    content.length));
+            Assert.assertTrue(codec.getName() + " round trip of " + content.length + " bytes",
+                    Arrays.equals(content, decompressed));
+
+            // compressed content read from a direct buffer at an offset, as from a mapped file
+            ByteBuffer direct = ByteBuffer.allocateDirect(compressed.length + 3);
+            direct.position(3);
+            direct.put(compressed);
+            direct.position(3);
+            decompressed = new byte[content.length];
+            Assert.assertEquals(content.length, codec.decompress(direct, decompressed, content.length));
+            Assert.assertTrue(Arrays.equals(content, decompressed));
+        }
+    }
+
+    private static void assertDecompressPrefix(SnapshotCodec codec) throws IOException {
+        byte[] content = repetitiveContent(256 * 1024);
+        byte[] compressed = codec.compress(content);
+        byte[] prefix = new byte[1000];
+        Assert.assertEquals(prefix.length, codec.decompress(ByteBuffer.wrap(compressed), prefix, prefix.length));
+        Assert.assertTrue(Arrays.equals(Arrays.copyOf(content, prefix.length), prefix));
+    }
+
+    /**
+     * @return content with repeated sequences, like serialized state
+     */
+    private static byte[] repetitiveContent(int length) {
+        Random random = new Random(3);
+        byte[] content = new byte[length];
+        for (int i = 0; i < length; i++) {
+            content[i] = (byte) ((i % 64 < 8) ? random.nextInt(256) : i % 64);
+        }
+        return content;
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wso2.carbon.event.processor.core.internal.persistence;
+
+import junit.framework.Assert;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+public class SnapshotDeltaTestCase {
+    private static final Log log = LogFactory.getLog(SnapshotDeltaTestCase.class);
+    private static final int CHUNK_SIZE = 4096;
+
+    @Test
+    public void testApplyAfterInsertion() throws IOException {
+        byte[] baseSnapshot = randomBytes(1024 * 1024, 1);
+        // bytes inserted in the middle shift all the following ones
+        byte[] snapshot = new byte[baseSnapshot.length + 100];
+        System.arraycopy(baseSnapshot, 0, snapshot, 0, 500000);
+        System.arraycopy(randomBytes(100, 2), 0, snapshot, 500000, 100);
+        System.arraycopy(baseSnapshot, 500000, snapshot, 500100, baseSnapshot.length - 500000);
+
+        byte[] delta = SnapshotDelta.encode(new SnapshotDelta.Base("base", baseSnapshot, CHUNK_SIZE), snapshot);
+        log.info("Delta of an insertion of 100 bytes in " + baseSnapshot.length + " bytes is " + delta.length
+                + " bytes");
+        Assert.assertTrue(delta.length < 20 * CHUNK_SIZE);
+        Assert.assertTrue(Arrays.equals(snapshot, SnapshotDelta.apply(ByteBuffer.wrap(baseSnapshot),
+                ByteBuffer.wrap(delta))));
+    }
+
+    @Test
+    public void testApplyAfterChanges() throws IOException {
+        byte[] baseSnapshot = randomBytes(300 * 1024, 3);
+        byte[] snapshot = Arrays.copyOf(baseSnapshot, baseSnapshot.length - 5000);
+        Random random = new Random(4);
+        for (int i = 0; i < 20; i++) {
+            snapshot[random.nextInt(snapshot.length)]++;
+        }
+        assertRoundTrip(baseSnapshot, snapshot);
+    }
+
+    @Test
+    public void testApplyWithoutCommonContent() throws IOException {
+        assertRoundTrip(randomBytes(100 * 1024, 5), randomBytes(50 * 1024, 6));
+        assertRoundTrip(new byte[0], randomBytes(10 * 1024, 7));
+        assertRoundTrip(randomBytes(10 * 1024, 8), new byte[0]);
+    }
+
+    @Test
+    public void testApplyFromMappedBase() throws IOException {
+        byte[] baseSnapshot = randomBytes(64 * 1024, 9);
+        byte[] snapshot = Arrays.copyOf(baseSnapshot, baseSnapshot.length);
+        snapshot[1000] ^= 1;
+        byte[] delta = SnapshotDelta.encode(new SnapshotDelta.Base("base", baseSnapshot, CHUNK_SIZE), snapshot);
+        ByteBuffer directBase = ByteBuffer.allocateDirect(baseSnapshot.length);
+        directBase.put(baseSnapshot).flip();
+        Assert.assertTrue(Arrays.equals(snapshot, SnapshotDelta.apply(directBase, ByteBuffer.wrap(delta))));
+    }
+
+    @Test
+    public void testDeltaHeader() throws IOException {
+        byte[] baseSnapshot = randomBytes(10 * 1024, 10);
+        byte[] delta = SnapshotDelta.encode(new SnapshotDelta.Base("1431936000000_plan", baseSnapshot, CHUNK_SIZE),
+                baseSnapshot);
+        Assert.assertTrue(SnapshotDelta.isDelta(ByteBuffer.wrap(delta)));
+        Assert.assertFalse(SnapshotDelta.isDelta(ByteBuffer.wrap(baseSnapshot)));
+        Assert.assertEquals("1431936000000_plan", SnapshotDelta.getBaseRevision(ByteBuffer.wrap(delta)));
+    }
+
+    @Test
+    public void testApplyTruncatedDelta() throws IOException {
+        byte[] baseSnapshot = randomBytes(100 * 1024, 11);
+        byte[] snapshot = randomBytes(20 * 1024, 12);
+        byte[] delta = SnapshotDelta.encode(new SnapshotDelta.Base("base", baseSnapshot, CHUNK_SIZE), snapshot);
+        try {
+            SnapshotDelta.apply(ByteBuffer.wrap(baseSnapshot), ByteBuffer.wrap(Arrays.copyOf(delta,
+                    delta.length / 2)));
+            Assert.fail("Truncated delta was applied");
+        } catch (IOException e) {
+            log.info("Expected: " + e.getMessage());
+        }
+    }
+
+    private static void assertRoundTrip(byte[] baseSnapshot, byte[] snapshot) throws IOException {
+        byte[] delta = SnapshotDelta.encode(new SnapshotDelta.Base("base", baseSnapshot, CHUNK_SIZE), snapshot);
+        Assert.assertTrue(Arrays.equals(snapshot, SnapshotDelta.apply(ByteBuffer.wrap(baseSnapshot),
+                ByteBuffer.wrap(delta))));
+    }
+
+    private static byte[] randomBytes(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wso2.carbon.event.processor.core.internal.persistence;
+
+import junit.framework.Assert;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+public class SnapshotFileTestCase {
+    private static final Log log = LogFactory.getLog(SnapshotFileTestCase.class);
+
+    private File directory;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("snapshot-file").toFile();
+    }
+
+    @After
+    public void deleteDirectory() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testWriteAndRead() throws IOException {
+        byte[] content = content(200 * 1024);
+        SnapshotCodec[] codecs = {null, new DeflateSnapshotCodec(DeflateSnapshotCodec.DEFAULT_LEVEL),
+                new LZ4SnapshotCodec()};
+        for (SnapshotCodec codec : codecs) {
+            File file = new File(directory, "snapshot-" + ((codec != null) ? codec.getName() : "none"));
+            SnapshotFile.write(file, content, codec);
+            if (codec != null) {
+                Assert.assertTrue(file.length() < content.length);
+            }
+            // read onto the heap and memory mapped
+            Assert.assertTrue(Arrays.equals(content, SnapshotFile.toByteArray(SnapshotFile.read(file,
+                    Long.MAX_VALUE))));
+            Assert.assertTrue(Arrays.equals(content, SnapshotFile.toByteArray(SnapshotFile.read(file, 0))));
+            Assert.assertTrue(Arrays.equals(Arrays.copyOf(content, 100), SnapshotFile.readPrefix(file, 100)));
+        }
+        String[] fileNames = directory.list();
+        Arrays.sort(fileNames);
+        Assert.assertEquals("No temporary file is left", Arrays.asList("snapshot-deflate", "snapshot-lz4",
+                "snapshot-none"), Arrays.asList(fileNames));
+    }
+
+    @Test
+    public void testOverwrite() throws IOException {
+        File file = new File(directory, "snapshot");
+        SnapshotFile.write(file, content(1000), null);
+        byte[] content = "second revision".getBytes("UTF-8");
+        SnapshotFile.write(file, content, new LZ4SnapshotCodec());
+        Assert.assertTrue(Arrays.equals(content, SnapshotFile.toByteArray(SnapshotFile.read(file, Long.MAX_VALUE))));
+    }
+
+    @Test
+    public void testReadCorruptedFile() throws IOException {
+        File file = new File(directory, "snapshot");
+        SnapshotFile.write(file, content(10 * 1024), new LZ4SnapshotCodec());
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            long position = randomAccessFile.length() - 10;
+            randomAccessFile.seek(position);
+            int value = randomAccessFile.read();
+            randomAccessFile.seek(position);
+            randomAccessFile.write(value ^ 0xFF);
+        } finally {
+            randomAccessFile.close();
+        }
+        try {
+            SnapshotFile.read(file, Long.MAX_VALUE);
+            Assert.fail("Corrupted snapshot file was read");
+        } catch (IOException e) {
+            log.info("Expected: " + e.getMessage());
+        }
+    }
+
+    @Test
+    public void testReadFileWithoutHeader() throws IOException {
+        File file = new File(directory, "snapshot");
+        byte[] content = "snapshot written before the header was introduced".getBytes("UTF-8");
+        FileOutputStream outputStream = new FileOutputStream(file);
+        try {
+            outputStream.write(content);
+        } finally {
+            outputStream.close();
+        }
+        Assert.assertTrue(Arrays.equals(content, SnapshotFile.toByteArray(SnapshotFile.read(file, Long.MAX_VALUE))));
+    }
+
+    /**
+     * @return content which compresses, like serialized state
+     */
+    private static byte[] content(int length) {
+        Random random = new Random(length);
+        byte[] content = new byte[length];
+        for (int i = 0; i < length; i++) {
+            content[i] = (byte) ((i % 32 < 4) ? random.nextInt(256) : i % 32);
+        }
+        return content;
+    }
+}
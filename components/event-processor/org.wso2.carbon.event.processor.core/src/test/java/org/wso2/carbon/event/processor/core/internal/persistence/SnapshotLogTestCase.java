@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wso2.carbon.event.processor.core.internal.persistence;
+
+import junit.framework.Assert;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+public class SnapshotLogTestCase {
+    private static final Log log = LogFactory.getLog(SnapshotLogTestCase.class);
+
+    private File directory;
+    private File file;
+    private SnapshotLog snapshotLog;
+
+    @Before
+    public void openLog() throws IOException {
+        directory = Files.createTempDirectory("snapshot-log").toFile();
+        file = new File(directory, "snapshots.db");
+        snapshotLog = new SnapshotLog(file, 0.5);
+    }
+
+    @After
+    public void deleteLog() throws IOException {
+        snapshotLog.close();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testPutGetDelete() throws IOException {
+        byte[] first = content(1000, 1);
+        byte[] second = content(2000, 2);
+        snapshotLog.put("-1234/plan/1_plan", first, null);
+        snapshotLog.put("-1234/plan/2_plan", second, new LZ4SnapshotCodec());
+        snapshotLog.put("-1234/other/1_other", first, new DeflateSnapshotCodec(DeflateSnapshotCodec.DEFAULT_LEVEL));
+
+        Assert.assertTrue(Arrays.equals(first, snapshotLog.get("-1234/plan/1_plan")));
+        Assert.assertTrue(Arrays.equals(second, snapshotLog.get("-1234/plan/2_plan")));
+        Assert.assertTrue(Arrays.equals(first, snapshotLog.get("-1234/other/1_other")));
+        Assert.assertNull(snapshotLog.get("-1234/plan/3_plan"));
+        Assert.assertEquals(Arrays.asList("-1234/plan/1_plan", "-1234/plan/2_plan"),
+                snapshotLog.getKeys("-1234/plan/"));
+        Assert.assertEquals("-1234/plan/2_plan", snapshotLog.getLastKey("-1234/plan/"));
+
+        snapshotLog.delete("-1234/plan/2_plan");
+        Assert.assertNull(snapshotLog.get("-1234/plan/2_plan"));
+        Assert.assertEquals("-1234/plan/1_plan", snapshotLog.getLastKey("-1234/plan/"));
+    }
+
+    @Test
+    public void testBatchDelete() throws IOException {
+        for (int i = 0; i < 5; i++) {
+            snapshotLog.put("plan/" + i, content(100, i), null);
+        }
+        snapshotLog.delete(Arrays.asList("plan/0", "plan/1", "plan/2", "plan/unknown"));
+        Assert.assertEquals(Arrays.asList("plan/3", "plan/4"), snapshotLog.getKeys("plan/"));
+    }
+
+    @Test
+    public void testRecover() throws IOException {
+        byte[] content = content(5000, 3);
+        snapshotLog.put("plan/1", content, null);
+        snapshotLog.put("plan/2", content, new LZ4SnapshotCodec());
+        snapshotLog.put("plan/3", content, null);
+        snapshotLog.delete("plan/1");
+        snapshotLog.put("plan/3", content(100, 4), null);
+        reopen();
+
+        Assert.assertEquals(Arrays.asList("plan/2", "plan/3"), snapshotLog.getKeys("plan/"));
+        Assert.assertTrue(Arrays.equals(content, snapshotLog.get("plan/2")));
+        Assert.assertTrue(Arrays.equals(content(100, 4), snapshotLog.get("plan/3")));
+    }
+
+    @Test
+    public void testRecoverTruncatesTornTail() throws IOException {
+        byte[] content = content(1000, 5);
+        snapshotLog.put("plan/1", content, null);
+        long length = file.length();
+        snapshotLog.put("plan/2", content, null);
+        snapshotLog.close();
+        // a record partially written when the node crashed
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            randomAccessFile.setLength(length + 500);
+        } finally {
+            randomAccessFile.close();
+        }
+        reopen();
+
+        Assert.assertEquals(length, file.length());
+        Assert.assertEquals(Arrays.asList("plan/1"), snapshotLog.getKeys("plan/"));
+        snapshotLog.put("plan/3", content, null);
+        reopen();
+        Assert.assertEquals(Arrays.asList("plan/1", "plan/3"), snapshotLog.getKeys("plan/"));
+    }
+
+    @Test
+    public void testRecoverSkipsCorruptedRecord() throws IOException {
+        byte[] content = content(1000, 6);
+        snapshotLog.put("plan/1", content, null);
+        long offset = file.length();
+        snapshotLog.put("plan/2", content, null);
+        snapshotLog.put("plan/3", content, null);
+        snapshotLog.close();
+        long length = file.length();
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            // the key length in the header of the second record
+            randomAccessFile.seek(offset + 3);
+            randomAccessFile.write(0x7F);
+        } finally {
+            randomAccessFile.close();
+        }
+        reopen();
+
+        Assert.assertEquals("Records after the corrupted one are kept", length, file.length());
+        Assert.assertEquals(Arrays.asList("plan/1", "plan/3"), snapshotLog.getKeys("plan/"));
+        Assert.assertTrue(Arrays.equals(content, snapshotLog.get("plan/3")));
+    }
+
+    @Test
+    public void testCompaction() throws IOException {
+        snapshotLog.close();
+        snapshotLog = new SnapshotLog(file, 0.5, 64 * 1024);
+        Random random = new Random(7);
+        byte[][] latest = new byte[4][];
+        for (int i = 0; i < 100; i++) {
+            int plan = random.nextInt(latest.length);
+            latest[plan] = content(4096, i);
+            snapshotLog.put("plan/" + plan, latest[plan], null);
+        }
+        log.info("Snapshot log of 100 records of 4 KB is " + file.length() + " bytes");
+        Assert.assertTrue("Replaced records are compacted", file.length() < 64 * 1024 + 2 * 4096);
+        Assert.assertFalse(new File(file.getPath() + ".compact").exists());
+        for (int plan = 0; plan < latest.length; plan++) {
+            Assert.assertTrue(Arrays.equals(latest[plan], snapshotLog.get("plan/" + plan)));
+        }
+
+        reopen();
+        for (int plan = 0; plan < latest.length; plan++) {
+            Assert.assertTrue(Arrays.equals(latest[plan], snapshotLog.get("plan/" + plan)));
+        }
+    }
+
+    @Test
+    public void testClosedLog() throws IOException {
+        snapshotLog.put("plan/1", content(100, 8), null);
+        snapshotLog.close();
+        try {
+            snapshotLog.put("plan/2", content(100, 9), null);
+            Assert.fail("Closed snapshot log was written");
+        } catch (IOException e) {
+            log.info("Expected: " + e.getMessage());
+        }
+        // closing again has no effect
+        snapshotLog.close();
+    }
+
+    private void reopen() throws IOException {
+        snapshotLog.close();
+        snapshotLog = new SnapshotLog(file, 0.5);
+    }
+
+    private static byte[] content(int length, long seed) {
+        byte[] content = new byte[length];
+        new Random(seed).nextBytes(content);
+        return content;
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wso2.carbon.event.processor.core.internal.persistence;
+
+import junit.framework.Assert;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.After;
+import org.junit.Test;
+import org.wso2.carbon.event.processor.core.ExecutionPlan;
+import org.wso2.carbon.event.processor.core.ExecutionPlanConfiguration;
+import org.wso2.carbon.event.processor.core.internal.ds.EventProcessorValueHolder;
+import org.wso2.siddhi.core.ExecutionPlanRuntime;
+import org.wso2.siddhi.core.SiddhiManager;
+import org.wso2.siddhi.core.util.persistence.PersistenceStore;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+public class SnapshotSchedulerTestCase {
+    private static final Log log = LogFactory.getLog(SnapshotSchedulerTestCase.class);
+    private static final int TENANT_ID = -1234;
+
+    private final SnapshotScheduler scheduler = new SnapshotScheduler();
+
+    @After
+    public void shutdown() {
+        scheduler.shutdown();
+        EventProcessorValueHolder.registerPersistenceStore(null);
+    }
+
+    @Test
+    public void testParseInterval() {
+        Assert.assertEquals(500, SnapshotScheduler.parseInterval("500"));
+        Assert.assertEquals(500, SnapshotScheduler.parseInterval("500 ms"));
+        Assert.assertEquals(30000, SnapshotScheduler.parseInterval("30 sec"));
+        Assert.assertEquals(30000, SnapshotScheduler.parseInterval("30 seconds"));
+        Assert.assertEquals(300000, SnapshotScheduler.parseInterval(" 5 Min "));
+        Assert.assertEquals(300000, SnapshotScheduler.parseInterval("5minutes"));
+        Assert.assertEquals(7200000, SnapshotScheduler.parseInterval("2 hours"));
+        Assert.assertEquals(0, SnapshotScheduler.parseInterval("0"));
+        for (String interval : new String[]{"", "five min", "5 days", "-5 min", "99999999999999999999"}) {
+            try {
+                SnapshotScheduler.parseInterval(interval);
+                Assert.fail("Accepted invalid interval '" + interval + "'");
+            } catch (IllegalArgumentException e) {
+                log.info("Expected: " + e.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void testScheduledSnapshotsAreWritten() throws Exception {
+        RecordingStore store = new RecordingStore();
+        EventProcessorValueHolder.registerPersistenceStore(store.proxy());
+        ExecutionPlanRuntime executionPlanRuntime = new SiddhiManager().createExecutionPlanRuntime(
+                "@Plan:name('ScheduledPlan')\n" +
+                        "define stream StockStream (symbol string, price double);\n" +
+                        "from StockStream#window.length(10) select symbol, avg(price) as avgPrice insert into AvgStream;");
+        executionPlanRuntime.start();
+        try {
+            scheduler.schedule(TENANT_ID, executionPlan("ScheduledPlan", executionPlanRuntime), 50L);
+            ObjectName objectName = mBeanName("ScheduledPlan");
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            Assert.assertTrue(mBeanServer.isRegistered(objectName));
+            for (int i = 0; i < 100 && store.savedExecutionPlans.size() < 2; i++) {
+                Thread.sleep(20);
+            }
+            Assert.assertTrue("Snapshots are not repeated", store.savedExecutionPlans.size() >= 2);
+            Assert.assertEquals("ScheduledPlan", store.savedExecutionPlans.get(0));
+            Assert.assertTrue((Long) mBeanServer.getAttribute(objectName, "SnapshotCount") >= 2);
+            Assert.assertEquals(0L, mBeanServer.getAttribute(objectName, "FailureCount"));
+
+            scheduler.unschedule(TENANT_ID, "ScheduledPlan");
+            Assert.assertFalse(mBeanServer.isRegistered(objectName));
+            Thread.sleep(100);
+            int savedSnapshots = store.savedExecutionPlans.size();
+            Thread.sleep(200);
+            Assert.assertEquals("Snapshots are taken after unscheduling", savedSnapshots,
+                    store.savedExecutionPlans.size());
+        } finally {
+            executionPlanRuntime.shutdown();
+        }
+    }
+
+    @Test
+    public void testExecutionPlanWithoutIntervalIsNotScheduled() throws Exception {
+        scheduler.schedule(TENANT_ID, executionPlan("UnscheduledPlan", null), 0L);
+        Assert.assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(mBeanName("UnscheduledPlan")));
+        scheduler.schedule(TENANT_ID, executionPlan("UnscheduledPlan", null), null);
+        Assert.assertFalse("Scheduled without the default interval being set",
+                ManagementFactory.getPlatformMBeanServer().isRegistered(mBeanName("UnscheduledPlan")));
+    }
+
+    private static ExecutionPlan executionPlan(String name, ExecutionPlanRuntime executionPlanRuntime) {
+        ExecutionPlanConfiguration configuration = new ExecutionPlanConfiguration();
+        configuration.setName(name);
+        return new ExecutionPlan(name, executionPlanRuntime, configuration);
+    }
+
+    private static ObjectName mBeanName(String executionPlanName) throws Exception {
+        return new ObjectName("org.wso2.carbon.event.processor:type=SnapshotStatistics,tenant=" + TENANT_ID
+                + ",plan=" + ObjectName.quote(executionPlanName));
+    }
+
+    /**
+     * Records the execution plans whose snapshots are saved to a persistence store.
+     */
+    private static class RecordingStore implements InvocationHandler {
+        private final List<String> savedExecutionPlans = new CopyOnWriteArrayList<String>();
+
+        private PersistenceStore proxy() {
+            return (PersistenceStore) Proxy.newProxyInstance(PersistenceStore.class.getClassLoader(),
+                    new Class[]{PersistenceStore.class}, this);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            if ("save".equals(method.getName())) {
+                savedExecutionPlans.add((String) args[0]);
+            } else if ("toString".equals(method.getName())) {
+                return "RecordingStore";
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wso2.carbon.event.processor.core.internal.util;
+
+import junit.framework.Assert;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.Test;
+import org.wso2.carbon.event.statistics.EventStatisticsMonitor;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class EventStatisticsCounterTestCase {
+    private static final Log log = LogFactory.getLog(EventStatisticsCounterTestCase.class);
+
+    @Test
+    public void testCountsAreFlushedOnClose() {
+        CountingMonitor monitor = new CountingMonitor();
+        EventStatisticsCounter counter = new EventStatisticsCounter(monitor.proxy());
+        counter.incrementRequest(3);
+        counter.incrementRequest(1);
+        counter.incrementResponse(2);
+        counter.close();
+
+        Assert.assertEquals(4, monitor.requests.get());
+        Assert.assertEquals(2, monitor.responses.get());
+
+        // a closed counter is no longer flushed
+        counter.incrementRequest(5);
+        counter.close();
+        Assert.assertEquals(9, monitor.requests.get());
+    }
+
+    @Test
+    public void testCountsAreFlushedInTheBackground() throws InterruptedException {
+        CountingMonitor monitor = new CountingMonitor();
+        EventStatisticsCounter counter = new EventStatisticsCounter(monitor.proxy());
+        try {
+            counter.incrementRequest(100);
+            counter.incrementResponse(10);
+            for (int i = 0; i < 50 && monitor.responses.get() < 10; i++) {
+                Thread.sleep(100);
+            }
+            Assert.assertEquals(100, monitor.requests.get());
+            Assert.assertEquals(10, monitor.responses.get());
+        } finally {
+            counter.close();
+        }
+        Assert.assertEquals("Counts are handed over once", 100, monitor.requests.get());
+    }
+
+    /**
+     * Counts the calls to a monitor.
+     */
+    private static class CountingMonitor implements InvocationHandler {
+        private final AtomicLong requests = new AtomicLong();
+        private final AtomicLong responses = new AtomicLong();
+
+        private EventStatisticsMonitor proxy() {
+            return (EventStatisticsMonitor) Proxy.newProxyInstance(EventStatisticsMonitor.class.getClassLoader(),
+                    new Class[]{EventStatisticsMonitor.class}, this);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            if ("incrementRequest".equals(method.getName())) {
+                requests.incrementAndGet();
+            } else if ("incrementResponse".equals(method.getName())) {
+                responses.incrementAndGet();
+            } else if ("toString".equals(method.getName())) {
+                return "CountingMonitor";
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wso2.carbon.event.processor.core.internal.util;
+
+import junit.framework.Assert;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.Test;
+import org.wso2.siddhi.query.api.ExecutionPlan;
+
+public class ParsedExecutionPlanTestCase {
+    private static final Log log = LogFactory.getLog(ParsedExecutionPlanTestCase.class);
+    private static final String EXECUTION_PLAN = "@Plan:name('ParseTestPlan')\n" +
+            "define stream StockStream (symbol string, price double);\n" +
+            "from StockStream[price > 10] select symbol, price insert into HighStream;\n";
+
+    @Test
+    public void testSameTextIsParsedOnce() {
+        ParsedExecutionPlan parsedExecutionPlan = ParsedExecutionPlan.parse(EXECUTION_PLAN);
+        Assert.assertEquals("ParseTestPlan",
+                parsedExecutionPlan.getPlanAnnotationValue(EventProcessorConstants.ANNOTATION_NAME_NAME));
+        // an equal text which is not the same instance hits the cache as well
+        Assert.assertSame(parsedExecutionPlan, ParsedExecutionPlan.parse(new String(EXECUTION_PLAN)));
+
+        ParsedExecutionPlan otherExecutionPlan = ParsedExecutionPlan.parse(EXECUTION_PLAN + "\n");
+        Assert.assertNotSame(parsedExecutionPlan, otherExecutionPlan);
+        Assert.assertEquals(EXECUTION_PLAN + "\n", otherExecutionPlan.getExecutionPlanText());
+    }
+
+    @Test
+    public void testRuntimesGetTheirOwnCopy() {
+        ParsedExecutionPlan parsedExecutionPlan = ParsedExecutionPlan.parse(EXECUTION_PLAN);
+        ExecutionPlan first = parsedExecutionPlan.newExecutionPlan();
+        ExecutionPlan second = parsedExecutionPlan.newExecutionPlan();
+
+        Assert.assertNotSame(parsedExecutionPlan.getExecutionPlan(), first);
+        Assert.assertNotSame(first, second);
+        Assert.assertEquals(parsedExecutionPlan.getExecutionPlan().getStreamDefinitionMap(),
+                first.getStreamDefinitionMap());
+        Assert.assertEquals(parsedExecutionPlan.getExecutionPlan().getExecutionElementList(),
+                first.getExecutionElementList());
+    }
+}
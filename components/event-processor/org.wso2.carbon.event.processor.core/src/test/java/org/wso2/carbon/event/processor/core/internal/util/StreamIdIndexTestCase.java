@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wso2.carbon.event.processor.core.internal.util;
+
+import junit.framework.Assert;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class StreamIdIndexTestCase {
+    private static final Log log = LogFactory.getLog(StreamIdIndexTestCase.class);
+
+    @Test
+    public void testValuesInInsertionOrder() {
+        StreamIdIndex<String> index = new StreamIdIndex<String>();
+        index.add(-1234, "stock:1.0.0", "planB");
+        index.add(-1234, "stock:1.0.0", "planA");
+        index.add(-1234, "stock:1.0.0", "planB");
+        index.add(-1234, "quote:1.0.0", "planC");
+
+        Assert.assertEquals(Arrays.asList("planB", "planA"), index.get(-1234, "stock:1.0.0"));
+        Assert.assertEquals(Arrays.asList("planC"), index.get(-1234, "quote:1.0.0"));
+        Assert.assertEquals(Collections.emptyList(), index.get(-1234, "unknown:1.0.0"));
+    }
+
+    @Test
+    public void testTenantIsolation() {
+        StreamIdIndex<String> index = new StreamIdIndex<String>();
+        index.add(1, "stock:1.0.0", "plan");
+        Assert.assertEquals(Arrays.asList("plan"), index.get(1, "stock:1.0.0"));
+        Assert.assertEquals(Collections.emptyList(), index.get(2, "stock:1.0.0"));
+    }
+
+    @Test
+    public void testRemove() {
+        StreamIdIndex<String> index = new StreamIdIndex<String>();
+        index.add(-1234, "stock:1.0.0", "planA");
+        index.add(-1234, "stock:1.0.0", "planB");
+
+        index.remove(-1234, "stock:1.0.0", "planA");
+        Assert.assertEquals(Arrays.asList("planB"), index.get(-1234, "stock:1.0.0"));
+        index.remove(-1234, "stock:1.0.0", "planB");
+        Assert.assertEquals(Collections.emptyList(), index.get(-1234, "stock:1.0.0"));
+        // removing unknown values has no effect
+        index.remove(-1234, "stock:1.0.0", "planB");
+        index.remove(5, "stock:1.0.0", "planB");
+    }
+
+    @Test
+    public void testReturnedListIsACopy() {
+        StreamIdIndex<String> index = new StreamIdIndex<String>();
+        index.add(-1234, "stock:1.0.0", "planA");
+        List<String> values = index.get(-1234, "stock:1.0.0");
+        index.add(-1234, "stock:1.0.0", "planB");
+        values.add("planC");
+        Assert.assertEquals(Arrays.asList("planA", "planC"), values);
+        Assert.assertEquals(Arrays.asList("planA", "planB"), index.get(-1234, "stock:1.0.0"));
+    }
+}